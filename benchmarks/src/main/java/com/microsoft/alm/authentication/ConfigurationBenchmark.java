@@ -0,0 +1,147 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConfigurationBenchmark
+{
+    /**
+     * A git config resembling that of a developer working with many repositories hosted in
+     * many VSTS accounts, since a global config that includes other files or a config with
+     * a lot of remotes can easily grow to thousands of lines.
+     */
+    @State(Scope.Benchmark)
+    public static class ConfigState
+    {
+        @Param({"10", "100", "1000"})
+        public int accounts;
+
+        String contents;
+        Configuration configuration;
+
+        @Setup public void setUp() throws IOException
+        {
+            contents = createConfig(accounts);
+            configuration = new Configuration(new BufferedReader(new StringReader(contents)));
+        }
+    }
+
+    /**
+     * A target whose host has the specified number of sub-domains in front of
+     * visualstudio.com, such that looking up the entries configured for visualstudio.com
+     * strips them one at a time.
+     */
+    @State(Scope.Benchmark)
+    public static class TargetState
+    {
+        @Param({"1", "4", "8"})
+        public int subDomains;
+
+        URI targetUri;
+
+        @Setup public void setUp()
+        {
+            final StringBuilder sb = new StringBuilder("https://");
+            for (int i = 0; i < subDomains; i++)
+            {
+                sb.append("level").append(i).append(".");
+            }
+            sb.append("visualstudio.com/DefaultCollection/_git/repository");
+            targetUri = URI.create(sb.toString());
+        }
+    }
+
+    @Benchmark public Map<String, String> parseGitConfig(final ConfigState configState) throws IOException
+    {
+        final Map<String, String> destination = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        final BufferedReader reader = new BufferedReader(new StringReader(configState.contents));
+        Configuration.parseGitConfig(reader, destination);
+        return destination;
+    }
+
+    @Benchmark public Map<String, String> parseGitConfig_regex(final ConfigState configState) throws IOException
+    {
+        final Map<String, String> destination = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        final BufferedReader reader = new BufferedReader(new StringReader(configState.contents));
+        RegexGitConfigParser.parseGitConfig(reader, destination);
+        return destination;
+    }
+
+    @Benchmark public Configuration.Entry tryGetEntry(final ConfigState configState, final TargetState targetState)
+    {
+        final AtomicReference<Configuration.Entry> entry = new AtomicReference<Configuration.Entry>();
+        configState.configuration.tryGetEntry("credential", targetState.targetUri, "authority", entry);
+        return entry.get();
+    }
+
+    @Benchmark public Configuration.Settings resolve(final ConfigState configState, final TargetState targetState)
+    {
+        return configState.configuration.resolve("credential", targetState.targetUri);
+    }
+
+    static String createConfig(final int accounts)
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# This is Git's per-user configuration file.\n");
+        sb.append("[core]\n");
+        sb.append("\trepositoryformatversion = 0\n");
+        sb.append("\tfilemode = true\n");
+        sb.append("\tbare = false\n");
+        sb.append("\tlogallrefupdates = true\n");
+        sb.append("\tautocrlf = input\n");
+        sb.append("[user]\n");
+        sb.append("\tname = J. Travolta\n");
+        sb.append("\temail = j.travolta@example.com\n");
+        sb.append("[alias]\n");
+        sb.append("\tco = checkout\n");
+        sb.append("\tlg = \"log --graph --pretty=format:'%h %s' --abbrev-commit\"\n");
+        sb.append("; credentials for all of VSTS, unless overridden below\n");
+        sb.append("[credential \"visualstudio.com\"]\n");
+        sb.append("\tauthority = MSA\n");
+        for (int i = 0; i < accounts; i++)
+        {
+            final String account = "account" + i;
+            sb.append("[remote \"").append(account).append("\"]\n");
+            sb.append("\turl = https://").append(account).append(".visualstudio.com/DefaultCollection/_git/repository").append(i).append("\n");
+            sb.append("\tfetch = +refs/heads/*:refs/remotes/").append(account).append("/*\n");
+            sb.append("[branch \"feature/").append(account).append("\"]\n");
+            sb.append("\tremote = ").append(account).append("\n");
+            sb.append("\tmerge = refs/heads/feature/").append(account).append("\n");
+            sb.append("\n");
+            sb.append("[credential \"https://").append(account).append(".visualstudio.com\"]\n");
+            sb.append("\tauthority = AAD\n");
+            sb.append("\t# the build agents can't show a browser\n");
+            sb.append("\tinteractive = never\n");
+        }
+        sb.append("[credential]\n");
+        sb.append("\thelper = !/usr/bin/java -Ddebug=false -Djava.net.useSystemProxies=true -jar /usr/lib/git-credential-manager.jar\n");
+        sb.append("\tvalidate = false\n");
+        return sb.toString();
+    }
+}
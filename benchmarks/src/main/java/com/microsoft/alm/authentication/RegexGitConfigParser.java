@@ -0,0 +1,115 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.StringHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression-based parser that {@link GitConfigTokenizer} replaced, kept as the
+ * baseline of {@link ConfigurationBenchmark}.
+ */
+class RegexGitConfigParser
+{
+    private static final Pattern CommentLinePattern = Pattern.compile
+    (
+    //   ^\s*[#;]
+        "^\\s*[#;]"
+    );
+    private static final Pattern SectionNamePattern = Pattern.compile
+    (
+    //   ^\s*\[\s*(\w+)\s*(\"[^\"]+\"){0,1}\]
+        "^\\s*\\[\\s*(\\w+)\\s*(\\\"[^\\]]+){0,1}\\]"
+    );
+    private static final Pattern NameValuePattern = Pattern.compile
+    (
+    //   ^\s*(\w+)\s*=\s*(.+)
+        "^\\s*(\\w+)\\s*=\\s*(.+)"
+    );
+
+    private static final char HostSplitCharacter = '.';
+
+    static void parseGitConfig(final BufferedReader configReader, final Map<String, String> destination) throws IOException
+    {
+        Matcher match = null;
+        String section = null;
+
+        // parse each line in the config independently - Git's configs do not accept multi-line values
+        String line;
+        while ((line = configReader.readLine()) != null)
+        {
+            // skip empty and commented lines
+            if (StringHelper.isNullOrWhiteSpace(line))
+                continue;
+            if (CommentLinePattern.matcher(line).matches())
+                continue;
+
+            // sections begin with values like [section] or [section "section name"]. All subsequent lines,
+            // until a new section is encountered, are children of the section
+            if ((match = SectionNamePattern.matcher(line)).matches())
+            {
+                // NOTE: in Java, match.groupCount() is one less than .NET's match.Groups.Count
+                if (match.groupCount() >= 1 && !StringHelper.isNullOrWhiteSpace(match.group(1)))
+                {
+                    section = match.group(1).trim();
+
+                    // check if the section is named, if so: process the name
+                    if (match.groupCount() >= 2 && !StringHelper.isNullOrWhiteSpace(match.group(2)))
+                    {
+                        String val = match.group(2).trim();
+
+                        // triming off enclosing quotes makes usage easier, only trim in pairs
+                        if (val.charAt(0) == '"')
+                        {
+                            // NOTE: Java: substring(beginIndex, endIndex), .NET: Substring(startIndex, length)
+                            if (val.charAt(val.length() - 1) == '"')
+                            {
+                                val = val.substring(1, val.length() - 1);
+                            }
+                            else
+                            {
+                                val = val.substring(1, val.length() - 0);
+                            }
+                        }
+
+                        section += HostSplitCharacter + val;
+                    }
+                }
+            }
+            // section children should be in the format of name = value pairs
+            else if ((match = NameValuePattern.matcher(line)).matches())
+            {
+                if (match.groupCount() >= 2
+                    && !StringHelper.isNullOrWhiteSpace(match.group(1))
+                    && !StringHelper.isNullOrWhiteSpace(match.group(2)))
+                {
+                    final String key = section + HostSplitCharacter + match.group(1).trim();
+                    String val = match.group(2).trim();
+
+                    // triming off enclosing quotes makes usage easier, only trim in pairs
+                    if (val.charAt(0) == '"')
+                    {
+                        // NOTE: Java: substring(beginIndex, endIndex), .NET: Substring(startIndex, length)
+                        if (val.charAt(val.length() - 1) == '"')
+                        {
+                            val = val.substring(1, val.length() - 1);
+                        }
+                        else
+                        {
+                            val = val.substring(1, val.length() - 0);
+                        }
+                    }
+
+                    // add or update the (key, value)
+                    destination.put(key, val);
+                }
+            }
+        }
+    }
+}
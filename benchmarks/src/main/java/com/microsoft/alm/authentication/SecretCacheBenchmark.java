@@ -0,0 +1,109 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.secret.Credential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads from and writes to a {@link SecretCache} from several threads at once, to measure
+ * what the locking that keeps its process-wide entries consistent costs under contention.
+ * The credential daemon serves one request at a time, so this is the worst case rather than
+ * the common one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Group)
+public class SecretCacheBenchmark
+{
+    private static final int TargetCount = 1024;
+
+    private SecretCache secretCache;
+    private URI[] targetUris;
+    private Credential credential;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int next;
+
+        int next()
+        {
+            next = (next + 1) % TargetCount;
+            return next;
+        }
+    }
+
+    @Setup public void setUp()
+    {
+        secretCache = new SecretCache("benchmark");
+        targetUris = new URI[TargetCount];
+        credential = new Credential("j.travolta", "swordfish");
+        for (int i = 0; i < TargetCount; i++)
+        {
+            targetUris[i] = URI.create("https://account" + i + ".visualstudio.com");
+            secretCache.writeCredentials(targetUris[i], credential);
+        }
+    }
+
+    @Benchmark @Group("readOnly") @GroupThreads(4)
+    public Credential readOnly_read(final Cursor cursor)
+    {
+        return read(cursor);
+    }
+
+    @Benchmark @Group("readMostly") @GroupThreads(3)
+    public Credential readMostly_read(final Cursor cursor)
+    {
+        return read(cursor);
+    }
+
+    @Benchmark @Group("readMostly") @GroupThreads(1)
+    public void readMostly_write(final Cursor cursor)
+    {
+        write(cursor);
+    }
+
+    @Benchmark @Group("readWrite") @GroupThreads(2)
+    public Credential readWrite_read(final Cursor cursor)
+    {
+        return read(cursor);
+    }
+
+    @Benchmark @Group("readWrite") @GroupThreads(2)
+    public void readWrite_write(final Cursor cursor)
+    {
+        write(cursor);
+    }
+
+    private Credential read(final Cursor cursor)
+    {
+        final AtomicReference<Credential> result = new AtomicReference<Credential>();
+        secretCache.readCredentials(targetUris[cursor.next()], result);
+        return result.get();
+    }
+
+    private void write(final Cursor cursor)
+    {
+        secretCache.writeCredentials(targetUris[cursor.next()], credential);
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.secret.Secret;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts targets to the names of the secrets stored for them, which happens for every
+ * read, write and deletion of a secret.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UriNameConversionBenchmark
+{
+    private static final String Namespace = "git";
+    private static final URI TargetUri = URI.create("https://account.visualstudio.com");
+    private static final URI TargetUriWithPath = URI.create("https://account.visualstudio.com:443/DefaultCollection/_git/repository");
+    private static final Secret.IUriNameConversion DefaultConversion = Secret.DefaultUriNameConversion;
+    // the conversion used on Mac OS X
+    private static final Secret.IUriNameConversion PrefixedConversion = new Secret.PrefixedUriNameConversion("gcm4ml:");
+
+    @Benchmark public String defaultConversion()
+    {
+        return DefaultConversion.convert(TargetUri, Namespace);
+    }
+
+    @Benchmark public String defaultConversion_withPath()
+    {
+        return DefaultConversion.convert(TargetUriWithPath, Namespace);
+    }
+
+    @Benchmark public String prefixedConversion()
+    {
+        return PrefixedConversion.convert(TargetUri, Namespace);
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.secret.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses responses shaped like those of the sessiontokens and connectiondata end-points.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VsoAzureAuthorityBenchmark
+{
+    // the token comes after most of the other properties
+    static final String SessionTokenResponse = "{" +
+        "\"clientId\":\"00000000-0000-0000-0000-000000000000\"," +
+        "\"accessId\":\"4b1e6f7c-2d3a-4e5f-8a9b-0c1d2e3f4a5b\"," +
+        "\"authorizationId\":\"9c8d7e6f-5a4b-4c3d-8e2f-1a0b9c8d7e6f\"," +
+        "\"hostAuthorizationId\":\"00000000-0000-0000-0000-000000000000\"," +
+        "\"userId\":\"7a6b5c4d-3e2f-4a1b-9c8d-7e6f5a4b3c2d\"," +
+        "\"validFrom\":\"2016-06-29T19:17:34.3133333Z\"," +
+        "\"validTo\":\"2017-06-29T19:17:34.3133333Z\"," +
+        "\"displayName\":\"Git: https://account.visualstudio.com/ on EXAMPLE-MACHINE\"," +
+        "\"scope\":\"vso.code_write vso.packaging\"," +
+        "\"targetAccounts\":[\"5e4d3c2b-1a0f-4e9d-8c7b-6a5f4e3d2c1b\"]," +
+        "\"token\":\"fv5bb4oaw7rlfvlyddhwnb6bs4chycndvsoqcxmulxsjjlfmrvyq\"," +
+        "\"alternateToken\":null," +
+        "\"isValid\":true," +
+        "\"isPublic\":false," +
+        "\"publicData\":null," +
+        "\"source\":null" +
+        "}";
+    static final String ConnectionDataResponse = "{" +
+        "\"authenticatedUser\":{\"id\":\"7a6b5c4d-3e2f-4a1b-9c8d-7e6f5a4b3c2d\",\"descriptor\":\"Microsoft.IdentityModel.Claims.ClaimsIdentity;j.travolta@example.com\",\"providerDisplayName\":\"J. Travolta\",\"isActive\":true,\"properties\":{}}," +
+        "\"authorizedUser\":{\"id\":\"7a6b5c4d-3e2f-4a1b-9c8d-7e6f5a4b3c2d\",\"descriptor\":\"Microsoft.IdentityModel.Claims.ClaimsIdentity;j.travolta@example.com\",\"providerDisplayName\":\"J. Travolta\",\"isActive\":true,\"properties\":{}}," +
+        "\"instanceId\":\"5e4d3c2b-1a0f-4e9d-8c7b-6a5f4e3d2c1b\"," +
+        "\"deploymentId\":\"1f2e3d4c-5b6a-4978-8695-a4b3c2d1e0f9\"," +
+        "\"deploymentType\":\"hosted\"," +
+        "\"locationServiceData\":{\"serviceOwner\":\"00025394-6065-48ca-87d9-7f5672854ef7\",\"defaultAccessMappingMoniker\":\"PublicAccessMapping\",\"lastChangeId\":123456789,\"lastChangeId64\":123456789}" +
+        "}";
+
+    @Benchmark public Token parsePersonalAccessTokenFromJson()
+    {
+        return VsoAzureAuthority.parsePersonalAccessTokenFromJson(SessionTokenResponse);
+    }
+
+    @Benchmark public String parseInstanceIdFromJson()
+    {
+        return VsoAzureAuthority.parseInstanceIdFromJson(ConnectionDataResponse);
+    }
+}
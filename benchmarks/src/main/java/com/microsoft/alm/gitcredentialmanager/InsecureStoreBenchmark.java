@@ -0,0 +1,74 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.secret.Credential;
+import com.microsoft.alm.secret.Token;
+import com.microsoft.alm.secret.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes an insecureStore.xml file with as many entries as the
+ * largest ones we've seen, half of them credentials and half of them tokens.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class InsecureStoreBenchmark
+{
+    @Param({"100", "10000"})
+    public int entries;
+
+    private InsecureStore insecureStore;
+    private byte[] xml;
+
+    @Setup public void setUp()
+    {
+        insecureStore = new InsecureStore(null);
+        for (int i = 0; i < entries; i++)
+        {
+            final String targetName = "git:https://account" + i + ".visualstudio.com";
+            if (i % 2 == 0)
+            {
+                insecureStore.writeCredential(targetName, new Credential("Personal Access Token", "fv5bb4oaw7rlfvlyddhwnb6bs4chycndvsoqcxmulxsjjlfmrvyq" + i));
+            }
+            else
+            {
+                insecureStore.writeToken(targetName, new Token("eyJ0eXAiOiJKV1QiLCJhbGciOiJSUzI1NiJ9.refresh." + i, TokenType.Refresh));
+            }
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        insecureStore.toXml(outputStream);
+        xml = outputStream.toByteArray();
+    }
+
+    @Benchmark public byte[] toXml()
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(xml.length);
+        insecureStore.toXml(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark public InsecureStore fromXml()
+    {
+        return InsecureStore.fromXml(new ByteArrayInputStream(xml));
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the request git sends on stdin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OperationArgumentsBenchmark
+{
+    private static final String GetRequest = "protocol=https\n" +
+        "host=account.visualstudio.com\n" +
+        "path=DefaultCollection/_git/repository\n" +
+        "\n";
+    private static final String StoreRequest = "protocol=https\n" +
+        "host=account.visualstudio.com\n" +
+        "path=DefaultCollection/_git/repository\n" +
+        "username=Personal Access Token\n" +
+        "password=fv5bb4oaw7rlfvlyddhwnb6bs4chycndvsoqcxmulxsjjlfmrvyq\n" +
+        "\n";
+
+    @Benchmark public OperationArguments parseGetRequest() throws IOException, URISyntaxException
+    {
+        return new OperationArguments(new BufferedReader(new StringReader(GetRequest)));
+    }
+
+    @Benchmark public OperationArguments parseStoreRequest() throws IOException, URISyntaxException
+    {
+        return new OperationArguments(new BufferedReader(new StringReader(StoreRequest)));
+    }
+}
@@ -0,0 +1,232 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.Guid;
+import com.microsoft.alm.helpers.StringHelper;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers, per host, the authority {@link BaseVsoAuthentication#detectAuthority(URI, AtomicReference)}
+ * found, such that the request it sends isn't repeated for every operation.  The hosts backed by
+ * an Azure Directory tenant or a Microsoft Account are remembered for {@link #DefaultTimeToLive};
+ * the ones that turned out not to be, i.e. that need basic authentication, for the shorter
+ * {@link #DefaultNegativeTimeToLive}.  An entry should be {@link #invalidate(URI) invalidated}
+ * when authenticating against the host fails, since it might have been moved to another
+ * authority.
+ */
+public class AuthorityCache
+{
+    /**
+     * How long a Visual Studio Team Services host is remembered: one week.
+     */
+    public static final long DefaultTimeToLive = 7L * 24 * 60 * 60 * 1000;
+    /**
+     * How long a host that isn't backed by Azure or MSA is remembered: one hour.
+     */
+    public static final long DefaultNegativeTimeToLive = 60L * 60 * 1000;
+
+    private static final String TenantSuffix = ".tenant";
+    private static final String DetectedSuffix = ".detected";
+
+    private final File file;
+    private final long timeToLive;
+    private final long negativeTimeToLive;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger invalidations = new AtomicInteger();
+
+    public AuthorityCache(final File file)
+    {
+        this(file, DefaultTimeToLive, DefaultNegativeTimeToLive);
+    }
+
+    public AuthorityCache(final File file, final long timeToLive, final long negativeTimeToLive)
+    {
+        this.file = file;
+        this.timeToLive = timeToLive;
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    /**
+     * Detects the backing authority of the end-point, unless it was detected recently.
+     *
+     * @param targetUri The resource which the authority protects.
+     * @param tenantId  The identity of the authority tenant; {@link Guid#Empty} for a
+     *                  Microsoft Account.
+     * @return True if the authority is Visual Studio Online; false otherwise.
+     */
+    public boolean detectAuthority(final URI targetUri, final AtomicReference<UUID> tenantId)
+    {
+        return detectAuthority(targetUri, tenantId, Deadline.None);
+    }
+
+    /**
+     * Detects the backing authority of the end-point, unless it was detected recently.
+     *
+     * @param targetUri The resource which the authority protects.
+     * @param tenantId  The identity of the authority tenant; {@link Guid#Empty} for a
+     *                  Microsoft Account.
+     * @param deadline  When the operation the detection is part of has to be done.
+     * @return True if the authority is Visual Studio Online; false otherwise.
+     */
+    public boolean detectAuthority(final URI targetUri, final AtomicReference<UUID> tenantId, final Deadline deadline)
+    {
+        Trace.writeLine("AuthorityCache::detectAuthority");
+
+        final String host = targetUri.getHost();
+        // other hosts are told apart by name alone, without a request
+        if (host == null || !BaseVsoAuthentication.isVsoHost(targetUri))
+            return detect(targetUri, tenantId, deadline);
+
+        final String key = host.toLowerCase(Locale.ENGLISH);
+        final long now = now();
+        final Properties properties = PropertiesFile.load(file);
+        final Boolean cached = properties == null ? null : tryGet(properties, key, now, tenantId);
+        if (cached != null)
+        {
+            hits.incrementAndGet();
+            Trace.writeLine("   cached tenant = " + (cached ? tenantId.get() : "none"));
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        final boolean result = detect(targetUri, tenantId, deadline);
+        final String tenant = result ? tenantId.get().toString() : StringHelper.Empty;
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                removeExpired(properties, now);
+                properties.setProperty(key + TenantSuffix, tenant);
+                properties.setProperty(key + DetectedSuffix, String.valueOf(now));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param targetUri The resource which the authority protects.
+     * @return True if the authority of the target's host was detected recently, such that
+     * {@link #detectAuthority(URI, AtomicReference, Deadline)} won't send a request; false otherwise.
+     */
+    public boolean isDetected(final URI targetUri)
+    {
+        final String host = targetUri.getHost();
+        if (host == null || !BaseVsoAuthentication.isVsoHost(targetUri))
+            return false;
+        final Properties properties = PropertiesFile.load(file);
+        return properties != null
+            && tryGet(properties, host.toLowerCase(Locale.ENGLISH), now(), new AtomicReference<UUID>()) != null;
+    }
+
+    /**
+     * Forgets the authority of the target's host, such that it's detected again next time.
+     *
+     * @param targetUri The resource for which authentication failed.
+     */
+    public void invalidate(final URI targetUri)
+    {
+        final String host = targetUri.getHost();
+        if (host == null)
+            return;
+
+        final String key = host.toLowerCase(Locale.ENGLISH);
+        final Properties current = PropertiesFile.load(file);
+        if (current == null || !current.containsKey(key + TenantSuffix))
+            return;
+
+        Trace.writeLine("AuthorityCache::invalidate");
+        invalidations.incrementAndGet();
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                properties.remove(key + TenantSuffix);
+                properties.remove(key + DetectedSuffix);
+            }
+        });
+    }
+
+    /**
+     * @return the hits, misses and invalidations of this instance, as well as the number of
+     * hosts in the file.
+     */
+    public String getStatistics()
+    {
+        final Properties properties = PropertiesFile.load(file);
+        final int entries = properties == null ? 0 : properties.size() / 2;
+        return "hits = " + hits.get()
+            + ", misses = " + misses.get()
+            + ", invalidations = " + invalidations.get()
+            + ", hosts = " + entries;
+    }
+
+    boolean detect(final URI targetUri, final AtomicReference<UUID> tenantId, final Deadline deadline)
+    {
+        return BaseVsoAuthentication.detectAuthority(targetUri, tenantId, deadline);
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return what {@link #detect(URI, AtomicReference, Deadline)} returned, or {@code null} if the host
+     * wasn't detected or has expired.
+     */
+    private Boolean tryGet(final Properties properties, final String key, final long now, final AtomicReference<UUID> tenantId)
+    {
+        final String tenant = properties.getProperty(key + TenantSuffix);
+        final long detected = PropertiesFile.parseLong(properties.getProperty(key + DetectedSuffix));
+        if (tenant == null || isExpired(tenant, detected, now))
+            return null;
+        if (tenant.length() == 0)
+        {
+            tenantId.set(Guid.Empty);
+            return false;
+        }
+        return Guid.tryParse(tenant, tenantId) ? Boolean.TRUE : null;
+    }
+
+    private void removeExpired(final Properties properties, final long now)
+    {
+        final List<String> expired = new ArrayList<String>();
+        for (final String name : properties.stringPropertyNames())
+        {
+            if (name.endsWith(TenantSuffix))
+            {
+                final String key = name.substring(0, name.length() - TenantSuffix.length());
+                final long detected = PropertiesFile.parseLong(properties.getProperty(key + DetectedSuffix));
+                if (isExpired(properties.getProperty(name), detected, now))
+                {
+                    expired.add(key);
+                }
+            }
+        }
+        for (final String key : expired)
+        {
+            properties.remove(key + TenantSuffix);
+            properties.remove(key + DetectedSuffix);
+        }
+    }
+
+    private boolean isExpired(final String tenant, final long detected, final long now)
+    {
+        final long ttl = tenant.length() == 0 ? negativeTimeToLive : timeToLive;
+        return !PropertiesFile.isWithin(detected, now, ttl);
+    }
+}
@@ -9,6 +9,7 @@ import com.microsoft.alm.helpers.Guid;
 import com.microsoft.alm.helpers.HttpClient;
 import com.microsoft.alm.helpers.NotImplementedException;
 import com.microsoft.alm.helpers.ObjectExtensions;
+import com.microsoft.alm.helpers.PropertyBag;
 import com.microsoft.alm.helpers.QueryString;
 import com.microsoft.alm.helpers.StringContent;
 import com.microsoft.alm.helpers.StringHelper;
@@ -27,6 +28,7 @@ import com.microsoft.alm.secret.TokenType;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
@@ -59,18 +61,36 @@ class AzureAuthority implements IAzureAuthority
      */
     public AzureAuthority(final String authorityHostUrl)
     {
-        this(authorityHostUrl, new UserAgentImpl(), new AzureDeviceFlow());
+        this(authorityHostUrl, HttpClientFactory.Default);
+    }
+
+    /**
+     * Creates a new {@link AzureAuthority} with an authority host url.
+     *
+     * @param authorityHostUrl  Non-default authority host url.
+     * @param httpClientFactory Creates the clients for the requests to the authority.
+     */
+    public AzureAuthority(final String authorityHostUrl, final HttpClientFactory httpClientFactory)
+    {
+        this(authorityHostUrl, new UserAgentImpl(), new AzureDeviceFlow(httpClientFactory), httpClientFactory);
     }
 
     AzureAuthority(final String authorityHostUrl, final UserAgent userAgent, final AzureDeviceFlow azureDeviceFlow)
+    {
+        this(authorityHostUrl, userAgent, azureDeviceFlow, HttpClientFactory.Default);
+    }
+
+    AzureAuthority(final String authorityHostUrl, final UserAgent userAgent, final AzureDeviceFlow azureDeviceFlow, final HttpClientFactory httpClientFactory)
     {
         Debug.Assert(UriHelper.isWellFormedUriString(authorityHostUrl), "The authorityHostUrl parameter is invalid.");
         Debug.Assert(userAgent != null, "The userAgent parameter is null.");
+        Debug.Assert(httpClientFactory != null, "The httpClientFactory parameter is null.");
 
         this.authorityHostUrl = authorityHostUrl;
         _adalTokenCache = /* TODO: 449201: consider new InsecureStore("adalTokenCache.xml");*/null;
         _userAgent = userAgent;
         _azureDeviceFlow = azureDeviceFlow;
+        this.httpClientFactory = httpClientFactory;
     }
 
     private final VsoAdalTokenCache _adalTokenCache;
@@ -78,11 +98,28 @@ class AzureAuthority implements IAzureAuthority
     private final AzureDeviceFlow _azureDeviceFlow;
 
     protected String authorityHostUrl;
+    protected final HttpClientFactory httpClientFactory;
+    protected Deadline deadline = Deadline.None;
     /**
      * The URL used to interact with the Azure identity service.
      */
     public String getAuthorityHostUrl() { return authorityHostUrl; }
 
+    /**
+     * Bounds the requests to the authority, including those of the device flow, by the
+     * deadline of the operation they're part of.
+     *
+     * @param deadline When the operation has to be done.
+     */
+    public void setDeadline(final Deadline deadline)
+    {
+        this.deadline = deadline;
+        if (_azureDeviceFlow != null)
+        {
+            _azureDeviceFlow.setDeadline(deadline);
+        }
+    }
+
     /**
      * Acquires a {@link TokenPair} from the authority via an interactive user logon
      * prompt.
@@ -118,7 +155,7 @@ class AzureAuthority implements IAzureAuthority
             return tokens;
         }
 
-        final HttpClient client = new HttpClient(Global.getUserAgent());
+        final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
         try
         {
             final URI tokenEndpoint = createTokenEndpointUri(authorityHostUrl);
@@ -131,13 +168,17 @@ class AzureAuthority implements IAzureAuthority
                 }
             });
             client.ensureOK(connection);
-            final String responseContent = HttpClient.readToString(connection);
-            tokens = new TokenPair(responseContent);
+            tokens = new TokenPair(JsonFieldReader.read(connection.getInputStream()));
 
             // TODO: 449201: store access + refresh tokens to _adalTokenCache
 
             Trace.writeLine("   token acquisition succeeded.");
         }
+        catch (final SocketTimeoutException e)
+        {
+            // let the caller fall back to the next way of obtaining tokens
+            Trace.writeLine("   token acquisition timed out: ", e);
+        }
         catch (final IOException e)
         {
             throw new Error("   token acquisition failed.", e);
@@ -176,7 +217,13 @@ class AzureAuthority implements IAzureAuthority
         final URI deviceEndpoint = URI.create(sb.toString());
         final DeviceFlowResponse response = _azureDeviceFlow.requestAuthorization(deviceEndpoint, clientId, null);
 
+        // the callback can cancel the device flow through the response, right away or later on
         callback.call(response);
+        if (response.isCancelled())
+        {
+            Trace.writeLine("   device flow cancelled.");
+            return null;
+        }
 
         TokenPair tokens = null;
         final URI tokenEndpoint = createTokenEndpointUri(authorityHostUrl);
@@ -204,7 +251,52 @@ class AzureAuthority implements IAzureAuthority
      */
     public TokenPair acquireTokenByRefreshToken(final URI targetUri, final String clientId, final String resource, final Token refreshToken)
     {
-        throw new NotImplementedException(449243);
+        Debug.Assert(targetUri != null && targetUri.isAbsolute(), "The targetUri parameter is null or invalid");
+        Debug.Assert(!StringHelper.isNullOrWhiteSpace(clientId), "The clientId parameter is null or empty");
+        Debug.Assert(!StringHelper.isNullOrWhiteSpace(resource), "The resource parameter is null or empty");
+        Debug.Assert(refreshToken != null && refreshToken.Type == TokenType.Refresh, "The refreshToken parameter is null or invalid");
+
+        Trace.writeLine("AzureAuthority::acquireTokenByRefreshToken");
+
+        final UUID correlationId = null;
+        final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
+        try
+        {
+            final URI tokenEndpoint = createTokenEndpointUri(authorityHostUrl);
+            final StringContent requestContent = createRefreshTokenRequest(resource, clientId, refreshToken.Value, correlationId);
+            final HttpURLConnection connection = client.post(tokenEndpoint, requestContent, new Action<HttpURLConnection>()
+            {
+                @Override public void call(final HttpURLConnection conn)
+                {
+                    conn.setUseCaches(false);
+                }
+            });
+            final int statusCode = connection.getResponseCode();
+            if (statusCode != HttpURLConnection.HTTP_OK)
+            {
+                // the refresh token expired or was revoked, which only another logon can fix
+                Trace.writeLine("   token endpoint returned: " + statusCode);
+                HttpClientFactory.release(connection);
+                return null;
+            }
+
+            final PropertyBag responseProperties = JsonFieldReader.read(connection.getInputStream());
+            if (!responseProperties.containsKey(OAuthParameter.REFRESH_TOKEN))
+            {
+                // the authority didn't rotate the refresh token, so the current one stays valid
+                responseProperties.put(OAuthParameter.REFRESH_TOKEN, refreshToken.Value);
+            }
+            final TokenPair tokens = new TokenPair(responseProperties);
+
+            Trace.writeLine("   token acquisition succeeded.");
+            return tokens;
+        }
+        catch (final IOException e)
+        {
+            // let the caller fall back to a logon
+            Trace.writeLine("   token acquisition failed: ", e);
+            return null;
+        }
     }
 
     String acquireAuthorizationCode(final String resource, final String clientId, final URI redirectUri, final String queryParameters)
@@ -332,6 +424,22 @@ class AzureAuthority implements IAzureAuthority
         return result;
     }
 
+    static StringContent createRefreshTokenRequest(final String resource, final String clientId, final String refreshToken, final UUID correlationId)
+    {
+        final QueryString qs = new QueryString();
+        qs.put(OAuthParameter.RESOURCE, resource);
+        qs.put(OAuthParameter.CLIENT_ID, clientId);
+        qs.put(OAuthParameter.GRANT_TYPE, OAuthParameter.REFRESH_TOKEN);
+        qs.put(OAuthParameter.REFRESH_TOKEN, refreshToken);
+        if (correlationId != null && !Guid.Empty.equals(correlationId))
+        {
+            qs.put(OAuthParameter.CORRELATION_ID, correlationId.toString());
+            qs.put(OAuthParameter.REQUEST_CORRELATION_ID_IN_RESPONSE, "true");
+        }
+        final StringContent result = StringContent.createUrlEncoded(qs);
+        return result;
+    }
+
     public static String getAuthorityUrl(final UUID tenantId)
     {
         return String.format("%1$s/%2$s", AuthorityHostUrlBase, tenantId.toString());
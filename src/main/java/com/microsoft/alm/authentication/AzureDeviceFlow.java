@@ -3,6 +3,7 @@
 
 package com.microsoft.alm.authentication;
 
+import com.microsoft.alm.helpers.PropertyBag;
 import com.microsoft.alm.helpers.QueryString;
 
 import java.net.URI;
@@ -12,6 +13,16 @@ public class AzureDeviceFlow extends DeviceFlowImpl
     private String resource;
     private URI redirectUri;
 
+    public AzureDeviceFlow()
+    {
+        this(HttpClientFactory.Default);
+    }
+
+    public AzureDeviceFlow(final HttpClientFactory httpClientFactory)
+    {
+        super(httpClientFactory);
+    }
+
     public String getResource()
     {
         return resource;
@@ -47,8 +58,8 @@ public class AzureDeviceFlow extends DeviceFlowImpl
     }
 
     @Override
-    protected DeviceFlowResponse buildDeviceFlowResponse(final String responseText)
+    protected DeviceFlowResponse buildDeviceFlowResponse(final PropertyBag responseProperties)
     {
-        return AzureDeviceFlowResponse.fromJson(responseText);
+        return AzureDeviceFlowResponse.fromPropertyBag(responseProperties);
     }
 }
@@ -27,6 +27,10 @@ public class AzureDeviceFlowResponse extends DeviceFlowResponse
 
     public static AzureDeviceFlowResponse fromJson(final String jsonText) {
         final PropertyBag bag = PropertyBag.fromJson(jsonText);
+        return fromPropertyBag(bag);
+    }
+
+    public static AzureDeviceFlowResponse fromPropertyBag(final PropertyBag bag) {
         final String deviceCode = (String) bag.get(OAuthParameter.DEVICE_CODE);
         final String userCode = (String) bag.get(OAuthParameter.USER_CODE);
         final String verificationUriString = (String) bag.get(VERIFICATION_URL);
@@ -16,6 +16,7 @@ import com.microsoft.alm.secret.VsoTokenScope;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
@@ -59,7 +60,8 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
             final ITokenStore adaRefreshTokenStore
     )
     {
-        this(tokenScope, personalAccessTokenStore, new SecretCache("registry"), adaRefreshTokenStore, new VsoAzureAuthority());
+        // the authority (and with it, the HTTP stack) is only created once it's needed
+        this(tokenScope, personalAccessTokenStore, new SecretCache("registry"), adaRefreshTokenStore, null);
     }
     BaseVsoAuthentication(
             final ICredentialStore personalAccessTokenStore,
@@ -92,7 +94,93 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
     ICredentialStore PersonalAccessTokenStore;
     ITokenStore AdaRefreshTokenStore;
     IVsoAuthority VsoAuthority;
+    String AuthorityHostUrl;
     UUID TenantId;
+    private ValidationCache validationCache;
+    private InstanceIdCache instanceIdCache;
+    private RenewalSchedule renewalSchedule;
+    private Deadline deadline = Deadline.None;
+
+    /**
+     * Lets {@link #validateCredentials(URI, Credential)} skip the credentials validated recently.
+     *
+     * @param validationCache Remembers when credentials were last validated; null to always
+     *                        validate them.
+     */
+    public void setValidationCache(final ValidationCache validationCache)
+    {
+        this.validationCache = validationCache;
+    }
+
+    /**
+     * Lets the generation of personal access tokens skip looking up the instance id of the
+     * accounts it was looked up for before.
+     *
+     * @param instanceIdCache Remembers the instance id of the accounts; null to always look
+     *                        it up.
+     */
+    public void setInstanceIdCache(final InstanceIdCache instanceIdCache)
+    {
+        this.instanceIdCache = instanceIdCache;
+        if (this.VsoAuthority instanceof VsoAzureAuthority)
+        {
+            ((VsoAzureAuthority) this.VsoAuthority).setInstanceIdCache(instanceIdCache);
+        }
+    }
+
+    /**
+     * Lets the personal access tokens stored for the targets be renewed before they expire,
+     * instead of when git first asks for them after they did.
+     *
+     * @param renewalSchedule Remembers when the stored personal access tokens expire; null to
+     *                        only renew them when they're found to have expired.
+     */
+    public void setRenewalSchedule(final RenewalSchedule renewalSchedule)
+    {
+        this.renewalSchedule = renewalSchedule;
+        if (this.VsoAuthority instanceof VsoAzureAuthority)
+        {
+            ((VsoAzureAuthority) this.VsoAuthority).setRenewalSchedule(renewalSchedule);
+        }
+    }
+
+    /**
+     * Bounds the requests to the authority by the deadline of the operation they're part of,
+     * such that a hung end-point fails the current step, which lets the operation fall back
+     * to the next one, instead of stalling it.
+     *
+     * @param deadline When the operation has to be done.
+     */
+    public void setDeadline(final Deadline deadline)
+    {
+        this.deadline = deadline;
+        if (this.VsoAuthority != null)
+        {
+            this.VsoAuthority.setDeadline(deadline);
+        }
+    }
+
+    /**
+     * Creates the authority the first time it's needed, such that the operations which only
+     * involve the personal access token store (such as retrieving or deleting credentials)
+     * don't pay for the initialization of the user agent and device flow.
+     *
+     * @return the authority for the {@link #AuthorityHostUrl}, or the default one if it's null.
+     */
+    IVsoAuthority getVsoAuthority()
+    {
+        if (this.VsoAuthority == null)
+        {
+            Trace.writeLine("BaseVsoAuthentication::getVsoAuthority");
+
+            final VsoAzureAuthority authority = new VsoAzureAuthority(this.AuthorityHostUrl);
+            authority.setInstanceIdCache(instanceIdCache);
+            authority.setRenewalSchedule(renewalSchedule);
+            authority.setDeadline(deadline);
+            this.VsoAuthority = authority;
+        }
+        return this.VsoAuthority;
+    }
 
     /**
      * Deletes a set of stored credentials by their target resource.
@@ -105,6 +193,15 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
 
         Trace.writeLine("BaseVsoAuthentication::deleteCredentials");
 
+        if (validationCache != null)
+        {
+            validationCache.invalidate(targetUri);
+        }
+        if (renewalSchedule != null)
+        {
+            renewalSchedule.remove(targetUri);
+        }
+
         AtomicReference<Credential> credentials = new AtomicReference<Credential>();
         AtomicReference<Token> token = new AtomicReference<Token>();
         if (this.PersonalAccessTokenStore.readCredentials(targetUri, credentials))
@@ -161,13 +258,19 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
             // attempt to read from the local store
             if (this.AdaRefreshTokenStore.readToken(targetUri, refreshToken))
             {
-                if ((tokens = this.VsoAuthority.acquireTokenByRefreshToken(targetUri, this.ClientId, this.Resource, refreshToken.get())) !=
+                if ((tokens = getVsoAuthority().acquireTokenByRefreshToken(targetUri, this.ClientId, this.Resource, refreshToken.get())) !=
                         null)
                 {
                     Trace.writeLine("   Azure token found in primary cache.");
 
                     this.TenantId = tokens.AccessToken.getTargetIdentity();
 
+                    // the authority can rotate the refresh token, after which the old one may stop working
+                    if (!refreshToken.get().Value.equals(tokens.RefreshToken.Value))
+                    {
+                        this.storeRefreshToken(targetUri, tokens.RefreshToken);
+                    }
+
                     return this.generatePersonalAccessToken(targetUri, tokens.AccessToken, requireCompactToken);
                 }
             }
@@ -201,7 +304,31 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
     {
         Trace.writeLine("BaseVsoAuthentication::validateCredentials");
 
-        return this.VsoAuthority.validateCredentials(targetUri, credentials);
+        if (validationCache != null && validationCache.isValidated(targetUri, credentials))
+        {
+            Trace.writeLine("   credentials were validated recently");
+            return true;
+        }
+        if (getVsoAuthority().isCircuitOpen(targetUri))
+        {
+            // better credentials that might have expired than none, while the host is unreachable
+            Trace.writeLine("   host is unreachable, credentials are not validated");
+            return true;
+        }
+
+        final boolean result = getVsoAuthority().validateCredentials(targetUri, credentials);
+        if (!result && deadline.hasPassed())
+        {
+            // a validation cut short by the deadline says nothing about the credentials,
+            // which are still better than prompting for new ones when time is up
+            Trace.writeLine("   validation timed out, credentials are not validated");
+            return true;
+        }
+        if (result && validationCache != null)
+        {
+            validationCache.validated(targetUri, credentials);
+        }
+        return result;
     }
 
     /**
@@ -223,7 +350,7 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
         Trace.writeLine("BaseVsoAuthentication::generatePersonalAccessToken");
 
         Token personalAccessToken;
-        if ((personalAccessToken = this.VsoAuthority.generatePersonalAccessToken(targetUri, accessToken, TokenScope, requestCompactToken)) != null)
+        if ((personalAccessToken = getVsoAuthority().generatePersonalAccessToken(targetUri, accessToken, TokenScope, requestCompactToken)) != null)
         {
             this.PersonalAccessTokenStore.writeCredentials(targetUri, Token.toCredential(personalAccessToken));
         }
@@ -248,6 +375,18 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
         this.AdaRefreshTokenStore.writeToken(targetUri, refreshToken);
     }
 
+    /**
+     * @param targetUri The resource which the authority protects.
+     * @return True if {@link #detectAuthority(URI, AtomicReference)} has to ask the end-point;
+     * false if its host alone rules out Visual Studio Online.
+     */
+    public static boolean isVsoHost(final URI targetUri)
+    {
+        final String VsoBaseUrlHost = "visualstudio.com";
+
+        return StringHelper.endsWithIgnoreCase(targetUri.getHost(), VsoBaseUrlHost);
+    }
+
     /**
      * Detects the backing authority of the end-point.
      *
@@ -257,21 +396,33 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
      */
     public static boolean detectAuthority(final URI targetUri, final AtomicReference<UUID> tenantId)
     {
-        final String VsoBaseUrlHost = "visualstudio.com";
+        return detectAuthority(targetUri, tenantId, Deadline.None);
+    }
+
+    /**
+     * Detects the backing authority of the end-point.
+     *
+     * @param targetUri The resource which the authority protects.
+     * @param tenantId  The identity of the authority tenant; null otherwise.
+     * @param deadline  When the operation the detection is part of has to be done.
+     * @return True if the authority is Visual Studio Online; false otherwise.
+     */
+    public static boolean detectAuthority(final URI targetUri, final AtomicReference<UUID> tenantId, final Deadline deadline)
+    {
         final String VsoResourceTenantHeader = "X-VSS-ResourceTenant";
 
         Trace.writeLine("BaseVsoAuthentication::detectAuthority");
 
         tenantId.set(Guid.Empty);
 
-        if (StringHelper.endsWithIgnoreCase(targetUri.getHost(), VsoBaseUrlHost))
+        if (isVsoHost(targetUri))
         {
             Trace.writeLine("   detected visualstudio.com, checking AAD vs MSA");
 
             String tenant = null;
 
             HttpURLConnection connection = null;
-            final HttpClient client = new HttpClient(Global.getUserAgent());
+            final HttpClient client = HttpClientFactory.Default.createHttpClient(Global.getUserAgent(), deadline);
             try
             {
                 connection = client.head(targetUri, new Action<HttpURLConnection>()
@@ -284,6 +435,7 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
 
                 tenant = connection.getHeaderField(VsoResourceTenantHeader);
                 Trace.writeLine("   server has responded");
+                HttpClientFactory.release(connection);
 
                 return !StringHelper.isNullOrWhiteSpace(tenant)
                         && Guid.tryParse(tenant, tenantId);
@@ -317,11 +469,80 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
             final ICredentialStore personalAccessTokenStore,
             final ITokenStore adaRefreshTokenStore,
             final AtomicReference<IAuthentication> authentication)
+    {
+        return getAuthentication(targetUri, scope, personalAccessTokenStore, adaRefreshTokenStore, null, authentication);
+    }
+
+    /**
+     * Creates a new authentication broker based for the specified resource.
+     *
+     * @param targetUri                The resource for which authentication is being requested.
+     * @param scope                    The scope of the access being requested.
+     * @param personalAccessTokenStore Storage container for personal access token secrets.
+     * @param adaRefreshTokenStore     Storage container for Azure access token secrets.
+     * @param authorityCache           Optional: remembers the authorities detected recently.
+     * @param authentication           An implementation of {@link BaseAuthentication} if one was detected;
+     *                                 null otherwise.
+     * @return True if an authority could be determined; false otherwise.
+     */
+    public static boolean getAuthentication(
+            final URI targetUri,
+            final VsoTokenScope scope,
+            final ICredentialStore personalAccessTokenStore,
+            final ITokenStore adaRefreshTokenStore,
+            final AuthorityCache authorityCache,
+            final AtomicReference<IAuthentication> authentication)
+    {
+        return getAuthentication(targetUri, scope, personalAccessTokenStore, adaRefreshTokenStore, authorityCache, Deadline.None, authentication);
+    }
+
+    /**
+     * Creates a new authentication broker based for the specified resource.
+     *
+     * @param targetUri                The resource for which authentication is being requested.
+     * @param scope                    The scope of the access being requested.
+     * @param personalAccessTokenStore Storage container for personal access token secrets.
+     * @param adaRefreshTokenStore     Storage container for Azure access token secrets.
+     * @param authorityCache           Optional: remembers the authorities detected recently.
+     * @param deadline                 When the operation the authentication is for has to be
+     *                                 done; if the detection times out or the host can't be
+     *                                 reached, basic authentication is used and nothing is
+     *                                 remembered.
+     * @param authentication           An implementation of {@link BaseAuthentication} if one was detected;
+     *                                 null otherwise.
+     * @return True if an authority could be determined; false otherwise.
+     */
+    public static boolean getAuthentication(
+            final URI targetUri,
+            final VsoTokenScope scope,
+            final ICredentialStore personalAccessTokenStore,
+            final ITokenStore adaRefreshTokenStore,
+            final AuthorityCache authorityCache,
+            final Deadline deadline,
+            final AtomicReference<IAuthentication> authentication)
     {
         Trace.writeLine("BaseVsoAuthentication::getAuthentication");
 
         final AtomicReference<UUID> tenantId = new AtomicReference<UUID>();
-        if (detectAuthority(targetUri, tenantId))
+        boolean isVso;
+        try
+        {
+            isVso = authorityCache == null
+                    ? detectAuthority(targetUri, tenantId, deadline)
+                    : authorityCache.detectAuthority(targetUri, tenantId, deadline);
+        }
+        catch (final Error e)
+        {
+            // the detection wraps the IOException, which was thrown before anything was cached
+            final Throwable cause = e.getCause();
+            if (!(cause instanceof SocketTimeoutException
+                || cause instanceof IOException && HttpClientFactory.isConnectFailure(null, (IOException) cause)))
+                throw e;
+
+            Trace.writeLine("   authority detection failed fast: ", e.getCause());
+            isVso = false;
+        }
+        if (isVso)
         {
             // empty Guid is MSA, anything else is AAD
             if (Guid.Empty.equals(tenantId.get()))
@@ -335,6 +556,7 @@ public abstract class BaseVsoAuthentication extends BaseAuthentication
                 authentication.set(new VsoAadAuthentication(tenantId.get(), scope, personalAccessTokenStore, adaRefreshTokenStore));
                 ((BaseVsoAuthentication)authentication.get()).TenantId = tenantId.get();
             }
+            ((BaseVsoAuthentication) authentication.get()).setDeadline(deadline);
         }
         else
         {
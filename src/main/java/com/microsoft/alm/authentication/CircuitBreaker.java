@@ -0,0 +1,182 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers, per host, the consecutive failures to connect to it, such that once a host looks
+ * unreachable (when the VPN dropped, for example) the requests to it fail right away, instead
+ * of each operation waiting for them to time out.  After the {@link #DefaultThreshold threshold}
+ * is reached, the circuit of the host is open for the {@link #DefaultCoolDown cool-down}, after
+ * which it is half-open: one request is let through to probe the host, which closes the circuit
+ * if it connects, or opens it for another cool-down otherwise.
+ */
+public class CircuitBreaker
+{
+    /**
+     * How many consecutive connection failures open the circuit of a host.
+     */
+    public static final int DefaultThreshold = 3;
+    /**
+     * How long the circuit of a host stays open before a request probes it: five minutes.
+     */
+    public static final long DefaultCoolDown = 5L * 60 * 1000;
+
+    private static final String FailuresSuffix = ".failures";
+    private static final String OpenedSuffix = ".opened";
+
+    private final File file;
+    private final int threshold;
+    private final long coolDown;
+
+    public CircuitBreaker(final File file)
+    {
+        this(file, DefaultThreshold, DefaultCoolDown);
+    }
+
+    /**
+     * @param file      The file in which to remember the failures.
+     * @param threshold How many consecutive connection failures open the circuit of a host.
+     * @param coolDown  How long, in milliseconds, the circuit stays open.
+     */
+    public CircuitBreaker(final File file, final int threshold, final long coolDown)
+    {
+        if (threshold < 1)
+            throw new IllegalArgumentException("The `threshold` parameter must be at least 1.");
+
+        this.file = file;
+        this.threshold = threshold;
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * @param targetUri The end-point about to be requested.
+     * @return True if the circuit of the host is open and cooling down, i.e. requests to it
+     * would fail right away; false otherwise.
+     */
+    public boolean isOpen(final URI targetUri)
+    {
+        final String key = createKey(targetUri);
+        final Properties properties = PropertiesFile.load(file);
+        if (key == null || properties == null)
+            return false;
+
+        final long opened = PropertiesFile.parseLong(properties.getProperty(key + OpenedSuffix));
+        return isCoolingDown(opened, now());
+    }
+
+    /**
+     * Decides whether a request can be sent to the host and, if its circuit is half-open, lets
+     * this request be the probe, such that the other requests wait for another cool-down.
+     *
+     * @param targetUri The end-point about to be requested.
+     * @return True if the request can be sent; false if it has to fail right away.
+     */
+    public boolean allowRequest(final URI targetUri)
+    {
+        final String key = createKey(targetUri);
+        final Properties current = PropertiesFile.load(file);
+        if (key == null || current == null || !current.containsKey(key + OpenedSuffix))
+            return true;
+
+        final long now = now();
+        if (isCoolingDown(PropertiesFile.parseLong(current.getProperty(key + OpenedSuffix)), now))
+            return false;
+
+        Trace.writeLine("CircuitBreaker::allowRequest");
+        Trace.writeLine("   probing " + key);
+        final AtomicBoolean isProbe = new AtomicBoolean();
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                // another process might have claimed the probe in the meantime
+                final long opened = PropertiesFile.parseLong(properties.getProperty(key + OpenedSuffix));
+                if (!isCoolingDown(opened, now))
+                {
+                    properties.setProperty(key + OpenedSuffix, String.valueOf(now));
+                    isProbe.set(true);
+                }
+            }
+        });
+        return isProbe.get();
+    }
+
+    /**
+     * Closes the circuit of the host, since a connection to it could be established.
+     *
+     * @param targetUri The end-point that was connected to.
+     */
+    public void recordSuccess(final URI targetUri)
+    {
+        final String key = createKey(targetUri);
+        final Properties current = PropertiesFile.load(file);
+        if (key == null || current == null || !current.containsKey(key + FailuresSuffix))
+            return;
+
+        Trace.writeLine("CircuitBreaker::recordSuccess");
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                properties.remove(key + FailuresSuffix);
+                properties.remove(key + OpenedSuffix);
+            }
+        });
+    }
+
+    /**
+     * Counts a failure to connect to the host and opens its circuit once there were as many
+     * consecutive failures as the threshold.
+     *
+     * @param targetUri The end-point that couldn't be connected to.
+     */
+    public void recordFailure(final URI targetUri)
+    {
+        final String key = createKey(targetUri);
+        if (key == null)
+            return;
+
+        Trace.writeLine("CircuitBreaker::recordFailure");
+        final long now = now();
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                final long previous = PropertiesFile.parseLong(properties.getProperty(key + FailuresSuffix));
+                final long failures = (previous == Long.MAX_VALUE ? 0 : previous) + 1;
+                properties.setProperty(key + FailuresSuffix, String.valueOf(failures));
+                if (failures >= threshold)
+                {
+                    Trace.writeLine("   opening the circuit of " + key + " after " + failures + " failures");
+                    properties.setProperty(key + OpenedSuffix, String.valueOf(now));
+                }
+            }
+        });
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isCoolingDown(final long opened, final long now)
+    {
+        return PropertiesFile.isWithin(opened, now, coolDown);
+    }
+
+    private static String createKey(final URI targetUri)
+    {
+        final String host = targetUri.getHost();
+        return host == null ? null : host.toLowerCase(Locale.ENGLISH);
+    }
+}
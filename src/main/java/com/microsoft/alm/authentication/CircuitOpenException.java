@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import java.net.ConnectException;
+import java.net.URI;
+
+/**
+ * Thrown instead of sending a request to a host whose circuit is open, i.e. to which the last
+ * attempts to connect failed.
+ *
+ * @see CircuitBreaker
+ */
+public class CircuitOpenException extends ConnectException
+{
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(final URI uri)
+    {
+        super("The last attempts to connect to " + uri.getHost() + " failed; not sending the request to " + uri + ".");
+    }
+}
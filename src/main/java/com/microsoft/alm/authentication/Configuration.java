@@ -10,34 +10,20 @@ import com.microsoft.alm.helpers.StringHelper;
 import com.microsoft.alm.helpers.Trace;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public final class Configuration
 {
-    private static final Pattern CommentLinePattern = Pattern.compile
-    (
-    //   ^\s*[#;]
-        "^\\s*[#;]"
-    );
-    private static final Pattern SectionNamePattern = Pattern.compile
-    (
-    //   ^\s*\[\s*(\w+)\s*(\"[^\"]+\"){0,1}\]
-        "^\\s*\\[\\s*(\\w+)\\s*(\\\"[^\\]]+){0,1}\\]"
-    );
-    private static final Pattern NameValuePattern = Pattern.compile
-    (
-    //   ^\s*(\w+)\s*=\s*(.+)
-        "^\\s*(\\w+)\\s*=\\s*(.+)"
-    );
-
     private static final char HostSplitCharacter = '.';
 
     public Configuration(final String directory) throws IOException
@@ -50,6 +36,43 @@ public final class Configuration
         loadGitConfiguration(directory);
     }
 
+    /**
+     * Loads the credential.* values of Git's configuration from the specified snapshot when
+     * none of the configuration files changed since it was written, otherwise parses the
+     * files and then writes the snapshot.  Only the keys starting with "credential." are
+     * available when the values were read from the snapshot.  Each set of configuration files,
+     * i.e. each repository, has its own snapshot, named after the specified one, and only the
+     * most recently written ones are kept.
+     *
+     * @param directory    the directory from which the local configuration is located.
+     * @param snapshotFile the file after which to name the caches of the merged credential.* values.
+     */
+    public Configuration(final String directory, final File snapshotFile) throws IOException
+    {
+        this(directory, snapshotFile, null);
+    }
+
+    /**
+     * Like {@link #Configuration(String, File)}, also remembering where Git's system
+     * configuration was found, to avoid searching the PATH for Git every time.
+     *
+     * @param directory      the directory from which the local configuration is located.
+     * @param snapshotFile   the file after which to name the caches of the merged credential.* values.
+     * @param whereCacheFile the file in which to remember where Git's system configuration
+     *                       is, or {@code null} to look for it every time.
+     */
+    public Configuration(final String directory, final File snapshotFile, final File whereCacheFile) throws IOException
+    {
+        if (StringHelper.isNullOrWhiteSpace(directory))
+            throw new IllegalArgumentException("directory is null or empty");
+        if (!Path.directoryExists(directory))
+            throw new IllegalArgumentException("directory does not exist");
+        if (snapshotFile == null)
+            throw new IllegalArgumentException("snapshotFile is null");
+
+        loadGitConfiguration(findGitConfigs(directory, whereCacheFile), snapshotFile);
+    }
+
     public Configuration() throws IOException
     {
         this(Environment.getCurrentDirectory());
@@ -60,7 +83,22 @@ public final class Configuration
         parseGitConfig(configReader, _values);
     }
 
+    Configuration(final List<File> configFiles, final File snapshotFile) throws IOException
+    {
+        loadGitConfiguration(configFiles, snapshotFile);
+    }
+
     private final Map<String, String> _values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * The values grouped by prefix, then by the scope between the prefix and the name,
+     * i.e. credential.https://example.visualstudio.com.authority is found under
+     * "credential", then "https://example.visualstudio.com", then "authority".
+     */
+    private Map<String, Map<String, Map<String, String>>> _index;
+    /**
+     * The scopes of each prefix that are URLs, compiled for matching.
+     */
+    private Map<String, UrlPatternMatcher> _matchers;
 
     public String get(final String key)
     {
@@ -99,36 +137,145 @@ public final class Configuration
 
         Trace.writeLine("Configuration::tryGetEntry");
 
-        if (targetUri != null)
+        // return match seeking from most specific (<prefix>.<url>.<key>) to least specific (credential.<key>)
+        for (final String scope : enumerateScopes(prefix, targetUri))
         {
-            // return match seeking from most specific (<prefix>.<scheme>://<host>.<key>) to least specific (credential.<key>)
-            if (tryGetEntry(prefix, String.format("%1$s://%2$s", targetUri.getScheme(), targetUri.getHost()), key, entry)
-                    || tryGetEntry(prefix, targetUri.getHost(), key, entry))
+            if (tryGetEntry(prefix, scope, key, entry))
                 return true;
+        }
+
+        // nothing found
+        entry.set(null);
+        return false;
+    }
 
-            if (!StringHelper.isNullOrWhiteSpace(targetUri.getHost()))
+    /**
+     * Resolves, in a single pass, the values of all the settings with the specified prefix that
+     * apply to the specified target, seeking from the most specific
+     * (&lt;prefix&gt;.&lt;url&gt;.&lt;name&gt;) to the least specific
+     * (&lt;prefix&gt;.&lt;name&gt;) scope, just like
+     * {@link #tryGetEntry(String, URI, String, AtomicReference)} does for a single name.
+     *
+     * @param prefix    the section of the settings, such as "credential".
+     * @param targetUri the target the settings apply to, or {@code null} for the unadorned
+     *                  settings only.
+     * @return the settings, keyed by their name.
+     */
+    public Settings resolve(final String prefix, final URI targetUri)
+    {
+        Debug.Assert(prefix != null, "The prefix parameter is null");
+
+        Trace.writeLine("Configuration::resolve");
+
+        final Map<String, String> result = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        final Map<String, Map<String, String>> scopes = getIndex().get(prefix);
+        if (scopes != null)
+        {
+            for (final String scope : enumerateScopes(prefix, targetUri))
             {
-                final String[] fragments = targetUri.getHost().split("\\" + HostSplitCharacter);
-                String host = null;
+                final Map<String, String> values = scopes.get(scope);
+                if (values == null)
+                    continue;
+                for (final Map.Entry<String, String> pair : values.entrySet())
+                {
+                    if (!result.containsKey(pair.getKey()))
+                    {
+                        result.put(pair.getKey(), pair.getValue());
+                    }
+                }
+            }
+        }
+        return new Settings(result);
+    }
+
+    /**
+     * Lists the scopes that apply to the target, from most specific to least specific: the
+     * URLs matching the target, as git would match them, then the target's host, then its
+     * parent domains and finally the unadorned scope.
+     */
+    List<String> enumerateScopes(final String prefix, final URI targetUri)
+    {
+        getIndex();
+        final UrlPatternMatcher matcher = _matchers.get(prefix);
+        if (matcher == null)
+            return enumerateHostScopes(targetUri);
+
+        final List<String> result = new ArrayList<String>(matcher.match(targetUri));
+        result.addAll(enumerateHostScopes(targetUri));
+        return result;
+    }
 
-                // look for host matches stripping a single sub-domain at a time off
+    static List<String> enumerateHostScopes(final URI targetUri)
+    {
+        final List<String> result = new ArrayList<String>();
+        if (targetUri != null)
+        {
+            final String host = targetUri.getHost();
+            if (!StringHelper.isNullOrWhiteSpace(host))
+            {
+                result.add(host);
+
+                // strip a single sub-domain at a time off
                 // don't match against a top-level domain (aka ".com")
-                for (int i = 1; i < fragments.length - 1; i++)
+                int start = host.indexOf(HostSplitCharacter);
+                while (start != -1 && host.indexOf(HostSplitCharacter, start + 1) != -1)
                 {
-                    host = StringHelper.join(".", fragments, i, fragments.length - i);
-                    if (tryGetEntry(prefix, host, key, entry))
-                        return true;
+                    result.add(host.substring(start + 1));
+                    start = host.indexOf(HostSplitCharacter, start + 1);
                 }
             }
         }
+        result.add(StringHelper.Empty);
+        return result;
+    }
 
-        // try to find an unadorned match as a complete fallback
-        if (tryGetEntry(prefix, StringHelper.Empty, key, entry))
-            return true;
+    private Map<String, Map<String, Map<String, String>>> getIndex()
+    {
+        if (_index == null)
+        {
+            final Map<String, Map<String, Map<String, String>>> index =
+                new TreeMap<String, Map<String, Map<String, String>>>(String.CASE_INSENSITIVE_ORDER);
+            final Map<String, UrlPatternMatcher> matchers = new TreeMap<String, UrlPatternMatcher>(String.CASE_INSENSITIVE_ORDER);
+            for (final Map.Entry<String, String> pair : _values.entrySet())
+            {
+                final String key = pair.getKey();
+                final int firstSplit = key.indexOf(HostSplitCharacter);
+                final int lastSplit = key.lastIndexOf(HostSplitCharacter);
+                if (firstSplit == -1)
+                    continue;
+                final String prefix = key.substring(0, firstSplit);
+                final String scope = firstSplit == lastSplit ? StringHelper.Empty : key.substring(firstSplit + 1, lastSplit);
+                final String name = key.substring(lastSplit + 1);
+
+                Map<String, Map<String, String>> scopes = index.get(prefix);
+                if (scopes == null)
+                {
+                    scopes = new TreeMap<String, Map<String, String>>(String.CASE_INSENSITIVE_ORDER);
+                    index.put(prefix, scopes);
+                }
+                Map<String, String> values = scopes.get(scope);
+                if (values == null)
+                {
+                    values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+                    scopes.put(scope, values);
 
-        // nothing found
-        entry.set(null);
-        return false;
+                    if (UrlPatternMatcher.isUrl(scope))
+                    {
+                        UrlPatternMatcher matcher = matchers.get(prefix);
+                        if (matcher == null)
+                        {
+                            matcher = new UrlPatternMatcher();
+                            matchers.put(prefix, matcher);
+                        }
+                        matcher.add(scope);
+                    }
+                }
+                values.put(name, pair.getValue());
+            }
+            _index = index;
+            _matchers = matchers;
+        }
+        return _index;
     }
 
     public void loadGitConfiguration(final String directory) throws IOException
@@ -139,6 +286,9 @@ public final class Configuration
 
         Trace.writeLine("Configuration::loadGitConfiguration");
 
+        _index = null;
+        _matchers = null;
+
         // read Git's three configs from lowest priority to highest, overwriting values as
         // higher priority configurations are parsed, storing them in a handy lookup table
 
@@ -166,6 +316,58 @@ public final class Configuration
         }
     }
 
+    /**
+     * Locates Git's system, global and local configs, in that order, which is from lowest
+     * priority to highest.
+     */
+    static List<File> findGitConfigs(final String directory, final File whereCacheFile) throws IOException
+    {
+        final List<File> result = new ArrayList<File>(3);
+        final AtomicReference<String> path = new AtomicReference<String>();
+
+        Trace.writeLine("Configuration::findGitConfigs");
+
+        final boolean hasSystemConfig = whereCacheFile == null
+            ? Where.gitSystemConfig(path)
+            : Where.gitSystemConfig(whereCacheFile, path);
+        if (hasSystemConfig)
+        {
+            result.add(new File(path.get()));
+        }
+        if (Where.gitGlobalConfig(path))
+        {
+            result.add(new File(path.get()));
+        }
+        if (Where.gitLocalConfig(directory, path))
+        {
+            result.add(new File(path.get()));
+        }
+        return result;
+    }
+
+    void loadGitConfiguration(final List<File> configFiles, final File snapshotFile) throws IOException
+    {
+        Trace.writeLine("Configuration::loadGitConfiguration");
+
+        _index = null;
+        _matchers = null;
+
+        final List<ConfigurationSnapshot.Fingerprint> fingerprints = ConfigurationSnapshot.fingerprint(configFiles);
+        final File setSnapshotFile = ConfigurationSnapshot.fileFor(snapshotFile, fingerprints);
+        if (ConfigurationSnapshot.tryRead(setSnapshotFile, fingerprints, _values))
+            return;
+
+        for (final File configFile : configFiles)
+        {
+            parseGitConfig(configFile.getPath());
+        }
+
+        if (ConfigurationSnapshot.write(setSnapshotFile, fingerprints, _values, System.currentTimeMillis()))
+        {
+            ConfigurationSnapshot.evict(snapshotFile, ConfigurationSnapshot.MaxSnapshots);
+        }
+    }
+
     private void parseGitConfig(final String configPath) throws IOException
     {
         Debug.Assert(!StringHelper.isNullOrWhiteSpace(configPath), "The configPath parameter is null or invalid.");
@@ -190,79 +392,38 @@ public final class Configuration
 
     static void parseGitConfig(final BufferedReader configReader, final Map<String, String> destination) throws IOException
     {
-        Matcher match = null;
-        String section = null;
-
-        // parse each line in the config independently - Git's configs do not accept multi-line values
-        String line;
-        while ((line = configReader.readLine()) != null)
-        {
-            // skip empty and commented lines
-            if (StringHelper.isNullOrWhiteSpace(line))
-                continue;
-            if (CommentLinePattern.matcher(line).matches())
-                continue;
-
-            // sections begin with values like [section] or [section "section name"]. All subsequent lines,
-            // until a new section is encountered, are children of the section
-            if ((match = SectionNamePattern.matcher(line)).matches())
-            {
-                // NOTE: in Java, match.groupCount() is one less than .NET's match.Groups.Count
-                if (match.groupCount() >= 1 && !StringHelper.isNullOrWhiteSpace(match.group(1)))
-                {
-                    section = match.group(1).trim();
+        GitConfigTokenizer.parse(configReader, destination);
+    }
 
-                    // check if the section is named, if so: process the name
-                    if (match.groupCount() >= 2 && !StringHelper.isNullOrWhiteSpace(match.group(2)))
-                    {
-                        String val = match.group(2).trim();
+    /**
+     * The immutable result of {@link #resolve(String, URI)}.
+     */
+    public static final class Settings
+    {
+        private final Map<String, String> _values;
 
-                        // triming off enclosing quotes makes usage easier, only trim in pairs
-                        if (val.charAt(0) == '"')
-                        {
-                            // NOTE: Java: substring(beginIndex, endIndex), .NET: Substring(startIndex, length)
-                            if (val.charAt(val.length() - 1) == '"')
-                            {
-                                val = val.substring(1, val.length() - 1);
-                            }
-                            else
-                            {
-                                val = val.substring(1, val.length() - 0);
-                            }
-                        }
+        Settings(final Map<String, String> values)
+        {
+            _values = Collections.unmodifiableMap(values);
+        }
 
-                        section += HostSplitCharacter + val;
-                    }
-                }
-            }
-            // section children should be in the format of name = value pairs
-            else if ((match = NameValuePattern.matcher(line)).matches())
-            {
-                if (match.groupCount() >= 2
-                    && !StringHelper.isNullOrWhiteSpace(match.group(1))
-                    && !StringHelper.isNullOrWhiteSpace(match.group(2)))
-                {
-                    final String key = section + HostSplitCharacter + match.group(1).trim();
-                    String val = match.group(2).trim();
+        /**
+         * @param name the name of the setting, without its prefix or scope, such as "authority".
+         * @return the value of the setting, or {@code null} if it isn't configured.
+         */
+        public String get(final String name)
+        {
+            return _values.get(name);
+        }
 
-                    // triming off enclosing quotes makes usage easier, only trim in pairs
-                    if (val.charAt(0) == '"')
-                    {
-                        // NOTE: Java: substring(beginIndex, endIndex), .NET: Substring(startIndex, length)
-                        if (val.charAt(val.length() - 1) == '"')
-                        {
-                            val = val.substring(1, val.length() - 1);
-                        }
-                        else
-                        {
-                            val = val.substring(1, val.length() - 0);
-                        }
-                    }
+        public boolean containsKey(final String name)
+        {
+            return _values.containsKey(name);
+        }
 
-                    // add or update the (key, value)
-                    destination.put(key, val);
-                }
-            }
+        public Map<String, String> asMap()
+        {
+            return _values;
         }
     }
 
@@ -0,0 +1,317 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.IOHelper;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of the merged credential.* values of Git's configuration files,
+ * along with the path, size and modification time of each file it was built from, so that
+ * the files need not be parsed again until one of them changes.
+ */
+class ConfigurationSnapshot
+{
+    static final String Prefix = "credential.";
+
+    private static final int Magic = 0x47434d43; // "GCMC"
+    private static final int Version = 1;
+    /**
+     * Files modified this recently might still be modified again within the same tick of
+     * their file system's clock, without changing size, so they aren't snapshotted.
+     */
+    static final long RacyIntervalMillis = 2000;
+    /**
+     * How many snapshots are kept next to each other, so that working in many repositories
+     * over time doesn't leave behind one file for each of them.
+     */
+    static final int MaxSnapshots = 16;
+
+    private ConfigurationSnapshot()
+    {
+    }
+
+    static class Fingerprint
+    {
+        final String path;
+        final long length;
+        final long lastModified;
+
+        Fingerprint(final String path, final long length, final long lastModified)
+        {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        static Fingerprint of(final File file)
+        {
+            return new Fingerprint(file.getAbsolutePath(), file.length(), file.lastModified());
+        }
+
+        @Override public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof Fingerprint))
+                return false;
+            final Fingerprint other = (Fingerprint) obj;
+            return path.equals(other.path)
+                && length == other.length
+                && lastModified == other.lastModified;
+        }
+
+        @Override public int hashCode()
+        {
+            return path.hashCode() ^ (int) (length ^ lastModified);
+        }
+    }
+
+    static List<Fingerprint> fingerprint(final List<File> configFiles)
+    {
+        final List<Fingerprint> result = new ArrayList<Fingerprint>(configFiles.size());
+        for (final File configFile : configFiles)
+        {
+            result.add(Fingerprint.of(configFile));
+        }
+        return result;
+    }
+
+    /**
+     * Names the snapshot of a set of configuration files after {@code snapshotFile} and the
+     * paths of the files, such that working in several repositories in turn doesn't have them
+     * overwrite each other's snapshot.
+     *
+     * @return {@code snapshotFile} with a hash of the paths before its extension.
+     */
+    static File fileFor(final File snapshotFile, final List<Fingerprint> fingerprints)
+    {
+        int hash = 0;
+        for (final Fingerprint fingerprint : fingerprints)
+        {
+            hash = 31 * hash + fingerprint.path.hashCode();
+        }
+        final String name = snapshotFile.getName();
+        return new File(snapshotFile.getParentFile(), baseName(name) + "-" + String.format("%08x", hash) + extension(name));
+    }
+
+    private static String baseName(final String name)
+    {
+        final int dot = name.lastIndexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    private static String extension(final String name)
+    {
+        final int dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(dot);
+    }
+
+    /**
+     * Deletes the least recently written of the snapshots named after {@code snapshotFile} by
+     * {@link #fileFor(File, List)}, such that at most {@code maxSnapshots} of them remain.
+     */
+    static void evict(final File snapshotFile, final int maxSnapshots)
+    {
+        Trace.writeLine("ConfigurationSnapshot::evict");
+
+        final String name = snapshotFile.getName();
+        final String prefix = baseName(name) + "-";
+        final String extension = extension(name);
+        final int length = prefix.length() + 8 + extension.length();
+        final File[] snapshots = snapshotFile.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter()
+        {
+            @Override public boolean accept(final File dir, final String candidate)
+            {
+                return candidate.length() == length
+                    && candidate.startsWith(prefix)
+                    && candidate.endsWith(extension);
+            }
+        });
+        if (snapshots == null || snapshots.length <= maxSnapshots)
+            return;
+
+        final long[] lastModified = new long[snapshots.length];
+        final Integer[] order = new Integer[snapshots.length];
+        for (int i = 0; i < snapshots.length; i++)
+        {
+            lastModified[i] = snapshots[i].lastModified();
+            order[i] = i;
+        }
+        // newest first
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override public int compare(final Integer left, final Integer right)
+            {
+                final long l = lastModified[left];
+                final long r = lastModified[right];
+                return l < r ? 1 : (l == r ? 0 : -1);
+            }
+        });
+        for (int i = maxSnapshots; i < order.length; i++)
+        {
+            final File oldest = snapshots[order[i]];
+            if (!oldest.delete())
+            {
+                Trace.writeLine("   unable to delete " + oldest);
+            }
+        }
+    }
+
+    /**
+     * Reads the values from the specified snapshot into {@code destination}, provided the
+     * snapshot was built from exactly the files described by {@code fingerprints}.
+     *
+     * @return {@code true} if the snapshot was current and its values were read;
+     *         {@code false} if it is missing, stale or unreadable.
+     */
+    static boolean tryRead(final File snapshotFile, final List<Fingerprint> fingerprints, final Map<String, String> destination)
+    {
+        Trace.writeLine("ConfigurationSnapshot::tryRead");
+
+        DataInputStream dis = null;
+        try
+        {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            if (dis.readInt() != Magic || dis.readInt() != Version)
+            {
+                Trace.writeLine("   unrecognized snapshot");
+                return false;
+            }
+
+            final int fingerprintCount = dis.readInt();
+            if (fingerprintCount != fingerprints.size())
+            {
+                Trace.writeLine("   the set of config files changed");
+                return false;
+            }
+            for (final Fingerprint expected : fingerprints)
+            {
+                final Fingerprint actual = new Fingerprint(dis.readUTF(), dis.readLong(), dis.readLong());
+                if (!expected.equals(actual))
+                {
+                    Trace.writeLine("   " + expected.path + " changed");
+                    return false;
+                }
+            }
+
+            final int entryCount = dis.readInt();
+            for (int i = 0; i < entryCount; i++)
+            {
+                final String key = dis.readUTF();
+                final String value = dis.readUTF();
+                destination.put(key, value);
+            }
+            Trace.writeLine("   read " + entryCount + " values");
+            return true;
+        }
+        catch (final FileNotFoundException ignored)
+        {
+            Trace.writeLine("   no snapshot");
+            return false;
+        }
+        catch (final IOException e)
+        {
+            // a truncated or otherwise corrupt snapshot is simply rebuilt
+            Trace.writeLine("   unreadable snapshot: " + e.getMessage());
+            destination.clear();
+            return false;
+        }
+        finally
+        {
+            IOHelper.closeQuietly(dis);
+        }
+    }
+
+    /**
+     * Writes the credential.* values from {@code values} to the specified snapshot, unless
+     * one of the files was modified too recently for its fingerprint to be trusted.  Errors are
+     * traced and otherwise ignored, since the snapshot is only an optimization.
+     *
+     * @return {@code true} if the snapshot was written; {@code false} otherwise.
+     */
+    static boolean write(final File snapshotFile, final List<Fingerprint> fingerprints, final Map<String, String> values, final long now)
+    {
+        Trace.writeLine("ConfigurationSnapshot::write");
+
+        for (final Fingerprint fingerprint : fingerprints)
+        {
+            if (now - fingerprint.lastModified < RacyIntervalMillis)
+            {
+                Trace.writeLine("   " + fingerprint.path + " was modified too recently");
+                return false;
+            }
+        }
+
+        final File folder = snapshotFile.getAbsoluteFile().getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs())
+        {
+            Trace.writeLine("   unable to create " + folder);
+            return false;
+        }
+
+        File tempFile = null;
+        DataOutputStream dos = null;
+        try
+        {
+            tempFile = File.createTempFile(snapshotFile.getName(), ".tmp", folder);
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            dos.writeInt(Magic);
+            dos.writeInt(Version);
+            dos.writeInt(fingerprints.size());
+            for (final Fingerprint fingerprint : fingerprints)
+            {
+                dos.writeUTF(fingerprint.path);
+                dos.writeLong(fingerprint.length);
+                dos.writeLong(fingerprint.lastModified);
+            }
+
+            final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+            for (final Map.Entry<String, String> pair : values.entrySet())
+            {
+                if (pair.getKey().regionMatches(true, 0, Prefix, 0, Prefix.length()))
+                {
+                    entries.add(pair);
+                }
+            }
+            dos.writeInt(entries.size());
+            for (final Map.Entry<String, String> pair : entries)
+            {
+                dos.writeUTF(pair.getKey());
+                dos.writeUTF(pair.getValue());
+            }
+            dos.close();
+            dos = null;
+
+            return PropertiesFile.replace(snapshotFile, tempFile);
+        }
+        catch (final IOException e)
+        {
+            Trace.writeLine("   unable to write snapshot: " + e.getMessage());
+            return false;
+        }
+        finally
+        {
+            IOHelper.closeQuietly(dos);
+            if (tempFile != null && tempFile.isFile())
+            {
+                tempFile.delete();
+            }
+        }
+    }
+}
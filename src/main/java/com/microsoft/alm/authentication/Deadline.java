@@ -0,0 +1,86 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+/**
+ * The time by which an operation, such as git asking for credentials, has to be done.  The
+ * clients of a {@link HttpClientFactory} derive the connect and read timeouts of each request
+ * from the time left, such that a hung end-point costs the operation the rest of its budget at
+ * most, rather than stalling it, and no request is sent once the deadline passed.
+ */
+public class Deadline
+{
+    /**
+     * A deadline that never passes: the requests are only bounded by the timeouts of the
+     * {@link HttpClientFactory}.
+     */
+    public static final Deadline None = new Deadline(Long.MAX_VALUE);
+    /**
+     * A deadline that has passed already: no request is sent.
+     */
+    public static final Deadline Passed = new Deadline(0);
+
+    private final long expiresAt;
+
+    Deadline(final long expiresAt)
+    {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param milliseconds The budget of the operation; 0 or less for no deadline.
+     * @return a deadline that passes once the budget is spent.
+     */
+    public static Deadline after(final long milliseconds)
+    {
+        if (milliseconds <= 0)
+            return None;
+        return new Deadline(System.currentTimeMillis() + milliseconds);
+    }
+
+    /**
+     * @return when the deadline passes, in milliseconds since the epoch.
+     */
+    public long getExpiresAt()
+    {
+        return expiresAt;
+    }
+
+    /**
+     * @return how many milliseconds are left, 0 if the deadline passed.
+     */
+    public long getRemaining()
+    {
+        if (this == None)
+            return Long.MAX_VALUE;
+        return Math.max(0, expiresAt - now());
+    }
+
+    public boolean hasPassed()
+    {
+        return getRemaining() == 0;
+    }
+
+    /**
+     * Derives the timeout of a network call from the time left.
+     *
+     * @param maximum The timeout to use when there's more time left, in milliseconds.
+     * @return the smaller of the maximum and the time left, but at least 1, since a timeout
+     * of 0 means the call never times out.
+     */
+    public int getTimeout(final int maximum)
+    {
+        return (int) Math.max(1, Math.min(maximum, getRemaining()));
+    }
+
+    @Override public String toString()
+    {
+        return this == None ? "none" : getRemaining() + " ms left";
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+}
@@ -14,10 +14,40 @@ import com.microsoft.alm.secret.TokenPair;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.util.Calendar;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 public class DeviceFlowImpl implements DeviceFlow
 {
+    private final HttpClientFactory httpClientFactory;
+    private Deadline deadline = Deadline.None;
+
+    public DeviceFlowImpl()
+    {
+        this(HttpClientFactory.Default);
+    }
+
+    public DeviceFlowImpl(final HttpClientFactory httpClientFactory)
+    {
+        this.httpClientFactory = httpClientFactory;
+    }
+
+    /**
+     * Bounds the requests to the device and token endpoints by the deadline of the operation
+     * they're part of: the poll of the token endpoint stops when it passes, even if the
+     * verification code is still valid.
+     *
+     * @param deadline when the operation has to be done.
+     */
+    public void setDeadline(final Deadline deadline)
+    {
+        this.deadline = deadline;
+    }
+
     @Override
     public DeviceFlowResponse requestAuthorization(final URI deviceEndpoint, final String clientId, final String scope)
     {
@@ -30,13 +60,13 @@ public class DeviceFlowImpl implements DeviceFlow
         contributeAuthorizationRequestParameters(bodyParameters);
         final StringContent requestBody = StringContent.createUrlEncoded(bodyParameters);
 
-        final HttpClient client = new HttpClient(Global.getUserAgent());
-        final String responseText;
+        final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
+        final PropertyBag responseProperties;
         try {
             final HttpURLConnection response = client.post(deviceEndpoint, requestBody);
             final int httpStatus = response.getResponseCode();
             if (httpStatus == HttpURLConnection.HTTP_OK) {
-                responseText = HttpClient.readToString(response);
+                responseProperties = JsonFieldReader.read(response.getInputStream());
             }
             else {
                 final String errorResponseText = HttpClient.readErrorToString(response);
@@ -47,7 +77,7 @@ public class DeviceFlowImpl implements DeviceFlow
             throw new Error(e);
         }
 
-        final DeviceFlowResponse result = buildDeviceFlowResponse(responseText);
+        final DeviceFlowResponse result = buildDeviceFlowResponse(responseProperties);
         return result;
     }
 
@@ -68,11 +98,61 @@ public class DeviceFlowImpl implements DeviceFlow
      * @return             a {@link DeviceFlowResponse} (or subclass thereof).
      */
     protected DeviceFlowResponse buildDeviceFlowResponse(final String responseText) {
-        return DeviceFlowResponse.fromJson(responseText);
+        return buildDeviceFlowResponse(PropertyBag.fromJson(responseText));
+    }
+
+    /**
+     * Allows subclasses to construct a subclass of {@link DeviceFlowResponse} with extra metadata, etc.
+     *
+     * @param responseProperties the members of the JSON response received from the device endpoint.
+     *
+     * @return                   a {@link DeviceFlowResponse} (or subclass thereof).
+     */
+    protected DeviceFlowResponse buildDeviceFlowResponse(final PropertyBag responseProperties) {
+        return DeviceFlowResponse.fromPropertyBag(responseProperties);
     }
 
     @Override
     public TokenPair requestToken(final URI tokenEndpoint, final String clientId, final DeviceFlowResponse deviceFlowResponse) throws AuthorizationException
+    {
+        final DeviceFlowPoll poll = pollToken(tokenEndpoint, clientId, deviceFlowResponse);
+        try {
+            return poll.get();
+        }
+        catch (final InterruptedException e) {
+            poll.cancel(false);
+            throw new Error(e);
+        }
+        catch (final CancellationException e) {
+            throw new AuthorizationException(DeviceFlowPoll.ERROR_CANCELLED, "The device flow was cancelled.", null, null);
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof AuthorizationException) {
+                throw (AuthorizationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new Error(cause);
+        }
+    }
+
+    /**
+     * Starts polling the token endpoint, like {@link #requestToken(URI, String, DeviceFlowResponse)},
+     * but without waiting for the outcome.  The poll can be cancelled or made to send its next
+     * request right away, either directly or through the {@link DeviceFlowResponse}.
+     *
+     * @param tokenEndpoint      the authorization server's token endpoint.
+     * @param clientId           the client identifier as described in Section 2.2 of RFC6749.
+     * @param deviceFlowResponse the response obtained from
+     *                           {@link #requestAuthorization(URI, String, String)}.
+     * @return                   the {@link DeviceFlowPoll} that will hold the pair of tokens.
+     */
+    public DeviceFlowPoll pollToken(final URI tokenEndpoint, final String clientId, final DeviceFlowResponse deviceFlowResponse)
     {
         final QueryString bodyParameters = new QueryString();
         bodyParameters.put(OAuthParameter.GRANT_TYPE, OAuthParameter.DEVICE_CODE);
@@ -81,61 +161,51 @@ public class DeviceFlowImpl implements DeviceFlow
         contributeTokenRequestParameters(bodyParameters);
         final StringContent requestBody = StringContent.createUrlEncoded(bodyParameters);
 
-        final int intervalSeconds = deviceFlowResponse.getInterval();
-        int intervalMilliseconds = intervalSeconds * 1000;
-        final HttpClient client = new HttpClient(Global.getUserAgent());
-        String responseText = null;
-        final Calendar expiresAt = deviceFlowResponse.getExpiresAt();
-        while (Calendar.getInstance().compareTo(expiresAt) <= 0) {
-            try {
-                final HttpURLConnection response = client.post(tokenEndpoint, requestBody);
-                final int httpStatus = response.getResponseCode();
-                if (httpStatus == HttpURLConnection.HTTP_OK) {
-                    responseText = HttpClient.readToString(response);
-                    break;
-                }
-                else {
-                    final String errorResponseText = HttpClient.readErrorToString(response);
-                    if (httpStatus == HttpURLConnection.HTTP_BAD_REQUEST) {
-                        final PropertyBag bag = PropertyBag.fromJson(errorResponseText);
-                        final String errorCode = bag.readOptionalString(OAuthParameter.ERROR_CODE, "unknown_error");
-                        if (OAuthParameter.ERROR_AUTHORIZATION_PENDING.equals(errorCode)) {
-                            try {
-                                Thread.sleep(intervalMilliseconds);
-                            } catch (final InterruptedException e) {
-                                throw new Error(e);
-                            }
-                            continue;
-                        }
-                        else if (OAuthParameter.ERROR_SLOW_DOWN.equals(errorCode)) {
-                            intervalMilliseconds *= 2;
-                            try {
-                                Thread.sleep(intervalMilliseconds);
-                            } catch (final InterruptedException e) {
-                                throw new Error(e);
-                            }
-                            continue;
-                        }
-                        final String errorDescription = bag.readOptionalString(OAuthParameter.ERROR_DESCRIPTION, null);
-                        final String errorUriString = bag.readOptionalString(OAuthParameter.ERROR_URI, null);
-                        final URI errorUri = errorUriString == null ? null : URI.create(errorUriString);
-                        throw new AuthorizationException(errorCode, errorDescription, errorUri, null);
-                    }
-                    else {
-                        throw new Error("Token endpoint returned HTTP " + httpStatus + ":\n" + errorResponseText);
-                    }
-                }
-            }
-            catch (final IOException e) {
-                throw new Error(e);
-            }
+        final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
+        final DeviceFlowPoll poll = new DeviceFlowPoll(this, client, tokenEndpoint, requestBody, deviceFlowResponse, deadline, getScheduler(), getRequestExecutor());
+        deviceFlowResponse.attach(poll);
+        poll.start();
+        return poll;
+    }
+
+    private static ScheduledExecutorService scheduler;
+    private static ExecutorService requestExecutor;
+
+    /**
+     * The polls of all the device flows share a thread to time their requests and expiry,
+     * since they spend most of their time waiting.
+     */
+    static synchronized ScheduledExecutorService getScheduler()
+    {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("DeviceFlowPoll"));
         }
+        return scheduler;
+    }
 
-        if (responseText == null) {
-            throw new AuthorizationException("code_expired", "The verification code expired.", null, null);
+    /**
+     * The requests themselves block until the token endpoint responds, so they are sent from
+     * other threads, such that a slow response doesn't hold up the other polls' timing.
+     */
+    static synchronized ExecutorService getRequestExecutor()
+    {
+        if (requestExecutor == null) {
+            requestExecutor = Executors.newCachedThreadPool(createThreadFactory("DeviceFlowPoll-request"));
         }
-        final TokenPair tokenPair = buildTokenPair(responseText);
-        return tokenPair;
+        return requestExecutor;
+    }
+
+    private static ThreadFactory createThreadFactory(final String name)
+    {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     /**
@@ -155,7 +225,18 @@ public class DeviceFlowImpl implements DeviceFlow
      * @return             a {@link TokenPair} (or subclass thereof).
      */
     protected TokenPair buildTokenPair(final String responseText) {
-        final TokenPair tokenPair = new TokenPair(responseText);
+        return buildTokenPair(PropertyBag.fromJson(responseText));
+    }
+
+    /**
+     * Allows subclasses to construct a subclass of {@link TokenPair} with extra metadata, etc.
+     *
+     * @param responseProperties the members of the JSON response received from the token endpoint.
+     *
+     * @return                   a {@link TokenPair} (or subclass thereof).
+     */
+    protected TokenPair buildTokenPair(final PropertyBag responseProperties) {
+        final TokenPair tokenPair = new TokenPair(responseProperties);
         return tokenPair;
     }
 }
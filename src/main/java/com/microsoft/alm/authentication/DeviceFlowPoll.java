@@ -0,0 +1,258 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.HttpClient;
+import com.microsoft.alm.helpers.PropertyBag;
+import com.microsoft.alm.helpers.StringContent;
+import com.microsoft.alm.helpers.Trace;
+import com.microsoft.alm.oauth2.useragent.AuthorizationException;
+import com.microsoft.alm.secret.TokenPair;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the token endpoint on behalf of {@link DeviceFlowImpl#pollToken(URI, String, DeviceFlowResponse)}
+ * from a scheduler, rather than holding up a thread between the requests, until the end-user
+ * grants or denies the request, the verification code expires or the poll is cancelled.  The
+ * scheduler only times the requests, which are sent from another executor, and the expiry,
+ * which is timed from the start, such that a request that hangs can't delay it.
+ *
+ * The requests are spaced by the interval of the {@link DeviceFlowResponse}, which a
+ * <code>slow_down</code> error replaces with the interval the server asks for or, if it
+ * doesn't, increases by five seconds, as section 3.5 of RFC 8628 prescribes.  No request is
+ * sent once the verification code has expired, or the {@link Deadline} of the operation has
+ * passed: the poll fails with <code>code_expired</code>, or <code>deadline_exceeded</code>, at
+ * that very moment instead.
+ */
+public class DeviceFlowPoll extends FutureTask<TokenPair>
+{
+    static final String ERROR_CODE_EXPIRED = "code_expired";
+    static final String ERROR_DEADLINE_EXCEEDED = "deadline_exceeded";
+    static final String ERROR_CANCELLED = "cancelled";
+
+    private static final int SlowDownIncrementMilliseconds = 5 * 1000;
+    private static final Callable<TokenPair> NeverCalled = new Callable<TokenPair>()
+    {
+        @Override public TokenPair call() throws Exception
+        {
+            throw new IllegalStateException("The outcome of a poll is set as the responses arrive.");
+        }
+    };
+
+    private final DeviceFlowImpl deviceFlow;
+    private final HttpClient client;
+    private final URI tokenEndpoint;
+    private final StringContent requestBody;
+    private final long expiresAt;
+    private final boolean isDeadlineFirst;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService requestExecutor;
+
+    private long intervalMilliseconds;
+    private ScheduledFuture<?> nextRequest;
+    private ScheduledFuture<?> expiry;
+    private boolean isRequesting;
+    private int requestCount;
+    private int scheduleCount;
+
+    DeviceFlowPoll(final DeviceFlowImpl deviceFlow, final HttpClient client, final URI tokenEndpoint, final StringContent requestBody, final DeviceFlowResponse deviceFlowResponse, final Deadline deadline, final ScheduledExecutorService scheduler, final ExecutorService requestExecutor)
+    {
+        super(NeverCalled);
+        this.deviceFlow = deviceFlow;
+        this.client = client;
+        this.tokenEndpoint = tokenEndpoint;
+        this.requestBody = requestBody;
+        final long codeExpiresAt = deviceFlowResponse.getExpiresAt().getTimeInMillis();
+        this.isDeadlineFirst = deadline.getExpiresAt() < codeExpiresAt;
+        this.expiresAt = Math.min(codeExpiresAt, deadline.getExpiresAt());
+        this.scheduler = scheduler;
+        this.requestExecutor = requestExecutor;
+        this.intervalMilliseconds = deviceFlowResponse.getInterval() * 1000L;
+    }
+
+    /**
+     * Sends the first request right away and schedules the failure of the poll for when the
+     * verification code expires or the deadline passes.
+     */
+    synchronized void start()
+    {
+        expiry = scheduler.schedule(new Runnable()
+        {
+            @Override public void run()
+            {
+                Trace.writeLine("DeviceFlowPoll::expire");
+                setException(isDeadlineFirst
+                    ? new AuthorizationException(ERROR_DEADLINE_EXCEEDED, "The deadline of the operation passed.", null, null)
+                    : new AuthorizationException(ERROR_CODE_EXPIRED, "The verification code expired.", null, null));
+            }
+        }, Math.max(0, expiresAt - now()), TimeUnit.MILLISECONDS);
+        schedule(0);
+    }
+
+    /**
+     * Sends the next request right away, instead of waiting for the rest of the interval, such
+     * as when the end-user reports having completed the authorization.  Does nothing if a
+     * request is underway or the poll is done.
+     */
+    public synchronized void pollNow()
+    {
+        if (isDone() || isRequesting || nextRequest == null || now() >= expiresAt)
+            return;
+
+        if (nextRequest.cancel(false)) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * @return how many requests were sent to the token endpoint so far.
+     */
+    public synchronized int getRequestCount()
+    {
+        return requestCount;
+    }
+
+    /**
+     * @return the number of milliseconds between two requests, as last directed by the server.
+     */
+    public synchronized long getIntervalMilliseconds()
+    {
+        return intervalMilliseconds;
+    }
+
+    @Override protected void done()
+    {
+        // cancellation, success or failure: no more requests either way
+        final ScheduledFuture<?> pending;
+        final ScheduledFuture<?> pendingExpiry;
+        synchronized (this) {
+            pending = nextRequest;
+            nextRequest = null;
+            pendingExpiry = expiry;
+            expiry = null;
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        if (pendingExpiry != null) {
+            pendingExpiry.cancel(false);
+        }
+    }
+
+    private void schedule(final long delayMilliseconds)
+    {
+        final int generation = ++scheduleCount;
+        nextRequest = scheduler.schedule(new Runnable()
+        {
+            @Override public void run()
+            {
+                synchronized (DeviceFlowPoll.this) {
+                    // pollNow() might have replaced this request while it was starting
+                    if (isDone() || generation != scheduleCount)
+                        return;
+                    isRequesting = true;
+                    requestCount++;
+                }
+                requestExecutor.execute(new Runnable()
+                {
+                    @Override public void run()
+                    {
+                        request();
+                    }
+                });
+            }
+        }, delayMilliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the next request an interval from now, unless the verification code will have
+     * expired or the deadline will have passed by then, which fails the poll instead.
+     */
+    private synchronized void scheduleNext()
+    {
+        if (isDone())
+            return;
+
+        if (now() + intervalMilliseconds < expiresAt) {
+            schedule(intervalMilliseconds);
+        }
+        else {
+            nextRequest = null;
+        }
+    }
+
+    private void request()
+    {
+        try {
+            final HttpURLConnection response = client.post(tokenEndpoint, requestBody);
+            final int httpStatus = response.getResponseCode();
+            if (httpStatus == HttpURLConnection.HTTP_OK) {
+                final PropertyBag responseProperties = JsonFieldReader.read(response.getInputStream());
+                set(deviceFlow.buildTokenPair(responseProperties));
+            }
+            else if (httpStatus == HttpURLConnection.HTTP_BAD_REQUEST) {
+                final InputStream errorStream = response.getErrorStream();
+                final PropertyBag bag = errorStream == null
+                    ? new PropertyBag()
+                    : JsonFieldReader.read(errorStream, OAuthParameter.ERROR_CODE, OAuthParameter.ERROR_DESCRIPTION, OAuthParameter.ERROR_URI, OAuthParameter.INTERVAL);
+                final String errorCode = bag.readOptionalString(OAuthParameter.ERROR_CODE, "unknown_error");
+                if (OAuthParameter.ERROR_AUTHORIZATION_PENDING.equals(errorCode)) {
+                    scheduleNext();
+                }
+                else if (OAuthParameter.ERROR_SLOW_DOWN.equals(errorCode)) {
+                    slowDown(bag.readOptionalInteger(OAuthParameter.INTERVAL, 0));
+                    scheduleNext();
+                }
+                else {
+                    final String errorDescription = bag.readOptionalString(OAuthParameter.ERROR_DESCRIPTION, null);
+                    final String errorUriString = bag.readOptionalString(OAuthParameter.ERROR_URI, null);
+                    final URI errorUri = errorUriString == null ? null : URI.create(errorUriString);
+                    setException(new AuthorizationException(errorCode, errorDescription, errorUri, null));
+                }
+            }
+            else {
+                final String errorResponseText = HttpClient.readErrorToString(response);
+                setException(new Error("Token endpoint returned HTTP " + httpStatus + ":\n" + errorResponseText));
+            }
+        }
+        catch (final IOException e) {
+            setException(new Error(e));
+        }
+        catch (final RuntimeException e) {
+            setException(e);
+        }
+        catch (final Error e) {
+            setException(e);
+        }
+        finally {
+            synchronized (this) {
+                isRequesting = false;
+            }
+        }
+    }
+
+    private synchronized void slowDown(final int serverIntervalSeconds)
+    {
+        final long requested = serverIntervalSeconds * 1000L;
+        intervalMilliseconds = requested > intervalMilliseconds
+            ? requested
+            : intervalMilliseconds + SlowDownIncrementMilliseconds;
+        Trace.writeLine("   slowing down to one request every " + intervalMilliseconds + " ms");
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+}
@@ -21,6 +21,8 @@ public class DeviceFlowResponse
     private final int expiresIn;
     private final Calendar expiresAt;
     private final int interval;
+    private DeviceFlowPoll poll;
+    private boolean isCancelled;
 
     public DeviceFlowResponse(final String deviceCode, final String userCode, final URI verificationUri, final int expiresIn, final int interval)
     {
@@ -35,6 +37,10 @@ public class DeviceFlowResponse
 
     public static DeviceFlowResponse fromJson(final String jsonText) {
         final PropertyBag bag = PropertyBag.fromJson(jsonText);
+        return fromPropertyBag(bag);
+    }
+
+    public static DeviceFlowResponse fromPropertyBag(final PropertyBag bag) {
         final String deviceCode = (String) bag.get(OAuthParameter.DEVICE_CODE);
         final String userCode = (String) bag.get(OAuthParameter.USER_CODE);
         final String verificationUriString = (String) bag.get(OAuthParameter.VERIFICATION_URI);
@@ -127,4 +133,62 @@ public class DeviceFlowResponse
     {
         return interval;
     }
+
+    /**
+     * Abandons the device flow, such as when the end-user gave up on it: the token endpoint
+     * is no longer polled and the request for the token fails.  Can be called from the
+     * callback that displays the verification URI and user code, or any time after.
+     */
+    public void cancel()
+    {
+        final DeviceFlowPoll currentPoll;
+        synchronized (this)
+        {
+            isCancelled = true;
+            currentPoll = poll;
+        }
+        if (currentPoll != null)
+        {
+            currentPoll.cancel(false);
+        }
+    }
+
+    public synchronized boolean isCancelled()
+    {
+        return isCancelled;
+    }
+
+    /**
+     * Polls the token endpoint right away, instead of at the end of the interval, such as
+     * when the end-user reports having completed the authorization.
+     */
+    public void pollNow()
+    {
+        final DeviceFlowPoll currentPoll;
+        synchronized (this)
+        {
+            currentPoll = poll;
+        }
+        if (currentPoll != null)
+        {
+            currentPoll.pollNow();
+        }
+    }
+
+    /**
+     * Lets {@link #cancel()} and {@link #pollNow()} reach the poll of the token endpoint.
+     */
+    void attach(final DeviceFlowPoll poll)
+    {
+        final boolean cancel;
+        synchronized (this)
+        {
+            this.poll = poll;
+            cancel = isCancelled;
+        }
+        if (cancel)
+        {
+            poll.cancel(false);
+        }
+    }
 }
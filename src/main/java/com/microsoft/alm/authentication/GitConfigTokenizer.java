@@ -0,0 +1,349 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Reads Git's configuration files one character at a time, following the rules of
+ * {@code git config}: sections and subsections, quoted values, escape sequences, comments at
+ * the end of lines and values continued on the next line with a backslash.  Each value is
+ * written to the destination map as soon as it's complete, under a key such as
+ * {@code credential.https://example.visualstudio.com.authority}.
+ *
+ * Where git would refuse to read a malformed file, the tokenizer makes the most of it and
+ * moves on to the next line, since a single typo shouldn't prevent authentication.
+ */
+class GitConfigTokenizer
+{
+    private static final int EndOfFile = -1;
+    private static final int BufferSize = 8192;
+
+    private final Reader reader;
+    private final Map<String, String> destination;
+    private final char[] buffer = new char[BufferSize];
+    private final StringBuilder value = new StringBuilder();
+    private int position;
+    private int limit;
+    private int pushedBack = EndOfFile;
+
+    private String section;
+
+    GitConfigTokenizer(final Reader reader, final Map<String, String> destination)
+    {
+        this.reader = reader;
+        this.destination = destination;
+    }
+
+    static void parse(final Reader reader, final Map<String, String> destination) throws IOException
+    {
+        final GitConfigTokenizer tokenizer = new GitConfigTokenizer(reader, destination);
+        tokenizer.parse();
+    }
+
+    void parse() throws IOException
+    {
+        int c;
+        while ((c = next()) != EndOfFile)
+        {
+            if (c == '\n' || isSpace(c))
+                continue;
+            if (c == '#' || c == ';')
+            {
+                skipLine();
+            }
+            else if (c == '[')
+            {
+                // a name/value pair can follow the section header on the same line
+                if (!parseSectionHeader())
+                {
+                    skipLine();
+                }
+            }
+            else if (isKeyCharacter(c))
+            {
+                parseNameValue(c);
+            }
+            else
+            {
+                skipLine();
+            }
+        }
+    }
+
+    /**
+     * Parses {@code [section]}, {@code [section.subsection]} or
+     * {@code [section "subsection"]}, the opening bracket having been consumed.
+     *
+     * @return {@code true} if the header was valid; {@code false} if the rest of the line,
+     *         starting with the character that was unread, should be skipped.
+     */
+    private boolean parseSectionHeader() throws IOException
+    {
+        final StringBuilder name = new StringBuilder();
+        int c = skipSpaces(next());
+        while (isKeyCharacter(c) || c == '.')
+        {
+            name.append((char) c);
+            c = next();
+        }
+        if (name.length() == 0)
+        {
+            unread(c);
+            return false;
+        }
+
+        c = skipSpaces(c);
+        if (c == ']')
+        {
+            section = name.toString();
+            return true;
+        }
+        if (c != '"')
+        {
+            unread(c);
+            return false;
+        }
+
+        // subsection names keep their case and can contain any character but a newline
+        name.append('.');
+        while ((c = next()) != '"')
+        {
+            if (c == '\n' || c == EndOfFile)
+            {
+                // an unterminated subsection, like [section "name], ends at the bracket
+                int end = name.length();
+                while (end > 0 && isSpace(name.charAt(end - 1)))
+                {
+                    end--;
+                }
+                if (end > 0 && name.charAt(end - 1) == ']')
+                {
+                    end--;
+                }
+                name.setLength(end);
+                section = name.toString();
+                unread(c);
+                return true;
+            }
+            if (c == '\\')
+            {
+                c = next();
+                if (c == '\n' || c == EndOfFile)
+                {
+                    unread(c);
+                    continue;
+                }
+            }
+            name.append((char) c);
+        }
+        c = skipSpaces(next());
+        if (c != ']')
+        {
+            unread(c);
+            return false;
+        }
+        section = name.toString();
+        return true;
+    }
+
+    /**
+     * Parses {@code name = value} or a lone {@code name}, which git considers to be
+     * {@code true}, the first character of the name having been consumed.
+     */
+    private void parseNameValue(final int first) throws IOException
+    {
+        final StringBuilder name = new StringBuilder();
+        name.append((char) first);
+        int c;
+        while (isKeyCharacter(c = next()))
+        {
+            name.append((char) c);
+        }
+        c = skipSpaces(c);
+
+        final String val;
+        if (c == '=')
+        {
+            val = parseValue();
+        }
+        else if (c == '\n' || c == EndOfFile)
+        {
+            val = "true";
+        }
+        else if (c == '#' || c == ';')
+        {
+            skipLine();
+            val = "true";
+        }
+        else
+        {
+            skipLine();
+            return;
+        }
+
+        // as with git, values outside of a section are discarded; empty values are ignored
+        if (section != null && val.length() > 0)
+        {
+            destination.put(section + '.' + name, val);
+        }
+    }
+
+    /**
+     * Parses the value following the equal sign, up to the end of the line or the start of a
+     * comment, dropping the surrounding whitespace and the quotes.
+     */
+    private String parseValue() throws IOException
+    {
+        value.setLength(0);
+        boolean quoted = false;
+        int spaces = 0;
+        int c;
+        while ((c = next()) != EndOfFile)
+        {
+            if (c == '\n')
+                break;
+            if (!quoted)
+            {
+                if (isSpace(c))
+                {
+                    // leading and trailing whitespace doesn't count
+                    if (value.length() > 0)
+                    {
+                        spaces++;
+                    }
+                    continue;
+                }
+                if (c == '#' || c == ';')
+                {
+                    skipLine();
+                    break;
+                }
+            }
+            for (; spaces > 0; spaces--)
+            {
+                value.append(' ');
+            }
+            if (c == '\\')
+            {
+                c = next();
+                switch (c)
+                {
+                    case '\n':
+                        // the value continues on the next line
+                        continue;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case '\\':
+                    case '"':
+                        value.append((char) c);
+                        break;
+                    case EndOfFile:
+                        value.append('\\');
+                        break;
+                    default:
+                        // git rejects other escapes; keep them as written, i.e. C:\Utils
+                        value.append('\\').append((char) c);
+                        break;
+                }
+                continue;
+            }
+            if (c == '"')
+            {
+                quoted = !quoted;
+                continue;
+            }
+            value.append((char) c);
+        }
+        return value.toString();
+    }
+
+    private void skipLine() throws IOException
+    {
+        int c;
+        do
+        {
+            c = next();
+        }
+        while (c != '\n' && c != EndOfFile);
+    }
+
+    private int skipSpaces(int c) throws IOException
+    {
+        while (isSpace(c))
+        {
+            c = next();
+        }
+        return c;
+    }
+
+    private int next() throws IOException
+    {
+        int c;
+        if (pushedBack != EndOfFile)
+        {
+            c = pushedBack;
+            pushedBack = EndOfFile;
+            return c;
+        }
+        c = read();
+        // Windows line endings count as a single newline
+        if (c == '\r')
+        {
+            final int following = read();
+            if (following == '\n')
+            {
+                c = '\n';
+            }
+            else
+            {
+                unread(following);
+            }
+        }
+        return c;
+    }
+
+    private void unread(final int c)
+    {
+        pushedBack = c;
+    }
+
+    private int read() throws IOException
+    {
+        if (position == limit)
+        {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0)
+            {
+                limit = 0;
+                return EndOfFile;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private static boolean isSpace(final int c)
+    {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\u000B' || c == '\r';
+    }
+
+    private static boolean isKeyCharacter(final int c)
+    {
+        return (c >= 'a' && c <= 'z')
+            || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9')
+            || c == '-'
+            || c == '_';
+    }
+}
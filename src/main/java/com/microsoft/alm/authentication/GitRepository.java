@@ -0,0 +1,182 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.IOHelper;
+import com.microsoft.alm.helpers.StringHelper;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The locations of a Git repository's folders and local configuration, as found from one of
+ * the repository's directories.  The locations are remembered for the most recently used
+ * directories, such that the configuration and the trace log, or an application serving many
+ * repositories, don't walk the directories and read the .git files again.
+ */
+public final class GitRepository
+{
+    private static final String GitOdbFolderName = ".git";
+    private static final String GitDirPrefix = "gitdir:";
+    private static final String CommonDirFileName = "commondir";
+    private static final String LocalConfigFileName = "config";
+    static final int CacheCapacity = 64;
+
+    private static final Map<String, GitRepository> Cache = new LinkedHashMap<String, GitRepository>(16, 0.75f, true)
+    {
+        @Override protected boolean removeEldestEntry(final Map.Entry<String, GitRepository> eldest)
+        {
+            return size() > CacheCapacity;
+        }
+    };
+
+    /**
+     * The folder containing the .git folder or file, i.e. the root of the working tree.
+     */
+    public final File Root;
+    /**
+     * The repository's own folder, which the .git file of a submodule or a linked working tree
+     * points to; otherwise the .git folder.
+     */
+    public final File GitDir;
+    /**
+     * The folder shared by all the working trees of a repository, which contains the local
+     * configuration; the same as {@link #GitDir} unless it contains a commondir file.
+     */
+    public final File CommonDir;
+    /**
+     * The local configuration file, which might not exist.
+     */
+    public final File LocalConfig;
+
+    GitRepository(final File root, final File gitDir, final File commonDir)
+    {
+        Root = root;
+        GitDir = gitDir;
+        CommonDir = commonDir;
+        LocalConfig = new File(commonDir, LocalConfigFileName);
+    }
+
+    /**
+     * Finds the repository containing the specified directory.
+     *
+     * @param startingDirectory A directory of the repository.
+     * @return The repository, or {@code null} if the directory isn't in a repository.
+     * @throws IOException if reading a .git or commondir file fails.
+     */
+    public static GitRepository find(final String startingDirectory) throws IOException
+    {
+        if (StringHelper.isNullOrWhiteSpace(startingDirectory))
+            return null;
+
+        final String key = new File(startingDirectory).getAbsolutePath();
+        synchronized (Cache)
+        {
+            final GitRepository cached = Cache.get(key);
+            // a single check notices when the repository was deleted or moved
+            if (cached != null && cached.GitDir.isDirectory())
+            {
+                return cached;
+            }
+        }
+
+        final GitRepository result = locate(new File(key));
+        if (result != null)
+        {
+            synchronized (Cache)
+            {
+                Cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    static void clearCache()
+    {
+        synchronized (Cache)
+        {
+            Cache.clear();
+        }
+    }
+
+    static GitRepository locate(final File startingDirectory) throws IOException
+    {
+        Trace.writeLine("GitRepository::locate");
+
+        File dir = startingDirectory;
+        File dotGit = null;
+        // the file system's root isn't considered
+        while (dir != null && dir.exists() && dir.getParentFile() != null)
+        {
+            final File candidate = new File(dir, GitOdbFolderName);
+            if (candidate.exists())
+            {
+                dotGit = candidate;
+                break;
+            }
+            dir = dir.getParentFile();
+        }
+        if (dotGit == null)
+            return null;
+
+        final File gitDir;
+        if (dotGit.isDirectory())
+        {
+            gitDir = dotGit;
+        }
+        else
+        {
+            // submodules and linked working trees have a file like gitdir: ../.git/modules/libgit2sharp
+            final String target = readFirstLine(dotGit);
+            if (target == null || !target.regionMatches(true, 0, GitDirPrefix, 0, GitDirPrefix.length()))
+                return null;
+            gitDir = resolve(dir, target.substring(GitDirPrefix.length()).trim());
+            if (!gitDir.isDirectory())
+                return null;
+        }
+
+        // linked working trees have a file like ../.. pointing to the main repository's folder
+        File commonDir = gitDir;
+        final File commonDirFile = new File(gitDir, CommonDirFileName);
+        if (commonDirFile.isFile())
+        {
+            final String target = readFirstLine(commonDirFile);
+            if (!StringHelper.isNullOrWhiteSpace(target))
+            {
+                commonDir = resolve(gitDir, target.trim());
+            }
+        }
+
+        Trace.writeLine("   gitdir = " + gitDir);
+        return new GitRepository(dir, gitDir, commonDir);
+    }
+
+    private static File resolve(final File base, final String path)
+    {
+        final File file = new File(path);
+        final File result = file.isAbsolute() ? file : new File(base, path);
+        try
+        {
+            return result.getCanonicalFile();
+        }
+        catch (final IOException ignored)
+        {
+            return result.getAbsoluteFile();
+        }
+    }
+
+    private static String readFirstLine(final File file) throws IOException
+    {
+        final String content = IOHelper.readFileToString(file);
+        int end = 0;
+        while (end < content.length() && content.charAt(end) != '\n' && content.charAt(end) != '\r')
+        {
+            end++;
+        }
+        return content.substring(0, end);
+    }
+}
@@ -0,0 +1,436 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.HttpClient;
+import com.microsoft.alm.helpers.IOHelper;
+import com.microsoft.alm.helpers.StringContent;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Creates the {@link HttpClient} used for each request to the authorities.
+ *
+ * The connections are kept alive and pooled per host by {@link HttpURLConnection}, provided the
+ * responses are read to the end (see {@link #release(HttpURLConnection)}) and the connections
+ * to the same host share an {@link SSLSocketFactory}, which also lets new connections resume
+ * the host's TLS session instead of performing a full handshake.  The clients themselves are
+ * cheap and are not shared, since callers add the credentials to their {@link HttpClient#Headers}.
+ *
+ * Every request has a connect and a read timeout, lowered to the time left before the
+ * {@link Deadline} of the client's operation, if any.  Once the deadline passed, the requests
+ * fail with a {@link SocketTimeoutException} without being sent.
+ *
+ * Given a {@link CircuitBreaker}, the clients connect as soon as a request is created, to
+ * report whether the host could be reached, and the requests to the hosts whose circuit is
+ * open fail with a {@link CircuitOpenException} without being sent.
+ */
+public class HttpClientFactory
+{
+    /**
+     * The factory shared by all the authorities, unless another one is provided.
+     */
+    public static final HttpClientFactory Default = new HttpClientFactory();
+
+    /**
+     * The longest wait, in milliseconds, for a connection to an end-point.
+     */
+    public static final int ConnectTimeout = 15 * 1000;
+    /**
+     * The longest wait, in milliseconds, for the next bytes of a response.
+     */
+    public static final int ReadTimeout = 30 * 1000;
+
+    private static final int BufferSize = 4096;
+
+    private final CountingSSLSocketFactory sslSocketFactory;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile CircuitBreaker circuitBreaker;
+
+    public HttpClientFactory()
+    {
+        this(HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    HttpClientFactory(final SSLSocketFactory sslSocketFactory)
+    {
+        this.sslSocketFactory = new CountingSSLSocketFactory(sslSocketFactory);
+    }
+
+    /**
+     * Creates a client whose HTTPS connections are counted and share this factory's
+     * {@link SSLSocketFactory}.
+     *
+     * @param userAgent The value of the User-Agent header.
+     * @return A new {@link HttpClient}.
+     */
+    public HttpClient createHttpClient(final String userAgent)
+    {
+        return createHttpClient(userAgent, Deadline.None);
+    }
+
+    /**
+     * Creates a client like {@link #createHttpClient(String)}, whose requests time out no later
+     * than the deadline.
+     *
+     * @param userAgent The value of the User-Agent header.
+     * @param deadline  When the operation the requests are part of has to be done.
+     * @return A new {@link HttpClient}.
+     */
+    public HttpClient createHttpClient(final String userAgent, final Deadline deadline)
+    {
+        return new PooledHttpClient(userAgent, deadline);
+    }
+
+    /**
+     * Lets the requests to the hosts that couldn't be reached lately fail right away.
+     *
+     * @param circuitBreaker Remembers the failures to connect to each host; null to always
+     *                       send the requests.
+     */
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker)
+    {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param uri An end-point.
+     * @return True if the requests to the host of the end-point fail right away, because it
+     * couldn't be reached lately; false otherwise.
+     */
+    public boolean isCircuitOpen(final URI uri)
+    {
+        final CircuitBreaker breaker = circuitBreaker;
+        return breaker != null && breaker.isOpen(uri);
+    }
+
+    /**
+     * @return The number of HTTPS requests, connections and resumed TLS sessions so far.
+     */
+    public Statistics getStatistics()
+    {
+        return new Statistics(requests.get(), sslSocketFactory.connectionsOpened.get(), sslSocketFactory.sessionsResumed.get());
+    }
+
+    SSLSocketFactory getSSLSocketFactory()
+    {
+        return sslSocketFactory;
+    }
+
+    void prepare(final HttpURLConnection connection, final Deadline deadline)
+    {
+        connection.setConnectTimeout(deadline.getTimeout(ConnectTimeout));
+        connection.setReadTimeout(deadline.getTimeout(ReadTimeout));
+        if (connection instanceof HttpsURLConnection)
+        {
+            requests.incrementAndGet();
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+    }
+
+    void ensureCircuitClosed(final URI uri) throws CircuitOpenException
+    {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.allowRequest(uri))
+            throw new CircuitOpenException(uri);
+    }
+
+    HttpURLConnection connected(final URI uri, final HttpURLConnection connection) throws IOException
+    {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null)
+        {
+            connection.connect();
+            breaker.recordSuccess(uri);
+        }
+        return connection;
+    }
+
+    void failed(final URI uri, final HttpURLConnection connection, final IOException e)
+    {
+        final CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && isConnectFailure(connection, e))
+        {
+            breaker.recordFailure(uri);
+        }
+    }
+
+    /**
+     * Only the failures to reach the host count, not the errors of a host that was reached.
+     * The responses are read after the request was sent, so the timeouts thrown while sending
+     * are connect timeouts; those only count if the whole {@link #ConnectTimeout} was waited,
+     * since a timeout lowered by a {@link Deadline} says more about the deadline than the host.
+     */
+    static boolean isConnectFailure(final HttpURLConnection connection, final IOException e)
+    {
+        if (e instanceof ConnectException
+            || e instanceof NoRouteToHostException
+            || e instanceof UnknownHostException)
+        {
+            return true;
+        }
+        return e instanceof SocketTimeoutException
+            && connection != null
+            && connection.getConnectTimeout() >= ConnectTimeout;
+    }
+
+    /**
+     * Reads the rest of the response, or of the error response, and closes it, such that the
+     * connection can be reused for the next request to the same host.
+     *
+     * @param connection A connection whose response will not be read otherwise.
+     * @throws IOException if reading the response fails.
+     */
+    public static void release(final HttpURLConnection connection) throws IOException
+    {
+        final InputStream stream = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+            ? connection.getErrorStream()
+            : connection.getInputStream();
+        if (stream == null)
+            return;
+        try
+        {
+            final byte[] buffer = new byte[BufferSize];
+            while (stream.read(buffer) != -1)
+            {
+                // discard
+            }
+        }
+        finally
+        {
+            IOHelper.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * A snapshot of the connection-reuse counters of a {@link HttpClientFactory}.
+     */
+    public static final class Statistics
+    {
+        /**
+         * The number of HTTPS requests.
+         */
+        public final long Requests;
+        /**
+         * The number of HTTPS connections opened, i.e. the requests that didn't reuse one.
+         */
+        public final long ConnectionsOpened;
+        /**
+         * The number of connections that resumed a TLS session instead of starting a new one.
+         */
+        public final long SessionsResumed;
+
+        Statistics(final long requests, final long connectionsOpened, final long sessionsResumed)
+        {
+            Requests = requests;
+            ConnectionsOpened = connectionsOpened;
+            SessionsResumed = sessionsResumed;
+        }
+
+        /**
+         * @return The number of HTTPS requests sent over a connection kept alive from an earlier request.
+         */
+        public long getConnectionsReused()
+        {
+            return Math.max(0, Requests - ConnectionsOpened);
+        }
+
+        @Override public String toString()
+        {
+            return "requests = " + Requests
+                + ", connections opened = " + ConnectionsOpened
+                + ", connections reused = " + getConnectionsReused()
+                + ", TLS sessions resumed = " + SessionsResumed;
+        }
+    }
+
+    private class PooledHttpClient extends HttpClient
+    {
+        private final Deadline deadline;
+
+        PooledHttpClient(final String userAgent, final Deadline deadline)
+        {
+            super(userAgent);
+            this.deadline = deadline;
+        }
+
+        @Override public HttpURLConnection head(final URI uri) throws IOException
+        {
+            return head(uri, null);
+        }
+
+        @Override public HttpURLConnection head(final URI uri, final Action<HttpURLConnection> interceptor) throws IOException
+        {
+            ensureTimeLeft(uri);
+            ensureCircuitClosed(uri);
+            final AtomicReference<HttpURLConnection> prepared = new AtomicReference<HttpURLConnection>();
+            try
+            {
+                return connected(uri, super.head(uri, intercept(interceptor, prepared)));
+            }
+            catch (final IOException e)
+            {
+                failed(uri, prepared.get(), e);
+                throw e;
+            }
+        }
+
+        @Override public HttpURLConnection get(final URI uri) throws IOException
+        {
+            return get(uri, null);
+        }
+
+        @Override public HttpURLConnection get(final URI uri, final Action<HttpURLConnection> interceptor) throws IOException
+        {
+            ensureTimeLeft(uri);
+            ensureCircuitClosed(uri);
+            final AtomicReference<HttpURLConnection> prepared = new AtomicReference<HttpURLConnection>();
+            try
+            {
+                return connected(uri, super.get(uri, intercept(interceptor, prepared)));
+            }
+            catch (final IOException e)
+            {
+                failed(uri, prepared.get(), e);
+                throw e;
+            }
+        }
+
+        @Override public HttpURLConnection post(final URI uri, final StringContent content) throws IOException
+        {
+            return post(uri, content, null);
+        }
+
+        @Override public HttpURLConnection post(final URI uri, final StringContent content, final Action<HttpURLConnection> interceptor) throws IOException
+        {
+            ensureTimeLeft(uri);
+            ensureCircuitClosed(uri);
+            final AtomicReference<HttpURLConnection> prepared = new AtomicReference<HttpURLConnection>();
+            try
+            {
+                return connected(uri, super.post(uri, content, intercept(interceptor, prepared)));
+            }
+            catch (final IOException e)
+            {
+                failed(uri, prepared.get(), e);
+                throw e;
+            }
+        }
+
+        private void ensureTimeLeft(final URI uri) throws SocketTimeoutException
+        {
+            if (deadline.hasPassed())
+                throw new SocketTimeoutException("The deadline passed before the request to " + uri + " could be sent.");
+        }
+
+        private Action<HttpURLConnection> intercept(final Action<HttpURLConnection> interceptor, final AtomicReference<HttpURLConnection> prepared)
+        {
+            return new Action<HttpURLConnection>()
+            {
+                @Override public void call(final HttpURLConnection connection)
+                {
+                    prepare(connection, deadline);
+                    prepared.set(connection);
+                    if (interceptor != null)
+                    {
+                        interceptor.call(connection);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Counts the sockets created for new connections and, once their handshake completes, the
+     * ones whose session was created before them, i.e. resumed.
+     */
+    static class CountingSSLSocketFactory extends SSLSocketFactory
+    {
+        final AtomicLong connectionsOpened = new AtomicLong();
+        final AtomicLong sessionsResumed = new AtomicLong();
+        private final SSLSocketFactory delegate;
+
+        CountingSSLSocketFactory(final SSLSocketFactory delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override public String[] getDefaultCipherSuites()
+        {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override public String[] getSupportedCipherSuites()
+        {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override public Socket createSocket() throws IOException
+        {
+            return count(delegate.createSocket());
+        }
+
+        @Override public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException
+        {
+            return count(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override public Socket createSocket(final String host, final int port) throws IOException
+        {
+            return count(delegate.createSocket(host, port));
+        }
+
+        @Override public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException
+        {
+            return count(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override public Socket createSocket(final InetAddress host, final int port) throws IOException
+        {
+            return count(delegate.createSocket(host, port));
+        }
+
+        @Override public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort) throws IOException
+        {
+            return count(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        Socket count(final Socket socket)
+        {
+            connectionsOpened.incrementAndGet();
+            if (socket instanceof SSLSocket)
+            {
+                final long createdAt = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener()
+                {
+                    @Override public void handshakeCompleted(final HandshakeCompletedEvent event)
+                    {
+                        if (event.getSession().getCreationTime() < createdAt)
+                        {
+                            sessionsResumed.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            return socket;
+        }
+    }
+}
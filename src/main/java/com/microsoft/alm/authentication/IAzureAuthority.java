@@ -16,4 +16,5 @@ interface IAzureAuthority
     TokenPair acquireToken(final URI targetUri, final String clientId, final String resource, final Credential credentials);
     TokenPair acquireToken(final URI targetUri, final String clientId, final String resource, final URI redirectUri, final Action<DeviceFlowResponse> callback);
     TokenPair acquireTokenByRefreshToken(final URI targetUri, final String clientId, final String resource, final Token refreshToken);
+    void setDeadline(final Deadline deadline);
 }
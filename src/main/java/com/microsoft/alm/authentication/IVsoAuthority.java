@@ -14,4 +14,5 @@ interface IVsoAuthority extends IAzureAuthority
     Token generatePersonalAccessToken(final URI targetUri, final Token accessToken, final VsoTokenScope tokenScope, final boolean requireCompactToken);
     boolean validateCredentials(final URI targetUri, final Credential credentials);
     boolean validateToken(final URI targetUri, final Token token);
+    boolean isCircuitOpen(final URI targetUri);
 }
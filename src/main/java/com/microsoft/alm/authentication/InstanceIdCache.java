@@ -0,0 +1,84 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.Guid;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers the instance id of each Visual Studio Team Services account, which a personal
+ * access token is scoped to, such that generating one doesn't first need to look it up.
+ * The instance id of an account doesn't change unless the account is moved, in which case
+ * the request using it fails and the entry should be {@link #remove(URI) removed}.
+ */
+public class InstanceIdCache
+{
+    private final File file;
+
+    public InstanceIdCache(final File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @param targetUri  The target resource of the account.
+     * @param instanceId The account's instance id, if found.
+     * @return True if the instance id of the account is known; false otherwise.
+     */
+    public boolean tryGet(final URI targetUri, final AtomicReference<UUID> instanceId)
+    {
+        final Properties properties = PropertiesFile.load(file);
+        if (properties == null)
+            return false;
+
+        final String value = properties.getProperty(createKey(targetUri));
+        return value != null && Guid.tryParse(value, instanceId);
+    }
+
+    public void put(final URI targetUri, final UUID instanceId)
+    {
+        Trace.writeLine("InstanceIdCache::put");
+
+        final String key = createKey(targetUri);
+        final String value = instanceId.toString();
+        final Properties current = PropertiesFile.load(file);
+        if (current != null && value.equals(current.getProperty(key)))
+            return;
+
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                properties.setProperty(key, value);
+            }
+        });
+    }
+
+    public void remove(final URI targetUri)
+    {
+        Trace.writeLine("InstanceIdCache::remove");
+
+        final String key = createKey(targetUri);
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                properties.remove(key);
+            }
+        });
+    }
+
+    private static String createKey(final URI targetUri)
+    {
+        return targetUri.getHost().toLowerCase(Locale.ENGLISH);
+    }
+}
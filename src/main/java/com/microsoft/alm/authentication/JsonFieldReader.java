@@ -0,0 +1,298 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.IOHelper;
+import com.microsoft.alm.helpers.PropertyBag;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the members of a JSON object straight from a response stream, without buffering the
+ * whole body, and stops as soon as the members that were asked for have all been found.  Only
+ * the top-level members with a string, number, boolean or null value are read, which is all
+ * the authorities need; objects and arrays are skipped, like the members that weren't asked for.
+ * Numbers are read as {@link Double}, as {@link PropertyBag#fromJson(String)} does.
+ */
+class JsonFieldReader
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NoCharacter = -2;
+
+    private final Reader reader;
+    private int peeked = NoCharacter;
+
+    JsonFieldReader(final Reader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads members of the JSON object in the stream, then closes it.
+     *
+     * @param stream The stream, encoded in UTF-8.
+     * @param names  The names of the members to read; none to read them all.
+     * @return the members that were found.
+     * @throws IOException if the stream can't be read or doesn't hold a JSON object.
+     */
+    static PropertyBag read(final InputStream stream, final String... names) throws IOException
+    {
+        try
+        {
+            final Reader reader = new BufferedReader(new InputStreamReader(stream, UTF_8));
+            return new JsonFieldReader(reader).readObject(names);
+        }
+        finally
+        {
+            IOHelper.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Reads members of the JSON object the reader is positioned at, leaving the reader right
+     * after the last member that was asked for or after the end of the object.
+     *
+     * @param names The names of the members to read; none to read them all.
+     * @return the members that were found.
+     * @throws IOException if the reader can't be read or doesn't hold a JSON object.
+     */
+    PropertyBag readObject(final String... names) throws IOException
+    {
+        final Set<String> remaining = names.length == 0 ? null : new HashSet<String>(Arrays.asList(names));
+        final PropertyBag result = new PropertyBag();
+
+        expect('{');
+        if (peekSignificant() == '}')
+        {
+            read();
+            return result;
+        }
+        while (true)
+        {
+            expect('"');
+            final String name = readStringRest();
+            expect(':');
+            final int first = peekSignificant();
+            if ((remaining == null || remaining.remove(name)) && first != '{' && first != '[')
+            {
+                result.put(name, readScalar());
+                if (remaining != null && remaining.isEmpty())
+                    return result;
+            }
+            else
+            {
+                skipValue();
+            }
+
+            final int c = readSignificant();
+            if (c == '}')
+                return result;
+            if (c != ',')
+                throw unexpected(c);
+        }
+    }
+
+    private Object readScalar() throws IOException
+    {
+        if (peekSignificant() == '"')
+        {
+            read();
+            return readStringRest();
+        }
+        return readLiteral();
+    }
+
+    private void skipValue() throws IOException
+    {
+        final int c = readSignificant();
+        switch (c)
+        {
+            case '"':
+                readStringRest();
+                break;
+            case '{':
+                skipContainerRest('}');
+                break;
+            case '[':
+                skipContainerRest(']');
+                break;
+            default:
+                peeked = c;
+                readLiteral();
+                break;
+        }
+    }
+
+    private void skipContainerRest(final char end) throws IOException
+    {
+        if (peekSignificant() == end)
+        {
+            read();
+            return;
+        }
+        while (true)
+        {
+            if (end == '}')
+            {
+                expect('"');
+                readStringRest();
+                expect(':');
+            }
+            skipValue();
+
+            final int c = readSignificant();
+            if (c == end)
+                return;
+            if (c != ',')
+                throw unexpected(c);
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote was just read, decoding its escapes.
+     */
+    private String readStringRest() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        while (true)
+        {
+            final int c = read();
+            switch (c)
+            {
+                case '"':
+                    return sb.toString();
+                case '\\':
+                    sb.append(readEscapeRest());
+                    break;
+                case -1:
+                    throw unexpected(c);
+                default:
+                    if (c < 0x20)
+                        throw unexpected(c);
+                    sb.append((char) c);
+                    break;
+            }
+        }
+    }
+
+    private char readEscapeRest() throws IOException
+    {
+        final int c = read();
+        switch (c)
+        {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++)
+                {
+                    final int digit = Character.digit(read(), 16);
+                    if (digit == -1)
+                        throw new IOException("Invalid unicode escape in JSON string.");
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+            default:
+                throw unexpected(c);
+        }
+    }
+
+    private Object readLiteral() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        int c = peekSignificant();
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c))
+        {
+            sb.append((char) read());
+            c = peek();
+        }
+        final String literal = sb.toString();
+        if ("null".equals(literal))
+            return null;
+        if ("true".equals(literal))
+            return Boolean.TRUE;
+        if ("false".equals(literal))
+            return Boolean.FALSE;
+        try
+        {
+            return Double.valueOf(literal);
+        }
+        catch (final NumberFormatException e)
+        {
+            throw new IOException("Invalid JSON literal '" + literal + "'.");
+        }
+    }
+
+    private void expect(final char expected) throws IOException
+    {
+        final int c = readSignificant();
+        if (c != expected)
+            throw unexpected(c);
+    }
+
+    private int peekSignificant() throws IOException
+    {
+        int c = peek();
+        while (isWhitespace(c))
+        {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int readSignificant() throws IOException
+    {
+        peekSignificant();
+        return read();
+    }
+
+    private int peek() throws IOException
+    {
+        if (peeked == NoCharacter)
+        {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+
+    private int read() throws IOException
+    {
+        final int result = peek();
+        peeked = NoCharacter;
+        return result;
+    }
+
+    private static boolean isWhitespace(final int c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static IOException unexpected(final int c)
+    {
+        if (c == -1)
+            return new IOException("Unexpected end of JSON content.");
+        return new IOException("Unexpected character '" + (char) c + "' in JSON content.");
+    }
+}
@@ -8,6 +8,7 @@ class OAuthParameter
     static final String RESPONSE_TYPE = "response_type";
     static final String GRANT_TYPE = "grant_type";
     static final String AUTHORIZATION_CODE = "authorization_code";
+    static final String REFRESH_TOKEN = "refresh_token";
     static final String DEVICE_CODE = "device_code";
     static final String USER_CODE = "user_code";
     static final String CLIENT_ID = "client_id";
@@ -0,0 +1,194 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.IOHelper;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+
+/**
+ * Reads and writes the small {@link Properties} files the helper remembers things in, such that
+ * concurrent helper processes never see a partial file nor lose each other's changes, since
+ * they update the files in turn.
+ */
+class PropertiesFile
+{
+    private static final String LockFileSuffix = ".lock";
+
+    /**
+     * @return the properties, or {@code null} if the file doesn't exist or can't be read.
+     */
+    static Properties load(final File file)
+    {
+        if (!file.isFile())
+            return null;
+
+        FileInputStream fis = null;
+        try
+        {
+            fis = new FileInputStream(file);
+            final Properties result = new Properties();
+            result.load(fis);
+            return result;
+        }
+        catch (final IOException e)
+        {
+            Trace.writeLine("   unable to read " + file + ": " + e.getMessage());
+            return null;
+        }
+        finally
+        {
+            IOHelper.closeQuietly(fis);
+        }
+    }
+
+    /**
+     * @return the value as a time or a count, or {@link Long#MAX_VALUE} if it is missing or
+     * isn't a number, which no {@link #isWithin(long, long, long) period} includes.
+     */
+    static long parseLong(final String value)
+    {
+        if (value == null)
+            return Long.MAX_VALUE;
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (final NumberFormatException ignored)
+        {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return True if {@code now} is less than {@code period} milliseconds after {@code start};
+     * false otherwise, including when a clock set back makes {@code start} look like it's in
+     * the future.
+     */
+    static boolean isWithin(final long start, final long now, final long period)
+    {
+        return start <= now && now - start < period;
+    }
+
+    static void store(final File file, final Properties properties)
+    {
+        final File folder = file.getAbsoluteFile().getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs())
+        {
+            Trace.writeLine("   unable to create " + folder);
+            return;
+        }
+
+        File tempFile = null;
+        FileOutputStream fos = null;
+        try
+        {
+            tempFile = File.createTempFile(file.getName(), ".tmp", folder);
+            fos = new FileOutputStream(tempFile);
+            properties.store(fos, null);
+            fos.close();
+            fos = null;
+
+            replace(file, tempFile);
+        }
+        catch (final IOException e)
+        {
+            Trace.writeLine("   unable to write " + file + ": " + e.getMessage());
+        }
+        finally
+        {
+            IOHelper.closeQuietly(fos);
+            if (tempFile != null && tempFile.isFile())
+            {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves a completely written temporary file, created in the same folder, over the target,
+     * such that concurrent readers never see a partial file.
+     *
+     * @return {@code true} if the target was replaced; {@code false} otherwise.
+     */
+    static boolean replace(final File target, final File tempFile)
+    {
+        // File.renameTo() won't replace an existing file on all platforms
+        if (!tempFile.renameTo(target))
+        {
+            target.delete();
+            if (!tempFile.renameTo(target))
+            {
+                Trace.writeLine("   unable to replace " + target);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the properties, lets the {@code updater} change them and writes them back while
+     * holding a lock on a file next to them, such that the changes other processes make at
+     * the same time aren't overwritten.
+     *
+     * @param file    The properties file, which doesn't need to exist.
+     * @param updater Changes the properties.
+     */
+    static void update(final File file, final Action<Properties> updater)
+    {
+        final File folder = file.getAbsoluteFile().getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs())
+        {
+            Trace.writeLine("   unable to create " + folder);
+            return;
+        }
+
+        // file locks are held by the process, so the threads of this one take turns first
+        synchronized (PropertiesFile.class)
+        {
+            RandomAccessFile lockFile = null;
+            FileLock lock = null;
+            try
+            {
+                lockFile = new RandomAccessFile(new File(folder, file.getName() + LockFileSuffix), "rw");
+                lock = lockFile.getChannel().lock();
+
+                Properties properties = load(file);
+                if (properties == null)
+                {
+                    properties = new Properties();
+                }
+                updater.call(properties);
+                store(file, properties);
+            }
+            catch (final IOException e)
+            {
+                Trace.writeLine("   unable to lock " + file + ": " + e.getMessage());
+            }
+            finally
+            {
+                if (lock != null)
+                {
+                    try
+                    {
+                        lock.release();
+                    }
+                    catch (final IOException ignored)
+                    {
+                        // closing the file releases the lock anyway
+                    }
+                }
+                IOHelper.closeQuietly(lockFile);
+            }
+        }
+    }
+}
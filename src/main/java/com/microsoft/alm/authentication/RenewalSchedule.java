@@ -0,0 +1,144 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Remembers when the personal access token stored for each target expires, such that they
+ * can be renewed ahead of time, without waiting for git to ask for them.  The secure stores
+ * can't list their secrets, so this is also how the targets with renewable credentials are
+ * found.  An entry is {@link #remove(URI) removed} when its credentials are erased, or when
+ * they could no longer be renewed.
+ */
+public class RenewalSchedule
+{
+    private final File file;
+
+    public RenewalSchedule(final File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Records when the credentials just stored for the target expire.
+     *
+     * @param targetUri The target resource the credentials grant access to.
+     * @param expires   When the credentials expire, in milliseconds since the epoch.
+     */
+    public void schedule(final URI targetUri, final long expires)
+    {
+        Trace.writeLine("RenewalSchedule::schedule");
+
+        final String key = createKey(targetUri);
+        final String value = String.valueOf(expires);
+        final Properties current = PropertiesFile.load(file);
+        if (current != null && value.equals(current.getProperty(key)))
+            return;
+
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                properties.setProperty(key, value);
+            }
+        });
+    }
+
+    public void remove(final URI targetUri)
+    {
+        remove(targetUri, null);
+    }
+
+    /**
+     * Takes the target off the schedule, unless its credentials were scheduled again since.
+     *
+     * @param targetUri The target resource the credentials grant access to.
+     * @param expires   When the credentials were scheduled to expire.
+     */
+    public void remove(final URI targetUri, final long expires)
+    {
+        remove(targetUri, String.valueOf(expires));
+    }
+
+    private void remove(final URI targetUri, final String expectedValue)
+    {
+        final String key = createKey(targetUri);
+        final Properties current = PropertiesFile.load(file);
+        if (current == null || !current.containsKey(key))
+            return;
+
+        Trace.writeLine("RenewalSchedule::remove");
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                if (expectedValue == null || expectedValue.equals(properties.getProperty(key)))
+                {
+                    properties.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param time A time, in milliseconds since the epoch.
+     * @return the targets whose credentials expire before the time, with the time they
+     * expire, the soonest first.
+     */
+    public Map<URI, Long> getExpiringBefore(final long time)
+    {
+        final Map<URI, Long> result = new LinkedHashMap<URI, Long>();
+        final Properties properties = PropertiesFile.load(file);
+        if (properties == null)
+            return result;
+
+        final Map<URI, Long> expiring = new LinkedHashMap<URI, Long>();
+        for (final String name : properties.stringPropertyNames())
+        {
+            try
+            {
+                final long expires = Long.parseLong(properties.getProperty(name));
+                if (expires < time)
+                {
+                    expiring.put(URI.create(name), expires);
+                }
+            }
+            catch (final IllegalArgumentException ignored)
+            {
+                // also thrown for numbers that can't be parsed
+                Trace.writeLine("   ignoring invalid entry " + name);
+            }
+        }
+        final List<URI> targets = new ArrayList<URI>(expiring.keySet());
+        Collections.sort(targets, new Comparator<URI>()
+        {
+            @Override public int compare(final URI a, final URI b)
+            {
+                return expiring.get(a).compareTo(expiring.get(b));
+            }
+        });
+        for (final URI target : targets)
+        {
+            result.put(target, expiring.get(target));
+        }
+        return result;
+    }
+
+    private static String createKey(final URI targetUri)
+    {
+        return targetUri.toString();
+    }
+}
@@ -38,6 +38,19 @@ final class SecretCache implements ICredentialStore, ITokenStore
     private final String _namespace;
     private final Secret.IUriNameConversion _getTargetName;
 
+    /**
+     * Removes every secret from the cache, which is shared by all instances.
+     */
+    static void clear()
+    {
+        Trace.writeLine("SecretCache::clear");
+
+        synchronized (_cache)
+        {
+            _cache.clear();
+        }
+    }
+
     /**
      * Deletes a credential from the cache.
      *
@@ -175,6 +175,16 @@ public final class SecretStore extends BaseSecureStore implements ICredentialSto
         this.writeToken(targetName, token);
     }
 
+    /**
+     * Empties the in-memory cache shared by the {@link SecretStore} instances that weren't
+     * provided with a custom cache.  Long-lived processes must call this before serving a
+     * request, since other processes may have modified the backing stores in the meantime.
+     */
+    public static void clearDefaultCache()
+    {
+        SecretCache.clear();
+    }
+
     @Override protected String getTargetName(final URI targetUri)
     {
 
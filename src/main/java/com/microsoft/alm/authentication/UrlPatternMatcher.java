@@ -0,0 +1,275 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.StringHelper;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the configuration scopes that are URLs, such as
+ * {@code credential.https://*.example.com/path.helper}, matching a target the way git matches
+ * {@code <section>.<url>.<name>}: the scheme, the host (where {@code *} matches any single
+ * label), the port and the user name, if any, must be equal and the path must be a prefix of
+ * the target's path, one segment at a time.
+ *
+ * The patterns are compiled into a tree keyed by scheme, then by host label from the top-level
+ * domain down, such that a lookup only visits the patterns whose host could match.
+ */
+class UrlPatternMatcher
+{
+    private static final String SchemeSeparator = "://";
+    private static final String Wildcard = "*";
+
+    /**
+     * Most specific first: an exact host beats a wildcard, then a longer path, then a
+     * user name.
+     */
+    static final Comparator<Pattern> Specificity = new Comparator<Pattern>()
+    {
+        @Override public int compare(final Pattern a, final Pattern b)
+        {
+            if (a.wildcards != b.wildcards)
+                return a.wildcards < b.wildcards ? -1 : 1;
+            if (a.path.length() != b.path.length())
+                return a.path.length() > b.path.length() ? -1 : 1;
+            if ((a.user == null) != (b.user == null))
+                return a.user != null ? -1 : 1;
+            return 0;
+        }
+    };
+
+    private final Map<String, Node> schemes = new HashMap<String, Node>();
+
+    static boolean isUrl(final String scope)
+    {
+        return scope.indexOf(SchemeSeparator) > 0;
+    }
+
+    void add(final String scope)
+    {
+        final Pattern pattern = Pattern.parse(scope);
+        if (pattern == null)
+            return;
+
+        Node node = schemes.get(pattern.scheme);
+        if (node == null)
+        {
+            node = new Node();
+            schemes.put(pattern.scheme, node);
+        }
+        for (int i = pattern.labels.length - 1; i >= 0; i--)
+        {
+            node = node.child(pattern.labels[i]);
+        }
+        node.patterns.add(pattern);
+    }
+
+    /**
+     * @return the scopes matching the target, most specific first.
+     */
+    List<String> match(final URI targetUri)
+    {
+        if (targetUri == null || targetUri.getScheme() == null || StringHelper.isNullOrEmpty(targetUri.getHost()))
+            return Collections.emptyList();
+        final Node root = schemes.get(targetUri.getScheme().toLowerCase(Locale.ENGLISH));
+        if (root == null)
+            return Collections.emptyList();
+
+        final String[] labels = splitLabels(targetUri.getHost());
+        final int port = effectivePort(targetUri.getScheme(), targetUri.getPort());
+        final String path = normalizePath(targetUri.getRawPath());
+        final String user = userName(targetUri.getRawUserInfo());
+
+        final List<Pattern> matches = new ArrayList<Pattern>();
+        collect(root, labels, labels.length - 1, port, path, user, matches);
+        Collections.sort(matches, Specificity);
+
+        final List<String> result = new ArrayList<String>(matches.size());
+        for (final Pattern match : matches)
+        {
+            result.add(match.scope);
+        }
+        return result;
+    }
+
+    private static void collect(final Node node, final String[] labels, final int index, final int port, final String path, final String user, final List<Pattern> matches)
+    {
+        if (index < 0)
+        {
+            for (final Pattern pattern : node.patterns)
+            {
+                if (pattern.matches(port, path, user))
+                {
+                    matches.add(pattern);
+                }
+            }
+            return;
+        }
+        final Node exact = node.children.get(labels[index]);
+        if (exact != null)
+        {
+            collect(exact, labels, index - 1, port, path, user, matches);
+        }
+        final Node wildcard = node.children.get(Wildcard);
+        if (wildcard != null)
+        {
+            collect(wildcard, labels, index - 1, port, path, user, matches);
+        }
+    }
+
+    static String[] splitLabels(final String host)
+    {
+        return host.toLowerCase(Locale.ENGLISH).split("\\.", -1);
+    }
+
+    static int effectivePort(final String scheme, final int port)
+    {
+        if (port != -1)
+            return port;
+        if ("https".equalsIgnoreCase(scheme))
+            return 443;
+        if ("http".equalsIgnoreCase(scheme))
+            return 80;
+        return -1;
+    }
+
+    /**
+     * Removes the trailing slash, such that "/" becomes "" and matches every path.
+     */
+    static String normalizePath(final String path)
+    {
+        if (path == null)
+            return StringHelper.Empty;
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/')
+        {
+            end--;
+        }
+        return path.substring(0, end);
+    }
+
+    private static String userName(final String userInfo)
+    {
+        if (userInfo == null)
+            return null;
+        final int colon = userInfo.indexOf(':');
+        return colon == -1 ? userInfo : userInfo.substring(0, colon);
+    }
+
+    private static class Node
+    {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        final List<Pattern> patterns = new ArrayList<Pattern>(1);
+
+        Node child(final String label)
+        {
+            Node result = children.get(label);
+            if (result == null)
+            {
+                result = new Node();
+                children.put(label, result);
+            }
+            return result;
+        }
+    }
+
+    static class Pattern
+    {
+        final String scope;
+        final String scheme;
+        final String user;
+        final String[] labels;
+        final int wildcards;
+        final int port;
+        final String path;
+
+        private Pattern(final String scope, final String scheme, final String user, final String[] labels, final int port, final String path)
+        {
+            this.scope = scope;
+            this.scheme = scheme;
+            this.user = user;
+            this.labels = labels;
+            this.port = port;
+            this.path = path;
+            int count = 0;
+            for (final String label : labels)
+            {
+                if (Wildcard.equals(label))
+                {
+                    count++;
+                }
+            }
+            this.wildcards = count;
+        }
+
+        /**
+         * Parses a URL such as https://user@*.example.com:8443/path, which {@link URI} would
+         * reject because of the wildcard.
+         *
+         * @return the pattern, or {@code null} if the scope isn't a URL with a host.
+         */
+        static Pattern parse(final String scope)
+        {
+            final int schemeEnd = scope.indexOf(SchemeSeparator);
+            if (schemeEnd <= 0)
+                return null;
+            final String scheme = scope.substring(0, schemeEnd).toLowerCase(Locale.ENGLISH);
+            final int authorityStart = schemeEnd + SchemeSeparator.length();
+            int authorityEnd = scope.indexOf('/', authorityStart);
+            if (authorityEnd == -1)
+            {
+                authorityEnd = scope.length();
+            }
+            String hostAndPort = scope.substring(authorityStart, authorityEnd);
+            final String path = normalizePath(scope.substring(authorityEnd));
+
+            String user = null;
+            final int at = hostAndPort.lastIndexOf('@');
+            if (at != -1)
+            {
+                user = userName(hostAndPort.substring(0, at));
+                hostAndPort = hostAndPort.substring(at + 1);
+            }
+
+            int port = -1;
+            final int colon = hostAndPort.lastIndexOf(':');
+            if (colon != -1 && colon > hostAndPort.lastIndexOf(']'))
+            {
+                try
+                {
+                    port = Integer.parseInt(hostAndPort.substring(colon + 1));
+                }
+                catch (final NumberFormatException ignored)
+                {
+                    return null;
+                }
+                hostAndPort = hostAndPort.substring(0, colon);
+            }
+            if (hostAndPort.length() == 0)
+                return null;
+
+            return new Pattern(scope, scheme, user, splitLabels(hostAndPort), effectivePort(scheme, port), path);
+        }
+
+        boolean matches(final int targetPort, final String targetPath, final String targetUser)
+        {
+            if (port != targetPort)
+                return false;
+            if (user != null && !user.equals(targetUser))
+                return false;
+            // the path must match whole segments: /repo matches /repo/x but not /repository
+            if (!targetPath.startsWith(path))
+                return false;
+            return targetPath.length() == path.length() || targetPath.charAt(path.length()) == '/';
+        }
+    }
+}
@@ -0,0 +1,182 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.ObjectExtensions;
+import com.microsoft.alm.helpers.StringHelper;
+import com.microsoft.alm.helpers.Trace;
+import com.microsoft.alm.secret.Credential;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Remembers when credentials were last found to grant access to a host, such that a burst of
+ * operations, like a fetch followed by a submodule update, validates them only once.  The
+ * credentials are identified by a SHA-256 hash, never by their value, and all of a host's
+ * entries are {@link #invalidate(URI) invalidated} when git reports its credentials were
+ * rejected.
+ */
+public class ValidationCache
+{
+    /**
+     * How long credentials are considered valid after they were validated: five minutes.
+     */
+    public static final long DefaultWindow = 5L * 60 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final long window;
+
+    /**
+     * @param file   The file in which to remember the validations.
+     * @param window How long, in milliseconds, credentials are considered valid after they were
+     *               validated; 0 to always validate them.
+     */
+    public ValidationCache(final File file, final long window)
+    {
+        this.file = file;
+        this.window = window;
+    }
+
+    /**
+     * @param targetUri   The target resource the credentials grant access to.
+     * @param credentials The credentials about to be validated.
+     * @return True if the credentials were validated within the window; false otherwise.
+     */
+    public boolean isValidated(final URI targetUri, final Credential credentials)
+    {
+        if (window <= 0)
+            return false;
+        final Properties properties = PropertiesFile.load(file);
+        if (properties == null)
+            return false;
+
+        final long validated = PropertiesFile.parseLong(properties.getProperty(createKey(targetUri, credentials)));
+        return PropertiesFile.isWithin(validated, now(), window);
+    }
+
+    /**
+     * Records that the credentials were just found to grant access to the target resource.
+     */
+    public void validated(final URI targetUri, final Credential credentials)
+    {
+        if (window <= 0)
+            return;
+
+        Trace.writeLine("ValidationCache::validated");
+
+        final String key = createKey(targetUri, credentials);
+        final long now = now();
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                removeExpired(properties, now);
+                properties.setProperty(key, String.valueOf(now));
+            }
+        });
+    }
+
+    /**
+     * Forgets all the validations for the target's host, such that the next credentials
+     * are validated again.
+     *
+     * @param targetUri The target resource whose credentials were rejected.
+     */
+    public void invalidate(final URI targetUri)
+    {
+        final String prefix = createHostKey(targetUri) + ".";
+        final Properties current = PropertiesFile.load(file);
+        if (current == null || !containsPrefix(current, prefix))
+            return;
+
+        Trace.writeLine("ValidationCache::invalidate");
+        PropertiesFile.update(file, new Action<Properties>()
+        {
+            @Override public void call(final Properties properties)
+            {
+                for (final String name : properties.stringPropertyNames())
+                {
+                    if (name.startsWith(prefix))
+                    {
+                        properties.remove(name);
+                    }
+                }
+            }
+        });
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+    static String createKey(final URI targetUri, final Credential credentials)
+    {
+        final String hostKey = createHostKey(targetUri);
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(hostKey.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(ObjectExtensions.coalesce(credentials.Username, StringHelper.Empty).getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(ObjectExtensions.coalesce(credentials.Password, StringHelper.Empty).getBytes(UTF_8));
+            final byte[] hash = digest.digest();
+            final StringBuilder sb = new StringBuilder(hostKey.length() + 1 + hash.length * 2);
+            sb.append(hostKey).append('.');
+            for (final byte b : hash)
+            {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            throw new Error(e);
+        }
+    }
+
+    private static String createHostKey(final URI targetUri)
+    {
+        return ObjectExtensions.coalesce(targetUri.getHost(), StringHelper.Empty).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static boolean containsPrefix(final Properties properties, final String prefix)
+    {
+        for (final String name : properties.stringPropertyNames())
+        {
+            if (name.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private void removeExpired(final Properties properties, final long now)
+    {
+        final List<String> expired = new ArrayList<String>();
+        for (final String name : properties.stringPropertyNames())
+        {
+            final long validated = PropertiesFile.parseLong(properties.getProperty(name));
+            if (!PropertiesFile.isWithin(validated, now, window))
+            {
+                expired.add(name);
+            }
+        }
+        for (final String name : expired)
+        {
+            properties.remove(name);
+        }
+    }
+}
@@ -45,13 +45,13 @@ public final class VsoAadAuthentication extends BaseVsoAuthentication implements
               adaRefreshTokenStore);
         if (tenantId == null || tenantId.equals(Guid.Empty))
         {
-            this.VsoAuthority = new VsoAzureAuthority(DefaultAuthorityHost);
+            this.AuthorityHostUrl = DefaultAuthorityHost;
         }
         else
         {
             // create an authority host url in the format of https://login.microsoft.com/12345678-9ABC-DEF0-1234-56789ABCDEF0
             String authorityHost = AzureAuthority.getAuthorityUrl(tenantId);
-            this.VsoAuthority = new VsoAzureAuthority(authorityHost);
+            this.AuthorityHostUrl = authorityHost;
         }
     }
 
@@ -92,7 +92,7 @@ public final class VsoAadAuthentication extends BaseVsoAuthentication implements
         Trace.writeLine("VsoAadAuthentication::interactiveLogon");
 
         TokenPair tokens;
-        if ((tokens = this.VsoAuthority.acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, (String) null)) != null)
+        if ((tokens = getVsoAuthority().acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, (String) null)) != null)
         {
             Trace.writeLine("   token acquisition succeeded.");
 
@@ -153,7 +153,7 @@ public final class VsoAadAuthentication extends BaseVsoAuthentication implements
         Trace.writeLine("VsoAadAuthentication::deviceLogon");
 
         TokenPair tokens;
-        if ((tokens = this.VsoAuthority.acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, callback)) != null)
+        if ((tokens = getVsoAuthority().acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, callback)) != null)
         {
             Trace.writeLine("   token successfully acquired.");
 
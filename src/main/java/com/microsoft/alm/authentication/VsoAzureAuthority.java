@@ -3,12 +3,12 @@
 
 package com.microsoft.alm.authentication;
 
-import com.microsoft.alm.helpers.Action;
 import com.microsoft.alm.helpers.Debug;
 import com.microsoft.alm.helpers.Environment;
 import com.microsoft.alm.helpers.Guid;
 import com.microsoft.alm.helpers.HttpClient;
 import com.microsoft.alm.helpers.NotImplementedException;
+import com.microsoft.alm.helpers.PropertyBag;
 import com.microsoft.alm.helpers.StringContent;
 import com.microsoft.alm.helpers.StringHelper;
 import com.microsoft.alm.helpers.Trace;
@@ -18,8 +18,14 @@ import com.microsoft.alm.secret.TokenType;
 import com.microsoft.alm.secret.VsoTokenScope;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
@@ -27,21 +33,55 @@ import java.util.regex.Pattern;
 
 class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
 {
-    /**
-     * The maximum wait time for a network request before timing out
-     */
-    public static final int RequestTimeout = 15 * 1000; // 15 second limit
-
     public VsoAzureAuthority() { this (null); }
     public VsoAzureAuthority(final String authorityHostUrl)
     {
-        super();
+        this(authorityHostUrl, HttpClientFactory.Default);
+    }
+    public VsoAzureAuthority(final String authorityHostUrl, final HttpClientFactory httpClientFactory)
+    {
+        super(DefaultAuthorityHostUrl, httpClientFactory);
         if (authorityHostUrl != null)
         {
             this.authorityHostUrl = authorityHostUrl;
         }
     }
 
+    private InstanceIdCache instanceIdCache;
+    private RenewalSchedule renewalSchedule;
+
+    /**
+     * Lets {@link #generatePersonalAccessToken(URI, Token, VsoTokenScope, boolean)} skip looking
+     * up the instance id of the accounts it was looked up for before.
+     *
+     * @param instanceIdCache Remembers the instance id of the accounts; null to always look it up.
+     */
+    void setInstanceIdCache(final InstanceIdCache instanceIdCache)
+    {
+        this.instanceIdCache = instanceIdCache;
+    }
+
+    /**
+     * Lets the personal access tokens be renewed before they expire.
+     *
+     * @param renewalSchedule Remembers when the personal access tokens generated for each
+     *                        target expire; null to not remember it.
+     */
+    void setRenewalSchedule(final RenewalSchedule renewalSchedule)
+    {
+        this.renewalSchedule = renewalSchedule;
+    }
+
+    /**
+     * @param targetUri The resource the requests would be sent to.
+     * @return True if the requests to the host of the resource fail right away, because it
+     * couldn't be reached lately; false otherwise.
+     */
+    @Override public boolean isCircuitOpen(final URI targetUri)
+    {
+        return httpClientFactory.isCircuitOpen(targetUri);
+    }
+
     /**
      * Generates a personal access token for use with Visual Studio Online.
      *
@@ -65,30 +105,40 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
 
         try
         {
-            // TODO: 449524: create a `HttpClient` with a minimum number of redirects, default creds, and a reasonable timeout (access token generation seems to hang occasionally)
-            final HttpClient client = new HttpClient(Global.getUserAgent());
+            // TODO: 449524: create a `HttpClient` with a minimum number of redirects and default creds
+            final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
             Trace.writeLine("   using token to acquire personal access token");
             accessToken.contributeHeader(client.Headers);
+            final URI requestUrl = URI.create(requireCompactToken ? CompactTokenUrl : SessionTokenUrl);
 
-            if (populateTokenTargetId(targetUri, accessToken))
+            final AtomicReference<UUID> instanceId = new AtomicReference<UUID>();
+            if (instanceIdCache != null && instanceIdCache.tryGet(targetUri, instanceId))
             {
-                final URI requestUrl = URI.create(requireCompactToken ? CompactTokenUrl : SessionTokenUrl);
+                Trace.writeLine("   cached target identity is " + instanceId.get());
+                accessToken.setTargetIdentity(instanceId.get());
 
-                final StringContent content = getAccessTokenRequestBody(targetUri, accessToken, tokenScope);
-                final HttpURLConnection response = client.post(requestUrl, content);
-                if (response.getResponseCode() == HttpURLConnection.HTTP_OK)
-                {
-                    final String responseText = HttpClient.readToString(response);
-
-                    final Token token = parsePersonalAccessTokenFromJson(responseText);
-                    if (token != null)
-                    {
-                        Trace.writeLine("   personal access token acquisition succeeded.");
-                    }
+                final Token token = requestPersonalAccessToken(client, requestUrl, targetUri, accessToken, tokenScope);
+                if (token != null)
                     return token;
+
+                // the account might have moved, so its instance id is looked up again
+                instanceIdCache.remove(targetUri);
+            }
+
+            if (populateTokenTargetId(targetUri, accessToken))
+            {
+                if (instanceIdCache != null)
+                {
+                    instanceIdCache.put(targetUri, accessToken.getTargetIdentity());
                 }
+                return requestPersonalAccessToken(client, requestUrl, targetUri, accessToken, tokenScope);
             }
         }
+        catch (final SocketTimeoutException e)
+        {
+            // let the caller fall back to the next way of obtaining credentials
+            Trace.writeLine("   personal access token acquisition timed out: ", e);
+        }
         catch (final IOException e)
         {
             throw new Error(e);
@@ -96,6 +146,31 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
         return null;
     }
 
+    Token requestPersonalAccessToken(final HttpClient client, final URI requestUrl, final URI targetUri, final Token accessToken, final VsoTokenScope tokenScope) throws IOException
+    {
+        final StringContent content = getAccessTokenRequestBody(targetUri, accessToken, tokenScope);
+        final HttpURLConnection response = client.post(requestUrl, content);
+        if (response.getResponseCode() == HttpURLConnection.HTTP_OK)
+        {
+            final PropertyBag bag = JsonFieldReader.read(response.getInputStream(), TokenMember, ValidToMember);
+            final Token token = parsePersonalAccessToken(bag);
+            if (token != null)
+            {
+                Trace.writeLine("   personal access token acquisition succeeded.");
+
+                final long validTo = parseValidTo(bag.get(ValidToMember));
+                if (renewalSchedule != null && validTo > 0)
+                {
+                    renewalSchedule.schedule(targetUri, validTo);
+                }
+            }
+            return token;
+        }
+        // let the next request reuse the connection
+        HttpClientFactory.release(response);
+        return null;
+    }
+
     public boolean populateTokenTargetId(final URI targetUri, final Token accessToken)
     {
         Debug.Assert(targetUri != null && targetUri.isAbsolute(), "The targetUri parameter is null or invalid");
@@ -109,10 +184,13 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
             // create an request to the VSO deployment data end-point
             final HttpURLConnection request = createConnectionDataRequest(targetUri, accessToken);
 
-            // send the request and wait for the response
-            final String content = HttpClient.readToString(request);
-
-            resultId = parseInstanceIdFromJson(content);
+            // send the request and read the response until the instance id shows up
+            resultId = parseInstanceIdFromJson(request.getInputStream());
+        }
+        catch (final SocketTimeoutException e)
+        {
+            Trace.writeLine("   target identity lookup timed out: ", e);
+            return false;
         }
         catch (final IOException e)
         {
@@ -154,10 +232,18 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
             // send the request and wait for the response
             request.connect();
             final int statusCode = request.getResponseCode();
+            // the content isn't needed, but reading it lets the next request reuse the connection
+            HttpClientFactory.release(request);
             // we're looking for 'OK 200' here, anything else is failure
             Trace.writeLine("   server returned: " + statusCode);
             return statusCode == HttpURLConnection.HTTP_OK;
         }
+        catch (final SocketTimeoutException e)
+        {
+            // BaseVsoAuthentication keeps the credentials that couldn't be validated in time
+            Trace.writeLine("   validation timed out: ", e);
+            return false;
+        }
         catch (final IOException e)
         {
             throw new Error(e);
@@ -183,41 +269,64 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
         throw new NotImplementedException(449243);
     }
 
-    private static final Pattern TOKEN_PATTERN = Pattern.compile(
-        "\"token\"\\s*:\\s*\"([^\"]+)\"",
-        Pattern.CASE_INSENSITIVE
-    );
-    static Token parsePersonalAccessTokenFromJson(final String json)
+    private static final String TokenMember = "token";
+    static Token parsePersonalAccessTokenFromJson(final InputStream json) throws IOException
+    {
+        return parsePersonalAccessToken(JsonFieldReader.read(json, TokenMember));
+    }
+
+    private static Token parsePersonalAccessToken(final PropertyBag bag)
     {
         Token token = null;
-        if (!StringHelper.isNullOrWhiteSpace(json))
+        // find the 'token : <value>' member of the result content, if any
+        final Object tokenValue = bag.get(TokenMember);
+        if (tokenValue instanceof String && !StringHelper.isNullOrEmpty((String) tokenValue))
         {
-            // find the 'token : <value>' portion of the result content, if any
-            final Matcher matcher = TOKEN_PATTERN.matcher(json);
-            if (matcher.find())
-            {
-                final String tokenValue = matcher.group(1);
-                token = new Token(tokenValue, TokenType.Personal);
-            }
+            token = new Token((String) tokenValue, TokenType.Personal);
         }
         return token;
     }
 
-     private static final Pattern INSTANCE_ID_PATTERN = Pattern.compile(
-        "\"instanceId\"\\s*:\\s*\"([^\"]+)\"",
-        Pattern.CASE_INSENSITIVE
-    );
-    static String parseInstanceIdFromJson(final String json)
-    {
-        String result = null;
+    private static final String ValidToMember = "validTo";
+    // the service writes UTC times with up to 7 fractional digits, which SimpleDateFormat can't parse
+    private static final Pattern ValidToPattern = Pattern.compile("(\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2})(?:\\.\\d+)?Z?");
 
-        final Matcher matcher = INSTANCE_ID_PATTERN.matcher(json);
-        if (matcher.find())
+    /**
+     * @param value The 'validTo' member of a personal access token.
+     * @return when the token expires, in milliseconds since the epoch; 0 if that's unknown.
+     */
+    static long parseValidTo(final Object value)
+    {
+        if (!(value instanceof String))
+            return 0;
+        final Matcher matcher = ValidToPattern.matcher((String) value);
+        if (!matcher.matches())
+            return 0;
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try
         {
-            result = matcher.group(1);
+            return format.parse(matcher.group(1)).getTime();
         }
+        catch (final ParseException ignored)
+        {
+            return 0;
+        }
+    }
 
-        return result;
+    private static final String InstanceIdMember = "instanceId";
+    static String parseInstanceIdFromJson(final InputStream json) throws IOException
+    {
+        // the instance id comes before the location service data, which makes up most of the content
+        return readStringMember(json, InstanceIdMember);
+    }
+
+    private static String readStringMember(final InputStream json, final String name) throws IOException
+    {
+        final PropertyBag bag = JsonFieldReader.read(json, name);
+        final Object value = bag.get(name);
+        return value instanceof String ? (String) value : null;
     }
 
     private StringContent getAccessTokenRequestBody(final URI targetUri, final Token accessToken, final VsoTokenScope tokenScope)
@@ -240,20 +349,14 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
         Debug.Assert(targetUri != null && targetUri.isAbsolute(), "The targetUri parameter is null or invalid");
         Debug.Assert(credentials != null, "The credentials parameter is null or invalid");
 
-        final HttpClient client = new HttpClient(Global.getUserAgent());
+        final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
 
         // create an request to the VSO deployment data end-point
         final URI requestUri = createConnectionDataUri(targetUri);
 
         credentials.contributeHeader(client.Headers);
 
-        final HttpURLConnection result = client.get(requestUri, new Action<HttpURLConnection>()
-        {
-            @Override public void call(final HttpURLConnection conn)
-            {
-                conn.setConnectTimeout(RequestTimeout);
-            }
-        });
+        final HttpURLConnection result = client.get(requestUri);
         return result;
     }
 
@@ -264,7 +367,7 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
 
         Trace.writeLine("VsoAzureAuthority::createConnectionDataRequest");
 
-        final HttpClient client = new HttpClient(Global.getUserAgent());
+        final HttpClient client = httpClientFactory.createHttpClient(Global.getUserAgent(), deadline);
 
         // create an request to the VSO deployment data end-point
         final URI requestUri = createConnectionDataUri(targetUri);
@@ -272,13 +375,7 @@ class VsoAzureAuthority extends AzureAuthority implements IVsoAuthority
         Trace.writeLine("   validating token");
         token.contributeHeader(client.Headers);
 
-        final HttpURLConnection result = client.get(requestUri, new Action<HttpURLConnection>()
-        {
-            @Override public void call(final HttpURLConnection conn)
-            {
-                conn.setConnectTimeout(RequestTimeout);
-            }
-        });
+        final HttpURLConnection result = client.get(requestUri);
         return result;
     }
 
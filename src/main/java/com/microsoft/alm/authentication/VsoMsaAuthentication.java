@@ -23,7 +23,7 @@ public final class VsoMsaAuthentication extends BaseVsoAuthentication implements
         super(tokenScope,
                personalAccessTokenStore,
                adaRefreshTokenStore);
-        this.VsoAuthority = new VsoAzureAuthority(DefaultAuthorityHost);
+        this.AuthorityHostUrl = DefaultAuthorityHost;
     }
     /**
      * Test constructor which allows for using fake credential stores
@@ -61,7 +61,7 @@ public final class VsoMsaAuthentication extends BaseVsoAuthentication implements
         Trace.writeLine("VsoMsaAuthentication::InteractiveLogon");
 
         TokenPair tokens;
-        if ((tokens = this.VsoAuthority.acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, QueryParameters)) != null)
+        if ((tokens = getVsoAuthority().acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, QueryParameters)) != null)
         {
             Trace.writeLine("   token successfully acquired.");
 
@@ -81,7 +81,7 @@ public final class VsoMsaAuthentication extends BaseVsoAuthentication implements
         Trace.writeLine("VsoMsaAuthentication::deviceLogon");
 
         TokenPair tokens;
-        if ((tokens = this.VsoAuthority.acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, callback)) != null)
+        if ((tokens = getVsoAuthority().acquireToken(targetUri, this.ClientId, this.Resource, RedirectUri, callback)) != null)
         {
             Trace.writeLine("   token successfully acquired.");
 
@@ -5,23 +5,28 @@ package com.microsoft.alm.authentication;
 
 import com.microsoft.alm.helpers.Environment;
 import com.microsoft.alm.helpers.Func;
-import com.microsoft.alm.helpers.IOHelper;
 import com.microsoft.alm.helpers.IteratorExtensions;
 import com.microsoft.alm.helpers.ObjectExtensions;
 import com.microsoft.alm.helpers.Path;
 import com.microsoft.alm.helpers.StringHelper;
+import com.microsoft.alm.helpers.Trace;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Where
 {
-    private static final Pattern gitdirPattern = Pattern.compile("gitdir\\s*:\\s([^\\r\\n]+)", Pattern.CASE_INSENSITIVE);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CacheKeyProperty = "environment";
+    private static final String CacheGitProperty = "git";
+    private static final String CacheGitLastModifiedProperty = "git.lastModified";
+    private static final String CacheSystemConfigProperty = "systemConfig";
 
     /**
      * Finds the "best" path to an app of a given name.
@@ -120,77 +125,12 @@ public class Where
      */
     public static boolean gitLocalConfig(final String startingDirectory, final AtomicReference<String> path) throws IOException
     {
-        final String GitOdbFolderName = ".git";
-        final String LocalConfigFileName = "config";
-
         path.set(null);
 
-        if (!StringHelper.isNullOrWhiteSpace(startingDirectory))
+        final GitRepository repository = GitRepository.find(startingDirectory);
+        if (repository != null && repository.LocalConfig.isFile())
         {
-            File dir = new File(startingDirectory);
-            if (dir.exists())
-
-            {
-                // the hasOdb Func was simplified to an exists() check
-                File result = null;
-                while (dir != null && dir.exists() && dir.getParentFile() != null && dir.getParentFile().exists())
-                {
-                    result = new File(dir, GitOdbFolderName);
-                    if (result.exists())
-                        break;
-
-                    dir = dir.getParentFile();
-                }
-
-                if (result != null && result.exists())
-                {
-                    if (result.isDirectory())
-                    {
-                        final String localPath = Path.combine(result.getAbsolutePath(), LocalConfigFileName);
-                        if (Path.fileExists(localPath))
-                        {
-                            path.set(localPath);
-                        }
-                    }
-                    else
-                    {
-                        // parse the file like gitdir: ../.git/modules/libgit2sharp
-                        String content = null;
-
-                        // shortcut the opening streams & readers just to read the whole file as a string
-                        content = IOHelper.readFileToString(result);
-
-                        final Matcher match;
-                        if ((match = gitdirPattern.matcher(content)).matches()
-                            && match.groupCount() > 1)
-                        {
-                            content = match.group(1);
-                            // don't replace / with \\
-
-                            String localPath = null;
-
-                            if (Path.isAbsolute(content))
-                            {
-                                localPath = content;
-                            }
-                            else
-                            {
-                                localPath = Path.getDirectoryName(result.getAbsolutePath());
-                                localPath = Path.combine(localPath, content);
-                            }
-
-                            if (Path.directoryExists(localPath))
-                            {
-                                localPath = Path.combine(localPath, LocalConfigFileName);
-                                if (Path.fileExists(localPath))
-                                {
-                                    path.set(localPath);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            path.set(repository.LocalConfig.getAbsolutePath());
         }
 
         return path.get() != null;
@@ -216,25 +156,108 @@ public class Where
      */
     public static boolean gitSystemConfig(final AtomicReference<String> path)
     {
-        final String SystemConfigFileName = "gitconfig";
-
         // find Git on the local disk - the system config is stored relative to it
         if (app("git", path))
         {
-            File gitInfo = new File(path.get());
-            File dir = gitInfo.getParentFile();
-            if (dir.getParentFile() != null)
+            return gitSystemConfig(path.get(), path);
+        }
+
+        path.set(null);
+        return false;
+    }
+
+    /**
+     * Gets the path to the Git system configuration file, remembering where Git and its
+     * system configuration were found in the specified cache file, such that later calls only
+     * need to check the modification time of the Git executable and that its system
+     * configuration still exists, for as long as the PATH doesn't change.  The folders the
+     * system configuration is looked for in are only searched again when Git is updated.
+     *
+     * @param cacheFile The file in which to remember the locations.
+     * @param path      Path to the Git system configuration.
+     * @return True if succeeds; false otherwise.
+     */
+    public static boolean gitSystemConfig(final File cacheFile, final AtomicReference<String> path)
+    {
+        final String pathext = ObjectExtensions.coalesce(System.getenv("PATHEXT"), StringHelper.Empty);
+        final String envpath = ObjectExtensions.coalesce(System.getenv("PATH"), StringHelper.Empty);
+        final String pathSeparator = System.getProperty("path.separator");
+
+        return gitSystemConfig(cacheFile, path, pathext, envpath, pathSeparator);
+    }
+
+    static boolean gitSystemConfig(
+            final File cacheFile,
+            final AtomicReference<String> path,
+            final String pathext,
+            final String envpath,
+            final String pathSeparator)
+    {
+        Trace.writeLine("Where::gitSystemConfig");
+
+        final String key = hashEnvironment(pathext, envpath);
+        final Properties cache = PropertiesFile.load(cacheFile);
+        if (cache != null && key.equals(cache.getProperty(CacheKeyProperty)))
+        {
+            final String gitPath = cache.getProperty(CacheGitProperty);
+            final String gitLastModified = cache.getProperty(CacheGitLastModifiedProperty);
+            final String systemConfig = cache.getProperty(CacheSystemConfigProperty, StringHelper.Empty);
+            if (gitPath != null && String.valueOf(new File(gitPath).lastModified()).equals(gitLastModified)
+                && (StringHelper.isNullOrEmpty(systemConfig) || new File(systemConfig).isFile()))
             {
-                dir = dir.getParentFile();
+                Trace.writeLine("   cached system config = " + systemConfig);
+                path.set(StringHelper.isNullOrEmpty(systemConfig) ? null : systemConfig);
+                return path.get() != null;
             }
+        }
 
-            final File[] subDirs = dir.listFiles(new FileFilter()
+        final Func<String, Boolean> existenceChecker = new Func<String, Boolean>()
+        {
+            @Override public Boolean call(final String s)
             {
-                @Override public boolean accept(final File pathname)
-                {
-                    return pathname.isDirectory();
-                }
-            });
+                return new File(s).exists();
+            }
+        };
+        if (!app("git", path, pathext, envpath, pathSeparator, existenceChecker))
+        {
+            // not remembered, since Git could be installed to a folder already on the PATH
+            path.set(null);
+            return false;
+        }
+
+        final File gitFile = new File(path.get());
+        final boolean result = gitSystemConfig(path.get(), path);
+
+        final Properties properties = new Properties();
+        properties.setProperty(CacheKeyProperty, key);
+        properties.setProperty(CacheGitProperty, gitFile.getAbsolutePath());
+        properties.setProperty(CacheGitLastModifiedProperty, String.valueOf(gitFile.lastModified()));
+        properties.setProperty(CacheSystemConfigProperty, result ? path.get() : StringHelper.Empty);
+        PropertiesFile.store(cacheFile, properties);
+
+        return result;
+    }
+
+    static boolean gitSystemConfig(final String gitPath, final AtomicReference<String> path)
+    {
+        final String SystemConfigFileName = "gitconfig";
+
+        File gitInfo = new File(gitPath);
+        File dir = gitInfo.getParentFile();
+        if (dir.getParentFile() != null)
+        {
+            dir = dir.getParentFile();
+        }
+
+        final File[] subDirs = dir.listFiles(new FileFilter()
+        {
+            @Override public boolean accept(final File pathname)
+            {
+                return pathname.isDirectory();
+            }
+        });
+        if (subDirs != null)
+        {
             for (final File subDir : subDirs)
             {
                 final File file = new File(subDir, SystemConfigFileName);
@@ -249,4 +272,26 @@ public class Where
         path.set(null);
         return false;
     }
+
+    static String hashEnvironment(final String pathext, final String envpath)
+    {
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(pathext.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(envpath.getBytes(UTF_8));
+            final byte[] hash = digest.digest();
+            final StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (final byte b : hash)
+            {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            throw new Error(e);
+        }
+    }
 }
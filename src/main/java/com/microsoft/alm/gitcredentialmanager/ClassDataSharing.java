@@ -0,0 +1,321 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.AuthorityCache;
+import com.microsoft.alm.authentication.Configuration;
+import com.microsoft.alm.authentication.IAuthentication;
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.helpers.Path;
+import com.microsoft.alm.helpers.StringHelper;
+import com.microsoft.alm.helpers.Trace;
+import com.microsoft.alm.helpers.UriHelper;
+import com.microsoft.alm.oauth2.useragent.subprocess.ProcessCoordinator;
+import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcess;
+import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcessFactory;
+import com.microsoft.alm.secret.Credential;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates the application class-data sharing (AppCDS) archive used to speed up the start of
+ * the JVM for every git operation: the classes needed to get, store and erase credentials
+ * are recorded during a training run of the helper and later mapped straight from the
+ * archive instead of being loaded, parsed and verified from the JAR.
+ *
+ * An archive can only be used by the JVM that created it, so it is created by the same JVM
+ * that git will be configured to launch, and the path to that JVM is written next to it, for
+ * the launcher script to only pass the archive (and the options that go with it, which older
+ * JVMs refuse) to that very JVM.  Java 13 and above record the archive as the training
+ * run exits, whereas Java 11 and 12 need a list of the classes loaded by the training run to
+ * then dump the archive separately.  Older JVMs don't support AppCDS, in which case no archive
+ * is created and the helper starts as it always did.
+ */
+class ClassDataSharing
+{
+    static final String TrainingVerb = "cds-training";
+    static final String ArchiveExtension = ".jsa";
+    static final String CreatorExtension = ".jvm";
+    static final int MinimumJavaVersion = 11;
+    static final int DynamicArchiveJavaVersion = 13;
+
+    private static final String ClassListExtension = ".classlist";
+    private static final String TrainingPassword = "cds-training";
+    private static final String PersonalAccessTokenUserName = "Personal Access Token";
+    private static final String[] TrainingVerbs = {"store", "get", "erase"};
+    private static final Object[][] TrainingTargets =
+    {
+        {AuthorityType.Basic, "cds-training.example.com"},
+        {AuthorityType.AzureDirectory, "cds-training.visualstudio.com"},
+        {AuthorityType.MicrosoftAccount, "cds-training.visualstudio.com"},
+    };
+
+    /**
+     * Parses the value of the <code>java.specification.version</code> system property,
+     * which is of the form "1.8" up to Java 8 and of the form "11" from Java 9 onwards.
+     *
+     * @return the major version of Java, or 0 if it couldn't be determined.
+     */
+    static int parseJavaMajorVersion(final String specificationVersion)
+    {
+        if (StringHelper.isNullOrWhiteSpace(specificationVersion))
+        {
+            return 0;
+        }
+        final String[] parts = specificationVersion.trim().split("\\.");
+        final String majorPart = "1".equals(parts[0]) && parts.length > 1 ? parts[1] : parts[0];
+        try
+        {
+            return Integer.parseInt(majorPart);
+        }
+        catch (final NumberFormatException ignored)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Determines where the archive for the specified JAR goes: next to the JAR if that folder
+     * can be written to (such as for a manual installation), otherwise in the program folder
+     * (such as when the JAR was installed by a package manager).
+     */
+    static File determineArchiveFile(final File jarFile, final File programFolder)
+    {
+        final String archiveName = Path.changeExtension(jarFile.getName(), ArchiveExtension);
+        final File jarFolder = jarFile.getAbsoluteFile().getParentFile();
+        final File archiveFolder = jarFolder != null && jarFolder.canWrite() ? jarFolder : programFolder;
+        return new File(archiveFolder, archiveName);
+    }
+
+    /**
+     * Runs the training invocation of the helper in a child JVM to create an archive of the
+     * classes it loaded.
+     *
+     * @return the archive that was created, or {@code null} if the JVM doesn't support AppCDS
+     *         or the archive couldn't be created, in which case the helper should be
+     *         configured without it.
+     */
+    static File createArchive(final TestableProcessFactory processFactory, final String pathToJava, final String pathToJar, final int javaMajorVersion, final File programFolder) throws InterruptedException
+    {
+        Trace.writeLine("ClassDataSharing::createArchive");
+
+        if (javaMajorVersion < MinimumJavaVersion)
+        {
+            Trace.writeLine("   Java " + javaMajorVersion + " doesn't support application class-data sharing");
+            return null;
+        }
+        final File archiveFile = determineArchiveFile(new File(pathToJar), programFolder);
+        final File archiveFolder = archiveFile.getParentFile();
+        if (!archiveFolder.isDirectory() && !archiveFolder.mkdirs())
+        {
+            Trace.writeLine("   unable to create " + archiveFolder.getAbsolutePath());
+            return null;
+        }
+        // an archive left by a previous installation might have been created by another JVM
+        if (archiveFile.isFile() && !archiveFile.delete())
+        {
+            Trace.writeLine("   unable to delete the previous " + archiveFile.getAbsolutePath());
+            return null;
+        }
+        final String pathToArchive = archiveFile.getAbsolutePath();
+        final File creatorFile = new File(Path.changeExtension(pathToArchive, CreatorExtension));
+        //noinspection ResultOfMethodCallIgnored
+        creatorFile.delete();
+        try
+        {
+            if (javaMajorVersion >= DynamicArchiveJavaVersion)
+            {
+                runJava(processFactory, pathToJava,
+                    "-XX:ArchiveClassesAtExit=" + pathToArchive,
+                    "-jar", pathToJar, TrainingVerb);
+            }
+            else
+            {
+                final String pathToClassList = Path.changeExtension(pathToArchive, ClassListExtension);
+                try
+                {
+                    if (runJava(processFactory, pathToJava,
+                        "-Xshare:off",
+                        "-XX:DumpLoadedClassList=" + pathToClassList,
+                        "-jar", pathToJar, TrainingVerb))
+                    {
+                        runJava(processFactory, pathToJava,
+                            "-Xshare:dump",
+                            "-XX:SharedClassListFile=" + pathToClassList,
+                            "-XX:SharedArchiveFile=" + pathToArchive,
+                            "-cp", pathToJar);
+                    }
+                }
+                finally
+                {
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(pathToClassList).delete();
+                }
+            }
+        }
+        catch (final IOException e)
+        {
+            Trace.writeLine("   unable to run " + pathToJava + ": " + e.getMessage());
+        }
+
+        if (!archiveFile.isFile())
+        {
+            Trace.writeLine("   no archive was created");
+            return null;
+        }
+        Trace.writeLine("   created " + pathToArchive);
+        try
+        {
+            writeCreator(creatorFile, pathToJava);
+        }
+        catch (final IOException e)
+        {
+            // the launcher script won't use the archive, but git's configuration still can
+            Trace.writeLine("   unable to write " + creatorFile.getAbsolutePath() + ": " + e.getMessage());
+        }
+        return archiveFile;
+    }
+
+    /**
+     * Records the JVM that created the archive, as the canonical path to its executable,
+     * i.e. with the symbolic links (such as those of the alternatives system) resolved.
+     */
+    static void writeCreator(final File creatorFile, final String pathToJava) throws IOException
+    {
+        final String canonicalPath = new File(pathToJava).getCanonicalPath();
+        final FileOutputStream outputStream = new FileOutputStream(creatorFile);
+        try
+        {
+            outputStream.write((canonicalPath + "\n").getBytes(UriHelper.UTF_8));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Lists the JVM options that make use of the specified archive.  If the archive can't be
+     * used (for example because it was created by another JVM) the JVM runs without it, after
+     * emitting a warning that is redirected to stderr, since git reads the helper's stdout.
+     */
+    static List<String> getRuntimeOptions(final String pathToArchive)
+    {
+        return Arrays.asList(
+            "-XX:SharedArchiveFile=" + pathToArchive,
+            "-Xshare:auto",
+            "-Xlog:disable",
+            "-Xlog:all=warning:stderr"
+        );
+    }
+
+    /**
+     * Services a few requests of each authority against an in-memory store, without any
+     * network access or user interaction, so that the classes needed to get, store and erase
+     * credentials end up in the archive.
+     */
+    static void train(final String workingDirectory) throws Exception
+    {
+        Trace.writeLine("ClassDataSharing::train");
+
+        final ISecureStore secureStore = new InsecureStore(null);
+        for (final Object[] target : TrainingTargets)
+        {
+            final AuthorityType authority = (AuthorityType) target[0];
+            final String host = (String) target[1];
+            final IComponentFactory componentFactory = new TrainingComponentFactory(workingDirectory, secureStore, authority);
+            for (final String verb : TrainingVerbs)
+            {
+                final StringBuilder sb = new StringBuilder();
+                sb.append("protocol=https\n");
+                sb.append("host=").append(host).append("\n");
+                if (!"get".equals(verb))
+                {
+                    sb.append("username=").append(authority.name()).append("\n");
+                    sb.append("password=").append(TrainingPassword).append("\n");
+                }
+                sb.append("\n");
+                final InputStream standardIn = new ByteArrayInputStream(sb.toString().getBytes(UriHelper.UTF_8));
+                final PrintStream standardOut = new PrintStream(new ByteArrayOutputStream(), false, UriHelper.UTF_8);
+                final Program program = new Program(standardIn, standardOut, componentFactory, workingDirectory, false);
+
+                program.innerMain(new String[]{verb});
+            }
+        }
+    }
+
+    private static boolean runJava(final TestableProcessFactory processFactory, final String pathToJava, final String... arguments) throws IOException, InterruptedException
+    {
+        final List<String> command = new ArrayList<String>(arguments.length + 1);
+        command.add(pathToJava);
+        command.addAll(Arrays.asList(arguments));
+        Trace.writeLine("   running " + command);
+
+        final TestableProcess process = processFactory.create(command.toArray(new String[command.size()]));
+        final ProcessCoordinator coordinator = new ProcessCoordinator(process);
+        final int exitCode = coordinator.waitFor();
+        if (exitCode != 0)
+        {
+            Trace.writeLine("   exit code " + exitCode + ": " + coordinator.getStdErr());
+        }
+        return exitCode == 0;
+    }
+
+    /**
+     * Forces the authority of the training requests and stays away from the user's real
+     * secure store, the network and the Mac OS X keychain.
+     */
+    static class TrainingComponentFactory implements IComponentFactory
+    {
+        private final String workingDirectory;
+        private final ISecureStore secureStore;
+        private final AuthorityType authority;
+
+        TrainingComponentFactory(final String workingDirectory, final ISecureStore secureStore, final AuthorityType authority)
+        {
+            this.workingDirectory = workingDirectory;
+            this.secureStore = secureStore;
+            this.authority = authority;
+        }
+
+        @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+        {
+            operationArguments.Authority = authority;
+            operationArguments.Interactivity = Interactivity.Never;
+            operationArguments.ValidateCredentials = false;
+            operationArguments.EraseOsxKeyChain = false;
+            if (authority != AuthorityType.Basic)
+            {
+                // personal access tokens are only ever stored by the helper itself, after logon
+                final Credential personalAccessToken = new Credential(PersonalAccessTokenUserName, TrainingPassword);
+                Program.createSecretStore(secureStore).writeCredentials(operationArguments.TargetUri, personalAccessToken);
+            }
+            return Program.createAuthentication(operationArguments, secureStore);
+        }
+
+        @Override public Configuration createConfiguration() throws IOException
+        {
+            return new Configuration(workingDirectory);
+        }
+
+        @Override public ISecureStore createSecureStore(final OperationArguments operationArguments)
+        {
+            return secureStore;
+        }
+
+        @Override public AuthorityCache getAuthorityCache()
+        {
+            return null;
+        }
+    }
+}
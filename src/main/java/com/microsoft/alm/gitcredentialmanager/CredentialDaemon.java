@@ -0,0 +1,498 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.SecretStore;
+import com.microsoft.alm.helpers.Debug;
+import com.microsoft.alm.helpers.Func;
+import com.microsoft.alm.helpers.IOHelper;
+import com.microsoft.alm.helpers.StringHelper;
+import com.microsoft.alm.helpers.Trace;
+import com.microsoft.alm.helpers.UriHelper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A long-lived server mode of {@link Program} that serves the get, store and erase verbs
+ * to the thin client in the git-credential-manager launcher script, sparing each git
+ * operation the cost of starting a JVM.
+ *
+ * Unix domain sockets aren't available to Java 6, so the daemon listens on an ephemeral
+ * loopback port instead.  The port is recorded, along with a pair of random secrets, in a
+ * state file readable only by the current user:
+ * <ol>
+ *     <li>the client sends the client secret, proving it could read the state file;</li>
+ *     <li>the daemon replies with the daemon secret, proving it isn't squatting on the port
+ *     of a daemon that has since died, <b>before</b> the client sends any credentials;</li>
+ *     <li>the client sends the verb, its working directory and the attributes it received
+ *     from git, followed by a blank line;</li>
+ *     <li>the daemon replies with <code>ok</code> followed by what {@link Program} would
+ *     have written to stdout, or with <code>fallback</code> if the request must be served
+ *     by a fresh JVM (for example because the user needs to be prompted).</li>
+ * </ol>
+ *
+ * The daemon also speaks the wire protocol of git's credential-cache daemon, when the verb is
+ * <code>cache</code>: the request starts with <code>action=</code> and <code>timeout=</code>
+ * lines and the reply only contains the <code>username</code> and <code>password</code>
+ * of a hit; a miss (including anything that would need a fresh JVM) is an empty reply, so that
+ * git falls through to the next configured helper.
+ */
+class CredentialDaemon
+{
+    static final String StateFileName = "daemon";
+    static final String OkResponse = "ok";
+    static final String FallbackResponse = "fallback";
+    static final String CacheVerb = "cache";
+
+    private static final int IdleTimeoutMilliseconds = 60 * 60 * 1000;
+    private static final int ReadTimeoutMilliseconds = 10 * 1000;
+    private static final int SecretLength = 16;
+    private static final Map<String, String> Verbs = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    static
+    {
+        Verbs.put("approve", "store");
+        Verbs.put("erase", "erase");
+        Verbs.put("fill", "get");
+        Verbs.put("get", "get");
+        Verbs.put("reject", "erase");
+        Verbs.put("store", "store");
+    }
+
+    private final File stateFile;
+    private final Func<String, IComponentFactory> componentFactoryProvider;
+    private final int idleTimeout;
+
+    private ServerSocket serverSocket;
+    private String clientSecret;
+    private String daemonSecret;
+
+    CredentialDaemon(final File stateFile, final Func<String, IComponentFactory> componentFactoryProvider)
+    {
+        this(stateFile, componentFactoryProvider, IdleTimeoutMilliseconds);
+    }
+
+    CredentialDaemon(final File stateFile, final Func<String, IComponentFactory> componentFactoryProvider, final int idleTimeout)
+    {
+        Debug.Assert(stateFile != null, "The stateFile parameter is null");
+        Debug.Assert(componentFactoryProvider != null, "The componentFactoryProvider parameter is null");
+
+        this.stateFile = stateFile;
+        this.componentFactoryProvider = componentFactoryProvider;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Determines if a daemon is already serving requests on behalf of the current user,
+     * by performing the handshake with the endpoint advertised in the state file.
+     *
+     * @param stateFile the file where a daemon advertises its endpoint.
+     * @return true if a daemon answered; false otherwise.
+     */
+    static boolean isRunning(final File stateFile)
+    {
+        Trace.writeLine("CredentialDaemon::isRunning");
+
+        final String[] state = readState(stateFile);
+        if (state == null)
+        {
+            return false;
+        }
+        Socket socket = null;
+        try
+        {
+            final int port = Integer.parseInt(state[0], 10);
+            socket = new Socket(InetAddress.getByName(null), port);
+            socket.setSoTimeout(ReadTimeoutMilliseconds);
+            final OutputStream outputStream = socket.getOutputStream();
+            outputStream.write((state[1] + "\n").getBytes(UriHelper.UTF_8));
+            outputStream.flush();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UriHelper.UTF_8));
+            final String reply = reader.readLine();
+            return state[2].equals(reply);
+        }
+        catch (final NumberFormatException e)
+        {
+            return false;
+        }
+        catch (final IOException e)
+        {
+            Trace.writeLine("   " + e.getMessage());
+            return false;
+        }
+        finally
+        {
+            closeQuietly(socket);
+        }
+    }
+
+    static String[] readState(final File stateFile)
+    {
+        if (!stateFile.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            final String content = IOHelper.readFileToString(stateFile).trim();
+            final String[] state = content.split(" ");
+            return state.length == 3 ? state : null;
+        }
+        catch (final IOException e)
+        {
+            Trace.writeLine("   " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Binds to an ephemeral loopback port and advertises it in the state file.
+     *
+     * @return the port the daemon is listening on.
+     * @throws IOException if the port could not be bound or the state file written.
+     */
+    int start() throws IOException
+    {
+        Trace.writeLine("CredentialDaemon::start");
+
+        final SecureRandom random = new SecureRandom();
+        clientSecret = createSecret(random);
+        daemonSecret = createSecret(random);
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+        serverSocket.setSoTimeout(idleTimeout);
+        final int port = serverSocket.getLocalPort();
+        writeState(port);
+
+        Trace.writeLine("   listening on port " + port);
+        return port;
+    }
+
+    /**
+     * Serves requests, one at a time, until {@link #stop()} is called or no request was
+     * received for the duration of the idle timeout.
+     */
+    void run()
+    {
+        Trace.writeLine("CredentialDaemon::run");
+
+        try
+        {
+            while (!serverSocket.isClosed())
+            {
+                final Socket socket;
+                try
+                {
+                    socket = serverSocket.accept();
+                }
+                catch (final SocketTimeoutException e)
+                {
+                    Trace.writeLine("   idle timeout reached, shutting down");
+                    break;
+                }
+                try
+                {
+                    serve(socket);
+                }
+                catch (final IOException e)
+                {
+                    Trace.writeLine("   request failed: ", e);
+                }
+                finally
+                {
+                    closeQuietly(socket);
+                }
+            }
+        }
+        catch (final IOException e)
+        {
+            // the server socket was closed by stop()
+            Trace.writeLine("   " + e.getMessage());
+        }
+        finally
+        {
+            stop();
+        }
+    }
+
+    /**
+     * Stops accepting requests and removes the state file, if it still advertises this daemon.
+     */
+    synchronized void stop()
+    {
+        if (serverSocket != null && !serverSocket.isClosed())
+        {
+            Trace.writeLine("CredentialDaemon::stop");
+
+            try
+            {
+                serverSocket.close();
+            }
+            catch (final IOException ignored)
+            {
+            }
+            final String[] state = readState(stateFile);
+            if (state != null && daemonSecret.equals(state[2]))
+            {
+                if (!stateFile.delete())
+                {
+                    Trace.writeLine("   unable to delete " + stateFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    void serve(final Socket socket) throws IOException
+    {
+        Trace.writeLine("CredentialDaemon::serve");
+
+        socket.setSoTimeout(ReadTimeoutMilliseconds);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UriHelper.UTF_8));
+        final OutputStream outputStream = socket.getOutputStream();
+
+        final String secret = reader.readLine();
+        if (secret == null || !MessageDigest.isEqual(clientSecret.getBytes(UriHelper.UTF_8), secret.getBytes(UriHelper.UTF_8)))
+        {
+            Trace.writeLine("   rejected a client that didn't know the secret");
+            return;
+        }
+        outputStream.write((daemonSecret + "\n").getBytes(UriHelper.UTF_8));
+        outputStream.flush();
+
+        final String verb = reader.readLine();
+        final String workingDirectory = reader.readLine();
+        if (verb == null || workingDirectory == null)
+        {
+            // a client merely checking if we're running
+            return;
+        }
+
+        final StringBuilder request = new StringBuilder();
+        String line;
+        while (!StringHelper.isNullOrWhiteSpace((line = reader.readLine())))
+        {
+            request.append(line).append("\n");
+        }
+        request.append("\n");
+
+        final String response = CacheVerb.equals(verb)
+            ? processCacheRequest(workingDirectory, request.toString())
+            : process(verb, workingDirectory, request.toString());
+        outputStream.write(response.getBytes(UriHelper.UTF_8));
+        outputStream.flush();
+    }
+
+    String process(final String verb, final String workingDirectory, final String request)
+    {
+        Trace.writeLine("CredentialDaemon::process");
+        Trace.writeLine("   verb = " + verb);
+
+        if (!Verbs.containsKey(verb) || !new File(workingDirectory).isDirectory())
+        {
+            return FallbackResponse + "\n";
+        }
+
+        // other processes (such as a fresh JVM that prompted the user) may have modified the secure store
+        SecretStore.clearDefaultCache();
+        // requests can register trace listeners (i.e. credential.writelog), which must not outlive them
+        final List<PrintStream> listeners = new ArrayList<PrintStream>(Trace.getListeners());
+        try
+        {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final PrintStream standardOut = new PrintStream(output, true, UriHelper.UTF_8);
+            final ByteArrayInputStream standardIn = new ByteArrayInputStream(request.getBytes(UriHelper.UTF_8));
+            final IComponentFactory componentFactory = componentFactoryProvider.call(workingDirectory);
+            final Program program = new Program(standardIn, standardOut, componentFactory, workingDirectory, false);
+
+            program.innerMain(new String[]{Verbs.get(verb)});
+
+            standardOut.flush();
+            return OkResponse + "\n" + output.toString(UriHelper.UTF_8);
+        }
+        catch (final InteractionRequiredException e)
+        {
+            Trace.writeLine("   interaction with the user is required");
+            return FallbackResponse + "\n";
+        }
+        catch (final Throwable throwable)
+        {
+            // let a fresh JVM reproduce (and report) the problem
+            Trace.writeLine("   request failed: ", throwable);
+            return FallbackResponse + "\n";
+        }
+        finally
+        {
+            final List<PrintStream> current = Trace.getListeners();
+            for (final PrintStream listener : new ArrayList<PrintStream>(current))
+            {
+                if (!listeners.contains(listener))
+                {
+                    current.remove(listener);
+                    listener.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a request of git's credential-cache protocol, as sent by
+     * <code>git credential-cache --socket=&lt;path&gt; &lt;action&gt;</code>.
+     *
+     * @param workingDirectory the directory from which the configuration will be read; the relay
+     *                         sends <code>/</code>, since git's client doesn't send its own.
+     * @param request the action and timeout lines, followed by the credential attributes.
+     * @return the response the credential-cache daemon would have sent.
+     */
+    String processCacheRequest(final String workingDirectory, final String request)
+    {
+        Trace.writeLine("CredentialDaemon::processCacheRequest");
+
+        final String ActionPrefix = "action=";
+        final String TimeoutPrefix = "timeout=";
+
+        final String[] lines = request.split("\n");
+        if (lines.length < 2 || !lines[0].startsWith(ActionPrefix) || !lines[1].startsWith(TimeoutPrefix))
+        {
+            Trace.writeLine("   bogus request");
+            return StringHelper.Empty;
+        }
+        final String action = lines[0].substring(ActionPrefix.length());
+        Trace.writeLine("   action = " + action);
+
+        // the timeout is ignored; the secure store decides how long secrets are kept
+        final StringBuilder attributes = new StringBuilder();
+        for (int i = 2; i < lines.length; i++)
+        {
+            attributes.append(lines[i]).append("\n");
+        }
+        attributes.append("\n");
+
+        if ("exit".equals(action))
+        {
+            stop();
+            return StringHelper.Empty;
+        }
+        if (!"get".equals(action) && !"store".equals(action) && !"erase".equals(action))
+        {
+            Trace.writeLine("   unknown action");
+            return StringHelper.Empty;
+        }
+
+        final String response = process(action, workingDirectory, attributes.toString());
+        if (!"get".equals(action) || !response.startsWith(OkResponse + "\n"))
+        {
+            return StringHelper.Empty;
+        }
+
+        // only a complete credential is a hit
+        String userName = null;
+        String password = null;
+        for (final String line : response.split("\n"))
+        {
+            if (line.startsWith("username="))
+            {
+                userName = line;
+            }
+            else if (line.startsWith("password="))
+            {
+                password = line;
+            }
+        }
+        if (userName == null || password == null)
+        {
+            return StringHelper.Empty;
+        }
+        return userName + "\n" + password + "\n";
+    }
+
+    private void writeState(final int port) throws IOException
+    {
+        final File folder = stateFile.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs())
+        {
+            throw new IOException("Unable to create " + folder.getAbsolutePath());
+        }
+        final File tempFile = new File(folder, stateFile.getName() + ".tmp");
+        // restrict the file to its owner before the secrets are written to it
+        if (!tempFile.createNewFile() && !tempFile.isFile())
+        {
+            throw new IOException("Unable to create " + tempFile.getAbsolutePath());
+        }
+        restrictToOwner(tempFile);
+        final FileOutputStream fos = new FileOutputStream(tempFile);
+        try
+        {
+            final String content = port + " " + clientSecret + " " + daemonSecret + "\n";
+            fos.write(content.getBytes(UriHelper.UTF_8));
+        }
+        finally
+        {
+            IOHelper.closeQuietly(fos);
+        }
+        if (!tempFile.renameTo(stateFile))
+        {
+            throw new IOException("Unable to rename " + tempFile.getAbsolutePath() + " to " + stateFile.getAbsolutePath());
+        }
+    }
+
+    static void restrictToOwner(final File file)
+    {
+        // the "false, false" calls revoke the permission for everybody, then it's granted back to the owner
+        final boolean success =
+            file.setReadable(false, false) && file.setReadable(true, true)
+            && file.setWritable(false, false) && file.setWritable(true, true)
+            && file.setExecutable(false, false);
+        if (!success)
+        {
+            Trace.writeLine("   unable to restrict permissions of " + file.getAbsolutePath());
+        }
+    }
+
+    private static String createSecret(final SecureRandom random)
+    {
+        final byte[] bytes = new byte[SecretLength];
+        random.nextBytes(bytes);
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes)
+        {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    // Socket doesn't implement Closeable before Java 7
+    static void closeQuietly(final Socket socket)
+    {
+        if (socket != null)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (final IOException ignored)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.IAuthentication;
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.authentication.RenewalSchedule;
+import com.microsoft.alm.helpers.Debug;
+import com.microsoft.alm.helpers.Trace;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renews the personal access tokens on the {@link RenewalSchedule} shortly before they expire,
+ * using the stored refresh tokens, such that git finds fresh credentials instead of waiting on
+ * their renewal the first time it asks for them after they expired.  It runs once for the
+ * renew verb (from cron, for example) and periodically for as long as a long-lived host, such
+ * as the {@link CredentialDaemon} or an IDE, keeps it started.
+ *
+ * Each renewal waits for a random delay of up to the maximum jitter, such that hosts which
+ * start at the same time don't all ask the authority at once, and at most the concurrency
+ * number of renewals run at a time.  Credentials that couldn't be renewed are tried again on
+ * the next pass, until they expire and are taken off the schedule, like the renewed
+ * credentials whose new expiry isn't known.
+ */
+public class CredentialRenewer
+{
+    /**
+     * How long before they expire the credentials are renewed: two days, such that a daily
+     * renewal doesn't miss them.
+     */
+    public static final long DefaultMargin = 2L * 24 * 60 * 60 * 1000;
+    /**
+     * The longest random delay before a renewal: two minutes.
+     */
+    public static final long DefaultMaximumJitter = 2L * 60 * 1000;
+    /**
+     * How many renewals can run at a time.
+     */
+    public static final int DefaultConcurrency = 2;
+    /**
+     * How often a long-lived host looks for credentials to renew: every thirty minutes.
+     */
+    public static final long DefaultPeriod = 30L * 60 * 1000;
+
+    private final IComponentFactory componentFactory;
+    private final RenewalSchedule renewalSchedule;
+    private final long margin;
+    private final long maximumJitter;
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+    // the targets whose renewal was submitted, but isn't done
+    private final Set<URI> pending = new HashSet<URI>();
+
+    public CredentialRenewer(final IComponentFactory componentFactory, final RenewalSchedule renewalSchedule)
+    {
+        this(componentFactory, renewalSchedule, DefaultMargin, DefaultMaximumJitter, DefaultConcurrency);
+    }
+
+    /**
+     * @param componentFactory The factory of the secure store and authentication of each target.
+     * @param renewalSchedule  Remembers when the stored credentials expire.
+     * @param margin           How long, in milliseconds, before they expire credentials are
+     *                         renewed.
+     * @param maximumJitter    The longest random delay, in milliseconds, before a renewal;
+     *                         0 to not delay them.
+     * @param concurrency      How many renewals can run at a time.
+     */
+    public CredentialRenewer(final IComponentFactory componentFactory, final RenewalSchedule renewalSchedule, final long margin, final long maximumJitter, final int concurrency)
+    {
+        Debug.Assert(componentFactory != null, "The componentFactory parameter is null");
+        Debug.Assert(renewalSchedule != null, "The renewalSchedule parameter is null");
+        if (concurrency < 1)
+            throw new IllegalArgumentException("The `concurrency` parameter must be at least 1.");
+
+        this.componentFactory = componentFactory;
+        this.renewalSchedule = renewalSchedule;
+        this.margin = margin;
+        this.maximumJitter = maximumJitter;
+        this.executor = Executors.newScheduledThreadPool(concurrency, new ThreadFactory()
+        {
+            @Override public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "CredentialRenewer");
+                // renewals are never worth keeping the JVM alive for
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Renews the credentials that are due and waits for the renewals to finish.
+     *
+     * @return how many credentials were renewed.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    public int renewDue() throws InterruptedException
+    {
+        Trace.writeLine("CredentialRenewer::renewDue");
+
+        int result = 0;
+        for (final Future<Boolean> future : submitDue())
+        {
+            try
+            {
+                if (future.get())
+                {
+                    result++;
+                }
+            }
+            catch (final ExecutionException e)
+            {
+                Trace.writeLine("   renewal failed: " + e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks for credentials to renew now and then every period, until {@link #stop()} is called.
+     *
+     * @param period How long, in milliseconds, to wait between two looks.
+     */
+    public void start(final long period)
+    {
+        Trace.writeLine("CredentialRenewer::start");
+
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override public void run()
+            {
+                submitDue();
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops looking for credentials to renew and interrupts the renewals underway.
+     */
+    public void stop()
+    {
+        Trace.writeLine("CredentialRenewer::stop");
+
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits the renewal of the credentials that expire within the margin, unless it was
+     * submitted already, after a random delay.
+     *
+     * @return the renewals that were submitted.
+     */
+    List<Future<Boolean>> submitDue()
+    {
+        final List<Future<Boolean>> result = new ArrayList<Future<Boolean>>();
+        final Map<URI, Long> due = renewalSchedule.getExpiringBefore(now() + margin);
+        for (final Map.Entry<URI, Long> entry : due.entrySet())
+        {
+            final URI targetUri = entry.getKey();
+            final long expires = entry.getValue();
+            synchronized (pending)
+            {
+                if (!pending.add(targetUri))
+                    continue;
+            }
+            final long delay = maximumJitter > 0 ? (long) (random.nextDouble() * maximumJitter) : 0;
+            Trace.writeLine("   renewing " + targetUri + " in " + delay + " ms");
+            result.add(executor.schedule(new Callable<Boolean>()
+            {
+                @Override public Boolean call() throws Exception
+                {
+                    return renewOrForget(targetUri, expires);
+                }
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+        return result;
+    }
+
+    private boolean renewOrForget(final URI targetUri, final long expires) throws Exception
+    {
+        boolean renewed = false;
+        try
+        {
+            renewed = renew(targetUri);
+            return renewed;
+        }
+        finally
+        {
+            if (renewed || expires <= now())
+            {
+                // renewed credentials are scheduled again, unless their expiry is unknown
+                if (!renewed)
+                {
+                    Trace.writeLine("   the credentials for " + targetUri + " expired before they could be renewed");
+                }
+                renewalSchedule.remove(targetUri, expires);
+            }
+            synchronized (pending)
+            {
+                pending.remove(targetUri);
+            }
+        }
+    }
+
+    /**
+     * Renews the credentials of the target the way the get verb would, but without ever
+     * prompting the user.
+     *
+     * @param targetUri The target whose credentials are renewed.
+     * @return True if the credentials were renewed; false otherwise.
+     */
+    boolean renew(final URI targetUri) throws Exception
+    {
+        Trace.writeLine("CredentialRenewer::renew");
+        Trace.writeLine("   targetUri = " + targetUri);
+
+        // the target is described the way git describes it to the helper
+        final String input = "protocol=" + targetUri.getScheme() + "\nhost=" + targetUri.getRawAuthority() + "\n\n";
+        final OperationArguments operationArguments = new OperationArguments(new BufferedReader(new StringReader(input)));
+        Program.loadOperationArguments(operationArguments, componentFactory.createConfiguration());
+        final ISecureStore secureStore = componentFactory.createSecureStore(operationArguments);
+        final IAuthentication authentication = componentFactory.createAuthentication(operationArguments, secureStore);
+        return Program.renew(operationArguments, authentication);
+    }
+
+    long now()
+    {
+        return System.currentTimeMillis();
+    }
+}
@@ -3,6 +3,7 @@
 
 package com.microsoft.alm.gitcredentialmanager;
 
+import com.microsoft.alm.authentication.AuthorityCache;
 import com.microsoft.alm.authentication.Configuration;
 import com.microsoft.alm.authentication.IAuthentication;
 import com.microsoft.alm.authentication.ISecureStore;
@@ -14,4 +15,9 @@ public interface IComponentFactory
     IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore);
     Configuration createConfiguration() throws IOException;
     ISecureStore createSecureStore(final OperationArguments operationArguments);
+
+    /**
+     * @return the authorities detected recently, or null to detect them every time.
+     */
+    AuthorityCache getAuthorityCache();
 }
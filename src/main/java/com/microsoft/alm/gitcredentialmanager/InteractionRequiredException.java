@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+/**
+ * Thrown when a {@link Program} that isn't allowed to interact with the user
+ * (such as one hosted by the {@link CredentialDaemon}) can't complete a request without doing so.
+ */
+class InteractionRequiredException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    InteractionRequiredException(final String message)
+    {
+        super(message);
+    }
+}
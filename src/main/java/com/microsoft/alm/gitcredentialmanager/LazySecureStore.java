@@ -0,0 +1,135 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.helpers.Trace;
+import com.microsoft.alm.secret.Credential;
+import com.microsoft.alm.secret.Token;
+import com.microsoft.alm.storage.SecretStore;
+import com.microsoft.alm.storage.StorageProvider;
+
+import java.io.File;
+
+/**
+ * An {@link ISecureStore} backed by the token and credential storage of the operating system,
+ * each of which is only resolved the first time it's needed, since doing so can load native
+ * libraries (such as the GNOME Keyring, through JNA) and most operations only ever need the
+ * credential storage.  The contents of the insecureStore.xml file left by older versions are
+ * migrated just before the first operation, which is also the only time the XML parser is
+ * loaded.
+ */
+class LazySecureStore implements ISecureStore
+{
+    private final StorageProvider.SecureOption secureOption;
+    private final File insecureFile;
+
+    private SecretStore<Token> tokenSecretStore;
+    private SecretStore<Credential> credentialSecretStore;
+    private boolean isMigrationChecked;
+
+    LazySecureStore(final StorageProvider.SecureOption secureOption, final File insecureFile)
+    {
+        this.secureOption = secureOption;
+        this.insecureFile = insecureFile;
+    }
+
+    /**
+     * Deletes the credentials or, failing that, the token with the specified name.  Unlike
+     * {@link com.microsoft.alm.authentication.SecretStoreAdapter}, the credentials are looked
+     * up first, so that erasing credentials doesn't need the token storage.
+     */
+    @Override public synchronized void delete(final String targetName)
+    {
+        checkMigration();
+        final SecretStore<Credential> credentialStore = getCredentialSecretStore();
+        if (credentialStore.get(targetName) != null)
+        {
+            credentialStore.delete(targetName);
+        }
+        else
+        {
+            final SecretStore<Token> tokenStore = getTokenSecretStore();
+            if (tokenStore.get(targetName) != null)
+            {
+                tokenStore.delete(targetName);
+            }
+        }
+    }
+
+    @Override public synchronized Credential readCredentials(final String targetName)
+    {
+        checkMigration();
+        return getCredentialSecretStore().get(targetName);
+    }
+
+    @Override public synchronized Token readToken(final String targetName)
+    {
+        checkMigration();
+        return getTokenSecretStore().get(targetName);
+    }
+
+    @Override public synchronized void writeCredential(final String targetName, final Credential credentials)
+    {
+        checkMigration();
+        getCredentialSecretStore().add(targetName, credentials);
+    }
+
+    @Override public synchronized void writeToken(final String targetName, final Token token)
+    {
+        checkMigration();
+        getTokenSecretStore().add(targetName, token);
+    }
+
+    SecretStore<Token> createTokenSecretStore()
+    {
+        return StorageProvider.getTokenStorage(true, secureOption);
+    }
+
+    SecretStore<Credential> createCredentialSecretStore()
+    {
+        return StorageProvider.getCredentialStorage(true, secureOption);
+    }
+
+    void migrate(final File insecureFile)
+    {
+        Trace.writeLine("  InsecureStore file found, migrating...");
+        final InsecureStore insecureStore = new InsecureStore(insecureFile);
+        insecureStore.migrateAndDisable(this);
+        Trace.writeLine("  InsecureStore file migrated and disabled.");
+    }
+
+    private SecretStore<Token> getTokenSecretStore()
+    {
+        if (tokenSecretStore == null)
+        {
+            Trace.writeLine("LazySecureStore::getTokenSecretStore");
+            tokenSecretStore = createTokenSecretStore();
+        }
+        return tokenSecretStore;
+    }
+
+    private SecretStore<Credential> getCredentialSecretStore()
+    {
+        if (credentialSecretStore == null)
+        {
+            Trace.writeLine("LazySecureStore::getCredentialSecretStore");
+            credentialSecretStore = createCredentialSecretStore();
+        }
+        return credentialSecretStore;
+    }
+
+    private void checkMigration()
+    {
+        if (!isMigrationChecked)
+        {
+            // the migration writes to this store, so it must not check again
+            isMigrationChecked = true;
+            if (insecureFile != null && insecureFile.isFile())
+            {
+                migrate(insecureFile);
+            }
+        }
+    }
+}
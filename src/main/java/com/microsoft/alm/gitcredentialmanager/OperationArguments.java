@@ -3,6 +3,8 @@
 
 package com.microsoft.alm.gitcredentialmanager;
 
+import com.microsoft.alm.authentication.Deadline;
+import com.microsoft.alm.authentication.ValidationCache;
 import com.microsoft.alm.helpers.Debug;
 import com.microsoft.alm.helpers.ObjectExtensions;
 import com.microsoft.alm.helpers.StringHelper;
@@ -22,6 +24,7 @@ final class OperationArguments
         this.Authority = AuthorityType.Auto;
         this.Interactivity = com.microsoft.alm.gitcredentialmanager.Interactivity.Auto;
         this.ValidateCredentials = true;
+        this.ValidationWindow = ValidationCache.DefaultWindow;
         this.WriteLog = false;
         this.EraseOsxKeyChain = true;
 
@@ -95,12 +98,44 @@ final class OperationArguments
 
     public boolean ValidateCredentials;
 
+    /**
+     * How long, in milliseconds, credentials aren't validated again after they were.
+     */
+    public long ValidationWindow;
+
     public boolean WriteLog;
 
     public boolean EraseOsxKeyChain;
 
     public boolean CanFallbackToInsecureStore;
 
+    /**
+     * How long, in milliseconds, the operation's requests to the authorities can take in all;
+     * 0 to only bound each request.
+     */
+    public long Timeout;
+
+    /**
+     * Whether the operation can't send any request, in which case only the stored credentials
+     * are returned, without being validated.
+     */
+    public boolean Offline;
+
+    private Deadline deadline;
+
+    /**
+     * @return the deadline of the operation, which starts the first time it's asked for, or
+     * has passed already if the operation is {@link #Offline}.
+     */
+    public Deadline getDeadline()
+    {
+        if (deadline == null)
+        {
+            deadline = Offline ? Deadline.Passed : Deadline.after(Timeout);
+        }
+        return deadline;
+    }
+
     public void setCredentials(final Credential credentials)
     {
         this.userName = credentials.Username;
@@ -0,0 +1,158 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.helpers.Trace;
+import com.microsoft.alm.secret.Credential;
+import com.microsoft.alm.secret.Token;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An {@link ISecureStore} that can start reading credentials before they're asked for, on a
+ * thread of their own, such that waiting on the keychain overlaps with work that doesn't need
+ * it, like detecting the authority of the target.  Every operation first waits for the read
+ * running ahead, so the backing store is never used by two threads at once, and the
+ * credentials read ahead are handed out once: the reads after that, or after any other
+ * operation, go to the backing store.
+ */
+class PrefetchingSecureStore implements ISecureStore
+{
+    private final ISecureStore backingStore;
+
+    private String prefetchedTargetName;
+    private FutureTask<Credential> prefetchedCredentials;
+
+    PrefetchingSecureStore(final ISecureStore backingStore)
+    {
+        this.backingStore = backingStore;
+    }
+
+    /**
+     * Starts reading the credentials with the specified name from the backing store.
+     *
+     * @param targetName The name the credentials will be read with.
+     */
+    synchronized void prefetchCredentials(final String targetName)
+    {
+        Trace.writeLine("PrefetchingSecureStore::prefetchCredentials");
+
+        takePrefetched(null, null);
+        final FutureTask<Credential> task = new FutureTask<Credential>(new Callable<Credential>()
+        {
+            @Override public Credential call() throws Exception
+            {
+                return backingStore.readCredentials(targetName);
+            }
+        });
+        prefetchedTargetName = targetName;
+        prefetchedCredentials = task;
+
+        final Thread thread = new Thread(task, "PrefetchingSecureStore");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override public synchronized void delete(final String targetName)
+    {
+        takePrefetched(null, null);
+        backingStore.delete(targetName);
+    }
+
+    @Override public synchronized Credential readCredentials(final String targetName)
+    {
+        final AtomicReference<Credential> credentials = new AtomicReference<Credential>();
+        if (takePrefetched(targetName, credentials))
+        {
+            Trace.writeLine("PrefetchingSecureStore::readCredentials");
+            Trace.writeLine("   read ahead");
+            return credentials.get();
+        }
+        return backingStore.readCredentials(targetName);
+    }
+
+    @Override public synchronized Token readToken(final String targetName)
+    {
+        takePrefetched(null, null);
+        return backingStore.readToken(targetName);
+    }
+
+    @Override public synchronized void writeCredential(final String targetName, final Credential credentials)
+    {
+        takePrefetched(null, null);
+        backingStore.writeCredential(targetName, credentials);
+    }
+
+    @Override public synchronized void writeToken(final String targetName, final Token token)
+    {
+        takePrefetched(null, null);
+        backingStore.writeToken(targetName, token);
+    }
+
+    /**
+     * Waits for the credentials being read ahead, if any, and forgets them.
+     *
+     * @param targetName  The name of the credentials being read; null for other operations.
+     * @param credentials The credentials read ahead, if they have that name.
+     * @return True if the credentials with that name were read ahead; false otherwise.
+     */
+    private boolean takePrefetched(final String targetName, final AtomicReference<Credential> credentials)
+    {
+        final FutureTask<Credential> task = prefetchedCredentials;
+        if (task == null)
+            return false;
+
+        final boolean isMatch = prefetchedTargetName.equals(targetName);
+        prefetchedTargetName = null;
+        prefetchedCredentials = null;
+
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    final Credential result = task.get();
+                    if (isMatch)
+                    {
+                        credentials.set(result);
+                    }
+                    return isMatch;
+                }
+                catch (final InterruptedException e)
+                {
+                    // the backing store must be left alone until the read is done
+                    interrupted = true;
+                }
+            }
+        }
+        catch (final ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (!isMatch)
+            {
+                // nobody asked for these credentials, so neither should their failure surface
+                Trace.writeLine("   unable to read ahead: " + cause);
+                return false;
+            }
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new Error(cause);
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
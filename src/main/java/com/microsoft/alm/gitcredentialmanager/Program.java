@@ -3,17 +3,22 @@
 
 package com.microsoft.alm.gitcredentialmanager;
 
+import com.microsoft.alm.authentication.AuthorityCache;
 import com.microsoft.alm.authentication.BaseVsoAuthentication;
 import com.microsoft.alm.authentication.BasicAuthentication;
+import com.microsoft.alm.authentication.CircuitBreaker;
 import com.microsoft.alm.authentication.Configuration;
 import com.microsoft.alm.authentication.DeviceFlowResponse;
+import com.microsoft.alm.authentication.HttpClientFactory;
 import com.microsoft.alm.authentication.IAuthentication;
 import com.microsoft.alm.authentication.ISecureStore;
 import com.microsoft.alm.authentication.ITokenStore;
 import com.microsoft.alm.authentication.IVsoAadAuthentication;
 import com.microsoft.alm.authentication.IVsoMsaAuthentication;
+import com.microsoft.alm.authentication.InstanceIdCache;
+import com.microsoft.alm.authentication.RenewalSchedule;
 import com.microsoft.alm.authentication.SecretStore;
-import com.microsoft.alm.authentication.SecretStoreAdapter;
+import com.microsoft.alm.authentication.ValidationCache;
 import com.microsoft.alm.authentication.VsoAadAuthentication;
 import com.microsoft.alm.authentication.VsoMsaAuthentication;
 import com.microsoft.alm.authentication.Where;
@@ -36,7 +41,6 @@ import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcess;
 import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcessFactory;
 import com.microsoft.alm.secret.Credential;
 import com.microsoft.alm.secret.Secret;
-import com.microsoft.alm.secret.Token;
 import com.microsoft.alm.secret.VsoTokenScope;
 import com.microsoft.alm.storage.StorageProvider;
 
@@ -47,6 +51,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -57,24 +62,51 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class Program
 {
     private static final String ConfigPrefix = "credential";
     private static final String SecretsNamespace = "git";
+    private static final String RefreshTokensNamespace = "ada";
     private static final String ProgramFolderName = "git-credential-manager";
+    private static final String ConfigurationSnapshotFileName = "configuration.snapshot";
+    private static final String WhereCacheFileName = "where.properties";
+    private static final String AuthorityCacheFileName = "authorities.properties";
+    private static final String ValidationCacheFileName = "validations.properties";
+    private static final String InstanceIdCacheFileName = "instances.properties";
+    private static final String RenewalScheduleFileName = "renewals.properties";
+    private static final String CircuitBreakerFileName = "circuits.properties";
     private static final VsoTokenScope VsoCredentialScope = VsoTokenScope.CodeWrite;
     private static final String AbortAuthenticationProcessResponse = "quit=true";
     private static final String CredentialHelperSection = "credential.helper";
     private static final String CredentialHelperValueRegex = "git-credential-manager-[0-9]+\\.[0-9]+\\.[0-9]+(-SNAPSHOT)?.jar";
     private static final String CanFallbackToInsecureStore = "canFallBackToInsecureStore";
     private static final DefaultFileChecker DefaultFileCheckerSingleton = new DefaultFileChecker();
+    // list of arg => verb associations (case-insensitive)
+    private static final Map<String, String> Verbs = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+    static
+    {
+        Verbs.put("approve", "store");
+        Verbs.put("erase", "erase");
+        Verbs.put("fill", "get");
+        Verbs.put("get", "get");
+        Verbs.put("reject", "erase");
+        Verbs.put("store", "store");
+        Verbs.put("version", "version");
+        Verbs.put("install", "install");
+        Verbs.put("uninstall", "uninstall");
+        Verbs.put("daemon", "daemon");
+        Verbs.put("renew", "renew");
+        Verbs.put(ClassDataSharing.TrainingVerb, ClassDataSharing.TrainingVerb);
+    }
 
     private final InputStream standardIn;
     private final PrintStream standardOut;
     private final IComponentFactory componentFactory;
+    private final String workingDirectory;
+    private final boolean isInteractionAllowed;
     private static final Action<DeviceFlowResponse> DEVICE_FLOW_CALLBACK = new Action<DeviceFlowResponse>()
     {
         @Override public void call(final DeviceFlowResponse deviceFlowResponse)
@@ -139,6 +171,11 @@ public class Program
             System.out.print(AbortAuthenticationProcessResponse);
         }
 
+        // creating the shared factory initializes the TLS stack: only report it if it was used
+        if (isCircuitBreakerAttached() && !Trace.getListeners().isEmpty())
+        {
+            Trace.writeLine("   https: " + HttpClientFactory.Default.getStatistics());
+        }
         Trace.flush();
     }
 
@@ -150,6 +187,17 @@ public class Program
             Environment.SpecialFolder.UserProfile);
     }
 
+    /**
+     * @param fileName The name of a file the program keeps in its folder.
+     * @return The file, in the program's folder under the user's application data folder.
+     */
+    static File getProgramFile(final String fileName)
+    {
+        final File parentFolder = determineParentFolder();
+        final File programFolder = new File(parentFolder, ProgramFolderName);
+        return new File(programFolder, fileName);
+    }
+
     static File findFirstValidFolder(final Environment.SpecialFolder... candidates)
     {
         for (final Environment.SpecialFolder candidate : candidates)
@@ -176,32 +224,82 @@ public class Program
             return;
         }
 
-        // list of arg => method associations (case-insensitive)
-        final Map<String, Callable<Void>> actions = new TreeMap<String, Callable<Void>>(String.CASE_INSENSITIVE_ORDER);
-        actions.put("approve", Store);
-        actions.put("erase", Erase);
-        actions.put("fill", Get);
-        actions.put("get", Get);
-        actions.put("reject", Erase);
-        actions.put("store", Store);
-        actions.put("version", PrintVersion);
-        actions.put("install", Install);
-        actions.put("uninstall", Uninstall);
-
         for (final String arg : args)
         {
-            if (actions.containsKey(arg))
+            if (Verbs.containsKey(arg))
             {
-                actions.get(arg).call();
+                run(Verbs.get(arg));
             }
         }
     }
 
+    /**
+     * Runs the method associated with the verb, such that the subsystems of the helper (the
+     * git configuration, the secure store, the authorities and their HTTP stack) are only
+     * loaded and initialized when the verb (and, for get, store and erase, the authority of
+     * the target) actually needs them.
+     */
+    private void run(final String verb) throws Exception
+    {
+        if ("erase".equals(verb))
+        {
+            erase();
+        }
+        else if ("get".equals(verb))
+        {
+            get();
+        }
+        else if ("store".equals(verb))
+        {
+            store();
+        }
+        else if ("version".equals(verb))
+        {
+            printVersion();
+        }
+        else if ("install".equals(verb))
+        {
+            install();
+        }
+        else if ("uninstall".equals(verb))
+        {
+            uninstall();
+        }
+        else if ("daemon".equals(verb))
+        {
+            daemon();
+        }
+        else if ("renew".equals(verb))
+        {
+            renew();
+        }
+        else if (ClassDataSharing.TrainingVerb.equals(verb))
+        {
+            train();
+        }
+    }
+
     public Program(final InputStream standardIn, final PrintStream standardOut, final IComponentFactory componentFactory)
+    {
+        this(standardIn, standardOut, componentFactory, Environment.getCurrentDirectory(), true);
+    }
+
+    /**
+     * Creates a {@link Program} on behalf of a process other than the current one, such as
+     * when it's hosted by the {@link CredentialDaemon}.
+     *
+     * @param workingDirectory the working directory of the process that invoked the helper.
+     * @param isInteractionAllowed whether the user can be prompted; if not, a request that
+     *                             would need to prompt the user throws an
+     *                             {@link InteractionRequiredException} instead.
+     */
+    Program(final InputStream standardIn, final PrintStream standardOut, final IComponentFactory componentFactory, final String workingDirectory, final boolean isInteractionAllowed)
     {
         this.standardIn = standardIn;
         this.standardOut = standardOut;
         this.componentFactory = componentFactory;
+        this.workingDirectory = workingDirectory;
+        this.isInteractionAllowed = isInteractionAllowed;
     }
 
     private void printHelpMessage()
@@ -235,6 +333,20 @@ public class Program
         standardOut.println();
         standardOut.println("      `git config --global credential.microsoft.visualstudio.com.interactive never`");
         standardOut.println();
+        standardOut.println("   offline            Returns the stored credentials without validating them");
+        standardOut.println("                      or sending any other request, such as when the VPN is");
+        standardOut.println("                      down. Defaults to FALSE.");
+        standardOut.println();
+        standardOut.println("      `git config --global credential.microsoft.visualstudio.com.offline true`");
+        standardOut.println();
+        standardOut.println("   timeout            Limits how long, in seconds, the requests made to obtain");
+        standardOut.println("                      credentials can take in all. Steps that run out of time");
+        standardOut.println("                      fail over to the next one. Each request is also limited");
+        standardOut.println("                      on its own. Defaults to 0 (no overall limit).");
+        standardOut.println("                      Ignored by Basic authority.");
+        standardOut.println();
+        standardOut.println("      `git config --global credential.microsoft.visualstudio.com.timeout 120`");
+        standardOut.println();
         standardOut.println("   validate           Causes validation of credentials before supplying them");
         standardOut.println("                      to Git. Invalid credentials get a refresh attempt");
         standardOut.println("                      before failing. Incurs some minor overhead.");
@@ -257,40 +369,44 @@ public class Program
         standardOut.println("       helper = manager");
     }
 
-    private final Callable<Void> Erase = new Callable<Void>()
-    {
-        @Override public Void call() throws IOException, URISyntaxException
-        {
-            erase();
-            return null;
-        }
-    };
     private void erase() throws IOException, URISyntaxException
     {
         final AtomicReference<OperationArguments> operationArgumentsRef = new AtomicReference<OperationArguments>();
         final AtomicReference<IAuthentication> authenticationRef = new AtomicReference<IAuthentication>();
         initialize("erase", operationArgumentsRef, authenticationRef);
         erase(operationArgumentsRef.get(), authenticationRef.get());
+        // git erases the credentials it was refused with, which might mean the authority changed
+        invalidateAuthority(operationArgumentsRef.get());
     }
     public static void erase(final OperationArguments operationArguments, final IAuthentication authentication)
     {
         authentication.deleteCredentials(operationArguments.TargetUri);
     }
 
-    private final Callable<Void> Get = new Callable<Void>()
-    {
-        @Override public Void call() throws IOException, URISyntaxException
-        {
-            get();
-            return null;
-        }
-    };
     private void get() throws IOException, URISyntaxException
     {
         final AtomicReference<OperationArguments> operationArgumentsRef = new AtomicReference<OperationArguments>();
         final AtomicReference<IAuthentication> authenticationRef = new AtomicReference<IAuthentication>();
         initialize("get", operationArgumentsRef, authenticationRef);
-        final String result = get(operationArgumentsRef.get(), authenticationRef.get(), DEVICE_FLOW_CALLBACK);
+        final OperationArguments operationArguments = operationArgumentsRef.get();
+        final Interactivity interactivity = operationArguments.Interactivity;
+        if (!isInteractionAllowed)
+        {
+            if (interactivity == Interactivity.Always)
+            {
+                throw new InteractionRequiredException("Interactivity is set to Always.");
+            }
+            operationArguments.Interactivity = Interactivity.Never;
+        }
+        final String result = get(operationArguments, authenticationRef.get(), DEVICE_FLOW_CALLBACK);
+        if (AbortAuthenticationProcessResponse.equals(result))
+        {
+            invalidateAuthority(operationArguments);
+        }
+        if (!isInteractionAllowed && interactivity != Interactivity.Never && AbortAuthenticationProcessResponse.equals(result))
+        {
+            throw new InteractionRequiredException("Credentials could not be obtained without prompting the user.");
+        }
         standardOut.print(result);
     }
     public static String get(final OperationArguments operationArguments, final IAuthentication authentication, final Action<DeviceFlowResponse> deviceFlowCallback)
@@ -299,6 +415,24 @@ public class Program
 
         final AtomicReference<Credential> credentials = new AtomicReference<Credential>();
 
+        if (authentication instanceof BaseVsoAuthentication)
+        {
+            // every step has to fit in what's left of the operation's time
+            ((BaseVsoAuthentication) authentication).setDeadline(operationArguments.getDeadline());
+        }
+
+        if (operationArguments.Offline)
+        {
+            // no request can be sent, so the stored credentials are as good as it gets
+            Trace.writeLine("   offline");
+            if (authentication.getCredentials(operationArguments.TargetUri, credentials))
+            {
+                Trace.writeLine("   credentials found");
+                operationArguments.setCredentials(credentials.get());
+            }
+            return operationArguments.toString();
+        }
+
         switch (operationArguments.Authority)
         {
             default:
@@ -407,14 +541,6 @@ public class Program
         return operationArguments.toString();
     }
 
-    private final Callable<Void> Store = new Callable<Void>()
-    {
-        @Override public Void call() throws IOException, URISyntaxException
-        {
-            store();
-            return null;
-        }
-    };
     private void store() throws IOException, URISyntaxException
     {
         final AtomicReference<OperationArguments> operationArgumentsRef = new AtomicReference<OperationArguments>();
@@ -466,14 +592,6 @@ public class Program
         }
     }
 
-    private final Callable<Void> PrintVersion = new Callable<Void>()
-    {
-        @Override public Void call()
-        {
-            printVersion();
-            return null;
-        }
-    };
     private void printVersion()
     {
         Trace.writeLine("Program::printVersion");
@@ -481,14 +599,6 @@ public class Program
         standardOut.println(String.format("%1$s version %2$s", getTitle(), getVersion()));
     }
 
-    private final Callable<Void> Install = new Callable<Void>()
-    {
-        @Override public Void call()
-        {
-            install();
-            return null;
-        }
-    };
     private void install()
     {
         final String osName = System.getProperty("os.name");
@@ -542,16 +652,33 @@ public class Program
         final String pathToJava = javaExecutable.getAbsolutePath();
         final String pathToJar = determinePathToJar(resourceURL);
         final boolean isDebug = Debug.IsDebug;
+        final int javaMajorVersion = ClassDataSharing.parseJavaMajorVersion(System.getProperty("java.specification.version"));
+        final File parentFolder = determineParentFolder();
+        final File programFolder = new File(parentFolder, ProgramFolderName);
+        final File archiveFile = ClassDataSharing.createArchive(processFactory, pathToJava, pathToJar, javaMajorVersion, programFolder);
+        final String pathToArchive = archiveFile == null ? null : archiveFile.getAbsolutePath();
 
-        configureGit(processFactory, configLocation, pathToJava, pathToJar, isDebug);
+        configureGit(processFactory, configLocation, pathToJava, pathToJar, pathToArchive, isDebug);
     }
 
     static void configureGit(final TestableProcessFactory processFactory, final String configLocation, final String pathToJava, final String pathToJar, final boolean isDebug) throws IOException, InterruptedException
+    {
+        configureGit(processFactory, configLocation, pathToJava, pathToJar, null, isDebug);
+    }
+
+    static void configureGit(final TestableProcessFactory processFactory, final String configLocation, final String pathToJava, final String pathToJar, final String pathToArchive, final boolean isDebug) throws IOException, InterruptedException
     {
         final StringBuilder sb = new StringBuilder();
         // escape spaces (if any) in paths to java and path to JAR
         // i.e. !/usr/bin/jre\ 1.6/bin/java -Ddebug=false -jar /home/example/with\ spaces/gcm.jar
         sb.append("!").append(escapeSpaces(pathToJava));
+        if (pathToArchive != null)
+        {
+            for (final String option : ClassDataSharing.getRuntimeOptions(escapeSpaces(pathToArchive)))
+            {
+                sb.append(" ").append(option);
+            }
+        }
         sb.append(" -Ddebug=").append(isDebug);
         sb.append(" -Djava.net.useSystemProxies=true");
         sb.append(" -jar ").append(escapeSpaces(pathToJar));
@@ -577,14 +704,6 @@ public class Program
         return input.replace(" ", "\\ ");
     }
 
-    private final Callable<Void> Uninstall = new Callable<Void>()
-    {
-        @Override public Void call()
-        {
-            uninstall();
-            return null;
-        }
-    };
     private void uninstall()
     {
         final TestableProcessFactory processFactory = new DefaultProcessFactory();
@@ -612,6 +731,80 @@ public class Program
         }
     }
 
+    private void daemon() throws IOException
+    {
+        final File stateFile = getProgramFile(CredentialDaemon.StateFileName);
+        if (CredentialDaemon.isRunning(stateFile))
+        {
+            standardOut.println("A credential daemon is already running.");
+            return;
+        }
+        final Func<String, IComponentFactory> componentFactoryProvider = new Func<String, IComponentFactory>()
+        {
+            @Override public IComponentFactory call(final String workingDirectory)
+            {
+                return new ComponentFactory(workingDirectory);
+            }
+        };
+        final CredentialDaemon daemon = new CredentialDaemon(stateFile, componentFactoryProvider);
+        daemon.start();
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override public void run()
+            {
+                daemon.stop();
+            }
+        });
+        // the daemon lives long enough to renew the credentials before git needs them
+        final CredentialRenewer renewer = new CredentialRenewer(new ComponentFactory(), createRenewalSchedule());
+        renewer.start(CredentialRenewer.DefaultPeriod);
+        try
+        {
+            daemon.run();
+        }
+        finally
+        {
+            renewer.stop();
+        }
+    }
+
+    private void renew() throws InterruptedException
+    {
+        Trace.writeLine("Program::renew");
+
+        final CredentialRenewer renewer = new CredentialRenewer(componentFactory, createRenewalSchedule());
+        try
+        {
+            final int renewed = renewer.renewDue();
+            standardOut.println(String.format("%1$d credential(s) renewed.", renewed));
+        }
+        finally
+        {
+            renewer.stop();
+        }
+    }
+
+    /**
+     * Renews the credentials of the target without prompting the user, which only the
+     * personal access tokens of Visual Studio Team Services can be, with a refresh token.
+     *
+     * @return True if the credentials were renewed; false otherwise.
+     */
+    public static boolean renew(final OperationArguments operationArguments, final IAuthentication authentication)
+    {
+        if (authentication instanceof BaseVsoAuthentication)
+        {
+            return ((BaseVsoAuthentication) authentication).refreshCredentials(operationArguments.TargetUri, true);
+        }
+        Trace.writeLine("   only personal access tokens can be renewed");
+        return false;
+    }
+
+    private void train() throws Exception
+    {
+        ClassDataSharing.train(workingDirectory);
+    }
+
     static boolean isGitConfigured(final TestableProcessFactory processFactory, final String configLocation) throws IOException, InterruptedException
     {
         final String[] command =
@@ -874,27 +1067,84 @@ public class Program
 
         final Configuration config = componentFactory.createConfiguration();
         loadOperationArguments(operationArguments, config);
-        enableTraceLogging(operationArguments);
+        enableTraceLogging(operationArguments, workingDirectory);
 
         Trace.writeLine("Program::" + methodName);
         Trace.writeLine("   targetUri = " + operationArguments.TargetUri);
 
         final ISecureStore secureStore = componentFactory.createSecureStore(operationArguments);
-        final IAuthentication authentication = componentFactory.createAuthentication(operationArguments, secureStore);
+        final IAuthentication authentication;
+        final AuthorityCache authorityCache = componentFactory.getAuthorityCache();
+        if ("get".equals(methodName)
+            && operationArguments.Authority == AuthorityType.Auto
+            && BaseVsoAuthentication.isVsoHost(operationArguments.TargetUri)
+            && (authorityCache == null || !authorityCache.isDetected(operationArguments.TargetUri)))
+        {
+            // get reads the personal access token first, whatever the authority turns out to be,
+            // so the keychain can be read while the end-point is asked for its authority
+            // (a cached authority isn't asked for, leaving nothing to overlap the read with)
+            final PrefetchingSecureStore prefetchingStore = new PrefetchingSecureStore(secureStore);
+            prefetchingStore.prefetchCredentials(createUriNameConversion().convert(operationArguments.TargetUri, SecretsNamespace));
+            authentication = componentFactory.createAuthentication(operationArguments, prefetchingStore);
+        }
+        else
+        {
+            authentication = componentFactory.createAuthentication(operationArguments, secureStore);
+        }
 
         operationArgumentsRef.set(operationArguments);
         authenticationRef.set(authentication);
     }
 
-    static IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+    static SecretStore createSecretStore(final ISecureStore secureStore)
     {
-        Debug.Assert(operationArguments != null, "The operationArguments is null");
+        return new SecretStore(secureStore, SecretsNamespace, null, null, createUriNameConversion());
+    }
 
-        Trace.writeLine("Program::createAuthentication");
+    /**
+     * The Azure refresh tokens are kept apart from the personal access tokens, such that a later
+     * process can renew an expired personal access token without another logon.
+     */
+    static SecretStore createRefreshTokenStore(final ISecureStore secureStore)
+    {
+        return new SecretStore(secureStore, RefreshTokensNamespace, null, null, createUriNameConversion());
+    }
+
+    static RenewalSchedule createRenewalSchedule()
+    {
+        return new RenewalSchedule(getProgramFile(RenewalScheduleFileName));
+    }
+
+    static CircuitBreaker createCircuitBreaker()
+    {
+        return new CircuitBreaker(getProgramFile(CircuitBreakerFileName));
+    }
+
+    /**
+     * Attaches the circuit breaker to the shared {@link HttpClientFactory} the first time an
+     * authentication is created, such that the verbs that don't send requests don't pay for
+     * initializing the TLS stack.
+     */
+    static synchronized void attachCircuitBreaker()
+    {
+        if (!_circuitBreakerAttached)
+        {
+            HttpClientFactory.Default.setCircuitBreaker(createCircuitBreaker());
+            _circuitBreakerAttached = true;
+        }
+    }
 
+    static synchronized boolean isCircuitBreakerAttached()
+    {
+        return _circuitBreakerAttached;
+    }
+
+    private static boolean _circuitBreakerAttached;
+
+    static Secret.IUriNameConversion createUriNameConversion()
+    {
         final String osName = System.getProperty("os.name");
-        final Secret.IUriNameConversion iUriNameConversion =
-                Provider.isMac(osName)
+        return Provider.isMac(osName)
                 /*
                  * Adds a prefix to the target name to avoid a collision
                  * with the built-in git-credential-osxkeychain.
@@ -903,9 +1153,31 @@ public class Program
                  */
                 ? new Secret.PrefixedUriNameConversion("gcm4ml:")
                 : Secret.DefaultUriNameConversion;
-        final SecretStore secrets = new SecretStore(secureStore, SecretsNamespace, null, null, iUriNameConversion);
+    }
+
+    private void invalidateAuthority(final OperationArguments operationArguments)
+    {
+        final AuthorityCache authorityCache = componentFactory.getAuthorityCache();
+        if (authorityCache != null)
+        {
+            authorityCache.invalidate(operationArguments.TargetUri);
+        }
+    }
+
+    static IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+    {
+        return createAuthentication(operationArguments, secureStore, null);
+    }
+
+    static IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore, final AuthorityCache authorityCache)
+    {
+        Debug.Assert(operationArguments != null, "The operationArguments is null");
+
+        Trace.writeLine("Program::createAuthentication");
+
+        final SecretStore secrets = createSecretStore(secureStore);
         final AtomicReference<IAuthentication> authorityRef = new AtomicReference<IAuthentication>();
-        final ITokenStore adaRefreshTokenStore = null;
+        final ITokenStore adaRefreshTokenStore = createRefreshTokenStore(secureStore);
 
         if (operationArguments.Authority == AuthorityType.Auto)
         {
@@ -916,6 +1188,8 @@ public class Program
                     VsoCredentialScope,
                     secrets,
                     adaRefreshTokenStore,
+                    authorityCache,
+                    operationArguments.getDeadline(),
                     authorityRef)
                     /* TODO: 449515: add GitHub support
                     || GithubAuthentication.GetAuthentication(operationArguments.TargetUri,
@@ -943,6 +1217,11 @@ public class Program
             {
                 operationArguments.Authority = AuthorityType.Basic;
             }
+
+            if (authorityCache != null)
+            {
+                Trace.writeLine("   authority cache: " + authorityCache.getStatistics());
+            }
         }
 
         switch (operationArguments.Authority)
@@ -976,37 +1255,38 @@ public class Program
         }
     }
 
-    private static void loadOperationArguments(final OperationArguments operationArguments, final Configuration config) throws IOException
+    static void loadOperationArguments(final OperationArguments operationArguments, final Configuration config) throws IOException
     {
         Debug.Assert(operationArguments != null, "The operationsArguments parameter is null.");
 
         Trace.writeLine("Program::loadOperationArguments");
 
-        final AtomicReference<Configuration.Entry> entryRef = new AtomicReference<Configuration.Entry>();
+        final Configuration.Settings settings = config.resolve(ConfigPrefix, createMatchUri(operationArguments));
+        String value;
 
-        if (config.tryGetEntry(ConfigPrefix, operationArguments.TargetUri, "authority", entryRef))
+        if ((value = settings.get("authority")) != null)
         {
-            Trace.writeLine("   authority = " + entryRef.get().Value);
-
-            if ("MSA".equalsIgnoreCase(entryRef.get().Value)
-                    || "Microsoft".equalsIgnoreCase(entryRef.get().Value)
-                    || "MicrosoftAccount".equalsIgnoreCase(entryRef.get().Value)
-                    || "Live".equalsIgnoreCase(entryRef.get().Value)
-                    || "LiveConnect".equalsIgnoreCase(entryRef.get().Value)
-                    || "LiveID".equalsIgnoreCase(entryRef.get().Value))
+            Trace.writeLine("   authority = " + value);
+
+            if ("MSA".equalsIgnoreCase(value)
+                    || "Microsoft".equalsIgnoreCase(value)
+                    || "MicrosoftAccount".equalsIgnoreCase(value)
+                    || "Live".equalsIgnoreCase(value)
+                    || "LiveConnect".equalsIgnoreCase(value)
+                    || "LiveID".equalsIgnoreCase(value))
             {
                 operationArguments.Authority = AuthorityType.MicrosoftAccount;
             }
-            else if ("AAD".equalsIgnoreCase(entryRef.get().Value)
-                    || "Azure".equalsIgnoreCase(entryRef.get().Value)
-                    || "AzureDirectory".equalsIgnoreCase(entryRef.get().Value))
+            else if ("AAD".equalsIgnoreCase(value)
+                    || "Azure".equalsIgnoreCase(value)
+                    || "AzureDirectory".equalsIgnoreCase(value))
             {
                 operationArguments.Authority = AuthorityType.AzureDirectory;
             }
-            else if ("Integrated".equalsIgnoreCase(entryRef.get().Value)
-                    || "NTLM".equalsIgnoreCase(entryRef.get().Value)
-                    || "Kerberos".equalsIgnoreCase(entryRef.get().Value)
-                    || "SSO".equalsIgnoreCase(entryRef.get().Value))
+            else if ("Integrated".equalsIgnoreCase(value)
+                    || "NTLM".equalsIgnoreCase(value)
+                    || "Kerberos".equalsIgnoreCase(value)
+                    || "SSO".equalsIgnoreCase(value))
             {
                 operationArguments.Authority = AuthorityType.Integrated;
             }
@@ -1016,80 +1296,145 @@ public class Program
             }
         }
 
-        if (config.tryGetEntry(ConfigPrefix, operationArguments.TargetUri, "interactive", entryRef))
+        if ((value = settings.get("interactive")) != null)
         {
-            Trace.writeLine("   interactive = " + entryRef.get().Value);
+            Trace.writeLine("   interactive = " + value);
 
-            if ("always".equalsIgnoreCase(entryRef.get().Value)
-                    || "true".equalsIgnoreCase(entryRef.get().Value)
-                    || "force".equalsIgnoreCase(entryRef.get().Value))
+            if ("always".equalsIgnoreCase(value)
+                    || "true".equalsIgnoreCase(value)
+                    || "force".equalsIgnoreCase(value))
             {
                 operationArguments.Interactivity = Interactivity.Always;
             }
-            else if ("never".equalsIgnoreCase(entryRef.get().Value)
-                    || "false".equalsIgnoreCase(entryRef.get().Value))
+            else if ("never".equalsIgnoreCase(value)
+                    || "false".equalsIgnoreCase(value))
             {
                 operationArguments.Interactivity = Interactivity.Never;
             }
         }
 
-        if (config.tryGetEntry(ConfigPrefix, operationArguments.TargetUri, "validate", entryRef))
+        if ((value = settings.get("validate")) != null)
         {
-            Trace.writeLine("   validate = " + entryRef.get().Value);
+            Trace.writeLine("   validate = " + value);
 
-            if ("true".equalsIgnoreCase(entryRef.get().Value))
+            if ("true".equalsIgnoreCase(value))
             {
                 operationArguments.ValidateCredentials = true;
             }
-            else if ("false".equalsIgnoreCase(entryRef.get().Value))
+            else if ("false".equalsIgnoreCase(value))
             {
                 operationArguments.ValidateCredentials = false;
             }
         }
 
-        if (config.tryGetEntry(ConfigPrefix, operationArguments.TargetUri, "writelog", entryRef))
+        if ((value = settings.get("validatewindow")) != null)
         {
-            Trace.writeLine("   writelog = " + entryRef.get().Value);
+            Trace.writeLine("   validatewindow = " + value);
 
-            if ("true".equalsIgnoreCase(entryRef.get().Value))
+            try
+            {
+                final long seconds = Long.parseLong(value.trim());
+                operationArguments.ValidationWindow = Math.max(0, seconds) * 1000;
+            }
+            catch (final NumberFormatException ignored)
+            {
+                Trace.writeLine("   ignoring invalid validatewindow");
+            }
+        }
+
+        if ((value = settings.get("timeout")) != null)
+        {
+            Trace.writeLine("   timeout = " + value);
+
+            try
+            {
+                final long seconds = Long.parseLong(value.trim());
+                operationArguments.Timeout = Math.max(0, seconds) * 1000;
+            }
+            catch (final NumberFormatException ignored)
+            {
+                Trace.writeLine("   ignoring invalid timeout");
+            }
+        }
+
+        if ((value = settings.get("offline")) != null)
+        {
+            Trace.writeLine("   offline = " + value);
+
+            if ("true".equalsIgnoreCase(value))
+            {
+                operationArguments.Offline = true;
+            }
+            else if ("false".equalsIgnoreCase(value))
+            {
+                operationArguments.Offline = false;
+            }
+        }
+
+        if ((value = settings.get("writelog")) != null)
+        {
+            Trace.writeLine("   writelog = " + value);
+
+            if ("true".equalsIgnoreCase(value))
             {
                 operationArguments.WriteLog = true;
             }
-            else if ("false".equalsIgnoreCase(entryRef.get().Value))
+            else if ("false".equalsIgnoreCase(value))
             {
                 operationArguments.WriteLog = false;
             }
         }
 
-        if (config.tryGetEntry(ConfigPrefix, operationArguments.TargetUri, "eraseosxkeychain", entryRef))
+        if ((value = settings.get("eraseosxkeychain")) != null)
         {
-            Trace.writeLine("   eraseosxkeychain = " + entryRef.get().Value);
+            Trace.writeLine("   eraseosxkeychain = " + value);
 
-            if ("true".equalsIgnoreCase(entryRef.get().Value))
+            if ("true".equalsIgnoreCase(value))
             {
                 operationArguments.EraseOsxKeyChain = true;
             }
-            else if ("false".equalsIgnoreCase(entryRef.get().Value))
+            else if ("false".equalsIgnoreCase(value))
             {
                 operationArguments.EraseOsxKeyChain = false;
             }
         }
 
-        if (config.tryGetEntry(ConfigPrefix, operationArguments.TargetUri, CanFallbackToInsecureStore, entryRef))
+        if ((value = settings.get(CanFallbackToInsecureStore)) != null)
         {
-            Trace.writeLine("   " + CanFallbackToInsecureStore + " = " + entryRef.get().Value);
+            Trace.writeLine("   " + CanFallbackToInsecureStore + " = " + value);
 
-            if ("true".equalsIgnoreCase(entryRef.get().Value))
+            if ("true".equalsIgnoreCase(value))
             {
                 operationArguments.CanFallbackToInsecureStore = true;
             }
-            else if ("false".equalsIgnoreCase(entryRef.get().Value))
+            else if ("false".equalsIgnoreCase(value))
             {
                 operationArguments.CanFallbackToInsecureStore = false;
             }
         }
     }
 
+    /**
+     * Git only sends the path when credential.useHttpPath is set, in which case the settings
+     * for URLs with paths, such as credential.https://example.com/team.authority, can apply.
+     */
+    static URI createMatchUri(final OperationArguments operationArguments)
+    {
+        final URI targetUri = operationArguments.TargetUri;
+        if (targetUri == null || StringHelper.isNullOrEmpty(operationArguments.Path))
+            return targetUri;
+
+        try
+        {
+            return new URI(targetUri.getScheme(), targetUri.getRawAuthority(), "/" + operationArguments.Path, null, null);
+        }
+        catch (final URISyntaxException e)
+        {
+            Trace.writeLine("   unable to add the path to the target: " + e.getMessage());
+            return targetUri;
+        }
+    }
+
     private static void logEvent(final String message, final Object eventType)
     {
         final String eventSource = "Git Credential Manager";
@@ -1110,7 +1455,7 @@ public class Program
         //Trace.WriteLine("   " + eventType + "event written");
     }
 
-    private static void enableTraceLogging(final OperationArguments operationArguments) throws IOException
+    private static void enableTraceLogging(final OperationArguments operationArguments, final String workingDirectory) throws IOException
     {
         final int LogFileMaxLength = 8 * 1024 * 1024; // 8 MB
 
@@ -1121,7 +1466,7 @@ public class Program
             Trace.writeLine("   trace logging enabled");
 
             final AtomicReference<String> gitConfigPath = new AtomicReference<String>();
-            if (Where.gitLocalConfig(gitConfigPath))
+            if (Where.gitLocalConfig(workingDirectory, gitConfigPath))
             {
                 Trace.writeLine("   git local config found at " + gitConfigPath.get());
 
@@ -1169,14 +1514,40 @@ public class Program
 
     static class ComponentFactory implements IComponentFactory
     {
+        private final String workingDirectory;
+        private AuthorityCache authorityCache;
+
+        ComponentFactory()
+        {
+            this(Environment.getCurrentDirectory());
+        }
+
+        ComponentFactory(final String workingDirectory)
+        {
+            this.workingDirectory = workingDirectory;
+        }
+
         @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
         {
-            return Program.createAuthentication(operationArguments, secureStore);
+            attachCircuitBreaker();
+            final IAuthentication authentication = Program.createAuthentication(operationArguments, secureStore, getAuthorityCache());
+            if (authentication instanceof BaseVsoAuthentication)
+            {
+                final File validationCacheFile = getProgramFile(ValidationCacheFileName);
+                final ValidationCache validationCache = new ValidationCache(validationCacheFile, operationArguments.ValidationWindow);
+                ((BaseVsoAuthentication) authentication).setValidationCache(validationCache);
+                final File instanceIdCacheFile = getProgramFile(InstanceIdCacheFileName);
+                ((BaseVsoAuthentication) authentication).setInstanceIdCache(new InstanceIdCache(instanceIdCacheFile));
+                ((BaseVsoAuthentication) authentication).setRenewalSchedule(createRenewalSchedule());
+            }
+            return authentication;
         }
 
         @Override public Configuration createConfiguration() throws IOException
         {
-            return new Configuration();
+            final File snapshotFile = getProgramFile(ConfigurationSnapshotFileName);
+            final File whereCacheFile = getProgramFile(WhereCacheFileName);
+            return new Configuration(workingDirectory, snapshotFile, whereCacheFile);
         }
 
         @Override public ISecureStore createSecureStore(final OperationArguments operationArguments)
@@ -1187,21 +1558,18 @@ public class Program
                 canFallbackToInsecureStore
                     ? StorageProvider.SecureOption.PREFER
                     : StorageProvider.SecureOption.MUST;
-            final com.microsoft.alm.storage.SecretStore<Token> tokenSecretStore = StorageProvider.getTokenStorage(true, secureOption);
-            final com.microsoft.alm.storage.SecretStore<Credential> credentialSecretStore = StorageProvider.getCredentialStorage(true, secureOption);
-            final ISecureStore secureStore = new SecretStoreAdapter(tokenSecretStore, credentialSecretStore);
-            final File parentFolder = determineParentFolder();
-            final File programFolder = new File(parentFolder, ProgramFolderName);
-            final File insecureFile = new File(programFolder, "insecureStore.xml");
-
-            if (insecureFile.isFile())
+            final File insecureFile = getProgramFile("insecureStore.xml");
+            final ISecureStore secureStore = new LazySecureStore(secureOption, insecureFile);
+            return secureStore;
+        }
+
+        @Override public AuthorityCache getAuthorityCache()
+        {
+            if (authorityCache == null)
             {
-                Trace.writeLine("  InsecureStore file found, migrating...");
-                final InsecureStore insecureStore = new InsecureStore(insecureFile);
-                insecureStore.migrateAndDisable(secureStore);
-                Trace.writeLine("  InsecureStore file migrated and disabled.");
+                authorityCache = new AuthorityCache(getProgramFile(AuthorityCacheFileName));
             }
-            return secureStore;
+            return authorityCache;
         }
     }
 }
@@ -155,7 +155,7 @@ public class DeviceFlowImplTest {
         scenarioNextStateNumber++;
     }
 
-    private void stubTokenEndpointError(final String requestBody, final String errorCode, final String errorDescription = null, final URI errorUri = null) {
+    private void stubTokenEndpointError(final String requestBody, final String errorCode, final String errorDescription = null, final URI errorUri = null, final Integer interval = null) {
 
         final def tokenRequestBody = requestBody;
 
@@ -168,6 +168,10 @@ public class DeviceFlowImplTest {
             responseBodyPrefix += /"error_uri": "${errorUri}",
 /
         }
+        if (interval != null) {
+            responseBodyPrefix += /"interval": ${interval},
+/
+        }
 
         final def tokenResponseBody = """\
 {
@@ -308,8 +312,8 @@ public class DeviceFlowImplTest {
         final def port = wireMockRule.port();
         final def tokenEndpoint = new URI(PROTOCOL, null, host, port, TOKEN_ENDPOINT_PATH, null, null);
         stubTokenEndpointError("grant_type=device_code&code=${DEVICE_CODE}&client_id=${CLIENT_ID}", "authorization_pending");
-        stubTokenEndpointError("grant_type=device_code&code=${DEVICE_CODE}&client_id=${CLIENT_ID}", "slow_down");
-        stubTokenEndpointError("grant_type=device_code&code=${DEVICE_CODE}&client_id=${CLIENT_ID}", "slow_down");
+        stubTokenEndpointError("grant_type=device_code&code=${DEVICE_CODE}&client_id=${CLIENT_ID}", "slow_down", null, null, 2);
+        stubTokenEndpointError("grant_type=device_code&code=${DEVICE_CODE}&client_id=${CLIENT_ID}", "slow_down", null, null, 3);
         stubTokenEndpointSuccess();
         final def cut = new DeviceFlowImpl();
 
@@ -319,7 +323,8 @@ public class DeviceFlowImplTest {
         assert TokenType.Access == actualAccessToken.Type;
         assert ACCESS_TOKEN == actualAccessToken.Value;
         final testEndTime = Calendar.instance;
-        assert testEndTime.timeInMillis - testStartTime.timeInMillis >= (1 + 2 + 4) * 1000
+        // each slow_down switches to the interval the server asks for, as per section 3.5 of RFC 8628
+        assert testEndTime.timeInMillis - testStartTime.timeInMillis >= (1 + 2 + 3) * 1000
     }
 
     @Test public void endToEnd_authorizedRightAway() {
@@ -0,0 +1,198 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.Guid;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AuthorityCacheTest
+{
+    private static final URI AadUri = URI.create("https://contoso.visualstudio.com/DefaultCollection/_git/repo");
+    private static final URI MsaUri = URI.create("https://example.visualstudio.com/");
+    private static final UUID Tenant = UUID.fromString("3e0b5c08-5a2f-4b2e-8f0e-5d1a4fd8c1b7");
+    private static final long Hour = 60L * 60 * 1000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheFile;
+
+    @Before public void setUp()
+    {
+        cacheFile = new File(temporaryFolder.getRoot(), "program/authorities.properties");
+    }
+
+    @Test public void detectAuthority_remembersTenant()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, Tenant);
+
+        final AtomicReference<UUID> first = new AtomicReference<UUID>();
+        Assert.assertTrue(cut.detectAuthority(AadUri, first));
+        final AtomicReference<UUID> second = new AtomicReference<UUID>();
+        Assert.assertTrue(cut.detectAuthority(AadUri, second));
+
+        Assert.assertEquals(1, cut.detections);
+        Assert.assertEquals(Tenant, first.get());
+        Assert.assertEquals(Tenant, second.get());
+        Assert.assertEquals("hits = 1, misses = 1, invalidations = 0, hosts = 1", cut.getStatistics());
+    }
+
+    @Test public void detectAuthority_sharedWithOtherProcesses()
+    {
+        new FakeAuthorityCache(cacheFile, Guid.Empty).detectAuthority(MsaUri, new AtomicReference<UUID>());
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, Tenant);
+
+        final AtomicReference<UUID> tenantId = new AtomicReference<UUID>();
+        final boolean actual = cut.detectAuthority(URI.create("https://EXAMPLE.visualstudio.com/other"), tenantId);
+
+        Assert.assertTrue(actual);
+        Assert.assertEquals(Guid.Empty, tenantId.get());
+        Assert.assertEquals(0, cut.detections);
+    }
+
+    @Test public void detectAuthority_expires()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, Tenant);
+        cut.detectAuthority(AadUri, new AtomicReference<UUID>());
+
+        cut.now += AuthorityCache.DefaultTimeToLive - 1;
+        cut.detectAuthority(AadUri, new AtomicReference<UUID>());
+        Assert.assertEquals(1, cut.detections);
+
+        cut.now += 1;
+        cut.detectAuthority(AadUri, new AtomicReference<UUID>());
+        Assert.assertEquals(2, cut.detections);
+    }
+
+    @Test public void isDetected()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, Tenant);
+        Assert.assertFalse(cut.isDetected(AadUri));
+
+        cut.detectAuthority(AadUri, new AtomicReference<UUID>());
+        Assert.assertTrue(cut.isDetected(AadUri));
+        Assert.assertFalse(cut.isDetected(MsaUri));
+
+        cut.now += AuthorityCache.DefaultTimeToLive;
+        Assert.assertFalse(cut.isDetected(AadUri));
+        Assert.assertEquals(1, cut.detections);
+    }
+
+    @Test public void detectAuthority_basicExpiresSooner()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, null);
+
+        final AtomicReference<UUID> tenantId = new AtomicReference<UUID>();
+        Assert.assertFalse(cut.detectAuthority(AadUri, tenantId));
+        Assert.assertFalse(cut.detectAuthority(AadUri, tenantId));
+        Assert.assertEquals(Guid.Empty, tenantId.get());
+        Assert.assertEquals(1, cut.detections);
+
+        cut.now += AuthorityCache.DefaultNegativeTimeToLive;
+        Assert.assertFalse(cut.detectAuthority(AadUri, tenantId));
+        Assert.assertEquals(2, cut.detections);
+    }
+
+    @Test public void detectAuthority_otherHostsAreNotRemembered()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, null);
+
+        cut.detectAuthority(URI.create("https://github.com/Microsoft/Git-Credential-Manager-for-Mac-and-Linux"), new AtomicReference<UUID>());
+        cut.detectAuthority(URI.create("https://github.com/Microsoft/Git-Credential-Manager-for-Mac-and-Linux"), new AtomicReference<UUID>());
+
+        Assert.assertEquals(2, cut.detections);
+        Assert.assertFalse(cacheFile.exists());
+    }
+
+    @Test public void detectAuthority_expiredHostsAreRemoved()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, null);
+        cut.detectAuthority(AadUri, new AtomicReference<UUID>());
+
+        cut.now += 2 * Hour;
+        cut.detectAuthority(MsaUri, new AtomicReference<UUID>());
+
+        final Properties actual = PropertiesFile.load(cacheFile);
+        Assert.assertEquals(2, actual.size());
+        Assert.assertTrue(actual.containsKey("example.visualstudio.com.tenant"));
+    }
+
+    @Test public void invalidate_detectsAgain()
+    {
+        final FakeAuthorityCache cut = new FakeAuthorityCache(cacheFile, null);
+        cut.detectAuthority(AadUri, new AtomicReference<UUID>());
+
+        cut.invalidate(AadUri);
+        cut.tenant = Tenant;
+        final AtomicReference<UUID> tenantId = new AtomicReference<UUID>();
+        final boolean actual = cut.detectAuthority(AadUri, tenantId);
+
+        Assert.assertTrue(actual);
+        Assert.assertEquals(Tenant, tenantId.get());
+        Assert.assertEquals(2, cut.detections);
+        Assert.assertEquals("hits = 0, misses = 2, invalidations = 1, hosts = 1", cut.getStatistics());
+    }
+
+    @Test public void detectAuthority_concurrentUpdatesAreKept() throws InterruptedException
+    {
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++)
+        {
+            final URI targetUri = URI.create("https://account" + i + ".visualstudio.com/");
+            threads.add(new Thread()
+            {
+                @Override public void run()
+                {
+                    new FakeAuthorityCache(cacheFile, Tenant).detectAuthority(targetUri, new AtomicReference<UUID>());
+                }
+            });
+        }
+        for (final Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        Assert.assertEquals(16, PropertiesFile.load(cacheFile).size());
+    }
+
+    private static class FakeAuthorityCache extends AuthorityCache
+    {
+        UUID tenant;
+        long now = 1500000000000L;
+        int detections;
+
+        FakeAuthorityCache(final File file, final UUID tenant)
+        {
+            super(file);
+            this.tenant = tenant;
+        }
+
+        @Override boolean detect(final URI targetUri, final AtomicReference<UUID> tenantId, final Deadline deadline)
+        {
+            detections++;
+            tenantId.set(tenant == null ? Guid.Empty : tenant);
+            return tenant != null;
+        }
+
+        @Override long now()
+        {
+            return now;
+        }
+    }
+}
@@ -3,17 +3,33 @@
 
 package com.microsoft.alm.authentication;
 
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.microsoft.alm.helpers.Action;
+import com.microsoft.alm.helpers.Guid;
 import com.microsoft.alm.helpers.NullUserAgent;
 import com.microsoft.alm.helpers.StringContent;
 import com.microsoft.alm.oauth2.useragent.AuthorizationException;
+import com.microsoft.alm.secret.Credential;
+import com.microsoft.alm.secret.Token;
 import com.microsoft.alm.secret.TokenPair;
+import com.microsoft.alm.secret.TokenType;
+import com.microsoft.alm.secret.VsoTokenScope;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.net.URI;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 
 public class AzureAuthorityTest
 {
@@ -26,6 +42,15 @@ public class AzureAuthorityTest
     static final int TEST_INTERVAL = 5;
     static final String TEST_ACCESS_TOKEN = "bacf8b5f-63f2-4998-9170-d32cf7db4a78";
     static final String TEST_REFRESH_TOKEN = "c2be2d76-1e9e-487c-9684-78823747391c";
+    static final String TEST_ROTATED_REFRESH_TOKEN = "5b9cbb5f-3e8e-4c59-9d5e-f5a4ed8a4b1e";
+    static final String TOKEN_ENDPOINT_PATH = "/common/oauth2/token";
+    static final String TEST_REFRESH_REQUEST_BODY =
+        "resource=" + TEST_RESOURCE +
+        "&client_id=" + TEST_CLIENT_ID +
+        "&grant_type=refresh_token" +
+        "&refresh_token=" + TEST_REFRESH_TOKEN;
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
 
     @Test
     public void deviceFlow_success() throws Exception
@@ -120,6 +145,105 @@ public class AzureAuthorityTest
         Assert.assertEquals(1, callbackCalls.get());
     }
 
+    @Test
+    public void acquireTokenByRefreshToken_rotated() throws Exception
+    {
+        stubTokenEndpoint(200, "{\"token_type\":\"Bearer\",\"expires_in\":\"3600\"," +
+            "\"access_token\":\"" + TEST_ACCESS_TOKEN + "\",\"refresh_token\":\"" + TEST_ROTATED_REFRESH_TOKEN + "\"}");
+        final AzureAuthority cut = createAuthority();
+
+        final TokenPair actual = cut.acquireTokenByRefreshToken(URI.create("https://example.visualstudio.com/"), TEST_CLIENT_ID, TEST_RESOURCE, new Token(TEST_REFRESH_TOKEN, TokenType.Refresh));
+
+        Assert.assertEquals(TEST_ACCESS_TOKEN, actual.AccessToken.Value);
+        Assert.assertEquals(TokenType.Access, actual.AccessToken.Type);
+        Assert.assertEquals(TEST_ROTATED_REFRESH_TOKEN, actual.RefreshToken.Value);
+        Assert.assertEquals("3600", actual.Parameters.get("expires_in"));
+        verify(1, postRequestedFor(urlEqualTo(TOKEN_ENDPOINT_PATH)).withRequestBody(equalTo(TEST_REFRESH_REQUEST_BODY)));
+    }
+
+    @Test
+    public void acquireTokenByRefreshToken_notRotated() throws Exception
+    {
+        stubTokenEndpoint(200, "{\"token_type\":\"Bearer\",\"access_token\":\"" + TEST_ACCESS_TOKEN + "\"}");
+        final AzureAuthority cut = createAuthority();
+
+        final TokenPair actual = cut.acquireTokenByRefreshToken(URI.create("https://example.visualstudio.com/"), TEST_CLIENT_ID, TEST_RESOURCE, new Token(TEST_REFRESH_TOKEN, TokenType.Refresh));
+
+        Assert.assertEquals(TEST_ACCESS_TOKEN, actual.AccessToken.Value);
+        Assert.assertEquals(TEST_REFRESH_TOKEN, actual.RefreshToken.Value);
+    }
+
+    @Test
+    public void acquireTokenByRefreshToken_revoked() throws Exception
+    {
+        stubTokenEndpoint(400, "{\"error\":\"invalid_grant\",\"error_description\":\"AADSTS70002: The refresh token has expired.\"}");
+        final AzureAuthority cut = createAuthority();
+
+        final TokenPair actual = cut.acquireTokenByRefreshToken(URI.create("https://example.visualstudio.com/"), TEST_CLIENT_ID, TEST_RESOURCE, new Token(TEST_REFRESH_TOKEN, TokenType.Refresh));
+
+        Assert.assertNull(actual);
+        verify(1, postRequestedFor(urlEqualTo(TOKEN_ENDPOINT_PATH)));
+    }
+
+    @Test
+    public void acquireTokenByRefreshToken_deadlinePassed() throws Exception
+    {
+        stubTokenEndpoint(200, "{\"token_type\":\"Bearer\",\"access_token\":\"" + TEST_ACCESS_TOKEN + "\"}");
+        final AzureAuthority cut = createAuthority();
+        cut.setDeadline(new Deadline(System.currentTimeMillis() - 1));
+
+        final TokenPair actual = cut.acquireTokenByRefreshToken(URI.create("https://example.visualstudio.com/"), TEST_CLIENT_ID, TEST_RESOURCE, new Token(TEST_REFRESH_TOKEN, TokenType.Refresh));
+
+        // the caller falls back to a logon without the request being sent
+        Assert.assertNull(actual);
+        verify(0, postRequestedFor(urlEqualTo(TOKEN_ENDPOINT_PATH)));
+    }
+
+    @Test
+    public void refreshCredentials_storesRotatedRefreshToken() throws Exception
+    {
+        stubTokenEndpoint(200, "{\"token_type\":\"Bearer\"," +
+            "\"access_token\":\"" + TEST_ACCESS_TOKEN + "\",\"refresh_token\":\"" + TEST_ROTATED_REFRESH_TOKEN + "\"}");
+        final URI targetUri = URI.create("https://rotation.visualstudio.com/");
+        final SecretCache personalAccessTokenStore = new SecretCache("rotation-pat");
+        final SecretCache refreshTokenStore = new SecretCache("rotation-ada");
+        refreshTokenStore.writeToken(targetUri, new Token(TEST_REFRESH_TOKEN, TokenType.Refresh));
+        final AtomicReference<Token> exchangedAccessToken = new AtomicReference<Token>();
+        final VsoAadAuthentication cut = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, personalAccessTokenStore, refreshTokenStore);
+        cut.VsoAuthority = new VsoAzureAuthority("http://localhost:" + wireMockRule.port() + "/common")
+        {
+            @Override public Token generatePersonalAccessToken(final URI targetUri, final Token accessToken, final VsoTokenScope tokenScope, final boolean requireCompactToken)
+            {
+                exchangedAccessToken.set(accessToken);
+                return new Token("personal-access-token", TokenType.Personal);
+            }
+        };
+
+        final boolean actual = cut.refreshCredentials(targetUri, true);
+
+        Assert.assertTrue(actual);
+        Assert.assertEquals(TEST_ACCESS_TOKEN, exchangedAccessToken.get().Value);
+        final AtomicReference<Token> storedRefreshToken = new AtomicReference<Token>();
+        Assert.assertTrue(refreshTokenStore.readToken(targetUri, storedRefreshToken));
+        Assert.assertEquals(TEST_ROTATED_REFRESH_TOKEN, storedRefreshToken.get().Value);
+        Assert.assertTrue(cut.getCredentials(targetUri, new AtomicReference<Credential>()));
+    }
+
+    private AzureAuthority createAuthority()
+    {
+        return new AzureAuthority("http://localhost:" + wireMockRule.port() + "/common");
+    }
+
+    private static void stubTokenEndpoint(final int status, final String responseBody)
+    {
+        stubFor(post(urlEqualTo(TOKEN_ENDPOINT_PATH))
+            .willReturn(aResponse()
+                .withStatus(status)
+                .withHeader("Content-Type", "application/json")
+                .withHeader("Cache-Control", "no-store")
+                .withBody(responseBody)));
+    }
+
     @Test
     public void createAuthorizationEndpointUri_minimal() throws Exception
     {
@@ -205,6 +329,14 @@ public class AzureAuthorityTest
             "&redirect_uri=https%3A%2F%2Fexample.com", actual.getContent());
     }
 
+    @Test
+    public void createRefreshTokenRequest_typical() throws Exception
+    {
+        final StringContent actual = AzureAuthority.createRefreshTokenRequest(TEST_RESOURCE, TEST_CLIENT_ID, TEST_REFRESH_TOKEN, null);
+
+        Assert.assertEquals(TEST_REFRESH_REQUEST_BODY, actual.getContent());
+    }
+
     @Test
     public void createTokenRequest_withCorrelationId() throws Exception
     {
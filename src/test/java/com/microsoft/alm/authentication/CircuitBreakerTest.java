@@ -0,0 +1,137 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+
+public class CircuitBreakerTest
+{
+    private static final URI TargetUri = URI.create("https://contoso.visualstudio.com/_apis/connectiondata");
+    private static final long CoolDown = 60 * 1000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File circuitsFile;
+    private FakeCircuitBreaker cut;
+
+    @Before public void setUp()
+    {
+        circuitsFile = new File(temporaryFolder.getRoot(), "program/circuits.properties");
+        cut = new FakeCircuitBreaker(circuitsFile);
+    }
+
+    @Test public void recordFailure_opensAtThreshold()
+    {
+        cut.recordFailure(TargetUri);
+        cut.recordFailure(TargetUri);
+
+        Assert.assertFalse(cut.isOpen(TargetUri));
+        Assert.assertTrue(cut.allowRequest(TargetUri));
+
+        cut.recordFailure(TargetUri);
+
+        Assert.assertTrue(cut.isOpen(URI.create("https://CONTOSO.visualstudio.com/DefaultCollection")));
+        Assert.assertFalse(cut.allowRequest(TargetUri));
+        Assert.assertTrue(cut.allowRequest(URI.create("https://fabrikam.visualstudio.com/")));
+    }
+
+    @Test public void recordSuccess_resetsTheFailures()
+    {
+        cut.recordFailure(TargetUri);
+        cut.recordFailure(TargetUri);
+
+        cut.recordSuccess(TargetUri);
+        cut.recordFailure(TargetUri);
+
+        Assert.assertFalse(cut.isOpen(TargetUri));
+    }
+
+    @Test public void allowRequest_halfOpenLetsOneProbeThrough()
+    {
+        open(cut);
+        cut.now += CoolDown;
+
+        Assert.assertFalse(cut.isOpen(TargetUri));
+        Assert.assertTrue(cut.allowRequest(TargetUri));
+        // the probe is underway: the other requests still fail right away
+        Assert.assertFalse(cut.allowRequest(TargetUri));
+        Assert.assertTrue(cut.isOpen(TargetUri));
+    }
+
+    @Test public void allowRequest_probeClaimedByAnotherProcess()
+    {
+        open(cut);
+        cut.now += CoolDown;
+        final FakeCircuitBreaker otherProcess = new FakeCircuitBreaker(circuitsFile);
+        otherProcess.now = cut.now;
+
+        Assert.assertTrue(otherProcess.allowRequest(TargetUri));
+
+        Assert.assertFalse(cut.allowRequest(TargetUri));
+    }
+
+    @Test public void recordSuccess_probeClosesTheCircuit()
+    {
+        open(cut);
+        cut.now += CoolDown;
+        cut.allowRequest(TargetUri);
+
+        cut.recordSuccess(TargetUri);
+
+        Assert.assertFalse(cut.isOpen(TargetUri));
+        Assert.assertTrue(cut.allowRequest(TargetUri));
+        Assert.assertTrue(PropertiesFile.load(circuitsFile).isEmpty());
+    }
+
+    @Test public void recordFailure_probeOpensTheCircuitAgain()
+    {
+        open(cut);
+        cut.now += CoolDown;
+        cut.allowRequest(TargetUri);
+
+        cut.recordFailure(TargetUri);
+        cut.now += CoolDown - 1;
+
+        Assert.assertTrue(cut.isOpen(TargetUri));
+    }
+
+    @Test public void isOpen_noFile()
+    {
+        Assert.assertFalse(cut.isOpen(TargetUri));
+        Assert.assertTrue(cut.allowRequest(TargetUri));
+        cut.recordSuccess(TargetUri);
+
+        Assert.assertFalse(circuitsFile.exists());
+    }
+
+    private static void open(final CircuitBreaker circuitBreaker)
+    {
+        for (int i = 0; i < CircuitBreaker.DefaultThreshold; i++)
+        {
+            circuitBreaker.recordFailure(TargetUri);
+        }
+    }
+
+    static class FakeCircuitBreaker extends CircuitBreaker
+    {
+        long now = 1500000000000L;
+
+        FakeCircuitBreaker(final File file)
+        {
+            super(file, DefaultThreshold, CoolDown);
+        }
+
+        @Override long now()
+        {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ConfigurationSnapshotTest
+{
+    private static final long AMinuteAgo = System.currentTimeMillis() - 60 * 1000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File globalConfig;
+    private File localConfig;
+    private File snapshotFile;
+
+    @Before public void setUp() throws IOException
+    {
+        globalConfig = temporaryFolder.newFile("global.gitconfig");
+        localConfig = temporaryFolder.newFile("local.gitconfig");
+        snapshotFile = new File(temporaryFolder.getRoot(), "program/configuration.snapshot");
+        writeConfig(globalConfig, "[credential]\n    authority = AAD\n[core]\n    autocrlf = false\n", AMinuteAgo);
+        writeConfig(localConfig, "[credential \"visualstudio.com\"]\n    authority = MSA\n", AMinuteAgo);
+    }
+
+    @Test public void loadGitConfiguration_writesSnapshot() throws IOException
+    {
+        final Configuration cut = new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+
+        Assert.assertEquals("AAD", cut.get("credential.authority"));
+        Assert.assertEquals("MSA", cut.get("credential.visualstudio.com.authority"));
+        Assert.assertEquals("false", cut.get("core.autocrlf"));
+        Assert.assertTrue(snapshotFileFor(globalConfig, localConfig).isFile());
+    }
+
+    @Test public void loadGitConfiguration_unchangedFilesReadFromSnapshot() throws IOException
+    {
+        new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+        // same size and modification time, so the snapshot can't tell
+        writeConfig(localConfig, "[credential \"visualstudio.com\"]\n    authority = AAD\n", AMinuteAgo);
+
+        final Configuration cut = new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+
+        Assert.assertEquals("MSA", cut.get("credential.visualstudio.com.authority"));
+        Assert.assertEquals("AAD", cut.get("credential.authority"));
+        // only the credential.* values are in the snapshot
+        Assert.assertFalse(cut.containsKey("core.autocrlf"));
+    }
+
+    @Test public void loadGitConfiguration_modifiedFileInvalidatesSnapshot() throws IOException
+    {
+        new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+        writeConfig(localConfig, "[credential \"visualstudio.com\"]\n    authority = AAD\n", AMinuteAgo + 1000);
+
+        final Configuration cut = new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+
+        Assert.assertEquals("AAD", cut.get("credential.visualstudio.com.authority"));
+        Assert.assertEquals("false", cut.get("core.autocrlf"));
+    }
+
+    @Test public void loadGitConfiguration_differentFilesInvalidateSnapshot() throws IOException
+    {
+        new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+
+        final Configuration cut = new Configuration(Collections.singletonList(globalConfig), snapshotFile);
+
+        Assert.assertEquals("AAD", cut.get("credential.authority"));
+        Assert.assertFalse(cut.containsKey("credential.visualstudio.com.authority"));
+    }
+
+    @Test public void loadGitConfiguration_eachSetOfFilesHasItsSnapshot() throws IOException
+    {
+        new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+        new Configuration(Collections.singletonList(globalConfig), snapshotFile);
+        // same size and modification time, so the snapshot can't tell
+        writeConfig(localConfig, "[credential \"visualstudio.com\"]\n    authority = AAD\n", AMinuteAgo);
+
+        final Configuration cut = new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+
+        Assert.assertEquals("MSA", cut.get("credential.visualstudio.com.authority"));
+        Assert.assertFalse(cut.containsKey("core.autocrlf"));
+        Assert.assertNotEquals(snapshotFileFor(globalConfig, localConfig), snapshotFileFor(globalConfig));
+    }
+
+    @Test public void loadGitConfiguration_corruptSnapshotIsRebuilt() throws IOException
+    {
+        new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+        final File setSnapshotFile = snapshotFileFor(globalConfig, localConfig);
+        final long snapshotLength = setSnapshotFile.length();
+        writeConfig(setSnapshotFile, "garbage", AMinuteAgo);
+
+        final Configuration cut = new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+
+        Assert.assertEquals("MSA", cut.get("credential.visualstudio.com.authority"));
+        Assert.assertEquals(snapshotLength, setSnapshotFile.length());
+    }
+
+    @Test public void evict_keepsTheMostRecentlyWrittenSnapshots() throws IOException
+    {
+        new Configuration(Arrays.asList(globalConfig, localConfig), snapshotFile);
+        new Configuration(Collections.singletonList(globalConfig), snapshotFile);
+        new Configuration(Collections.singletonList(localConfig), snapshotFile);
+        final File oldest = snapshotFileFor(globalConfig, localConfig);
+        Assert.assertTrue(oldest.setLastModified(AMinuteAgo));
+        Assert.assertTrue(snapshotFileFor(globalConfig).setLastModified(AMinuteAgo + 1000));
+        Assert.assertTrue(snapshotFileFor(localConfig).setLastModified(AMinuteAgo + 2000));
+        final File unrelated = new File(snapshotFile.getParentFile(), "where.properties");
+        writeConfig(unrelated, "", AMinuteAgo - 1000);
+
+        ConfigurationSnapshot.evict(snapshotFile, 2);
+
+        Assert.assertFalse(oldest.exists());
+        Assert.assertTrue(snapshotFileFor(globalConfig).isFile());
+        Assert.assertTrue(snapshotFileFor(localConfig).isFile());
+        Assert.assertTrue(unrelated.isFile());
+    }
+
+    @Test public void write_recentlyModifiedFileIsNotSnapshotted() throws IOException
+    {
+        final long now = AMinuteAgo + ConfigurationSnapshot.RacyIntervalMillis - 1;
+        final List<ConfigurationSnapshot.Fingerprint> fingerprints =
+            ConfigurationSnapshot.fingerprint(Arrays.asList(globalConfig, localConfig));
+        final Map<String, String> values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        values.put("credential.authority", "AAD");
+
+        ConfigurationSnapshot.write(snapshotFile, fingerprints, values, now);
+
+        Assert.assertFalse(snapshotFile.exists());
+    }
+
+    @Test public void tryRead_missingSnapshot() throws IOException
+    {
+        final List<ConfigurationSnapshot.Fingerprint> fingerprints =
+            ConfigurationSnapshot.fingerprint(Arrays.asList(globalConfig, localConfig));
+        final Map<String, String> values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+        Assert.assertFalse(ConfigurationSnapshot.tryRead(snapshotFile, fingerprints, values));
+        Assert.assertTrue(values.isEmpty());
+    }
+
+    private File snapshotFileFor(final File... configFiles)
+    {
+        return ConfigurationSnapshot.fileFor(snapshotFile, ConfigurationSnapshot.fingerprint(Arrays.asList(configFiles)));
+    }
+
+    private static void writeConfig(final File file, final String contents, final long lastModified) throws IOException
+    {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            writer.write(contents);
+        }
+        finally
+        {
+            writer.close();
+        }
+        Assert.assertTrue(file.setLastModified(lastModified));
+    }
+}
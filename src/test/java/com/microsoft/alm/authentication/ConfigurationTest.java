@@ -12,6 +12,8 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -76,7 +78,7 @@ public class ConfigurationTest
         }
 
         Assert.assertEquals(36, values.size());
-        Assert.assertEquals("The quotes remained.", "\\\"C:/Utils/Compare It!/wincmp3.exe\\\" \\\"$(cygpath -w \\\"$LOCAL\\\")\\\" \\\"$(cygpath -w \\\"$REMOTE\\\")\\\"", values.get("difftool.cygcompareit.cmd"));
+        Assert.assertEquals("The escaped quotes were unescaped, as git does.", "\"C:/Utils/Compare It!/wincmp3.exe\" \"$(cygpath -w \"$LOCAL\")\" \"$(cygpath -w \"$REMOTE\")\"", values.get("difftool.cygcompareit.cmd"));
         Assert.assertEquals("The quotes were stripped.", "!f() { git fetch origin && git checkout -b $1 origin/master --no-track; }; f", values.get("alias.cob"));
     }
 
@@ -124,6 +126,107 @@ public class ConfigurationTest
         Assert.assertEquals("NTLM", entryRef.get().Value);
     }
 
+    @Test
+    public void resolve_matchesTryGetEntry() throws IOException, URISyntaxException
+    {
+        final String input = "\n" +
+            "[core]\n" +
+            "    autocrlf = false\n" +
+            "[credential \"microsoft.visualstudio.com\"]\n" +
+            "    authority = AAD\n" +
+            "[credential \"visualstudio.com\"]\n" +
+            "    authority = MSA\n" +
+            "    interactive = never\n" +
+            "[credential \"https://ntlm.visualstudio.com\"]\n" +
+            "    authority = NTLM\n" +
+            "[credential]\n" +
+            "    helper = manager\n" +
+            "    validate = false\n" +
+            "";
+        final String[] names = {"authority", "interactive", "validate", "helper", "writelog"};
+        final URI[] targetUris =
+        {
+            new URI("https://microsoft.visualstudio.com"),
+            new URI("https://deep.sub.domain.of.microsoft.visualstudio.com"),
+            new URI("https://mseng.visualstudio.com"),
+            new URI("https://ntlm.visualstudio.com"),
+            new URI("http://ntlm.visualstudio.com"),
+            new URI("https://github.com"),
+            null,
+        };
+        final Configuration cut = new Configuration(new BufferedReader(new StringReader(input)));
+        final AtomicReference<Configuration.Entry> entryRef = new AtomicReference<Configuration.Entry>();
+
+        for (final URI targetUri : targetUris)
+        {
+            final Configuration.Settings actual = cut.resolve("credential", targetUri);
+
+            for (final String name : names)
+            {
+                final String expected = cut.tryGetEntry("credential", targetUri, name, entryRef)
+                    ? entryRef.get().Value
+                    : null;
+                Assert.assertEquals(targetUri + " " + name, expected, actual.get(name));
+            }
+        }
+        Assert.assertEquals("AAD", cut.resolve("CREDENTIAL", new URI("https://Microsoft.VisualStudio.com")).get("Authority"));
+        Assert.assertEquals(false, cut.resolve("credential", null).containsKey("autocrlf"));
+        Assert.assertEquals("false", cut.resolve("core", null).get("autocrlf"));
+    }
+
+    @Test
+    public void enumerateHostScopes_mostSpecificFirst() throws URISyntaxException
+    {
+        final List<String> actual = Configuration.enumerateHostScopes(new URI("https://a.b.visualstudio.com/path"));
+
+        Assert.assertEquals(Arrays.asList("a.b.visualstudio.com", "b.visualstudio.com", "visualstudio.com", ""), actual);
+    }
+
+    @Test
+    public void resolve_urlPatterns() throws IOException, URISyntaxException
+    {
+        final String input = "\n" +
+            "[credential \"https://*.example.com\"]\n" +
+            "    authority = AAD\n" +
+            "    interactive = never\n" +
+            "[credential \"https://*.example.com/team/project\"]\n" +
+            "    authority = MSA\n" +
+            "[credential \"https://git.example.com:8443\"]\n" +
+            "    authority = NTLM\n" +
+            "[credential \"https://git.example.com/team\"]\n" +
+            "    interactive = always\n" +
+            "[credential \"example.com\"]\n" +
+            "    validate = false\n" +
+            "[credential]\n" +
+            "    authority = Basic\n" +
+            "";
+        final Configuration cut = new Configuration(new BufferedReader(new StringReader(input)));
+
+        final Configuration.Settings wildcard = cut.resolve("credential", new URI("https://git.example.com/other"));
+        Assert.assertEquals("AAD", wildcard.get("authority"));
+        Assert.assertEquals("never", wildcard.get("interactive"));
+        Assert.assertEquals("false", wildcard.get("validate"));
+
+        // the exact host beats the wildcard, then the longest path wins
+        final Configuration.Settings withPath = cut.resolve("credential", new URI("https://git.example.com/team/project/_git/repo"));
+        Assert.assertEquals("MSA", withPath.get("authority"));
+        Assert.assertEquals("always", withPath.get("interactive"));
+
+        // paths only match whole segments
+        Assert.assertEquals("AAD", cut.resolve("credential", new URI("https://git.example.com/team/projects")).get("authority"));
+
+        // the port must match
+        Assert.assertEquals("NTLM", cut.resolve("credential", new URI("https://git.example.com:8443/")).get("authority"));
+
+        // wildcards match a single label and the scheme must match
+        Assert.assertEquals("Basic", cut.resolve("credential", new URI("https://a.git.example.com/")).get("authority"));
+        Assert.assertEquals("Basic", cut.resolve("credential", new URI("http://git.example.com/")).get("authority"));
+
+        final AtomicReference<Configuration.Entry> entryRef = new AtomicReference<Configuration.Entry>();
+        Assert.assertEquals(true, cut.tryGetEntry("credential", new URI("https://git.example.com/team/project"), "authority", entryRef));
+        Assert.assertEquals("credential.https://*.example.com/team/project.authority", entryRef.get().Key);
+    }
+
     private static Map<String, String> testParseGitConfig(final String input) throws IOException
     {
         final TreeMap<String, String> values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
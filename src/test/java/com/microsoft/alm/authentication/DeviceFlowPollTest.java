@@ -0,0 +1,270 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.github.tomakehurst.wiremock.client.MappingBuilder;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.microsoft.alm.oauth2.useragent.AuthorizationException;
+import com.microsoft.alm.secret.TokenPair;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+
+public class DeviceFlowPollTest
+{
+    private static final String CLIENT_ID = "d30feefe-9ee4-4b00-ac77-08dbd1199811";
+    private static final String DEVICE_CODE = "03d5f4b1-c8ab-4ce2-85c0-158d2075ff5f";
+    private static final String USER_CODE = "DEADBEEF";
+    private static final URI VERIFICATION_URI = URI.create("https://authorization.example.com/oauth/device");
+    private static final String ACCESS_TOKEN = "bacf8b5f-63f2-4998-9170-d32cf7db4a78";
+    private static final String REFRESH_TOKEN = "c2be2d76-1e9e-487c-9684-78823747391c";
+    private static final String TOKEN_ENDPOINT_PATH = "/token";
+    private static final String SCENARIO = "Token endpoint";
+    private static final String SUCCESS_BODY = "{\"access_token\":\"" + ACCESS_TOKEN + "\",\"refresh_token\":\"" + REFRESH_TOKEN + "\",\"token_type\":\"bearer\",\"expires_in\":3600}";
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+
+    @Test public void pollToken_pendingThenGranted() throws Exception
+    {
+        stubTokenEndpoint(Scenario.STARTED, "granted", 400, errorBody("authorization_pending"));
+        stubTokenEndpoint("granted", null, 200, SUCCESS_BODY);
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 1);
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        final TokenPair actual = poll.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(ACCESS_TOKEN, actual.AccessToken.Value);
+        Assert.assertEquals(REFRESH_TOKEN, actual.RefreshToken.Value);
+        Assert.assertEquals(2, poll.getRequestCount());
+        Assert.assertEquals(1000, poll.getIntervalMilliseconds());
+    }
+
+    @Test public void pollToken_slowDownAddsFiveSeconds() throws Exception
+    {
+        stubTokenEndpoint(400, errorBody("slow_down"));
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 1);
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        awaitInterval(poll, 6000);
+        response.cancel();
+
+        Assert.assertTrue(poll.isCancelled());
+        Assert.assertEquals(1, poll.getRequestCount());
+    }
+
+    @Test public void pollToken_slowDownUsesServerInterval() throws Exception
+    {
+        stubTokenEndpoint(400, "{\"error\":\"slow_down\",\"interval\":30}");
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 1);
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        awaitInterval(poll, 30000);
+        response.cancel();
+
+        Assert.assertEquals(1, poll.getRequestCount());
+    }
+
+    @Test public void pollToken_codeExpires() throws Exception
+    {
+        stubTokenEndpoint(400, errorBody("authorization_pending"));
+        final DeviceFlowResponse response = createDeviceFlowResponse(1, 1);
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        try
+        {
+            poll.get(10, TimeUnit.SECONDS);
+            Assert.fail("An AuthorizationException should have been thrown.");
+        }
+        catch (final ExecutionException e)
+        {
+            final AuthorizationException actual = (AuthorizationException) e.getCause();
+            Assert.assertEquals(DeviceFlowPoll.ERROR_CODE_EXPIRED, actual.getCode());
+        }
+        // no request is sent once the verification code expired
+        Assert.assertEquals(1, poll.getRequestCount());
+    }
+
+    @Test public void pollToken_codeExpiresWhileRequestHangs() throws Exception
+    {
+        stubFor(post(urlEqualTo(TOKEN_ENDPOINT_PATH))
+            .willReturn(createResponse(400, errorBody("authorization_pending")).withFixedDelay(5000)));
+        final DeviceFlowResponse response = createDeviceFlowResponse(1, 1);
+        final long start = System.currentTimeMillis();
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        try
+        {
+            poll.get(10, TimeUnit.SECONDS);
+            Assert.fail("An AuthorizationException should have been thrown.");
+        }
+        catch (final ExecutionException e)
+        {
+            final AuthorizationException actual = (AuthorizationException) e.getCause();
+            Assert.assertEquals(DeviceFlowPoll.ERROR_CODE_EXPIRED, actual.getCode());
+        }
+        // the expiry isn't held up by the response
+        Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+    }
+
+    @Test public void pollToken_deadlinePassesBeforeCodeExpires() throws Exception
+    {
+        stubTokenEndpoint(400, errorBody("authorization_pending"));
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 1);
+        final DeviceFlowImpl deviceFlow = new DeviceFlowImpl();
+        deviceFlow.setDeadline(Deadline.after(500));
+
+        final DeviceFlowPoll poll = deviceFlow.pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        try
+        {
+            poll.get(10, TimeUnit.SECONDS);
+            Assert.fail("An AuthorizationException should have been thrown.");
+        }
+        catch (final ExecutionException e)
+        {
+            final AuthorizationException actual = (AuthorizationException) e.getCause();
+            Assert.assertEquals(DeviceFlowPoll.ERROR_DEADLINE_EXCEEDED, actual.getCode());
+        }
+        Assert.assertEquals(1, poll.getRequestCount());
+    }
+
+    @Test public void pollToken_cancelledBeforeFirstRequest() throws Exception
+    {
+        stubTokenEndpoint(200, SUCCESS_BODY);
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 1);
+        response.cancel();
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+
+        Assert.assertTrue(poll.isCancelled());
+        Thread.sleep(100);
+        Assert.assertEquals(0, poll.getRequestCount());
+    }
+
+    @Test public void requestToken_cancelledWhilePending() throws Exception
+    {
+        stubTokenEndpoint(400, errorBody("authorization_pending"));
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 1);
+        final Thread canceller = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    Thread.sleep(500);
+                }
+                catch (final InterruptedException ignored)
+                {
+                }
+                response.cancel();
+            }
+        });
+        canceller.start();
+
+        try
+        {
+            new DeviceFlowImpl().requestToken(createTokenEndpoint(), CLIENT_ID, response);
+            Assert.fail("An AuthorizationException should have been thrown.");
+        }
+        catch (final AuthorizationException e)
+        {
+            Assert.assertEquals(DeviceFlowPoll.ERROR_CANCELLED, e.getCode());
+        }
+        canceller.join();
+    }
+
+    @Test public void pollNow_skipsTheRestOfTheInterval() throws Exception
+    {
+        stubTokenEndpoint(Scenario.STARTED, "granted", 400, errorBody("authorization_pending"));
+        stubTokenEndpoint("granted", null, 200, SUCCESS_BODY);
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 60);
+
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        final long deadline = System.currentTimeMillis() + 10 * 1000;
+        // pollNow() does nothing while the first request is underway
+        while (!poll.isDone() && System.currentTimeMillis() < deadline)
+        {
+            response.pollNow();
+            Thread.sleep(10);
+        }
+        final TokenPair actual = poll.get(0, TimeUnit.SECONDS);
+
+        Assert.assertEquals(ACCESS_TOKEN, actual.AccessToken.Value);
+        Assert.assertEquals(2, poll.getRequestCount());
+    }
+
+    @Test(expected = CancellationException.class) public void pollNow_afterCancel() throws Exception
+    {
+        stubTokenEndpoint(400, errorBody("authorization_pending"));
+        final DeviceFlowResponse response = createDeviceFlowResponse(600, 60);
+        final DeviceFlowPoll poll = new DeviceFlowImpl().pollToken(createTokenEndpoint(), CLIENT_ID, response);
+        response.cancel();
+
+        response.pollNow();
+
+        poll.get(0, TimeUnit.SECONDS);
+    }
+
+    private URI createTokenEndpoint()
+    {
+        return URI.create("http://localhost:" + wireMockRule.port() + TOKEN_ENDPOINT_PATH);
+    }
+
+    private static DeviceFlowResponse createDeviceFlowResponse(final int expiresIn, final int interval)
+    {
+        return new DeviceFlowResponse(DEVICE_CODE, USER_CODE, VERIFICATION_URI, expiresIn, interval);
+    }
+
+    private static String errorBody(final String errorCode)
+    {
+        return "{\"error\":\"" + errorCode + "\"}";
+    }
+
+    private static void stubTokenEndpoint(final int status, final String body)
+    {
+        stubFor(post(urlEqualTo(TOKEN_ENDPOINT_PATH))
+            .willReturn(createResponse(status, body)));
+    }
+
+    private static void stubTokenEndpoint(final String state, final String nextState, final int status, final String body)
+    {
+        final MappingBuilder mappingBuilder = post(urlEqualTo(TOKEN_ENDPOINT_PATH))
+            .inScenario(SCENARIO)
+            .whenScenarioStateIs(state);
+        if (nextState != null)
+        {
+            mappingBuilder.willSetStateTo(nextState);
+        }
+        stubFor(mappingBuilder.willReturn(createResponse(status, body)));
+    }
+
+    private static ResponseDefinitionBuilder createResponse(final int status, final String body)
+    {
+        return aResponse()
+            .withStatus(status)
+            .withHeader("Content-Type", "application/json")
+            .withBody(body);
+    }
+
+    private static void awaitInterval(final DeviceFlowPoll poll, final long expected) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (poll.getIntervalMilliseconds() != expected && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, poll.getIntervalMilliseconds());
+    }
+}
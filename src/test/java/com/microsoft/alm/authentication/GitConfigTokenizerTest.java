@@ -0,0 +1,116 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class GitConfigTokenizerTest
+{
+    @Test public void parse_inlineComments() throws IOException
+    {
+        final Map<String, String> actual = parse("[credential] # the default\n" +
+            "    authority = AAD ; for everyone\n" +
+            "    helper = \"manager # not a comment\"\n");
+
+        Assert.assertEquals(2, actual.size());
+        Assert.assertEquals("AAD", actual.get("credential.authority"));
+        Assert.assertEquals("manager # not a comment", actual.get("credential.helper"));
+    }
+
+    @Test public void parse_continuationLines() throws IOException
+    {
+        final Map<String, String> actual = parse("[alias]\n" +
+            "    lg = log --graph \\\n" +
+            "--oneline\n" +
+            "    st = status\n");
+
+        Assert.assertEquals("log --graph --oneline", actual.get("alias.lg"));
+        Assert.assertEquals("status", actual.get("alias.st"));
+    }
+
+    @Test public void parse_escapes() throws IOException
+    {
+        final Map<String, String> actual = parse("[test]\n" +
+            "    quote = say \\\"hi\\\"\n" +
+            "    backslash = \"C:\\\\Utils\"\n" +
+            "    tab = a\\tb\n" +
+            "    newline = a\\nb\n" +
+            "    unknown = C:\\Utils\n");
+
+        Assert.assertEquals("say \"hi\"", actual.get("test.quote"));
+        Assert.assertEquals("C:\\Utils", actual.get("test.backslash"));
+        Assert.assertEquals("a\tb", actual.get("test.tab"));
+        Assert.assertEquals("a\nb", actual.get("test.newline"));
+        Assert.assertEquals("C:\\Utils", actual.get("test.unknown"));
+    }
+
+    @Test public void parse_whitespace() throws IOException
+    {
+        final Map<String, String> actual = parse("[test]\n" +
+            "\tinner = \t one  two\t \n" +
+            "\tquoted = \" padded \"\n" +
+            "\tempty =\n" +
+            "\tflag\n");
+
+        Assert.assertEquals("one  two", actual.get("test.inner"));
+        Assert.assertEquals(" padded ", actual.get("test.quoted"));
+        Assert.assertFalse(actual.containsKey("test.empty"));
+        Assert.assertEquals("true", actual.get("test.flag"));
+    }
+
+    @Test public void parse_subsections() throws IOException
+    {
+        final Map<String, String> actual = parse("[credential \"https://Example.VisualStudio.com\"]\n" +
+            "    authority = MSA\n" +
+            "[credential \"with \\\"quotes\\\"\"]\n" +
+            "    authority = AAD\n" +
+            "[branch.master]\n" +
+            "    remote = origin\n" +
+            "[core] autocrlf = false\n");
+
+        Assert.assertEquals("MSA", actual.get("credential.https://Example.VisualStudio.com.authority"));
+        Assert.assertEquals("AAD", actual.get("credential.with \"quotes\".authority"));
+        Assert.assertEquals("origin", actual.get("branch.master.remote"));
+        Assert.assertEquals("false", actual.get("core.autocrlf"));
+    }
+
+    @Test public void parse_windowsLineEndings() throws IOException
+    {
+        final Map<String, String> actual = parse("[core]\r\n    autocrlf = true\r\n    editor = vim\r\n");
+
+        Assert.assertEquals("true", actual.get("core.autocrlf"));
+        Assert.assertEquals("vim", actual.get("core.editor"));
+    }
+
+    @Test public void parse_malformedLinesAreSkipped() throws IOException
+    {
+        final Map<String, String> actual = parse("orphan = value\n" +
+            "[core]\n" +
+            "    editor = vim\n" +
+            "[broken\n" +
+            "[ ]\n" +
+            "    !bang = value\n" +
+            "    quote = \"unterminated\n" +
+            "    after = value\n");
+
+        Assert.assertFalse(actual.containsKey("null.orphan"));
+        Assert.assertFalse(actual.containsKey("orphan"));
+        Assert.assertEquals("unterminated", actual.get("core.quote"));
+        Assert.assertEquals("value", actual.get("core.after"));
+        Assert.assertEquals(3, actual.size());
+    }
+
+    private static Map<String, String> parse(final String input) throws IOException
+    {
+        final Map<String, String> result = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        GitConfigTokenizer.parse(new StringReader(input), result);
+        return result;
+    }
+}
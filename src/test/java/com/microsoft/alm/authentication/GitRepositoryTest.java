@@ -0,0 +1,150 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class GitRepositoryTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File root;
+
+    @Before public void setUp() throws IOException
+    {
+        GitRepository.clearCache();
+        root = temporaryFolder.getRoot().getCanonicalFile();
+    }
+
+    @After public void tearDown()
+    {
+        GitRepository.clearCache();
+    }
+
+    @Test public void find_fromSubFolder() throws IOException
+    {
+        final File repo = createFolder("repo");
+        final File dotGit = createFolder("repo/.git");
+        writeFile(new File(dotGit, "config"), "[core]\n");
+        final File subFolder = createFolder("repo/src/main");
+
+        final GitRepository actual = GitRepository.find(subFolder.getAbsolutePath());
+
+        Assert.assertEquals(repo, actual.Root);
+        Assert.assertEquals(dotGit, actual.GitDir);
+        Assert.assertEquals(dotGit, actual.CommonDir);
+        Assert.assertEquals(new File(dotGit, "config"), actual.LocalConfig);
+    }
+
+    @Test public void find_submodule() throws IOException
+    {
+        final File moduleDir = createFolder("super/.git/modules/lib");
+        writeFile(new File(moduleDir, "config"), "[core]\n");
+        final File submodule = createFolder("super/lib");
+        writeFile(new File(submodule, ".git"), "gitdir: ../.git/modules/lib\n");
+
+        final GitRepository actual = GitRepository.find(submodule.getAbsolutePath());
+
+        Assert.assertEquals(submodule, actual.Root);
+        Assert.assertEquals(moduleDir, actual.GitDir);
+        Assert.assertEquals(moduleDir, actual.CommonDir);
+
+        final AtomicReference<String> path = new AtomicReference<String>();
+        Assert.assertEquals(true, Where.gitLocalConfig(submodule.getAbsolutePath(), path));
+        Assert.assertEquals(new File(moduleDir, "config").getAbsolutePath(), path.get());
+    }
+
+    @Test public void find_linkedWorkingTree() throws IOException
+    {
+        final File dotGit = createFolder("main/.git");
+        writeFile(new File(dotGit, "config"), "[core]\n");
+        final File worktreeDir = createFolder("main/.git/worktrees/feature");
+        writeFile(new File(worktreeDir, "commondir"), "../..\n");
+        final File worktree = createFolder("feature");
+        writeFile(new File(worktree, ".git"), "gitdir: " + worktreeDir.getAbsolutePath() + "\r\n");
+
+        final GitRepository actual = GitRepository.find(worktree.getAbsolutePath());
+
+        Assert.assertEquals(worktree, actual.Root);
+        Assert.assertEquals(worktreeDir, actual.GitDir);
+        Assert.assertEquals(dotGit, actual.CommonDir);
+        Assert.assertEquals(new File(dotGit, "config"), actual.LocalConfig);
+    }
+
+    @Test public void find_notARepository() throws IOException
+    {
+        final File folder = createFolder("plain/folder");
+
+        Assert.assertNull(GitRepository.find(folder.getAbsolutePath()));
+        Assert.assertNull(GitRepository.find(null));
+    }
+
+    @Test public void find_invalidGitFile() throws IOException
+    {
+        final File folder = createFolder("broken");
+        writeFile(new File(folder, ".git"), "not a gitdir\n");
+
+        Assert.assertNull(GitRepository.find(folder.getAbsolutePath()));
+    }
+
+    @Test public void find_cachesUntilGitDirIsDeleted() throws IOException
+    {
+        final File dotGit = createFolder("repo/.git");
+        final String directory = createFolder("repo").getAbsolutePath();
+
+        final GitRepository first = GitRepository.find(directory);
+        Assert.assertSame(first, GitRepository.find(directory));
+
+        Assert.assertEquals(true, dotGit.delete());
+        Assert.assertNull(GitRepository.find(directory));
+    }
+
+    @Test public void find_cacheIsBounded() throws IOException
+    {
+        createFolder("repo/.git");
+        final String first = createFolder("repo/0").getAbsolutePath();
+        final GitRepository expected = GitRepository.find(first);
+
+        for (int i = 1; i <= GitRepository.CacheCapacity; i++)
+        {
+            GitRepository.find(createFolder("repo/" + i).getAbsolutePath());
+        }
+
+        final GitRepository actual = GitRepository.find(first);
+        Assert.assertNotSame(expected, actual);
+        Assert.assertEquals(expected.GitDir, actual.GitDir);
+    }
+
+    private File createFolder(final String relativePath)
+    {
+        final File result = new File(root, relativePath);
+        Assert.assertEquals(true, result.mkdirs() || result.isDirectory());
+        return result;
+    }
+
+    private static void writeFile(final File file, final String contents) throws IOException
+    {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            writer.write(contents);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class HttpClientFactoryTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test public void createHttpClient_httpsConnectionsShareTheSocketFactory() throws IOException
+    {
+        final HttpClientFactory cut = new HttpClientFactory();
+        final URI uri = URI.create("https://dev.azure.com/_apis/connectiondata");
+
+        final HttpURLConnection first = cut.createHttpClient("test").get(uri);
+        final HttpURLConnection second = cut.createHttpClient("test").get(uri);
+
+        Assert.assertSame(cut.getSSLSocketFactory(), ((HttpsURLConnection) first).getSSLSocketFactory());
+        Assert.assertSame(cut.getSSLSocketFactory(), ((HttpsURLConnection) second).getSSLSocketFactory());
+        Assert.assertEquals(2, cut.getStatistics().Requests);
+        Assert.assertEquals(0, cut.getStatistics().ConnectionsOpened);
+    }
+
+    @Test public void createHttpClient_plainConnectionsAreNotCounted() throws IOException
+    {
+        final HttpClientFactory cut = new HttpClientFactory();
+
+        cut.createHttpClient("test").get(URI.create("http://localhost/"));
+
+        Assert.assertEquals(0, cut.getStatistics().Requests);
+    }
+
+    @Test public void createHttpClient_timeoutsWithoutDeadline() throws IOException
+    {
+        final HttpURLConnection actual = new HttpClientFactory().createHttpClient("test").get(URI.create("http://localhost/"));
+
+        Assert.assertEquals(HttpClientFactory.ConnectTimeout, actual.getConnectTimeout());
+        Assert.assertEquals(HttpClientFactory.ReadTimeout, actual.getReadTimeout());
+    }
+
+    @Test public void createHttpClient_timeoutsFromDeadline() throws IOException
+    {
+        final Deadline deadline = new Deadline(System.currentTimeMillis() + 5000);
+
+        final HttpURLConnection actual = new HttpClientFactory().createHttpClient("test", deadline).get(URI.create("http://localhost/"));
+
+        Assert.assertTrue(actual.getConnectTimeout() <= 5000 && actual.getConnectTimeout() > 4000);
+        Assert.assertEquals(actual.getConnectTimeout(), actual.getReadTimeout(), 100);
+    }
+
+    @Test(expected = SocketTimeoutException.class) public void createHttpClient_deadlinePassed() throws IOException
+    {
+        final Deadline deadline = new Deadline(System.currentTimeMillis() - 1);
+
+        new HttpClientFactory().createHttpClient("test", deadline).get(URI.create("http://localhost/"));
+    }
+
+    @Test public void createHttpClient_hungEndPointTimesOutAtDeadline() throws IOException
+    {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override public void handle(final HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    Thread.sleep(3000);
+                }
+                catch (final InterruptedException ignored)
+                {
+                }
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        final long start = System.currentTimeMillis();
+        try
+        {
+            final URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/_apis/connectiondata");
+            final HttpClient client = new HttpClientFactory().createHttpClient("test", Deadline.after(200));
+
+            client.get(uri).getResponseCode();
+            Assert.fail("A SocketTimeoutException should have been thrown.");
+        }
+        catch (final SocketTimeoutException expected)
+        {
+            Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+
+    @Test public void circuitBreaker_unreachableHostFailsFast() throws IOException
+    {
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final URI uri = URI.create("http://127.0.0.1:" + serverSocket.getLocalPort() + "/_apis/connectiondata");
+        serverSocket.close();
+        final File circuitsFile = temporaryFolder.newFile("circuits.properties");
+        final HttpClientFactory cut = new HttpClientFactory();
+        cut.setCircuitBreaker(new CircuitBreaker(circuitsFile, 1, 60 * 1000));
+        final HttpClient client = cut.createHttpClient("test");
+        try
+        {
+            client.get(uri);
+            Assert.fail("A ConnectException should have been thrown.");
+        }
+        catch (final CircuitOpenException e)
+        {
+            Assert.fail("The first request should have been sent.");
+        }
+        catch (final ConnectException expected)
+        {
+        }
+        Assert.assertTrue(cut.isCircuitOpen(uri));
+
+        try
+        {
+            client.get(uri);
+            Assert.fail("A CircuitOpenException should have been thrown.");
+        }
+        catch (final CircuitOpenException expected)
+        {
+        }
+        Assert.assertFalse(cut.isCircuitOpen(URI.create("http://localhost/")));
+    }
+
+    @Test public void isConnectFailure_onlyTheFullConnectTimeoutCounts() throws IOException
+    {
+        final HttpURLConnection full = new HttpClientFactory().createHttpClient("test").get(URI.create("http://localhost/"));
+        final HttpURLConnection shortened = new HttpClientFactory().createHttpClient("test", Deadline.after(500)).get(URI.create("http://localhost/"));
+        final SocketTimeoutException e = new SocketTimeoutException("connect timed out");
+
+        Assert.assertTrue(HttpClientFactory.isConnectFailure(full, e));
+        Assert.assertFalse(HttpClientFactory.isConnectFailure(shortened, e));
+        Assert.assertFalse(HttpClientFactory.isConnectFailure(null, e));
+        Assert.assertTrue(HttpClientFactory.isConnectFailure(shortened, new ConnectException()));
+        Assert.assertFalse(HttpClientFactory.isConnectFailure(full, new IOException()));
+    }
+
+    @Test public void circuitBreaker_readTimeoutDoesNotCount() throws IOException
+    {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override public void handle(final HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    Thread.sleep(3000);
+                }
+                catch (final InterruptedException ignored)
+                {
+                }
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        final URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/_apis/connectiondata");
+        final HttpClientFactory cut = new HttpClientFactory();
+        cut.setCircuitBreaker(new CircuitBreaker(temporaryFolder.newFile("circuits.properties"), 1, 60 * 1000));
+        try
+        {
+            cut.createHttpClient("test", Deadline.after(200)).get(uri).getResponseCode();
+            Assert.fail("A SocketTimeoutException should have been thrown.");
+        }
+        catch (final SocketTimeoutException expected)
+        {
+        }
+        finally
+        {
+            server.stop(0);
+        }
+
+        Assert.assertFalse(cut.isCircuitOpen(uri));
+    }
+
+    @Test public void statistics_connectionsReused() throws IOException
+    {
+        final HttpClientFactory cut = new HttpClientFactory();
+        final HttpClientFactory.CountingSSLSocketFactory socketFactory = (HttpClientFactory.CountingSSLSocketFactory) cut.getSSLSocketFactory();
+        final URI uri = URI.create("https://dev.azure.com/");
+        for (int i = 0; i < 3; i++)
+        {
+            cut.createHttpClient("test").get(uri);
+        }
+
+        socketFactory.count(new Socket());
+        final HttpClientFactory.Statistics actual = cut.getStatistics();
+
+        Assert.assertEquals(3, actual.Requests);
+        Assert.assertEquals(1, actual.ConnectionsOpened);
+        Assert.assertEquals(2, actual.getConnectionsReused());
+        Assert.assertEquals(0, actual.SessionsResumed);
+        Assert.assertEquals("requests = 3, connections opened = 1, connections reused = 2, TLS sessions resumed = 0", actual.toString());
+    }
+
+    @Test public void release_connectionIsReusedAfterAnError() throws IOException
+    {
+        final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override public void handle(final HttpExchange exchange) throws IOException
+            {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                final byte[] body = "{\"message\":\"TF400813: Resource not available for anonymous access.\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAUTHORIZED, body.length);
+                final OutputStream output = exchange.getResponseBody();
+                try
+                {
+                    output.write(body);
+                }
+                finally
+                {
+                    output.close();
+                }
+            }
+        });
+        server.start();
+        try
+        {
+            final URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/_apis/connectiondata");
+            final HttpClient client = new HttpClientFactory().createHttpClient("test");
+
+            for (int i = 0; i < 2; i++)
+            {
+                final HttpURLConnection connection = client.get(uri);
+                Assert.assertEquals(HttpURLConnection.HTTP_UNAUTHORIZED, connection.getResponseCode());
+                HttpClientFactory.release(connection);
+            }
+
+            Assert.assertEquals(2, clientPorts.size());
+            Assert.assertEquals(clientPorts.get(0), clientPorts.get(1));
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+}
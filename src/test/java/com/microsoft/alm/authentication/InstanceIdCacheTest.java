@@ -0,0 +1,58 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class InstanceIdCacheTest
+{
+    private static final URI TargetUri = URI.create("https://contoso.visualstudio.com/DefaultCollection");
+    private static final UUID InstanceId = UUID.fromString("7a25c0e1-6a8e-4c4b-9e4d-6b3b1f0f3c2d");
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheFile;
+
+    @Before public void setUp()
+    {
+        cacheFile = new File(temporaryFolder.getRoot(), "program/instances.properties");
+    }
+
+    @Test public void tryGet_unknownAccount()
+    {
+        final InstanceIdCache cut = new InstanceIdCache(cacheFile);
+
+        Assert.assertFalse(cut.tryGet(TargetUri, new AtomicReference<UUID>()));
+    }
+
+    @Test public void put_rememberedByHost()
+    {
+        new InstanceIdCache(cacheFile).put(TargetUri, InstanceId);
+        final InstanceIdCache cut = new InstanceIdCache(cacheFile);
+
+        final AtomicReference<UUID> actual = new AtomicReference<UUID>();
+        Assert.assertTrue(cut.tryGet(URI.create("https://CONTOSO.visualstudio.com/"), actual));
+        Assert.assertEquals(InstanceId, actual.get());
+        Assert.assertFalse(cut.tryGet(URI.create("https://fabrikam.visualstudio.com/"), actual));
+    }
+
+    @Test public void remove_forgetsTheAccount()
+    {
+        final InstanceIdCache cut = new InstanceIdCache(cacheFile);
+        cut.put(TargetUri, InstanceId);
+
+        cut.remove(TargetUri);
+
+        Assert.assertFalse(cut.tryGet(TargetUri, new AtomicReference<UUID>()));
+    }
+}
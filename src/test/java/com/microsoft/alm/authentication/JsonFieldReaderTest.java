@@ -0,0 +1,116 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.PropertyBag;
+import com.microsoft.alm.secret.Token;
+import com.microsoft.alm.secret.TokenType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+public class JsonFieldReaderTest
+{
+    @Test public void read_allMembers() throws IOException
+    {
+        final String input = "{ \"token_type\" : \"Bearer\", \"expires_in\": 3600, \"ext_expires_in\":-1.5e2,\n" +
+            "\t\"foci\": true, \"id_token\": null, \"claims\": {\"a\": [1, {\"b\": \"}\"}]}, \"scopes\": [] }";
+
+        final PropertyBag actual = JsonFieldReader.read(toStream(input));
+
+        Assert.assertEquals(5, actual.size());
+        Assert.assertEquals("Bearer", actual.get("token_type"));
+        Assert.assertEquals(3600.0, actual.get("expires_in"));
+        Assert.assertEquals(-150.0, actual.get("ext_expires_in"));
+        Assert.assertEquals(Boolean.TRUE, actual.get("foci"));
+        Assert.assertTrue(actual.containsKey("id_token"));
+        Assert.assertNull(actual.get("id_token"));
+        Assert.assertEquals(3600, actual.readOptionalInteger("expires_in", 0));
+    }
+
+    @Test public void read_escapedStrings() throws IOException
+    {
+        final String input = "{\"skip\\\"me\": \"\\\"token\\\": \\\"decoy\\\"\", \"token\": \"a\\\"b\\\\c\\/d\\u00e9\\n\"}";
+
+        final PropertyBag actual = JsonFieldReader.read(toStream(input), "token");
+
+        Assert.assertEquals(1, actual.size());
+        Assert.assertEquals("a\"b\\c/d\u00e9\n", actual.get("token"));
+    }
+
+    @Test public void read_nestedMembersAreNotTopLevel() throws IOException
+    {
+        final String input = "{\"authenticatedUser\": {\"instanceId\": \"nested\"}, \"instanceId\": \"top\"}";
+
+        final PropertyBag actual = JsonFieldReader.read(toStream(input), "instanceId");
+
+        Assert.assertEquals("top", actual.get("instanceId"));
+    }
+
+    @Test public void read_stopsOnceFound() throws IOException
+    {
+        final InputStream content = toStream("{\"instanceId\": \"3e0b5c08-5a2f-4b2e-8f0e-5d1a4fd8c1b7\", \"locationServiceData\": ");
+        final InputStream rest = new InputStream()
+        {
+            @Override public int read() throws IOException
+            {
+                throw new IOException("The rest of the content should not have been read.");
+            }
+        };
+
+        final PropertyBag actual = JsonFieldReader.read(new SequenceInputStream(content, rest), "instanceId");
+
+        Assert.assertEquals("3e0b5c08-5a2f-4b2e-8f0e-5d1a4fd8c1b7", actual.get("instanceId"));
+    }
+
+    @Test public void read_missingMembers() throws IOException
+    {
+        final PropertyBag actual = JsonFieldReader.read(toStream("{ }"), "token");
+
+        Assert.assertTrue(actual.isEmpty());
+    }
+
+    @Test(expected = IOException.class) public void read_truncated() throws IOException
+    {
+        JsonFieldReader.read(toStream("{\"token\": \"abc"), "token");
+    }
+
+    @Test(expected = IOException.class) public void read_notAnObject() throws IOException
+    {
+        JsonFieldReader.read(toStream("<html></html>"));
+    }
+
+    @Test public void parsePersonalAccessTokenFromJson_escapedToken() throws IOException
+    {
+        final String input = "{\"displayName\": \"Git: \\\"https://example.visualstudio.com/\\\" on HOST\", \"targetAccounts\": [\"3e0b5c08-5a2f-4b2e-8f0e-5d1a4fd8c1b7\"], \"token\": \"vjzo\\/ewe2e\", \"alternateToken\": null}";
+
+        final Token actual = VsoAzureAuthority.parsePersonalAccessTokenFromJson(toStream(input));
+
+        Assert.assertEquals("vjzo/ewe2e", actual.Value);
+        Assert.assertEquals(TokenType.Personal, actual.Type);
+    }
+
+    @Test public void parsePersonalAccessTokenFromJson_noToken() throws IOException
+    {
+        final Token actual = VsoAzureAuthority.parsePersonalAccessTokenFromJson(toStream("{\"token\": null}"));
+
+        Assert.assertNull(actual);
+    }
+
+    private static InputStream toStream(final String input)
+    {
+        try
+        {
+            return new ByteArrayInputStream(input.getBytes("UTF-8"));
+        }
+        catch (final IOException e)
+        {
+            throw new Error(e);
+        }
+    }
+}
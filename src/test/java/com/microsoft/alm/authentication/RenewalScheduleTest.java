@@ -0,0 +1,87 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+public class RenewalScheduleTest
+{
+    private static final URI Contoso = URI.create("https://contoso.visualstudio.com/");
+    private static final URI Fabrikam = URI.create("https://fabrikam.visualstudio.com/");
+    private static final URI Northwind = URI.create("https://northwind.visualstudio.com/");
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File scheduleFile;
+
+    @Before public void setUp()
+    {
+        scheduleFile = new File(temporaryFolder.getRoot(), "program/renewals.properties");
+    }
+
+    @Test public void getExpiringBefore_nothingScheduled()
+    {
+        final RenewalSchedule cut = new RenewalSchedule(scheduleFile);
+
+        Assert.assertTrue(cut.getExpiringBefore(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test public void getExpiringBefore_soonestFirst()
+    {
+        new RenewalSchedule(scheduleFile).schedule(Fabrikam, 3000);
+        new RenewalSchedule(scheduleFile).schedule(Contoso, 2000);
+        new RenewalSchedule(scheduleFile).schedule(Northwind, 9000);
+        final RenewalSchedule cut = new RenewalSchedule(scheduleFile);
+
+        final Map<URI, Long> actual = cut.getExpiringBefore(5000);
+
+        Assert.assertEquals(Arrays.asList(Contoso, Fabrikam), new ArrayList<URI>(actual.keySet()));
+        Assert.assertEquals(Long.valueOf(2000), actual.get(Contoso));
+    }
+
+    @Test public void schedule_replacesTheExpiry()
+    {
+        final RenewalSchedule cut = new RenewalSchedule(scheduleFile);
+        cut.schedule(Contoso, 2000);
+
+        cut.schedule(Contoso, 9000);
+
+        Assert.assertTrue(cut.getExpiringBefore(5000).isEmpty());
+        Assert.assertEquals(Long.valueOf(9000), cut.getExpiringBefore(10000).get(Contoso));
+    }
+
+    @Test public void remove_takesTheTargetOff()
+    {
+        final RenewalSchedule cut = new RenewalSchedule(scheduleFile);
+        cut.schedule(Contoso, 2000);
+        cut.schedule(Fabrikam, 3000);
+
+        cut.remove(Contoso);
+
+        Assert.assertEquals(Arrays.asList(Fabrikam), new ArrayList<URI>(cut.getExpiringBefore(5000).keySet()));
+    }
+
+    @Test public void remove_keepsTheTargetScheduledAgain()
+    {
+        final RenewalSchedule cut = new RenewalSchedule(scheduleFile);
+        cut.schedule(Contoso, 2000);
+        cut.schedule(Contoso, 9000);
+
+        cut.remove(Contoso, 2000);
+        Assert.assertFalse(cut.getExpiringBefore(10000).isEmpty());
+
+        cut.remove(Contoso, 9000);
+        Assert.assertTrue(cut.getExpiringBefore(10000).isEmpty());
+    }
+}
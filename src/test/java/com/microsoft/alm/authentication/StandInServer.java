@@ -0,0 +1,526 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.rules.ExternalResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for the end-points of Azure Active Directory and Visual Studio Team Services on
+ * the loopback interface, such that the authorities can be exercised, and load-tested, without
+ * involving the real identity services.  Unlike stubs, the stand-in keeps just enough state
+ * to behave like them: device codes are granted after a number of polls, refresh tokens are
+ * rotated and tokens expire after the configured lifetimes.
+ *
+ * The end-points are told apart by the end of their path, so that the authority host URL
+ * (see {@link #getAuthorityHostUrl()}), or any prefix, can be put in front of them:
+ * <ul>
+ *     <li><code>POST .../oauth2/devicecode</code></li>
+ *     <li><code>POST .../oauth2/token</code>, for the authorization code, refresh token and
+ *     device code grants</li>
+ *     <li><code>GET .../_apis/connectiondata</code></li>
+ *     <li><code>POST .../_apis/token/sessiontokens</code></li>
+ *     <li><code>HEAD</code> of any other path, which reports the tenant of the account</li>
+ * </ul>
+ *
+ * Every response can be delayed by a random latency and replaced, at the configured rate, by
+ * an HTTP 503 error; specific responses can also be {@link #script scripted}.  The requests
+ * are served by as many threads as needed, so that 100 concurrent requests are delayed by the
+ * latency, not by each other.
+ *
+ * Use it as a JUnit {@link org.junit.Rule}, or {@link #start()} and {@link #stop()} it.
+ */
+public class StandInServer extends ExternalResource
+{
+    public enum Endpoint
+    {
+        TenantDetection,
+        DeviceCode,
+        Token,
+        ConnectionData,
+        SessionTokens
+    }
+
+    public static final String DefaultTenantId = "2f7e0c4a-3b5d-4c18-9a6e-1d2f3b4c5d6e";
+    public static final String InstanceId = "6b1e4f2a-8c3d-4e5f-9a0b-1c2d3e4f5a6b";
+
+    private static final String TenantHeader = "X-VSS-ResourceTenant";
+    private static final String JsonContentType = "application/json";
+    // the same seed, so that runs with the same settings can be compared
+    private static final long Seed = 20161017L;
+
+    private final int requestedPort;
+    private final Map<Endpoint, AtomicInteger> requestCounts = new EnumMap<Endpoint, AtomicInteger>(Endpoint.class);
+    private final Map<Endpoint, Queue<ScriptedResponse>> scripts = new EnumMap<Endpoint, Queue<ScriptedResponse>>(Endpoint.class);
+    private final Map<String, AtomicInteger> devicePolls = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final Random random = new Random(Seed);
+
+    private volatile long minimumLatency;
+    private volatile long maximumLatency;
+    private volatile double errorRate;
+    private volatile int accessTokenLifetime = 3600;
+    private volatile int personalAccessTokenLifetime = 365 * 24 * 3600;
+    private volatile int pendingPolls = 1;
+    private volatile int pollingInterval = 1;
+    private volatile String tenantId = DefaultTenantId;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public StandInServer()
+    {
+        this(0);
+    }
+
+    /**
+     * @param port The port to listen on; 0 for any available port.
+     */
+    public StandInServer(final int port)
+    {
+        this.requestedPort = port;
+        for (final Endpoint endpoint : Endpoint.values())
+        {
+            requestCounts.put(endpoint, new AtomicInteger());
+            scripts.put(endpoint, new ConcurrentLinkedQueue<ScriptedResponse>());
+        }
+    }
+
+    public void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort), 256);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override public void handle(final HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    respond(exchange);
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    @Override protected void before() throws IOException
+    {
+        start();
+    }
+
+    @Override protected void after()
+    {
+        stop();
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param path The path of an end-point, starting with a slash.
+     * @return the URI of the end-point on the stand-in.
+     */
+    public URI getUri(final String path)
+    {
+        return URI.create("http://127.0.0.1:" + getPort() + path);
+    }
+
+    /**
+     * @return what to pass to an {@link AzureAuthority} for it to request the stand-in.
+     */
+    public String getAuthorityHostUrl()
+    {
+        return getUri("/common").toString();
+    }
+
+    /**
+     * Delays each response by a random number of milliseconds, evenly distributed between
+     * the minimum and the maximum.
+     */
+    public void setLatency(final long minimum, final long maximum)
+    {
+        if (minimum < 0 || maximum < minimum)
+            throw new IllegalArgumentException("The latency must be such that 0 <= minimum <= maximum.");
+
+        this.minimumLatency = minimum;
+        this.maximumLatency = maximum;
+    }
+
+    /**
+     * @param errorRate The fraction of the requests, between 0 and 1, answered with HTTP 503.
+     */
+    public void setErrorRate(final double errorRate)
+    {
+        if (errorRate < 0 || errorRate > 1)
+            throw new IllegalArgumentException("The `errorRate` parameter must be between 0 and 1.");
+
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param seconds The <code>expires_in</code> of the access tokens.
+     */
+    public void setAccessTokenLifetime(final int seconds)
+    {
+        this.accessTokenLifetime = seconds;
+    }
+
+    /**
+     * @param seconds How long after being issued the personal access tokens are
+     *                <code>validTo</code>.
+     */
+    public void setPersonalAccessTokenLifetime(final int seconds)
+    {
+        this.personalAccessTokenLifetime = seconds;
+    }
+
+    /**
+     * @param polls How many times a device code is answered with
+     *              <code>authorization_pending</code> before it's granted.
+     */
+    public void setPendingPolls(final int polls)
+    {
+        this.pendingPolls = polls;
+    }
+
+    /**
+     * @param seconds The <code>interval</code> the device codes are to be polled at.
+     */
+    public void setPollingInterval(final int seconds)
+    {
+        this.pollingInterval = seconds;
+    }
+
+    /**
+     * @param tenantId The tenant reported for the accounts; the empty GUID for accounts backed
+     *                 by Microsoft Accounts, null to report none.
+     */
+    public void setTenantId(final String tenantId)
+    {
+        this.tenantId = tenantId;
+    }
+
+    /**
+     * Queues a response for the next request to the end-point, in place of what the stand-in
+     * would have answered; the latency still applies, but the error rate doesn't.
+     *
+     * @param endpoint The end-point to answer.
+     * @param status   The HTTP status code of the response.
+     * @param body     The JSON body of the response, or null for none.
+     */
+    public void script(final Endpoint endpoint, final int status, final String body)
+    {
+        scripts.get(endpoint).add(new ScriptedResponse(status, body));
+    }
+
+    /**
+     * @return how many requests the end-point received, including the failed ones.
+     */
+    public int getRequestCount(final Endpoint endpoint)
+    {
+        return requestCounts.get(endpoint).get();
+    }
+
+    /**
+     * @return how many requests were answered with an HTTP 503 error.
+     */
+    public int getErrorCount()
+    {
+        return errorCount.get();
+    }
+
+    private void respond(final HttpExchange exchange) throws IOException
+    {
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath();
+        final String requestBody = readFully(exchange.getRequestBody());
+        final Endpoint endpoint = findEndpoint(method, path);
+        if (endpoint == null)
+        {
+            send(exchange, HttpURLConnection.HTTP_NOT_FOUND, null);
+            return;
+        }
+        requestCounts.get(endpoint).incrementAndGet();
+
+        delay();
+        final ScriptedResponse scripted = scripts.get(endpoint).poll();
+        if (scripted != null)
+        {
+            send(exchange, scripted.status, scripted.body);
+            return;
+        }
+        if (random.nextDouble() < errorRate)
+        {
+            errorCount.incrementAndGet();
+            send(exchange, HttpURLConnection.HTTP_UNAVAILABLE, null);
+            return;
+        }
+
+        switch (endpoint)
+        {
+            case TenantDetection:
+                final String tenant = tenantId;
+                if (tenant != null)
+                {
+                    exchange.getResponseHeaders().add(TenantHeader, tenant);
+                }
+                // the accounts don't let anonymous requests in, but still report their tenant
+                send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, null);
+                break;
+
+            case DeviceCode:
+                respondToDeviceCode(exchange);
+                break;
+
+            case Token:
+                respondToToken(exchange, parseForm(requestBody));
+                break;
+
+            case ConnectionData:
+                if (exchange.getRequestHeaders().getFirst("Authorization") == null)
+                {
+                    send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, null);
+                }
+                else
+                {
+                    send(exchange, HttpURLConnection.HTTP_OK, "{\"instanceId\":\"" + InstanceId + "\",\"deploymentType\":\"hosted\"}");
+                }
+                break;
+
+            case SessionTokens:
+                respondToSessionTokens(exchange);
+                break;
+        }
+    }
+
+    private static Endpoint findEndpoint(final String method, final String path)
+    {
+        if ("HEAD".equals(method))
+            return Endpoint.TenantDetection;
+        if ("POST".equals(method) && path.endsWith("/oauth2/devicecode"))
+            return Endpoint.DeviceCode;
+        if ("POST".equals(method) && path.endsWith("/oauth2/token"))
+            return Endpoint.Token;
+        if ("GET".equals(method) && path.endsWith("/_apis/connectiondata"))
+            return Endpoint.ConnectionData;
+        if ("POST".equals(method) && path.endsWith("/_apis/token/sessiontokens"))
+            return Endpoint.SessionTokens;
+        return null;
+    }
+
+    private void respondToDeviceCode(final HttpExchange exchange) throws IOException
+    {
+        final String deviceCode = UUID.randomUUID().toString();
+        final String userCode = deviceCode.substring(0, 8).toUpperCase(Locale.ENGLISH);
+        devicePolls.put(deviceCode, new AtomicInteger());
+        send(exchange, HttpURLConnection.HTTP_OK, "{" +
+            "\"device_code\":\"" + deviceCode + "\"," +
+            "\"user_code\":\"" + userCode + "\"," +
+            "\"verification_url\":\"https://aka.ms/devicelogin\"," +
+            "\"expires_in\":\"900\"," +
+            "\"interval\":\"" + pollingInterval + "\"," +
+            "\"message\":\"To sign in, use a web browser to open the page https://aka.ms/devicelogin and enter the code " + userCode + " to authenticate.\"" +
+            "}");
+    }
+
+    private void respondToToken(final HttpExchange exchange, final Map<String, String> form) throws IOException
+    {
+        final String grantType = form.get(OAuthParameter.GRANT_TYPE);
+        if (OAuthParameter.DEVICE_CODE.equals(grantType))
+        {
+            final AtomicInteger polls = devicePolls.get(form.get(OAuthParameter.CODE));
+            if (polls == null)
+            {
+                sendError(exchange, "expired_token");
+                return;
+            }
+            if (polls.incrementAndGet() <= pendingPolls)
+            {
+                sendError(exchange, OAuthParameter.ERROR_AUTHORIZATION_PENDING);
+                return;
+            }
+            devicePolls.remove(form.get(OAuthParameter.CODE));
+        }
+        else if (OAuthParameter.REFRESH_TOKEN.equals(grantType))
+        {
+            if (form.get(OAuthParameter.REFRESH_TOKEN) == null)
+            {
+                sendError(exchange, "invalid_grant");
+                return;
+            }
+        }
+        else if (!OAuthParameter.AUTHORIZATION_CODE.equals(grantType))
+        {
+            sendError(exchange, "unsupported_grant_type");
+            return;
+        }
+        send(exchange, HttpURLConnection.HTTP_OK, "{" +
+            "\"token_type\":\"Bearer\"," +
+            "\"expires_in\":\"" + accessTokenLifetime + "\"," +
+            "\"access_token\":\"" + UUID.randomUUID() + "\"," +
+            "\"refresh_token\":\"" + UUID.randomUUID() + "\"" +
+            "}");
+    }
+
+    private void respondToSessionTokens(final HttpExchange exchange) throws IOException
+    {
+        if (exchange.getRequestHeaders().getFirst("Authorization") == null)
+        {
+            send(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, null);
+            return;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final long now = System.currentTimeMillis();
+        send(exchange, HttpURLConnection.HTTP_OK, "{" +
+            "\"validFrom\":\"" + format.format(new Date(now)) + "\"," +
+            "\"validTo\":\"" + format.format(new Date(now + personalAccessTokenLifetime * 1000L)) + "\"," +
+            "\"scope\":\"vso.code_write\"," +
+            "\"targetAccounts\":[\"" + InstanceId + "\"]," +
+            "\"token\":\"" + UUID.randomUUID().toString().replace("-", "") + "\"" +
+            "}");
+    }
+
+    private void delay()
+    {
+        final long minimum = minimumLatency;
+        final long maximum = maximumLatency;
+        if (maximum == 0)
+            return;
+
+        final long latency = minimum + (long) (random.nextDouble() * (maximum - minimum));
+        try
+        {
+            Thread.sleep(latency);
+        }
+        catch (final InterruptedException ignored)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sendError(final HttpExchange exchange, final String errorCode) throws IOException
+    {
+        send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "{\"" + OAuthParameter.ERROR_CODE + "\":\"" + errorCode + "\"}");
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body) throws IOException
+    {
+        if (body == null || "HEAD".equals(exchange.getRequestMethod()))
+        {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        final byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", JsonContentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        final OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    private static String readFully(final InputStream input) throws IOException
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+        {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("UTF-8");
+    }
+
+    private static Map<String, String> parseForm(final String body) throws IOException
+    {
+        final Map<String, String> result = new HashMap<String, String>();
+        for (final String pair : body.split("&"))
+        {
+            final int equals = pair.indexOf('=');
+            if (equals > 0)
+            {
+                result.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return result;
+    }
+
+    private static class ScriptedResponse
+    {
+        final int status;
+        final String body;
+
+        ScriptedResponse(final int status, final String body)
+        {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Runs the stand-in until the process is killed, for benchmarks that run the helper on
+     * their own.
+     *
+     * @param args the port to listen on, optionally followed by the minimum and the maximum
+     *             latency, in milliseconds, and the error rate.
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        final StandInServer standIn = new StandInServer(Integer.parseInt(args[0]));
+        if (args.length >= 3)
+        {
+            standIn.setLatency(Long.parseLong(args[1]), Long.parseLong(args[2]));
+        }
+        if (args.length >= 4)
+        {
+            standIn.setErrorRate(Double.parseDouble(args[3]));
+        }
+        standIn.start();
+        System.out.println("Standing in for the authorities at http://127.0.0.1:" + standIn.getPort() + "/");
+    }
+}
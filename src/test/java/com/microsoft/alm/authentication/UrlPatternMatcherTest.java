@@ -0,0 +1,76 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class UrlPatternMatcherTest
+{
+    @Test public void match_mostSpecificFirst()
+    {
+        final UrlPatternMatcher cut = new UrlPatternMatcher();
+        cut.add("https://*.example.com");
+        cut.add("https://git.example.com");
+        cut.add("https://git.example.com/team");
+        cut.add("https://user@git.example.com/team");
+        cut.add("https://*.*.com/team/project");
+
+        final List<String> actual = cut.match(URI.create("https://user@git.example.com/team/project"));
+
+        Assert.assertEquals(Arrays.asList(
+            "https://user@git.example.com/team",
+            "https://git.example.com/team",
+            "https://git.example.com",
+            "https://*.example.com",
+            "https://*.*.com/team/project"
+        ), actual);
+    }
+
+    @Test public void match_defaultPorts()
+    {
+        final UrlPatternMatcher cut = new UrlPatternMatcher();
+        cut.add("https://git.example.com:443");
+        cut.add("http://git.example.com");
+
+        Assert.assertEquals(Collections.singletonList("https://git.example.com:443"), cut.match(URI.create("https://git.example.com/")));
+        Assert.assertEquals(Collections.singletonList("http://git.example.com"), cut.match(URI.create("http://git.example.com:80/")));
+        Assert.assertEquals(Collections.<String>emptyList(), cut.match(URI.create("http://git.example.com:8080/")));
+    }
+
+    @Test public void match_caseInsensitiveHostCaseSensitivePath()
+    {
+        final UrlPatternMatcher cut = new UrlPatternMatcher();
+        cut.add("HTTPS://Git.Example.COM/Team/");
+
+        Assert.assertEquals(1, cut.match(URI.create("https://git.example.com/Team/repo")).size());
+        Assert.assertEquals(0, cut.match(URI.create("https://git.example.com/team/repo")).size());
+    }
+
+    @Test public void match_userMustMatch()
+    {
+        final UrlPatternMatcher cut = new UrlPatternMatcher();
+        cut.add("https://alice@git.example.com");
+
+        Assert.assertEquals(1, cut.match(URI.create("https://alice@git.example.com/")).size());
+        Assert.assertEquals(0, cut.match(URI.create("https://bob@git.example.com/")).size());
+        Assert.assertEquals(0, cut.match(URI.create("https://git.example.com/")).size());
+    }
+
+    @Test public void add_ignoresInvalidPatterns()
+    {
+        final UrlPatternMatcher cut = new UrlPatternMatcher();
+        cut.add("https://");
+        cut.add("https://git.example.com:port");
+
+        Assert.assertEquals(0, cut.match(URI.create("https://git.example.com/")).size());
+        Assert.assertEquals(false, UrlPatternMatcher.isUrl("visualstudio.com"));
+        Assert.assertEquals(true, UrlPatternMatcher.isUrl("https://visualstudio.com"));
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.secret.Credential;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Properties;
+
+public class ValidationCacheTest
+{
+    private static final URI TargetUri = URI.create("https://contoso.visualstudio.com/");
+    private static final Credential PersonalAccessToken = new Credential("Personal Access Token", "swordfish");
+    private static final long Window = 60 * 1000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheFile;
+    private FakeValidationCache cut;
+
+    @Before public void setUp()
+    {
+        cacheFile = new File(temporaryFolder.getRoot(), "program/validations.properties");
+        cut = new FakeValidationCache(cacheFile, Window);
+    }
+
+    @Test public void isValidated_withinWindow()
+    {
+        Assert.assertFalse(cut.isValidated(TargetUri, PersonalAccessToken));
+
+        cut.validated(TargetUri, PersonalAccessToken);
+        cut.now += Window - 1;
+
+        Assert.assertTrue(cut.isValidated(URI.create("https://CONTOSO.visualstudio.com/DefaultCollection"), PersonalAccessToken));
+        Assert.assertTrue(new FakeValidationCache(cacheFile, Window).isValidated(TargetUri, PersonalAccessToken));
+    }
+
+    @Test public void isValidated_expires()
+    {
+        cut.validated(TargetUri, PersonalAccessToken);
+        cut.now += Window;
+
+        Assert.assertFalse(cut.isValidated(TargetUri, PersonalAccessToken));
+    }
+
+    @Test public void isValidated_otherCredentialsOrHosts()
+    {
+        cut.validated(TargetUri, PersonalAccessToken);
+
+        Assert.assertFalse(cut.isValidated(TargetUri, new Credential("Personal Access Token", "trout")));
+        Assert.assertFalse(cut.isValidated(URI.create("https://fabrikam.visualstudio.com/"), PersonalAccessToken));
+    }
+
+    @Test public void invalidate_forgetsTheHost()
+    {
+        final URI otherUri = URI.create("https://fabrikam.visualstudio.com/");
+        cut.validated(TargetUri, PersonalAccessToken);
+        cut.validated(otherUri, PersonalAccessToken);
+
+        cut.invalidate(URI.create("https://contoso.visualstudio.com/DefaultCollection"));
+
+        Assert.assertFalse(cut.isValidated(TargetUri, PersonalAccessToken));
+        Assert.assertTrue(cut.isValidated(otherUri, PersonalAccessToken));
+    }
+
+    @Test public void validated_secretIsNotStored()
+    {
+        cut.validated(TargetUri, PersonalAccessToken);
+
+        final Properties actual = PropertiesFile.load(cacheFile);
+        Assert.assertEquals(1, actual.size());
+        final String key = actual.stringPropertyNames().iterator().next();
+        Assert.assertTrue(key.startsWith("contoso.visualstudio.com."));
+        Assert.assertFalse(key.contains("swordfish"));
+    }
+
+    @Test public void validated_expiredEntriesAreRemoved()
+    {
+        cut.validated(TargetUri, PersonalAccessToken);
+        cut.now += Window;
+
+        cut.validated(URI.create("https://fabrikam.visualstudio.com/"), PersonalAccessToken);
+
+        Assert.assertEquals(1, PropertiesFile.load(cacheFile).size());
+    }
+
+    @Test public void zeroWindow_alwaysValidates()
+    {
+        final FakeValidationCache disabled = new FakeValidationCache(cacheFile, 0);
+
+        disabled.validated(TargetUri, PersonalAccessToken);
+
+        Assert.assertFalse(disabled.isValidated(TargetUri, PersonalAccessToken));
+        Assert.assertFalse(cacheFile.exists());
+    }
+
+    static class FakeValidationCache extends ValidationCache
+    {
+        long now = 1500000000000L;
+
+        FakeValidationCache(final File file, final long window)
+        {
+            super(file, window);
+        }
+
+        @Override long now()
+        {
+            return now;
+        }
+    }
+}
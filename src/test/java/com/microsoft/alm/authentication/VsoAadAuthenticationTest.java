@@ -4,23 +4,131 @@
 package com.microsoft.alm.authentication;
 
 import com.microsoft.alm.helpers.Guid;
+import com.microsoft.alm.secret.Credential;
 import com.microsoft.alm.secret.VsoTokenScope;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class VsoAadAuthenticationTest
 {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test public void ctor_DefaultAuthorityHost() throws URISyntaxException
     {
         final SecretCache secretCache = new SecretCache("test");
 
         final VsoAadAuthentication vaa = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, secretCache, secretCache);
 
-        final AzureAuthority azureAuthority = (AzureAuthority) vaa.VsoAuthority;
+        final AzureAuthority azureAuthority = (AzureAuthority) vaa.getVsoAuthority();
         final URI uri = new URI(azureAuthority.authorityHostUrl);
         Assert.assertEquals(true, uri.isAbsolute());
     }
+
+    @Test public void ctor_doesNotCreateAuthority()
+    {
+        final SecretCache secretCache = new SecretCache("test");
+
+        final VsoAadAuthentication vaa = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, secretCache, secretCache);
+
+        Assert.assertNull(vaa.VsoAuthority);
+    }
+
+    @Test public void getAndDeleteCredentials_doNotCreateAuthority() throws URISyntaxException
+    {
+        final SecretCache secretCache = new SecretCache("test");
+        final URI targetUri = new URI("https://example.visualstudio.com");
+        final VsoAadAuthentication vaa = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, secretCache, secretCache);
+        secretCache.writeCredentials(targetUri, new Credential("Personal Access Token", "swordfish"));
+
+        Assert.assertTrue(vaa.getCredentials(targetUri, new AtomicReference<Credential>()));
+        vaa.deleteCredentials(targetUri);
+
+        Assert.assertFalse(vaa.getCredentials(targetUri, new AtomicReference<Credential>()));
+        Assert.assertNull(vaa.VsoAuthority);
+    }
+
+    @Test public void validateCredentials_skipsRecentlyValidated() throws URISyntaxException
+    {
+        final SecretCache secretCache = new SecretCache("test");
+        final URI targetUri = new URI("https://example.visualstudio.com");
+        final Credential credentials = new Credential("Personal Access Token", "swordfish");
+        final File cacheFile = new File(temporaryFolder.getRoot(), "validations.properties");
+        final VsoAadAuthentication vaa = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, secretCache, secretCache);
+        final AtomicInteger validations = new AtomicInteger();
+        vaa.VsoAuthority = new VsoAzureAuthority()
+        {
+            @Override public boolean validateCredentials(final URI targetUri, final Credential credentials)
+            {
+                validations.incrementAndGet();
+                return true;
+            }
+        };
+        vaa.setValidationCache(new ValidationCache(cacheFile, ValidationCache.DefaultWindow));
+
+        Assert.assertTrue(vaa.validateCredentials(targetUri, credentials));
+        Assert.assertTrue(vaa.validateCredentials(targetUri, credentials));
+        Assert.assertEquals(1, validations.get());
+
+        secretCache.writeCredentials(targetUri, credentials);
+        vaa.deleteCredentials(targetUri);
+        Assert.assertTrue(vaa.validateCredentials(targetUri, credentials));
+        Assert.assertEquals(2, validations.get());
+    }
+
+    @Test public void validateCredentials_skippedWhileHostIsUnreachable() throws URISyntaxException
+    {
+        final SecretCache secretCache = new SecretCache("test");
+        final URI targetUri = new URI("https://example.visualstudio.com");
+        final Credential credentials = new Credential("Personal Access Token", "swordfish");
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(new File(temporaryFolder.getRoot(), "circuits.properties"), 1, CircuitBreaker.DefaultCoolDown);
+        final VsoAadAuthentication vaa = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, secretCache, secretCache);
+        final HttpClientFactory httpClientFactory = new HttpClientFactory();
+        final AtomicInteger validations = new AtomicInteger();
+        vaa.VsoAuthority = new VsoAzureAuthority(null, httpClientFactory)
+        {
+            @Override public boolean validateCredentials(final URI targetUri, final Credential credentials)
+            {
+                validations.incrementAndGet();
+                return false;
+            }
+        };
+        circuitBreaker.recordFailure(targetUri);
+        httpClientFactory.setCircuitBreaker(circuitBreaker);
+
+        Assert.assertTrue(vaa.validateCredentials(targetUri, credentials));
+        Assert.assertEquals(0, validations.get());
+    }
+
+    @Test public void validateCredentials_keptWhenTheDeadlinePassed() throws URISyntaxException
+    {
+        final SecretCache secretCache = new SecretCache("test");
+        final URI targetUri = new URI("https://example.visualstudio.com");
+        final Credential credentials = new Credential("Personal Access Token", "swordfish");
+        final File cacheFile = new File(temporaryFolder.getRoot(), "validations.properties");
+        final VsoAadAuthentication vaa = new VsoAadAuthentication(Guid.Empty, VsoTokenScope.CodeWrite, secretCache, secretCache);
+        final AtomicInteger validations = new AtomicInteger();
+        vaa.VsoAuthority = new VsoAzureAuthority()
+        {
+            @Override public boolean validateCredentials(final URI targetUri, final Credential credentials)
+            {
+                validations.incrementAndGet();
+                return false;
+            }
+        };
+        vaa.setValidationCache(new ValidationCache(cacheFile, ValidationCache.DefaultWindow));
+        vaa.setDeadline(new Deadline(System.currentTimeMillis() - 1));
+
+        Assert.assertTrue(vaa.validateCredentials(targetUri, credentials));
+        Assert.assertTrue(vaa.validateCredentials(targetUri, credentials));
+        // not cached: the next operation validates them again
+        Assert.assertEquals(2, validations.get());
+    }
 }
@@ -0,0 +1,120 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.authentication;
+
+import com.microsoft.alm.helpers.HttpClient;
+import com.microsoft.alm.secret.Token;
+import com.microsoft.alm.secret.TokenType;
+import com.microsoft.alm.secret.VsoTokenScope;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class VsoAzureAuthorityTest
+{
+    private static final URI TargetUri = URI.create("https://contoso.visualstudio.com/");
+    private static final UUID InstanceId = UUID.fromString("7a25c0e1-6a8e-4c4b-9e4d-6b3b1f0f3c2d");
+    private static final UUID MovedInstanceId = UUID.fromString("0f8e3c6b-2d1a-4e5f-8a7b-9c0d1e2f3a4b");
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private InstanceIdCache instanceIdCache;
+
+    @Before public void setUp()
+    {
+        instanceIdCache = new InstanceIdCache(new File(temporaryFolder.getRoot(), "instances.properties"));
+    }
+
+    @Test public void generatePersonalAccessToken_looksUpInstanceIdOnce()
+    {
+        final FakeVsoAzureAuthority cut = new FakeVsoAzureAuthority(InstanceId);
+        cut.setInstanceIdCache(instanceIdCache);
+
+        Assert.assertNotNull(cut.generatePersonalAccessToken(TargetUri, createAccessToken(), VsoTokenScope.CodeWrite, true));
+        Assert.assertNotNull(cut.generatePersonalAccessToken(TargetUri, createAccessToken(), VsoTokenScope.CodeWrite, true));
+
+        Assert.assertEquals(1, cut.lookups);
+        Assert.assertEquals(2, cut.requests);
+    }
+
+    @Test public void generatePersonalAccessToken_staleInstanceIdIsLookedUpAgain()
+    {
+        instanceIdCache.put(TargetUri, MovedInstanceId);
+        final FakeVsoAzureAuthority cut = new FakeVsoAzureAuthority(InstanceId);
+        cut.setInstanceIdCache(instanceIdCache);
+
+        final Token actual = cut.generatePersonalAccessToken(TargetUri, createAccessToken(), VsoTokenScope.CodeWrite, true);
+
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(1, cut.lookups);
+        Assert.assertEquals(2, cut.requests);
+        final AtomicReference<UUID> cached = new AtomicReference<UUID>();
+        Assert.assertTrue(instanceIdCache.tryGet(TargetUri, cached));
+        Assert.assertEquals(InstanceId, cached.get());
+    }
+
+    @Test public void generatePersonalAccessToken_withoutCache()
+    {
+        final FakeVsoAzureAuthority cut = new FakeVsoAzureAuthority(InstanceId);
+
+        cut.generatePersonalAccessToken(TargetUri, createAccessToken(), VsoTokenScope.CodeWrite, true);
+        cut.generatePersonalAccessToken(TargetUri, createAccessToken(), VsoTokenScope.CodeWrite, true);
+
+        Assert.assertEquals(2, cut.lookups);
+    }
+
+    @Test public void parseValidTo_fractionalSeconds()
+    {
+        // 2017-05-11T17:16:53Z
+        Assert.assertEquals(1494523013000L, VsoAzureAuthority.parseValidTo("2017-05-11T17:16:53.5833333Z"));
+        Assert.assertEquals(1494523013000L, VsoAzureAuthority.parseValidTo("2017-05-11T17:16:53"));
+    }
+
+    @Test public void parseValidTo_unknown()
+    {
+        Assert.assertEquals(0, VsoAzureAuthority.parseValidTo(null));
+        Assert.assertEquals(0, VsoAzureAuthority.parseValidTo(1494523013.0));
+        Assert.assertEquals(0, VsoAzureAuthority.parseValidTo("next Tuesday"));
+    }
+
+    private static Token createAccessToken()
+    {
+        return new Token("access", TokenType.Access);
+    }
+
+    /**
+     * Stands in for the connectiondata and sessiontokens end-points of an account.
+     */
+    private static class FakeVsoAzureAuthority extends VsoAzureAuthority
+    {
+        private final UUID instanceId;
+        int lookups;
+        int requests;
+
+        FakeVsoAzureAuthority(final UUID instanceId)
+        {
+            this.instanceId = instanceId;
+        }
+
+        @Override public boolean populateTokenTargetId(final URI targetUri, final Token accessToken)
+        {
+            lookups++;
+            accessToken.setTargetIdentity(instanceId);
+            return true;
+        }
+
+        @Override Token requestPersonalAccessToken(final HttpClient client, final URI requestUrl, final URI targetUri, final Token accessToken, final VsoTokenScope tokenScope)
+        {
+            requests++;
+            return instanceId.equals(accessToken.getTargetIdentity()) ? new Token("personal", TokenType.Personal) : null;
+        }
+    }
+}
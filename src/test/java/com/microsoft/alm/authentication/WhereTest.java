@@ -6,8 +6,12 @@ package com.microsoft.alm.authentication;
 import com.microsoft.alm.helpers.Func;
 import com.microsoft.alm.helpers.StringHelper;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.mockito.Matchers.anyString;
@@ -88,4 +92,104 @@ public class WhereTest
         Assert.assertEquals(false, result);
         verify(existenceChecker, times(3)).call(anyString());
     }
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test public void gitSystemConfig_cachesLocation() throws IOException
+    {
+        final File root = temporaryFolder.getRoot();
+        final File git = createFile(root, "bin/git", 1000000000000L);
+        final File etcConfig = createFile(root, "etc/gitconfig", 1000000000000L);
+        final File cacheFile = new File(root, "cache/where.properties");
+        final String envpath = new File(root, "bin").getAbsolutePath();
+        final AtomicReference<String> path = new AtomicReference<String>();
+
+        Assert.assertEquals(true, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+        Assert.assertEquals(etcConfig.getAbsolutePath(), path.get());
+        Assert.assertEquals(true, cacheFile.isFile());
+
+        // updating Git invalidates the cache
+        Assert.assertEquals(true, git.setLastModified(1000000010000L));
+        Assert.assertEquals(true, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+        Assert.assertEquals(etcConfig.getAbsolutePath(), path.get());
+    }
+
+    @Test public void gitSystemConfig_movedConfigInvalidatesCache() throws IOException
+    {
+        final File root = temporaryFolder.getRoot();
+        createFile(root, "bin/git", 1000000000000L);
+        final File etcConfig = createFile(root, "etc/gitconfig", 1000000000000L);
+        final File cacheFile = new File(root, "cache/where.properties");
+        final String envpath = new File(root, "bin").getAbsolutePath();
+        final AtomicReference<String> path = new AtomicReference<String>();
+        Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":");
+
+        Assert.assertEquals(true, etcConfig.delete());
+        final File libConfig = createFile(root, "lib/gitconfig", 1000000000000L);
+
+        Assert.assertEquals(true, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+        Assert.assertEquals(libConfig.getAbsolutePath(), path.get());
+    }
+
+    @Test public void gitSystemConfig_createdConfigFoundOnceGitIsUpdated() throws IOException
+    {
+        final File root = temporaryFolder.getRoot();
+        final File git = createFile(root, "bin/git", 1000000000000L);
+        final File cacheFile = new File(root, "cache/where.properties");
+        final String envpath = new File(root, "bin").getAbsolutePath();
+        final AtomicReference<String> path = new AtomicReference<String>();
+        Assert.assertEquals(false, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+
+        // only the Git executable is checked when there was no system config
+        final File etcConfig = createFile(root, "etc/gitconfig", 1000000000000L);
+        Assert.assertEquals(false, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+
+        Assert.assertEquals(true, git.setLastModified(1000000010000L));
+        Assert.assertEquals(true, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+        Assert.assertEquals(etcConfig.getAbsolutePath(), path.get());
+    }
+
+    @Test public void gitSystemConfig_pathChangeInvalidatesCache() throws IOException
+    {
+        final File root = temporaryFolder.getRoot();
+        createFile(root, "old/bin/git", 1000000000000L);
+        createFile(root, "old/etc/gitconfig", 1000000000000L);
+        createFile(root, "new/bin/git", 1000000000000L);
+        final File newConfig = createFile(root, "new/etc/gitconfig", 1000000000000L);
+        final File cacheFile = new File(root, "where.properties");
+        final AtomicReference<String> path = new AtomicReference<String>();
+
+        Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, new File(root, "old/bin").getAbsolutePath(), ":");
+        final String envpath = new File(root, "new/bin").getAbsolutePath() + ":" + new File(root, "old/bin").getAbsolutePath();
+        final boolean result = Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":");
+
+        Assert.assertEquals(true, result);
+        Assert.assertEquals(newConfig.getAbsolutePath(), path.get());
+    }
+
+    @Test public void gitSystemConfig_gitNotFoundIsNotCached() throws IOException
+    {
+        final File root = temporaryFolder.getRoot();
+        final File cacheFile = new File(root, "where.properties");
+        final String envpath = new File(root, "bin").getAbsolutePath();
+        final AtomicReference<String> path = new AtomicReference<String>();
+
+        Assert.assertEquals(false, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+        Assert.assertNull(path.get());
+        Assert.assertEquals(false, cacheFile.exists());
+
+        final File etcConfig = createFile(root, "etc/gitconfig", 1000000000000L);
+        createFile(root, "bin/git", 1000000000000L);
+        Assert.assertEquals(true, Where.gitSystemConfig(cacheFile, path, StringHelper.Empty, envpath, ":"));
+        Assert.assertEquals(etcConfig.getAbsolutePath(), path.get());
+    }
+
+    private static File createFile(final File root, final String relativePath, final long lastModified) throws IOException
+    {
+        final File result = new File(root, relativePath);
+        Assert.assertEquals(true, result.getParentFile().mkdirs() || result.getParentFile().isDirectory());
+        Assert.assertEquals(true, result.createNewFile());
+        Assert.assertEquals(true, result.setLastModified(lastModified));
+        return result;
+    }
 }
@@ -0,0 +1,306 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.oauth2.useragent.subprocess.DefaultProcessFactory;
+import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcess;
+import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcessFactory;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ClassDataSharingTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Compares the cold start of the helper with and without its class-data sharing archive,
+     * by timing the training invocation (get, store and erase for each authority) and counting
+     * the classes it loads.  Run with the path to a packaged JAR in the "pathToJar" property;
+     * the "iterations" property defaults to 10.
+     */
+    @Ignore("This benchmark requires a packaged JAR and must be run manually.")
+    @Test public void startupBenchmark() throws Exception
+    {
+        final String pathToJar = new File(System.getProperty("pathToJar")).getAbsolutePath();
+        final int iterations = Integer.parseInt(System.getProperty("iterations", "10"));
+        final String pathToJava = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+        final int javaMajorVersion = ClassDataSharing.parseJavaMajorVersion(System.getProperty("java.specification.version"));
+        final File programFolder = temporaryFolder.newFolder("programFolder");
+        final File archive = ClassDataSharing.createArchive(new DefaultProcessFactory(), pathToJava, pathToJar, javaMajorVersion, programFolder);
+        Assert.assertNotNull("The archive could not be created by Java " + javaMajorVersion, archive);
+
+        final List<String> without = Collections.emptyList();
+        final List<String> with = ClassDataSharing.getRuntimeOptions(archive.getAbsolutePath());
+        // warm up the file system cache
+        runTraining(pathToJava, without, pathToJar);
+        runTraining(pathToJava, with, pathToJar);
+
+        System.out.println(String.format("%-16s %10s %10s %10s %10s", "", "median ms", "mean ms", "classes", "shared"));
+        for (final List<String> options : Arrays.asList(without, with))
+        {
+            final long[] elapsed = new long[iterations];
+            long total = 0;
+            for (int i = 0; i < iterations; i++)
+            {
+                elapsed[i] = runTraining(pathToJava, options, pathToJar);
+                total += elapsed[i];
+            }
+            Arrays.sort(elapsed);
+            final int[] classCounts = countLoadedClasses(pathToJava, options, pathToJar);
+            System.out.println(String.format("%-16s %10d %10d %10d %10d",
+                options.isEmpty() ? "without archive" : "with archive",
+                elapsed[iterations / 2] / 1000000,
+                total / iterations / 1000000,
+                classCounts[0],
+                classCounts[1]));
+        }
+    }
+
+    private static long runTraining(final String pathToJava, final List<String> options, final String pathToJar, final String... extraOptions) throws IOException, InterruptedException
+    {
+        final List<String> command = new ArrayList<String>();
+        command.add(pathToJava);
+        command.addAll(options);
+        command.addAll(Arrays.asList(extraOptions));
+        command.add("-jar");
+        command.add(pathToJar);
+        command.add(ClassDataSharing.TrainingVerb);
+        final ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+
+        final long start = System.nanoTime();
+        final Process process = processBuilder.start();
+        final InputStream inputStream = process.getInputStream();
+        try
+        {
+            final byte[] buffer = new byte[4096];
+            //noinspection StatementWithEmptyBody
+            while (inputStream.read(buffer) != -1)
+            {
+            }
+        }
+        finally
+        {
+            inputStream.close();
+        }
+        final int exitCode = process.waitFor();
+        final long result = System.nanoTime() - start;
+
+        Assert.assertEquals(0, exitCode);
+        return result;
+    }
+
+    private int[] countLoadedClasses(final String pathToJava, final List<String> options, final String pathToJar) throws IOException, InterruptedException
+    {
+        final File log = temporaryFolder.newFile();
+        runTraining(pathToJava, options, pathToJar, "-Xlog:class+load=info:file=" + log.getAbsolutePath());
+
+        int loaded = 0;
+        int shared = 0;
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(log), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                loaded++;
+                if (line.contains("shared objects file"))
+                {
+                    shared++;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return new int[]{loaded, shared};
+    }
+
+    @Test public void parseJavaMajorVersion_legacyScheme()
+    {
+        Assert.assertEquals(6, ClassDataSharing.parseJavaMajorVersion("1.6"));
+        Assert.assertEquals(8, ClassDataSharing.parseJavaMajorVersion("1.8"));
+    }
+
+    @Test public void parseJavaMajorVersion_currentScheme()
+    {
+        Assert.assertEquals(9, ClassDataSharing.parseJavaMajorVersion("9"));
+        Assert.assertEquals(11, ClassDataSharing.parseJavaMajorVersion("11"));
+        Assert.assertEquals(17, ClassDataSharing.parseJavaMajorVersion("17"));
+    }
+
+    @Test public void parseJavaMajorVersion_garbage()
+    {
+        Assert.assertEquals(0, ClassDataSharing.parseJavaMajorVersion(null));
+        Assert.assertEquals(0, ClassDataSharing.parseJavaMajorVersion(""));
+        Assert.assertEquals(0, ClassDataSharing.parseJavaMajorVersion("unknown"));
+    }
+
+    @Test public void determineArchiveFile_writableJarFolder() throws IOException
+    {
+        final File jarFolder = temporaryFolder.newFolder("lib");
+        final File programFolder = temporaryFolder.newFolder("programFolder");
+        final File jarFile = new File(jarFolder, "git-credential-manager-1.1.0.jar");
+
+        final File actual = ClassDataSharing.determineArchiveFile(jarFile, programFolder);
+
+        Assert.assertEquals(new File(jarFolder, "git-credential-manager-1.1.0.jsa"), actual);
+    }
+
+    @Test public void determineArchiveFile_readOnlyJarFolder() throws IOException
+    {
+        final File jarFolder = temporaryFolder.newFolder("lib");
+        Assume.assumeTrue(jarFolder.setWritable(false) && !jarFolder.canWrite());
+        final File programFolder = temporaryFolder.newFolder("programFolder");
+        final File jarFile = new File(jarFolder, "git-credential-manager-1.1.0.jar");
+
+        try
+        {
+            final File actual = ClassDataSharing.determineArchiveFile(jarFile, programFolder);
+
+            Assert.assertEquals(new File(programFolder, "git-credential-manager-1.1.0.jsa"), actual);
+        }
+        finally
+        {
+            //noinspection ResultOfMethodCallIgnored
+            jarFolder.setWritable(true);
+        }
+    }
+
+    @Test public void createArchive_unsupportedJava() throws Exception
+    {
+        final TestableProcessFactory processFactory = new TestableProcessFactory()
+        {
+            @Override public TestableProcess create(final String... strings) throws IOException
+            {
+                Assert.fail("No process should have been started.");
+                return null;
+            }
+        };
+        final File jarFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jar");
+
+        final File actual = ClassDataSharing.createArchive(processFactory, "/usr/bin/java", jarFile.getAbsolutePath(), 8, temporaryFolder.getRoot());
+
+        Assert.assertNull(actual);
+    }
+
+    @Test public void createArchive_dynamicArchive() throws Exception
+    {
+        final File jarFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jar");
+        final File archiveFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jsa");
+        final RecordingProcessFactory processFactory = new RecordingProcessFactory(archiveFile);
+
+        final File actual = ClassDataSharing.createArchive(processFactory, "/usr/bin/java", jarFile.getAbsolutePath(), 17, temporaryFolder.getRoot());
+
+        Assert.assertEquals(archiveFile, actual);
+        final File creatorFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jvm");
+        Assert.assertEquals(new File("/usr/bin/java").getCanonicalPath() + "\n", readFile(creatorFile));
+        Assert.assertEquals(1, processFactory.commands.size());
+        Assert.assertEquals(Arrays.asList(
+            "/usr/bin/java",
+            "-XX:ArchiveClassesAtExit=" + archiveFile.getAbsolutePath(),
+            "-jar", jarFile.getAbsolutePath(),
+            "cds-training"
+        ), processFactory.commands.get(0));
+    }
+
+    @Test public void createArchive_staticArchive() throws Exception
+    {
+        final File jarFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jar");
+        final File archiveFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jsa");
+        final File classListFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.classlist");
+        final RecordingProcessFactory processFactory = new RecordingProcessFactory(archiveFile);
+
+        final File actual = ClassDataSharing.createArchive(processFactory, "/usr/bin/java", jarFile.getAbsolutePath(), 11, temporaryFolder.getRoot());
+
+        Assert.assertEquals(archiveFile, actual);
+        Assert.assertEquals(2, processFactory.commands.size());
+        Assert.assertEquals(Arrays.asList(
+            "/usr/bin/java",
+            "-Xshare:off",
+            "-XX:DumpLoadedClassList=" + classListFile.getAbsolutePath(),
+            "-jar", jarFile.getAbsolutePath(),
+            "cds-training"
+        ), processFactory.commands.get(0));
+        Assert.assertEquals(Arrays.asList(
+            "/usr/bin/java",
+            "-Xshare:dump",
+            "-XX:SharedClassListFile=" + classListFile.getAbsolutePath(),
+            "-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath(),
+            "-cp", jarFile.getAbsolutePath()
+        ), processFactory.commands.get(1));
+    }
+
+    @Test public void createArchive_trainingFailed() throws Exception
+    {
+        final File jarFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jar");
+        final File creatorFile = new File(temporaryFolder.getRoot(), "git-credential-manager-1.1.0.jvm");
+        ClassDataSharing.writeCreator(creatorFile, "/usr/lib/jvm/java-11/bin/java");
+        final RecordingProcessFactory processFactory = new RecordingProcessFactory(null);
+
+        final File actual = ClassDataSharing.createArchive(processFactory, "/usr/bin/java", jarFile.getAbsolutePath(), 17, temporaryFolder.getRoot());
+
+        Assert.assertNull(actual);
+        // the launcher script mustn't pair the previous JVM with an archive it didn't create
+        Assert.assertFalse(creatorFile.exists());
+    }
+
+    @Test public void train_noNetworkNorPrompts() throws Exception
+    {
+        ClassDataSharing.train(temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    private static String readFile(final File file) throws IOException
+    {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            return reader.readLine() + "\n";
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Records the commands it's asked to run and pretends the last one created the archive.
+     */
+    private static class RecordingProcessFactory implements TestableProcessFactory
+    {
+        private final List<List<String>> commands = new ArrayList<List<String>>();
+        private final File archiveFile;
+
+        RecordingProcessFactory(final File archiveFile)
+        {
+            this.archiveFile = archiveFile;
+        }
+
+        @Override public TestableProcess create(final String... strings) throws IOException
+        {
+            commands.add(Arrays.asList(strings));
+            if (archiveFile != null)
+            {
+                Assert.assertTrue(archiveFile.isFile() || archiveFile.createNewFile());
+            }
+            return new TestProcess("");
+        }
+    }
+}
@@ -0,0 +1,301 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.AuthorityCache;
+import com.microsoft.alm.authentication.Configuration;
+import com.microsoft.alm.authentication.IAuthentication;
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.helpers.Func;
+import com.microsoft.alm.helpers.UriHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+public class CredentialDaemonTest
+{
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File stateFile;
+    private CredentialDaemon cut;
+    private Thread daemonThread;
+
+    private final ISecureStore secureStore = new InsecureStore(null);
+    private boolean failSecureStoreCreation = false;
+
+    @Before public void startDaemon() throws IOException
+    {
+        stateFile = new File(temporaryFolder.getRoot(), CredentialDaemon.StateFileName);
+        final Func<String, IComponentFactory> componentFactoryProvider = new Func<String, IComponentFactory>()
+        {
+            @Override public IComponentFactory call(final String workingDirectory)
+            {
+                return new TestComponentFactory(workingDirectory);
+            }
+        };
+        cut = new CredentialDaemon(stateFile, componentFactoryProvider);
+        cut.start();
+        daemonThread = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                cut.run();
+            }
+        });
+        daemonThread.start();
+    }
+
+    @After public void stopDaemon() throws InterruptedException
+    {
+        cut.stop();
+        daemonThread.join();
+    }
+
+    @Test public void isRunning_startedAndStopped() throws InterruptedException
+    {
+        Assert.assertTrue(CredentialDaemon.isRunning(stateFile));
+
+        cut.stop();
+        daemonThread.join();
+
+        Assert.assertFalse(stateFile.exists());
+        Assert.assertFalse(CredentialDaemon.isRunning(stateFile));
+    }
+
+    @Test public void storeThenGet_basicCredentials() throws IOException
+    {
+        final String storeResponse = sendRequest("store",
+            "protocol=https\n" +
+            "host=example.com\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n");
+        Assert.assertEquals("ok\n", storeResponse);
+
+        final String getResponse = sendRequest("get",
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("ok\n" +
+            "protocol=https\n" +
+            "host=example.com\n" +
+            "path=\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n", getResponse);
+    }
+
+    @Test public void erase_basicCredentials() throws IOException
+    {
+        sendRequest("approve",
+            "protocol=https\n" +
+            "host=example.com\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n");
+
+        final String eraseResponse = sendRequest("reject",
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("ok\n", eraseResponse);
+        Assert.assertEquals("ok\n" +
+            "protocol=https\n" +
+            "host=example.com\n" +
+            "path=\n", sendRequest("fill", "protocol=https\nhost=example.com\n"));
+    }
+
+    @Test public void get_failureFallsBackToFreshJvm() throws IOException
+    {
+        failSecureStoreCreation = true;
+
+        final String actual = sendRequest("get",
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("fallback\n", actual);
+    }
+
+    @Test public void install_notServed() throws IOException
+    {
+        final String actual = sendRequest("install", "");
+
+        Assert.assertEquals("fallback\n", actual);
+    }
+
+    @Test public void cacheGet_miss() throws IOException
+    {
+        final String actual = sendRequest("cache",
+            "action=get\n" +
+            "timeout=900\n" +
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("", actual);
+    }
+
+    @Test public void cacheStoreThenGet_hit() throws IOException
+    {
+        final String storeResponse = sendRequest("cache",
+            "action=store\n" +
+            "timeout=900\n" +
+            "protocol=https\n" +
+            "host=example.com\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n");
+        Assert.assertEquals("", storeResponse);
+
+        final String actual = sendRequest("cache",
+            "action=get\n" +
+            "timeout=900\n" +
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("username=j.travolta\n" +
+            "password=swordfish\n", actual);
+    }
+
+    @Test public void cacheErase_subsequentGetMisses() throws IOException
+    {
+        sendRequest("store",
+            "protocol=https\n" +
+            "host=example.com\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n");
+
+        final String eraseResponse = sendRequest("cache",
+            "action=erase\n" +
+            "timeout=900\n" +
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("", eraseResponse);
+        Assert.assertEquals("", sendRequest("cache", "action=get\ntimeout=900\nprotocol=https\nhost=example.com\n"));
+    }
+
+    @Test public void cacheGet_failureIsAMiss() throws IOException
+    {
+        failSecureStoreCreation = true;
+
+        final String actual = sendRequest("cache",
+            "action=get\n" +
+            "timeout=900\n" +
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("", actual);
+    }
+
+    @Test public void cache_bogusRequestIgnored() throws IOException
+    {
+        final String actual = sendRequest("cache",
+            "protocol=https\n" +
+            "host=example.com\n");
+
+        Assert.assertEquals("", actual);
+        Assert.assertTrue(CredentialDaemon.isRunning(stateFile));
+    }
+
+    @Test public void cacheExit_stopsDaemon() throws Exception
+    {
+        final String actual = sendRequest("cache",
+            "action=exit\n" +
+            "timeout=0\n");
+
+        Assert.assertEquals("", actual);
+        daemonThread.join();
+        Assert.assertFalse(CredentialDaemon.isRunning(stateFile));
+    }
+
+    @Test public void serve_wrongSecretRejected() throws IOException
+    {
+        final String[] state = CredentialDaemon.readState(stateFile);
+        final Socket socket = new Socket(InetAddress.getByName(null), Integer.parseInt(state[0]));
+        try
+        {
+            final OutputStream outputStream = socket.getOutputStream();
+            outputStream.write("not-the-secret\nget\n".getBytes(UriHelper.UTF_8));
+            outputStream.flush();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UriHelper.UTF_8));
+
+            Assert.assertNull(reader.readLine());
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private String sendRequest(final String verb, final String attributes) throws IOException
+    {
+        final String[] state = CredentialDaemon.readState(stateFile);
+        final Socket socket = new Socket(InetAddress.getByName(null), Integer.parseInt(state[0]));
+        try
+        {
+            final OutputStream outputStream = socket.getOutputStream();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UriHelper.UTF_8));
+            outputStream.write((state[1] + "\n").getBytes(UriHelper.UTF_8));
+            outputStream.flush();
+            Assert.assertEquals(state[2], reader.readLine());
+
+            final String request = verb + "\n" + temporaryFolder.getRoot().getAbsolutePath() + "\n" + attributes + "\n";
+            outputStream.write(request.getBytes(UriHelper.UTF_8));
+            outputStream.flush();
+
+            final StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                sb.append(line).append("\n");
+            }
+            return sb.toString();
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private class TestComponentFactory implements IComponentFactory
+    {
+        private final String workingDirectory;
+
+        TestComponentFactory(final String workingDirectory)
+        {
+            this.workingDirectory = workingDirectory;
+        }
+
+        @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+        {
+            return Program.createAuthentication(operationArguments, secureStore);
+        }
+
+        @Override public Configuration createConfiguration() throws IOException
+        {
+            return new Configuration(workingDirectory);
+        }
+
+        @Override public ISecureStore createSecureStore(final OperationArguments operationArguments)
+        {
+            if (failSecureStoreCreation)
+            {
+                throw new Error("The secure store is unavailable.");
+            }
+            return secureStore;
+        }
+
+        @Override public AuthorityCache getAuthorityCache()
+        {
+            return null;
+        }
+    }
+}
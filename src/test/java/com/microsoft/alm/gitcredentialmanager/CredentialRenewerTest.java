@@ -0,0 +1,201 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.AuthorityCache;
+import com.microsoft.alm.authentication.Configuration;
+import com.microsoft.alm.authentication.IAuthentication;
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.authentication.RenewalSchedule;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CredentialRenewerTest
+{
+    private static final long Now = 1494523013000L;
+    private static final long Hour = 60L * 60 * 1000;
+    private static final long Day = 24 * Hour;
+    private static final URI Contoso = URI.create("https://contoso.visualstudio.com/");
+    private static final URI Fabrikam = URI.create("https://fabrikam.visualstudio.com/");
+    private static final URI Northwind = URI.create("https://northwind.visualstudio.com/");
+    private static final URI Tailspin = URI.create("https://tailspin.visualstudio.com/");
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private RenewalSchedule renewalSchedule;
+
+    @Before public void setUp()
+    {
+        renewalSchedule = new RenewalSchedule(new File(temporaryFolder.getRoot(), "renewals.properties"));
+    }
+
+    @Test public void renewDue_onlyRenewsExpiringCredentials() throws Exception
+    {
+        renewalSchedule.schedule(Contoso, Now + Hour);
+        renewalSchedule.schedule(Fabrikam, Now + 10 * Day);
+        final FakeCredentialRenewer cut = new FakeCredentialRenewer(1);
+        cut.rescheduleTo = Now + 90 * Day;
+
+        final int actual = cut.renewDue();
+
+        Assert.assertEquals(1, actual);
+        Assert.assertEquals(Arrays.asList(Contoso), cut.renewed);
+        Assert.assertTrue(renewalSchedule.getExpiringBefore(Now + 10 * Day).isEmpty());
+        Assert.assertEquals(Long.valueOf(Now + 90 * Day), renewalSchedule.getExpiringBefore(Long.MAX_VALUE).get(Contoso));
+    }
+
+    @Test public void renewDue_unknownExpiryIsTakenOff() throws Exception
+    {
+        renewalSchedule.schedule(Contoso, Now + Hour);
+        final FakeCredentialRenewer cut = new FakeCredentialRenewer(1);
+
+        Assert.assertEquals(1, cut.renewDue());
+
+        // otherwise, the credentials would be renewed on every pass
+        Assert.assertTrue(renewalSchedule.getExpiringBefore(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test public void renewDue_failuresAreRetriedUntilExpired() throws Exception
+    {
+        renewalSchedule.schedule(Contoso, Now + Hour);
+        renewalSchedule.schedule(Fabrikam, Now - Hour);
+        renewalSchedule.schedule(Northwind, Now + 2 * Hour);
+        final FakeCredentialRenewer cut = new FakeCredentialRenewer(2);
+        cut.result = false;
+        cut.failure = Northwind;
+
+        final int actual = cut.renewDue();
+
+        Assert.assertEquals(0, actual);
+        Assert.assertEquals(new HashSet<URI>(Arrays.asList(Contoso, Fabrikam, Northwind)), new HashSet<URI>(cut.renewed));
+        final Set<URI> scheduled = renewalSchedule.getExpiringBefore(Long.MAX_VALUE).keySet();
+        Assert.assertEquals(new HashSet<URI>(Arrays.asList(Contoso, Northwind)), scheduled);
+    }
+
+    @Test public void renewDue_concurrencyIsCapped() throws Exception
+    {
+        for (final URI targetUri : Arrays.asList(Contoso, Fabrikam, Northwind, Tailspin))
+        {
+            renewalSchedule.schedule(targetUri, Now + Hour);
+        }
+        final FakeCredentialRenewer cut = new FakeCredentialRenewer(2);
+        cut.duration = 50;
+
+        final int actual = cut.renewDue();
+
+        Assert.assertEquals(4, actual);
+        Assert.assertTrue(cut.maximumRunning.get() <= 2);
+    }
+
+    @Test public void submitDue_skipsPendingRenewals() throws Exception
+    {
+        renewalSchedule.schedule(Contoso, Now + Hour);
+        final FakeCredentialRenewer cut = new FakeCredentialRenewer(1);
+        cut.release = new CountDownLatch(1);
+
+        final List<Future<Boolean>> first = cut.submitDue();
+        final List<Future<Boolean>> second = cut.submitDue();
+        cut.release.countDown();
+
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals(0, second.size());
+        Assert.assertTrue(first.get(0).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, cut.renewed.size());
+        cut.stop();
+    }
+
+    /**
+     * Records the renewals instead of asking the authorities.
+     */
+    private class FakeCredentialRenewer extends CredentialRenewer
+    {
+        final List<URI> renewed = Collections.synchronizedList(new ArrayList<URI>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maximumRunning = new AtomicInteger();
+        boolean result = true;
+        long rescheduleTo;
+        URI failure;
+        long duration;
+        CountDownLatch release;
+
+        FakeCredentialRenewer(final int concurrency)
+        {
+            super(new UnusedComponentFactory(), renewalSchedule, Day, 0, concurrency);
+        }
+
+        @Override boolean renew(final URI targetUri) throws Exception
+        {
+            final int current = running.incrementAndGet();
+            try
+            {
+                synchronized (maximumRunning)
+                {
+                    maximumRunning.set(Math.max(maximumRunning.get(), current));
+                }
+                renewed.add(targetUri);
+                if (release != null)
+                {
+                    Assert.assertTrue(release.await(5, TimeUnit.SECONDS));
+                }
+                Thread.sleep(duration);
+                if (targetUri.equals(failure))
+                    throw new IOException("The authority is unreachable.");
+                if (result && rescheduleTo > 0)
+                {
+                    renewalSchedule.schedule(targetUri, rescheduleTo);
+                }
+                return result;
+            }
+            finally
+            {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override long now()
+        {
+            return Now;
+        }
+    }
+
+    private static class UnusedComponentFactory implements IComponentFactory
+    {
+        @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+        {
+            throw new IllegalStateException();
+        }
+
+        @Override public Configuration createConfiguration()
+        {
+            throw new IllegalStateException();
+        }
+
+        @Override public ISecureStore createSecureStore(final OperationArguments operationArguments)
+        {
+            throw new IllegalStateException();
+        }
+
+        @Override public AuthorityCache getAuthorityCache()
+        {
+            return null;
+        }
+    }
+}
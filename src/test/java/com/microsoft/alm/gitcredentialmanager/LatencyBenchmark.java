@@ -0,0 +1,455 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.microsoft.alm.authentication.AuthorityCache;
+import com.microsoft.alm.authentication.BaseVsoAuthentication;
+import com.microsoft.alm.authentication.Configuration;
+import com.microsoft.alm.authentication.IAuthentication;
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.authentication.StandInServer;
+import com.microsoft.alm.helpers.Environment;
+import com.microsoft.alm.helpers.UriHelper;
+import com.microsoft.alm.oauth2.useragent.subprocess.DefaultProcessFactory;
+import com.microsoft.alm.oauth2.useragent.subprocess.ProcessCoordinator;
+import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcess;
+import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcessFactory;
+import com.microsoft.alm.secret.Credential;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.head;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+
+/**
+ * Measures the latency of get, store and erase for each authority, against an in-memory
+ * secure store and a WireMock stand-in for the end-points of Visual Studio Team Services
+ * and Azure Active Directory, reporting the 50th, 95th and 99th percentiles.  The helper is
+ * run in-process (to isolate the cost of servicing a request) and as a separate process (to
+ * include the cost of starting the JVM, as git would).
+ *
+ * This class isn't picked up by the regular test run; run it with <code>mvn verify -Pbenchmark</code>,
+ * optionally with the "iterations" (defaults to 200), "subprocessIterations" (defaults to 20)
+ * and "report" (a file to append the results to, as tab-separated values) properties.
+ *
+ * The concurrent run sends gets from many clients at once to a {@link StandInServer}, to
+ * measure the tail latency under load; its "concurrency" (defaults to 100), "requests"
+ * (defaults to 1000), "latency" (the mean latency of the stand-in, in milliseconds, defaults
+ * to 20) and "errorRate" (the fraction of the stand-in's responses that are errors, defaults
+ * to 0) properties shape the load.  A get counts as failed when it couldn't be served or when
+ * an error of the stand-in made it fall back to basic authentication.  The stand-in speaks
+ * plain HTTP, so this run doesn't measure the TLS handshakes, nor the pooling of the TLS
+ * connections and the resumption of their sessions.
+ */
+public class LatencyBenchmark
+{
+    static final String BasicHost = "benchmark.example.com";
+    static final String AzureDirectoryHost = "benchmark-aad.visualstudio.com";
+    static final String MicrosoftAccountHost = "benchmark-msa.visualstudio.com";
+    static final String TenantId = "2f7e0c4a-3b5d-4c18-9a6e-1d2f3b4c5d6e";
+    static final String EmptyTenantId = "00000000-0000-0000-0000-000000000000";
+    static final String InstanceId = "6b1e4f2a-8c3d-4e5f-9a0b-1c2d3e4f5a6b";
+
+    private static final String[] Verbs = {"store", "get", "erase"};
+    private static final String[][] Targets =
+    {
+        {AuthorityType.Basic.name(), BasicHost},
+        {AuthorityType.AzureDirectory.name(), AzureDirectoryHost},
+        {AuthorityType.MicrosoftAccount.name(), MicrosoftAccountHost},
+    };
+    private static final int WarmUpIterations = 10;
+    private static final String ReportFormat = "%-12s %-18s %-6s %10s %10s %10s%n";
+
+    private static int standInPort;
+    private static boolean isStandInInstalled;
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before public void stubEndpoints()
+    {
+        installStandIn(wireMockRule.port());
+
+        stubFor(head(urlEqualTo("/" + AzureDirectoryHost + "/"))
+            .willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("X-VSS-ResourceTenant", TenantId)));
+        stubFor(head(urlEqualTo("/" + MicrosoftAccountHost + "/"))
+            .willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("X-VSS-ResourceTenant", EmptyTenantId)));
+        for (final String host : Arrays.asList(AzureDirectoryHost, MicrosoftAccountHost))
+        {
+            stubFor(get(urlEqualTo("/" + host + "/_apis/connectiondata"))
+                .willReturn(aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"instanceId\":\"" + InstanceId + "\"}")));
+        }
+        // the end-points that exchange tokens, for the flows that refresh them
+        stubFor(post(urlMatching("/app\\.vssps\\.visualstudio\\.com/_apis/token/sessiontokens.*"))
+            .willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/json")
+                .withBody("{\"token\":\"benchmark-personal-access-token\"}")));
+        stubFor(post(urlMatching("/login\\.microsoftonline\\.com/.*/oauth2/token"))
+            .willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("Content-Type", "application/json")
+                .withBody("{\"token_type\":\"Bearer\",\"expires_in\":\"3600\"," +
+                    "\"access_token\":\"benchmark-access-token\",\"refresh_token\":\"benchmark-refresh-token\"}")));
+    }
+
+    @Test public void inProcess() throws Exception
+    {
+        final int iterations = Integer.parseInt(System.getProperty("iterations", "200"));
+        final String workingDirectory = temporaryFolder.getRoot().getAbsolutePath();
+
+        System.out.printf(ReportFormat, "mode", "authority", "verb", "p50 ms", "p95 ms", "p99 ms");
+        for (final String[] target : Targets)
+        {
+            for (final String verb : Verbs)
+            {
+                final long[] elapsed = new long[iterations];
+                for (int i = -WarmUpIterations; i < iterations; i++)
+                {
+                    final ISecureStore secureStore = createSecureStore(target[1], verb);
+                    final IComponentFactory componentFactory = new BenchmarkComponentFactory(workingDirectory, secureStore);
+                    final InputStream standardIn = new ByteArrayInputStream(createInput(target[1], verb).getBytes(UriHelper.UTF_8));
+                    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    final Program program = new Program(standardIn, new PrintStream(output, false, UriHelper.UTF_8), componentFactory, workingDirectory, false);
+
+                    final long start = System.nanoTime();
+                    program.innerMain(new String[]{verb});
+                    final long duration = System.nanoTime() - start;
+
+                    checkOutput(verb, output.toString(UriHelper.UTF_8));
+                    if (i >= 0)
+                    {
+                        elapsed[i] = duration;
+                    }
+                }
+                report("in-process", target[0], verb, elapsed);
+            }
+        }
+    }
+
+    @Test public void subprocess() throws Exception
+    {
+        final int iterations = Integer.parseInt(System.getProperty("subprocessIterations", "20"));
+        final String pathToJava = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+        final File userHome = temporaryFolder.newFolder("home");
+        final TestableProcessFactory processFactory = new DefaultProcessFactory();
+
+        System.out.printf(ReportFormat, "mode", "authority", "verb", "p50 ms", "p95 ms", "p99 ms");
+        for (final String[] target : Targets)
+        {
+            for (final String verb : Verbs)
+            {
+                final long[] elapsed = new long[iterations];
+                // the file system cache only needs to be warmed up once
+                for (int i = -1; i < iterations; i++)
+                {
+                    final long start = System.nanoTime();
+                    final TestableProcess process = processFactory.create(
+                        pathToJava,
+                        "-Duser.home=" + userHome.getAbsolutePath(),
+                        "-cp", System.getProperty("java.class.path"),
+                        LatencyBenchmark.class.getName(),
+                        Integer.toString(wireMockRule.port()), target[1], verb);
+                    final ProcessCoordinator coordinator = new ProcessCoordinator(process);
+                    coordinator.print(createInput(target[1], verb));
+                    final int exitCode = coordinator.waitFor();
+                    final long duration = System.nanoTime() - start;
+
+                    Assert.assertEquals(coordinator.getStdErr(), 0, exitCode);
+                    checkOutput(verb, coordinator.getStdOut());
+                    if (i >= 0)
+                    {
+                        elapsed[i] = duration;
+                    }
+                }
+                report("subprocess", target[0], verb, elapsed);
+            }
+        }
+    }
+
+    @Test public void concurrent() throws Exception
+    {
+        final int concurrency = Integer.parseInt(System.getProperty("concurrency", "100"));
+        final int requests = Integer.parseInt(System.getProperty("requests", "1000"));
+        final long latency = Long.parseLong(System.getProperty("latency", "20"));
+        final double errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+        final String workingDirectory = temporaryFolder.getRoot().getAbsolutePath();
+        final StandInServer standIn = new StandInServer();
+        standIn.setLatency(latency / 2, latency * 3 / 2);
+        standIn.setErrorRate(errorRate);
+        standIn.start();
+        installStandIn(standIn.getPort());
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try
+        {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>(requests);
+            for (int i = 0; i < requests; i++)
+            {
+                futures.add(executor.submit(new Callable<Long>()
+                {
+                    @Override public Long call() throws Exception
+                    {
+                        final ISecureStore secureStore = createSecureStore(AzureDirectoryHost, "get");
+                        final BenchmarkComponentFactory componentFactory = new BenchmarkComponentFactory(workingDirectory, secureStore);
+                        final InputStream standardIn = new ByteArrayInputStream(createInput(AzureDirectoryHost, "get").getBytes(UriHelper.UTF_8));
+                        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        final Program program = new Program(standardIn, new PrintStream(output, false, UriHelper.UTF_8), componentFactory, workingDirectory, false);
+
+                        final long start = System.nanoTime();
+                        try
+                        {
+                            program.innerMain(new String[]{"get"});
+                        }
+                        catch (final InteractionRequiredException e)
+                        {
+                            // the stand-in's errors count against the latency all the same
+                            return -(System.nanoTime() - start);
+                        }
+                        final long duration = System.nanoTime() - start;
+
+                        checkOutput("get", output.toString(UriHelper.UTF_8));
+                        // an error detecting the authority falls back to basic authentication
+                        return componentFactory.authentication instanceof BaseVsoAuthentication ? duration : -duration;
+                    }
+                }));
+            }
+
+            final long[] elapsed = new long[requests];
+            int failures = 0;
+            for (int i = 0; i < requests; i++)
+            {
+                final long duration = futures.get(i).get();
+                if (duration < 0)
+                {
+                    failures++;
+                }
+                elapsed[i] = Math.abs(duration);
+            }
+            System.out.printf(ReportFormat, "mode", "authority", "verb", "p50 ms", "p95 ms", "p99 ms");
+            report("concurrent", AuthorityType.AzureDirectory.name(), "get", elapsed);
+            System.out.println(concurrency + " clients, " + failures + " of " + requests + " gets failed, " + standIn.getErrorCount() + " stand-in errors");
+        }
+        finally
+        {
+            executor.shutdownNow();
+            standIn.stop();
+        }
+    }
+
+    /**
+     * Services a single request, in the process started by {@link #subprocess()}.
+     *
+     * @param args the port of the stand-in, the host of the target and the verb.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        installStandIn(Integer.parseInt(args[0]));
+        final String host = args[1];
+        final String verb = args[2];
+        final ISecureStore secureStore = createSecureStore(host, verb);
+        final String workingDirectory = Environment.getCurrentDirectory();
+        final IComponentFactory componentFactory = new BenchmarkComponentFactory(workingDirectory, secureStore);
+        final Program program = new Program(System.in, System.out, componentFactory, workingDirectory, false);
+
+        program.innerMain(new String[]{verb});
+        System.out.flush();
+    }
+
+    static long percentile(final long[] sortedValues, final int percentile)
+    {
+        // nearest-rank method
+        final int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }
+
+    private static void report(final String mode, final String authority, final String verb, final long[] elapsed) throws IOException
+    {
+        Arrays.sort(elapsed);
+        final String p50 = formatMilliseconds(percentile(elapsed, 50));
+        final String p95 = formatMilliseconds(percentile(elapsed, 95));
+        final String p99 = formatMilliseconds(percentile(elapsed, 99));
+        System.out.printf(ReportFormat, mode, authority, verb, p50, p95, p99);
+
+        final String pathToReport = System.getProperty("report");
+        if (pathToReport != null)
+        {
+            final String line = mode + "\t" + authority + "\t" + verb + "\t" + p50 + "\t" + p95 + "\t" + p99 + "\n";
+            final FileOutputStream outputStream = new FileOutputStream(pathToReport, true);
+            try
+            {
+                outputStream.write(line.getBytes(UriHelper.UTF_8));
+            }
+            finally
+            {
+                outputStream.close();
+            }
+        }
+    }
+
+    private static String formatMilliseconds(final long nanoseconds)
+    {
+        return String.format("%.2f", nanoseconds / 1000000.0);
+    }
+
+    private static String createInput(final String host, final String verb)
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("protocol=https\n");
+        sb.append("host=").append(host).append("\n");
+        if (!"get".equals(verb))
+        {
+            sb.append("username=").append(getUserName(host)).append("\n");
+            sb.append("password=swordfish\n");
+        }
+        sb.append("\n");
+        return sb.toString();
+    }
+
+    private static String getUserName(final String host)
+    {
+        return BasicHost.equals(host) ? "j.travolta" : "Personal Access Token";
+    }
+
+    private static void checkOutput(final String verb, final String output)
+    {
+        if ("get".equals(verb))
+        {
+            Assert.assertTrue(output, output.contains("password=swordfish"));
+        }
+    }
+
+    /**
+     * Creates a store that already contains the credentials, unless they're about to be stored.
+     */
+    private static ISecureStore createSecureStore(final String host, final String verb)
+    {
+        final ISecureStore result = new InsecureStore(null);
+        if (!"store".equals(verb))
+        {
+            final Credential credential = new Credential(getUserName(host), "swordfish");
+            Program.createSecretStore(result).writeCredentials(URI.create("https://" + host), credential);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the requests for https URLs to the stand-in instead, prefixing their path with
+     * their host.  The factory can only be set once per JVM, hence the static port.
+     */
+    private static synchronized void installStandIn(final int port)
+    {
+        standInPort = port;
+        if (!isStandInInstalled)
+        {
+            URL.setURLStreamHandlerFactory(new StandInStreamHandlerFactory());
+            isStandInInstalled = true;
+        }
+    }
+
+    private static class StandInStreamHandlerFactory implements URLStreamHandlerFactory
+    {
+        @Override public URLStreamHandler createURLStreamHandler(final String protocol)
+        {
+            if (!"https".equals(protocol))
+            {
+                // use the default handler
+                return null;
+            }
+            return new URLStreamHandler()
+            {
+                @Override protected URLConnection openConnection(final URL url) throws IOException
+                {
+                    return createStandInUrl(url).openConnection();
+                }
+
+                @Override protected URLConnection openConnection(final URL url, final Proxy proxy) throws IOException
+                {
+                    return createStandInUrl(url).openConnection(Proxy.NO_PROXY);
+                }
+            };
+        }
+
+        private static URL createStandInUrl(final URL url) throws IOException
+        {
+            final String file = url.getFile().length() == 0 ? "/" : url.getFile();
+            return new URL("http", "127.0.0.1", standInPort, "/" + url.getHost() + file);
+        }
+    }
+
+    /**
+     * Lets the authority be detected, but stays away from the user's real secure store
+     * and the Mac OS X keychain.
+     */
+    private static class BenchmarkComponentFactory implements IComponentFactory
+    {
+        private final String workingDirectory;
+        private final ISecureStore secureStore;
+        IAuthentication authentication;
+
+        BenchmarkComponentFactory(final String workingDirectory, final ISecureStore secureStore)
+        {
+            this.workingDirectory = workingDirectory;
+            this.secureStore = secureStore;
+        }
+
+        @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+        {
+            operationArguments.EraseOsxKeyChain = false;
+            authentication = Program.createAuthentication(operationArguments, secureStore);
+            return authentication;
+        }
+
+        @Override public Configuration createConfiguration() throws IOException
+        {
+            return new Configuration(workingDirectory);
+        }
+
+        @Override public ISecureStore createSecureStore(final OperationArguments operationArguments)
+        {
+            return secureStore;
+        }
+
+        @Override public AuthorityCache getAuthorityCache()
+        {
+            return null;
+        }
+    }
+}
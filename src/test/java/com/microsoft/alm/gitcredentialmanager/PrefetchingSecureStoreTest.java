@@ -0,0 +1,173 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See License.txt in the project root.
+
+package com.microsoft.alm.gitcredentialmanager;
+
+import com.microsoft.alm.authentication.ISecureStore;
+import com.microsoft.alm.secret.Credential;
+import com.microsoft.alm.secret.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PrefetchingSecureStoreTest
+{
+    private static final String TargetName = "git:https://example.visualstudio.com";
+    private static final Credential Credentials = new Credential("j.travolta", "swordfish");
+
+    @Test public void readCredentials_overlapsWithCaller() throws Exception
+    {
+        final BlockingSecureStore backingStore = new BlockingSecureStore();
+        backingStore.credentials.put(TargetName, Credentials);
+        final PrefetchingSecureStore cut = new PrefetchingSecureStore(backingStore);
+
+        cut.prefetchCredentials(TargetName);
+
+        // the read is underway before anybody asks for the credentials
+        Assert.assertTrue(backingStore.readStarted.await(5, TimeUnit.SECONDS));
+        backingStore.release.countDown();
+        Assert.assertEquals(Credentials, cut.readCredentials(TargetName));
+        Assert.assertEquals(Arrays.asList("readCredentials " + TargetName), backingStore.operations);
+    }
+
+    @Test public void readCredentials_prefetchedOnlyOnce()
+    {
+        final BlockingSecureStore backingStore = new BlockingSecureStore();
+        backingStore.release.countDown();
+        final PrefetchingSecureStore cut = new PrefetchingSecureStore(backingStore);
+        cut.prefetchCredentials(TargetName);
+
+        Assert.assertNull(cut.readCredentials(TargetName));
+        backingStore.credentials.put(TargetName, Credentials);
+        Assert.assertEquals(Credentials, cut.readCredentials(TargetName));
+
+        Assert.assertEquals(2, backingStore.operations.size());
+    }
+
+    @Test public void readCredentials_otherTargetReadsBackingStore()
+    {
+        final BlockingSecureStore backingStore = new BlockingSecureStore();
+        backingStore.release.countDown();
+        backingStore.credentials.put("git:https://other.visualstudio.com", Credentials);
+        final PrefetchingSecureStore cut = new PrefetchingSecureStore(backingStore);
+        cut.prefetchCredentials(TargetName);
+
+        final Credential actual = cut.readCredentials("git:https://other.visualstudio.com");
+
+        Assert.assertEquals(Credentials, actual);
+        Assert.assertEquals(Arrays.asList(
+            "readCredentials " + TargetName,
+            "readCredentials git:https://other.visualstudio.com"
+        ), backingStore.operations);
+    }
+
+    @Test public void writeCredential_waitsForAndDiscardsPrefetch()
+    {
+        final BlockingSecureStore backingStore = new BlockingSecureStore();
+        backingStore.release.countDown();
+        final PrefetchingSecureStore cut = new PrefetchingSecureStore(backingStore);
+        cut.prefetchCredentials(TargetName);
+
+        cut.writeCredential(TargetName, Credentials);
+        final Credential actual = cut.readCredentials(TargetName);
+
+        Assert.assertEquals(Credentials, actual);
+        Assert.assertEquals(Arrays.asList(
+            "readCredentials " + TargetName,
+            "writeCredential " + TargetName,
+            "readCredentials " + TargetName
+        ), backingStore.operations);
+    }
+
+    @Test public void readCredentials_failureSurfaces()
+    {
+        final BlockingSecureStore backingStore = new BlockingSecureStore();
+        backingStore.release.countDown();
+        backingStore.failure = new IllegalStateException("keychain is locked");
+        final PrefetchingSecureStore cut = new PrefetchingSecureStore(backingStore);
+        cut.prefetchCredentials(TargetName);
+
+        try
+        {
+            cut.readCredentials(TargetName);
+            Assert.fail("The failure of the read should have surfaced.");
+        }
+        catch (final IllegalStateException e)
+        {
+            Assert.assertEquals("keychain is locked", e.getMessage());
+        }
+    }
+
+    @Test public void delete_failureOfPrefetchIsIgnored()
+    {
+        final BlockingSecureStore backingStore = new BlockingSecureStore();
+        backingStore.release.countDown();
+        backingStore.failure = new IllegalStateException("keychain is locked");
+        final PrefetchingSecureStore cut = new PrefetchingSecureStore(backingStore);
+        cut.prefetchCredentials(TargetName);
+
+        cut.delete(TargetName);
+
+        Assert.assertEquals("delete " + TargetName, backingStore.operations.get(1));
+    }
+
+    /**
+     * Keeps the credentials in memory and holds up reading them until it's released.
+     */
+    private static class BlockingSecureStore implements ISecureStore
+    {
+        final Map<String, Credential> credentials = new HashMap<String, Credential>();
+        final List<String> operations = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RuntimeException failure;
+
+        @Override public void delete(final String targetName)
+        {
+            operations.add("delete " + targetName);
+            credentials.remove(targetName);
+        }
+
+        @Override public Credential readCredentials(final String targetName)
+        {
+            operations.add("readCredentials " + targetName);
+            readStarted.countDown();
+            try
+            {
+                Assert.assertTrue(release.await(5, TimeUnit.SECONDS));
+            }
+            catch (final InterruptedException e)
+            {
+                throw new Error(e);
+            }
+            if (failure != null)
+                throw failure;
+            return credentials.get(targetName);
+        }
+
+        @Override public Token readToken(final String targetName)
+        {
+            operations.add("readToken " + targetName);
+            return null;
+        }
+
+        @Override public void writeCredential(final String targetName, final Credential credentials)
+        {
+            operations.add("writeCredential " + targetName);
+            this.credentials.put(targetName, credentials);
+        }
+
+        @Override public void writeToken(final String targetName, final Token token)
+        {
+            operations.add("writeToken " + targetName);
+        }
+    }
+}
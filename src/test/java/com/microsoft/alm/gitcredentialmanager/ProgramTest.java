@@ -3,30 +3,54 @@
 
 package com.microsoft.alm.gitcredentialmanager;
 
+import com.microsoft.alm.authentication.AuthorityCache;
+import com.microsoft.alm.authentication.Configuration;
+import com.microsoft.alm.authentication.IAuthentication;
+import com.microsoft.alm.authentication.ISecureStore;
 import com.microsoft.alm.helpers.Func;
 import com.microsoft.alm.helpers.Trace;
 import com.microsoft.alm.oauth2.useragent.Provider;
+import com.microsoft.alm.oauth2.useragent.subprocess.DefaultProcessFactory;
+import com.microsoft.alm.oauth2.useragent.subprocess.ProcessCoordinator;
 import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcess;
 import com.microsoft.alm.oauth2.useragent.subprocess.TestableProcessFactory;
+import com.microsoft.alm.secret.Credential;
+import com.microsoft.alm.secret.Secret;
+import com.microsoft.alm.secret.Token;
+import com.microsoft.alm.storage.SecretStore;
+import com.microsoft.alm.storage.StorageProvider;
 import org.junit.Assert;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class ProgramTest
 {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Ignore("This test requires user intervention and must be run manually.")
     @Test public void get() throws Exception
     {
@@ -236,6 +260,26 @@ public class ProgramTest
         Program.configureGit(processFactory, "system", "/System/Library/Frameworks/JavaVM.framework/Versions/Current/Commands/java", "/usr/local/bin/git-credential-manager-1.1.0.jar", true);
     }
 
+    @Test public void configureGit_perUserWithClassDataSharingArchive() throws Exception
+    {
+        final TestableProcess process = new TestProcess("");
+        final TestableProcessFactory processFactory = new TestableProcessFactory()
+        {
+            @Override
+            public TestableProcess create(final String... strings) throws IOException
+            {
+                Assert.assertEquals("git", strings[0]);
+                Assert.assertEquals("config", strings[1]);
+                Assert.assertEquals("--global", strings[2]);
+                Assert.assertEquals("--add", strings[3]);
+                Assert.assertEquals("credential.helper", strings[4]);
+                Assert.assertEquals("!/usr/lib/jvm/java-17-openjdk/bin/java -XX:SharedArchiveFile=/home/example/git\\ credential\\ manager/git-credential-manager-1.1.0.jsa -Xshare:auto -Xlog:disable -Xlog:all=warning:stderr -Ddebug=false -Djava.net.useSystemProxies=true -jar /usr/bin/git-credential-manager-1.1.0.jar", strings[5]);
+                return process;
+            }
+        };
+        Program.configureGit(processFactory, "global", "/usr/lib/jvm/java-17-openjdk/bin/java", "/usr/bin/git-credential-manager-1.1.0.jar", "/home/example/git credential manager/git-credential-manager-1.1.0.jsa", false);
+    }
+
     @Test public void determinePathToJar_typical() throws Exception
     {
         final URL jarUrl = URI.create("file:/home/example/git-credential-manager/git-credential-manager-1.0.0.jar!/com/microsoft/alm/gitcredentialmanager/").toURL();
@@ -256,6 +300,26 @@ public class ProgramTest
         Assert.assertEquals(expected, actual);
     }
 
+    @Test public void createMatchUri_withoutPath() throws Exception
+    {
+        final OperationArguments operationArguments = new OperationArguments(new BufferedReader(new StringReader("protocol=https\nhost=example.visualstudio.com\n\n")));
+
+        final URI actual = Program.createMatchUri(operationArguments);
+
+        Assert.assertEquals(URI.create("https://example.visualstudio.com/"), actual);
+    }
+
+    @Test public void createMatchUri_withPathAndPort() throws Exception
+    {
+        final OperationArguments operationArguments = new OperationArguments(new BufferedReader(new StringReader("protocol=https\nhost=tfs.example.com:8443\npath=tfs/My Collection/_git/repo\n\n")));
+
+        final URI actual = Program.createMatchUri(operationArguments);
+
+        Assert.assertEquals("tfs.example.com", actual.getHost());
+        Assert.assertEquals(8443, actual.getPort());
+        Assert.assertEquals("/tfs/My Collection/_git/repo", actual.getPath());
+    }
+
     private static class FakeFileChecker implements Func<File, Boolean>
     {
         private final String expectedPath;
@@ -324,4 +388,368 @@ public class ProgramTest
         Assert.assertNotNull(actual);
         Assert.assertEquals(expectedPath, actual.getAbsolutePath());
     }
+
+    // the subsystems of the helper are only initialized when the verb (and the authority) needs them
+
+    @Test public void subsystems_help() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null);
+
+        final List<String> actual = runProgram(componentFactory, "");
+
+        Assert.assertEquals(Collections.<String>emptyList(), actual);
+    }
+
+    @Test public void subsystems_version() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null);
+
+        final List<String> actual = runProgram(componentFactory, "", "version");
+
+        Assert.assertEquals(Collections.<String>emptyList(), actual);
+    }
+
+    @Test public void subsystems_basicGet() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null);
+
+        final List<String> actual = runProgram(componentFactory, "protocol=https\nhost=example.com\n\n", "get");
+
+        Assert.assertEquals(Arrays.asList("configuration", "secureStore", "authentication", "credentialStorage"), actual);
+    }
+
+    @Test public void subsystems_basicStoreAndErase() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null);
+        final String target = "protocol=https\nhost=example.com\nusername=j.travolta\npassword=swordfish\n\n";
+
+        final List<String> afterStore = runProgram(componentFactory, target, "store");
+        final List<String> afterErase = runProgram(componentFactory, target, "erase");
+
+        final List<String> expected = Arrays.asList("configuration", "secureStore", "authentication", "credentialStorage");
+        Assert.assertEquals(expected, afterStore);
+        Assert.assertEquals(expected, afterErase);
+    }
+
+    @Test public void subsystems_basicEraseMissing() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null);
+
+        final List<String> actual = runProgram(componentFactory, "protocol=https\nhost=example.com\n\n", "erase");
+
+        Assert.assertEquals(Arrays.asList("configuration", "secureStore", "authentication", "credentialStorage", "tokenStorage"), actual);
+    }
+
+    @Test public void subsystems_azureDirectoryErase() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(AuthorityType.AzureDirectory);
+
+        final List<String> actual = runProgram(componentFactory, "protocol=https\nhost=example.visualstudio.com\n\n", "erase");
+
+        // the Azure authority and its HTTP stack stay out of it, see VsoAadAuthenticationTest;
+        // without a personal access token, the refresh token is erased instead
+        Assert.assertEquals(Arrays.asList("configuration", "secureStore", "authentication", "credentialStorage", "tokenStorage"), actual);
+    }
+
+    @Test public void subsystems_migrateInsecureStore() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null);
+        final File insecureFile = componentFactory.insecureFile;
+        final String prefix = Provider.isMac(System.getProperty("os.name")) ? "gcm4ml:" : "";
+        writeFile(insecureFile,
+            "<?xml version='1.0' encoding='UTF-8' standalone='yes'?>\n" +
+            "<insecureStore>\n" +
+            "    <Tokens/>\n" +
+            "    <Credentials>\n" +
+            "        <entry>\n" +
+            "            <key>" + prefix + "git:https://example.com</key>\n" +
+            "            <value>\n" +
+            "                <Password>swordfish</Password>\n" +
+            "                <Username>j.travolta</Username>\n" +
+            "            </value>\n" +
+            "        </entry>\n" +
+            "    </Credentials>\n" +
+            "</insecureStore>");
+        final String target = "protocol=https\nhost=example.com\n\n";
+
+        final List<String> afterMigration = runProgram(componentFactory, target, "get");
+        final List<String> afterGet = runProgram(componentFactory, target, "get");
+
+        Assert.assertEquals(Arrays.asList("configuration", "secureStore", "authentication", "insecureStore", "credentialStorage"), afterMigration);
+        Assert.assertEquals(Arrays.asList("configuration", "secureStore", "authentication", "credentialStorage"), afterGet);
+        Assert.assertFalse(insecureFile.exists());
+        Assert.assertNotNull(componentFactory.credentials.get(prefix + "git:https://example.com"));
+    }
+
+    @Test public void subsystems_getReadsSecretsWhileDetectingAuthority() throws Exception
+    {
+        final RecordingComponentFactory componentFactory = new RecordingComponentFactory(null)
+        {
+            @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+            {
+                // stands in for the request that detects the authority, which only returns
+                // once the credential storage has been read from another thread
+                try
+                {
+                    Assert.assertTrue(credentialStorageCreated.await(5, TimeUnit.SECONDS));
+                }
+                catch (final InterruptedException e)
+                {
+                    throw new Error(e);
+                }
+                operationArguments.Authority = AuthorityType.Basic;
+                return super.createAuthentication(operationArguments, secureStore);
+            }
+        };
+        final String prefix = Provider.isMac(System.getProperty("os.name")) ? "gcm4ml:" : "";
+        componentFactory.credentials.add(prefix + "git:https://example.visualstudio.com", new Credential("j.travolta", "swordfish"));
+        final String target = "protocol=https\nhost=example.visualstudio.com\n";
+        final InputStream inputStream = new ByteArrayInputStream((target + "\n").getBytes("UTF-8"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final String workingDirectory = temporaryFolder.getRoot().getAbsolutePath();
+        final Program program = new Program(inputStream, new PrintStream(outputStream), componentFactory, workingDirectory, false);
+
+        program.innerMain(new String[]{"get"});
+
+        Assert.assertEquals(Arrays.asList("configuration", "secureStore", "credentialStorage", "authentication"), componentFactory.subsystems);
+        Assert.assertEquals(target +
+            "path=\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n", outputStream.toString("UTF-8"));
+    }
+
+    private List<String> runProgram(final RecordingComponentFactory componentFactory, final String input, final String... args) throws Exception
+    {
+        final InputStream inputStream = new ByteArrayInputStream(input.getBytes("UTF-8"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final String workingDirectory = temporaryFolder.getRoot().getAbsolutePath();
+        final Program program = new Program(inputStream, new PrintStream(outputStream), componentFactory, workingDirectory, false);
+
+        program.innerMain(args);
+
+        final List<String> result = new ArrayList<String>(componentFactory.subsystems);
+        componentFactory.subsystems.clear();
+        return result;
+    }
+
+    /**
+     * Records which subsystems were initialized, keeping the secrets in memory.
+     */
+    private class RecordingComponentFactory implements IComponentFactory
+    {
+        private final List<String> subsystems = new ArrayList<String>();
+        private final InMemorySecretStore<Token> tokens = new InMemorySecretStore<Token>();
+        private final InMemorySecretStore<Credential> credentials = new InMemorySecretStore<Credential>();
+        private final File insecureFile = new File(temporaryFolder.getRoot(), "insecureStore.xml");
+        final CountDownLatch credentialStorageCreated = new CountDownLatch(1);
+        private final AuthorityType authority;
+
+        RecordingComponentFactory(final AuthorityType authority)
+        {
+            this.authority = authority;
+        }
+
+        @Override public IAuthentication createAuthentication(final OperationArguments operationArguments, final ISecureStore secureStore)
+        {
+            subsystems.add("authentication");
+            if (authority != null)
+            {
+                operationArguments.Authority = authority;
+            }
+            operationArguments.EraseOsxKeyChain = false;
+            return Program.createAuthentication(operationArguments, secureStore);
+        }
+
+        @Override public Configuration createConfiguration() throws IOException
+        {
+            subsystems.add("configuration");
+            return new Configuration(temporaryFolder.getRoot().getAbsolutePath());
+        }
+
+        @Override public ISecureStore createSecureStore(final OperationArguments operationArguments)
+        {
+            subsystems.add("secureStore");
+            return new LazySecureStore(StorageProvider.SecureOption.MUST, insecureFile)
+            {
+                @Override SecretStore<Token> createTokenSecretStore()
+                {
+                    subsystems.add("tokenStorage");
+                    return tokens;
+                }
+
+                @Override SecretStore<Credential> createCredentialSecretStore()
+                {
+                    subsystems.add("credentialStorage");
+                    credentialStorageCreated.countDown();
+                    return credentials;
+                }
+
+                @Override void migrate(final File insecureFile)
+                {
+                    subsystems.add("insecureStore");
+                    super.migrate(insecureFile);
+                }
+            };
+        }
+
+        @Override public AuthorityCache getAuthorityCache()
+        {
+            return null;
+        }
+    }
+
+    private static class InMemorySecretStore<E extends Secret> implements SecretStore<E>
+    {
+        private final Map<String, E> secrets = new HashMap<String, E>();
+
+        @Override public E get(final String key)
+        {
+            return secrets.get(key);
+        }
+
+        @Override public boolean delete(final String key)
+        {
+            return secrets.remove(key) != null;
+        }
+
+        @Override public boolean add(final String key, final E secret)
+        {
+            secrets.put(key, secret);
+            return true;
+        }
+
+        @Override public boolean isSecure()
+        {
+            return false;
+        }
+    }
+
+    // the end-to-end tests run the helper in a separate process, against a throwaway user.home
+    // where the insecure store can be used; that process is the native executable when the
+    // "pathToExecutable" property is set (by the "native" profile), otherwise a JVM
+
+    @Test public void endToEnd_version() throws Exception
+    {
+        final String actual = runHelper("", "version");
+
+        Assert.assertTrue(actual, actual.contains(" version "));
+    }
+
+    @Test public void endToEnd_help() throws Exception
+    {
+        final String actual = runHelper("");
+
+        Assert.assertTrue(actual, actual.startsWith("usage: git credential <command> [<args>]"));
+    }
+
+    @Test public void endToEnd_storeGetErase() throws Exception
+    {
+        final String target = "protocol=https\n" +
+            "host=end-to-end.example.com\n";
+        runHelper(target + "username=j.travolta\npassword=swordfish\n\n", "store");
+
+        final String afterStore = runHelper(target + "\n", "get");
+        runHelper(target + "\n", "erase");
+        final String afterErase = runHelper(target + "\n", "get");
+
+        Assert.assertEquals(target +
+            "path=\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n", afterStore);
+        Assert.assertEquals(target + "path=\n", afterErase);
+    }
+
+    @Test public void endToEnd_migrateInsecureStore() throws Exception
+    {
+        // same target name as Program.createSecretStore() will look for
+        final String prefix = Provider.isMac(System.getProperty("os.name")) ? "gcm4ml:" : "";
+        final File programFolder = new File(getUserHome(), "git-credential-manager");
+        Assert.assertTrue(programFolder.mkdirs());
+        final File insecureFile = new File(programFolder, "insecureStore.xml");
+        writeFile(insecureFile,
+            "<?xml version='1.0' encoding='UTF-8' standalone='yes'?>\n" +
+            "<insecureStore>\n" +
+            "    <Tokens/>\n" +
+            "    <Credentials>\n" +
+            "        <entry>\n" +
+            "            <key>" + prefix + "git:https://end-to-end.example.com</key>\n" +
+            "            <value>\n" +
+            "                <Password>swordfish</Password>\n" +
+            "                <Username>j.travolta</Username>\n" +
+            "            </value>\n" +
+            "        </entry>\n" +
+            "    </Credentials>\n" +
+            "</insecureStore>");
+        final String target = "protocol=https\n" +
+            "host=end-to-end.example.com\n";
+
+        final String actual = runHelper(target + "\n", "get");
+        runHelper(target + "\n", "erase");
+
+        Assert.assertEquals(target +
+            "path=\n" +
+            "username=j.travolta\n" +
+            "password=swordfish\n", actual);
+        Assert.assertFalse(insecureFile.exists());
+        Assert.assertTrue(new File(programFolder, "insecureStore.xml" + InsecureStore.MIGRATION_SUFFIX).isFile());
+    }
+
+    private File getUserHome() throws IOException
+    {
+        final File result = new File(temporaryFolder.getRoot(), "home");
+        if (!result.isDirectory())
+        {
+            Assert.assertTrue(result.mkdirs());
+            // CI agents and containers usually don't have a keyring
+            writeFile(new File(result, ".gitconfig"),
+                "[credential]\n" +
+                "\tcanFallBackToInsecureStore = true\n");
+        }
+        return result;
+    }
+
+    private String runHelper(final String input, final String... args) throws Exception
+    {
+        final List<String> command = new ArrayList<String>();
+        final String pathToExecutable = System.getProperty("pathToExecutable");
+        if (pathToExecutable != null)
+        {
+            command.add(pathToExecutable);
+        }
+        else
+        {
+            command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+        }
+        // native executables also accept system properties on their command line
+        command.add("-Duser.home=" + getUserHome().getAbsolutePath());
+        if (pathToExecutable == null)
+        {
+            command.add(Program.class.getName());
+        }
+        command.addAll(Arrays.asList(args));
+        final TestableProcessFactory processFactory = new DefaultProcessFactory();
+        final TestableProcess process = processFactory.create(command.toArray(new String[command.size()]));
+        final ProcessCoordinator coordinator = new ProcessCoordinator(process);
+        coordinator.print(input);
+
+        final int exitCode = coordinator.waitFor();
+
+        Assert.assertEquals(coordinator.getStdErr(), 0, exitCode);
+        return coordinator.getStdOut();
+    }
+
+    private static void writeFile(final File file, final String contents) throws IOException
+    {
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try
+        {
+            outputStream.write(contents.getBytes("UTF-8"));
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
 }